@@ -0,0 +1,286 @@
+package co.tula.videoencoder;
+
+import android.graphics.Bitmap;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Looper;
+import co.tula.videoencoder.buffer.ByteBufferPool;
+import co.tula.videoencoder.encoder.AspectCorrection;
+import co.tula.videoencoder.encoder.EglContext;
+import co.tula.videoencoder.encoder.EglContextPool;
+import co.tula.videoencoder.encoder.OutputSurface;
+import co.tula.videoencoder.thumbnail.ContactSheet;
+import co.tula.videoencoder.thumbnail.ThumbnailPlan;
+import co.tula.videoencoder.thumbnail.ThumbnailPlanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Renders thumbnails of a video into a contact sheet, for timelines and pickers.
+ * <p>
+ * Only the frames shown are decoded: the sync frame nearest to each time, or with {@link #setExact} the
+ * frame at the time together with the frames it depends on.  Frames are drawn into a pbuffer of thumbnail
+ * size and read back into pooled buffers, nothing is encoded.
+ */
+public class ThumbnailExtractor {
+
+    private static final long TIMEOUT_US = 10000;
+    /**
+     * Readback buffers shared by all extractors: a frame and a sheet per concurrent extraction.
+     */
+    private static final ByteBufferPool sharedPixels = new ByteBufferPool(4);
+
+    private final String         inputPath;
+    private final ByteBufferPool pixels;
+    private EglContextPool contextPool;
+    private boolean        exact;
+
+    public ThumbnailExtractor(String inputPath) {
+        this(inputPath, sharedPixels);
+    }
+
+    public ThumbnailExtractor(String inputPath, ByteBufferPool pixels) {
+        this.inputPath = inputPath;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Shows the frame at each time instead of the nearest sync frame.  Slower, a frame may depend on a whole
+     * group of pictures.
+     */
+    public ThumbnailExtractor setExact(boolean exact) {
+        this.exact = exact;
+        return this;
+    }
+
+    /**
+     * Draws with contexts of the pool instead of a context of its own.
+     */
+    public ThumbnailExtractor setContextPool(EglContextPool contextPool) {
+        this.contextPool = contextPool;
+        return this;
+    }
+
+    /**
+     * Returns a strip of {@code count} thumbnails spread evenly over the video.
+     */
+    public Bitmap extractStrip(int count, int thumbWidth, int thumbHeight) throws IOException, InterruptedException {
+        long durationUs = probeDurationUs();
+        if (durationUs <= 0) {
+            throw new IOException("unknown duration of " + inputPath);
+        }
+        return extract(ThumbnailPlanner.evenlySpaced(durationUs, count),
+                       ContactSheet.strip(count, thumbWidth, thumbHeight));
+    }
+
+    /**
+     * Renders the thumbnail of {@code timesUs[i]} into cell i of the sheet, cells without a time stay black.
+     * Must be called on a thread without a Looper, which is where frame callbacks are delivered otherwise.
+     */
+    public Bitmap extract(long[] timesUs, ContactSheet sheet) throws IOException, InterruptedException {
+        if (timesUs.length == 0 || timesUs.length > sheet.getCellCount()) {
+            throw new IllegalArgumentException(timesUs.length + " thumbnails for " + sheet.getCellCount() + " cells");
+        }
+        if (Looper.myLooper() != null) {
+            throw new IllegalStateException("frame callbacks would never arrive on a Looper thread");
+        }
+        MediaExtractor extractor   = new MediaExtractor();
+        MediaCodec     decoder     = null;
+        OutputSurface  surface     = null;
+        EglContextPool glPool      = contextPool != null ? contextPool : new EglContextPool(1, null);
+        EglContext     glContext   = null;
+        ByteBuffer     framePixels = null;
+        ByteBuffer     sheetPixels = null;
+        try {
+            extractor.setDataSource(inputPath);
+            int videoIndex = getVideoTrack(extractor);
+            if (videoIndex < 0) {
+                throw new IOException("no video in " + inputPath);
+            }
+            extractor.selectTrack(videoIndex);
+            long[]        syncUs = probeSyncFrames(extractor, timesUs);
+            ThumbnailPlan plan   = exact ? ThumbnailPlanner.exact(timesUs, syncUs, syncUs.length)
+                                         : ThumbnailPlanner.nearestSync(timesUs, syncUs, syncUs.length);
+
+            MediaFormat format   = extractor.getTrackFormat(videoIndex);
+            int         rotation = 0;
+            if (format.containsKey(MediaFormat.KEY_ROTATION)) {
+                rotation = format.getInteger(MediaFormat.KEY_ROTATION);
+                format.setInteger(MediaFormat.KEY_ROTATION, 0);
+            }
+            // Same aspect correction as a transcode to that size
+            int sourceWidth  = format.getInteger(MediaFormat.KEY_WIDTH);
+            int sourceHeight = format.getInteger(MediaFormat.KEY_HEIGHT);
+            int cellWidth    = sheet.getCellWidth();
+            int cellHeight   = sheet.getCellHeight();
+            glContext = glPool.acquire();
+            surface = new OutputSurface(glContext, cellWidth, cellHeight, -rotation,
+                                        AspectCorrection.scaleX(sourceWidth, sourceHeight, cellWidth, cellHeight),
+                                        AspectCorrection.scaleY(sourceWidth, sourceHeight, cellWidth, cellHeight));
+            decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            decoder.configure(format, surface.getSurface(), null, 0);
+            decoder.start();
+
+            framePixels = pixels.acquire(sheet.getFrameByteCount());
+            sheetPixels = pixels.acquire(sheet.getByteCount());
+            while (sheetPixels.remaining() >= 8) {
+                sheetPixels.putLong(0);
+            }
+            while (sheetPixels.hasRemaining()) {
+                sheetPixels.put((byte) 0);
+            }
+            sheetPixels.rewind();
+            renderFrames(plan, extractor, decoder, surface, sheet, framePixels, sheetPixels);
+
+            Bitmap bitmap = Bitmap.createBitmap(sheet.getWidth(), sheet.getHeight(), Bitmap.Config.ARGB_8888);
+            bitmap.copyPixelsFromBuffer(sheetPixels);
+            return bitmap;
+        } finally {
+            if (framePixels != null) {
+                pixels.release(framePixels);
+            }
+            if (sheetPixels != null) {
+                pixels.release(sheetPixels);
+            }
+            if (decoder != null) {
+                decoder.stop();
+                decoder.release();
+            }
+            if (surface != null) {
+                surface.release();
+            }
+            if (glContext != null) {
+                glPool.release(glContext);
+            }
+            if (glPool != contextPool) {
+                glPool.shutdown();
+            }
+            extractor.release();
+        }
+    }
+
+    /**
+     * Decodes the frames of the plan in order and copies each into the cells showing it.
+     */
+    private static void renderFrames(ThumbnailPlan plan, MediaExtractor extractor, MediaCodec decoder,
+                                     OutputSurface surface, ContactSheet sheet, ByteBuffer framePixels,
+                                     ByteBuffer sheetPixels) throws InterruptedException {
+        MediaCodec.BufferInfo info      = new MediaCodec.BufferInfo();
+        boolean               inputDone = false;
+        boolean               started   = false;
+        for (int frame = 0; frame < plan.getFrameCount(); frame++) {
+            long seekUs = plan.getSeekUs(frame);
+            if (seekUs != ThumbnailPlan.CONTINUE) {
+                if (started) {
+                    decoder.flush();
+                }
+                extractor.seekTo(seekUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                inputDone = false;
+            } else if (inputDone) {
+                // Nothing left to decode on to, the cells of this frame stay black
+                continue;
+            }
+            started = true;
+            long    targetUs = plan.getFrameUs(frame);
+            boolean rendered = false;
+            while (!rendered) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (!inputDone) {
+                    int inputIndex = decoder.dequeueInputBuffer(TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        int size = extractor.readSampleData(decoder.getInputBuffer(inputIndex), 0);
+                        if (size < 0) {
+                            decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            decoder.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+                int outputIndex = decoder.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (outputIndex < 0) {
+                    continue;
+                }
+                boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                boolean show        = info.size > 0 && info.presentationTimeUs >= targetUs;
+                decoder.releaseOutputBuffer(outputIndex, show);
+                if (show) {
+                    surface.awaitNewImage();
+                    surface.drawImage();
+                    surface.readPixels(framePixels, sheet.getCellWidth(), sheet.getCellHeight());
+                    for (int cell = 0; cell < plan.getCellCount(); cell++) {
+                        if (plan.getCellFrame(cell) == frame) {
+                            sheet.put(cell, framePixels, true, sheetPixels);
+                        }
+                    }
+                    rendered = true;
+                } else if (endOfStream) {
+                    // The time lies past the last frame
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the sync frames around each time, ascending.  Seeking only reads the index, so this is much
+     * cheaper than scanning the whole track.
+     */
+    private static long[] probeSyncFrames(MediaExtractor extractor, long[] timesUs) throws IOException {
+        long[] syncUs = new long[2 * timesUs.length];
+        int    count  = 0;
+        for (long timeUs : timesUs) {
+            extractor.seekTo(timeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            long previousUs = extractor.getSampleTime();
+            extractor.seekTo(timeUs, MediaExtractor.SEEK_TO_NEXT_SYNC);
+            long nextUs = extractor.getSampleTime();
+            if (previousUs >= 0) {
+                syncUs[count++] = previousUs;
+            }
+            if (nextUs >= 0) {
+                syncUs[count++] = nextUs;
+            }
+        }
+        if (count == 0) {
+            throw new IOException("no sync frames in " + extractor);
+        }
+        Arrays.sort(syncUs, 0, count);
+        int distinct = 1;
+        for (int i = 1; i < count; i++) {
+            if (syncUs[i] != syncUs[distinct - 1]) {
+                syncUs[distinct++] = syncUs[i];
+            }
+        }
+        return Arrays.copyOf(syncUs, distinct);
+    }
+
+    private long probeDurationUs() throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(inputPath);
+            int videoIndex = getVideoTrack(extractor);
+            if (videoIndex < 0) {
+                return -1;
+            }
+            MediaFormat format = extractor.getTrackFormat(videoIndex);
+            return format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : -1;
+        } finally {
+            extractor.release();
+        }
+    }
+
+    private static int getVideoTrack(MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            if (extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME).startsWith("video/")) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -6,63 +6,360 @@ import android.app.job.JobScheduler;
 import android.app.job.JobService;
 import android.content.ComponentName;
 import android.content.Context;
-import android.os.PersistableBundle;
+import android.os.Build;
 import android.support.annotation.NonNull;
+import android.util.Log;
+import co.tula.videoencoder.capability.EncoderConfigStore;
+import co.tula.videoencoder.capability.EncoderConfigurator;
+import co.tula.videoencoder.codec.MediaCodecCatalog;
+import co.tula.videoencoder.encoder.EglContextPool;
+import co.tula.videoencoder.encoder.ProgramBinaryStore;
+import co.tula.videoencoder.filter.FilterGraph;
+import co.tula.videoencoder.jobs.JobRequest;
+import co.tula.videoencoder.jobs.JobState;
+import co.tula.videoencoder.jobs.JobStore;
+import co.tula.videoencoder.scheduler.JobHandle;
+import co.tula.videoencoder.segment.TranscodeJournal;
+import co.tula.videoencoder.scheduler.TranscodeScheduler;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by nephe on 07.10.2016.
  */
 public class TranscoderService extends JobService {
 
-    private static final int    JOB_ID        = 1;
-    private static final String ARG_INPUT     = "input";
-    private static final String ARG_OUTPUT    = "output";
-    private static final String ARG_SHADER    = "shader";
-    private static final String ARG_RUN_COUNT = "run_count";
+    /**
+     * The one scheduler job which drains the job store.
+     */
+    private static final int    JOB_ID  = 1;
+    private static final String TAG     = "TranscoderService";
+    /**
+     * Interval of checking running jobs for failures, finished jobs wake the drainer right away.
+     */
+    private static final long   POLL_MS = 1000;
+
+    /**
+     * Jobs holding a decoder/encoder pair at the same time.  Most devices handle two or three 720p sessions.
+     */
+    private static final int MAX_CODEC_SESSIONS = 2;
+    /**
+     * Worker threads available to transcode jobs.  Every job holds at least one codec session, a worker more
+     * would only ever wait for one.
+     */
+    private static final int MAX_WORKERS        = MAX_CODEC_SESSIONS;
+    /**
+     * Starts of a job before it is given up.
+     */
+    private static final int MAX_ATTEMPTS       = 3;
+
+    private static final TranscodeScheduler   scheduler   = new TranscodeScheduler(MAX_WORKERS, MAX_CODEC_SESSIONS);
+    /**
+     * Guards {@link #runningJobs} and {@link #draining}, the drainer waits on it.
+     */
+    private static final Object               drainLock   = new Object();
+    private static final Map<Long, JobHandle> runningJobs = new HashMap<>();
+    private static EglContextPool      contextPool;
+    private static EncoderConfigurator encoderConfigurator;
+    private static JobStore            jobStore;
+    private static boolean             draining;
+
+    private Thread drainer;
 
-    private Thread transcoderThread;
+    public static long enqueueTranscode(@NonNull Context context, String inputPath, String outputPath,
+                                        String shader) {
+        return enqueueTranscode(context, inputPath, outputPath, FilterGraph.fromShader(shader));
+    }
+
+    public static long enqueueTranscode(@NonNull Context context, String inputPath, String outputPath,
+                                        @NonNull FilterGraph filters) {
+        return enqueueTranscode(context, inputPath, outputPath, filters, 0, Long.MAX_VALUE);
+    }
 
-    public static void enqueueTranscode(@NonNull Context context, String inputPath, String outputPath, String shader) {
-        PersistableBundle extras = new PersistableBundle();
-        extras.putString(ARG_INPUT, inputPath);
-        extras.putString(ARG_OUTPUT, outputPath);
-        extras.putString(ARG_SHADER, shader);
-        extras.putInt(ARG_RUN_COUNT, 0);
+    /**
+     * Enqueues a job which keeps only the part of the input between {@code trimStartUs} and {@code trimEndUs}.
+     */
+    public static long enqueueTranscode(@NonNull Context context, String inputPath, String outputPath,
+                                        @NonNull FilterGraph filters, long trimStartUs, long trimEndUs) {
+        JobRequest request = new JobRequest(inputPath, outputPath, filters);
+        if (trimStartUs != 0 || trimEndUs != Long.MAX_VALUE) {
+            request.setTrim(trimStartUs, trimEndUs);
+        }
+        return submitBatch(context, Collections.singletonList(request))[0];
+    }
+
+    /**
+     * Stores the requests and makes sure the service drains them.  Returns the job ids in request order, a
+     * request identical to an unfinished job gets the id of that job.
+     *
+     * @throws IllegalArgumentException if a ladder has more renditions than codec sessions, none is stored then
+     */
+    public static long[] submitBatch(@NonNull Context context, @NonNull List<JobRequest> requests) {
+        for (JobRequest request : requests) {
+            if (!fitsSessions(request)) {
+                throw new IllegalArgumentException("ladder of " + request.getLadder().size()
+                                                   + " renditions, at most " + MAX_CODEC_SESSIONS + " encode at once");
+            }
+        }
+        long[] ids = getJobStore(context).submitAll(requests);
+        synchronized (drainLock) {
+            if (draining) {
+                // Scheduling again would stop the running drain job
+                drainLock.notifyAll();
+                return ids;
+            }
+        }
         ComponentName serviceName = new ComponentName(context, TranscoderService.class);
         JobInfo jobInfo = new JobInfo.Builder(JOB_ID, serviceName)
-                .setExtras(extras)
                 .setBackoffCriteria(10000, JobInfo.BACKOFF_POLICY_LINEAR)
                 .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
                 .build();
-        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
-        scheduler.schedule(jobInfo);
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        jobScheduler.schedule(jobInfo);
+        return ids;
+    }
+
+    /**
+     * Returns the state of the job, or null if it is unknown.
+     */
+    public static JobState getJobState(@NonNull Context context, long jobId) {
+        return getJobStore(context).getState(jobId);
+    }
+
+    /**
+     * Cancels a queued or running job.  Returns false if it had already finished.
+     */
+    public static boolean cancelJob(@NonNull Context context, long jobId) {
+        if (!getJobStore(context).cancel(jobId)) {
+            return false;
+        }
+        synchronized (drainLock) {
+            JobHandle handle = runningJobs.get(jobId);
+            if (handle != null) {
+                handle.cancel();
+            }
+            drainLock.notifyAll();
+        }
+        return true;
     }
 
     @Override
     public boolean onStartJob(JobParameters params) {
-        if (params.getExtras().getInt(ARG_RUN_COUNT) < 3) {
-            params.getExtras().putInt(ARG_RUN_COUNT, params.getExtras().getInt(ARG_RUN_COUNT) + 1);
-            transcoderThread = startTranscode(params);
+        JobStore store = getJobStore(this);
+        synchronized (drainLock) {
+            if (runningJobs.isEmpty()) {
+                // Left running by a process which died, the journals let them continue
+                store.requeueRunning();
+            }
+            draining = true;
         }
-        return false;
+        drainer = new Thread(() -> drain(params, store), "TranscodeDrainer");
+        drainer.start();
+        return true;
     }
 
-
     @Override
     public boolean onStopJob(JobParameters params) {
-        if (transcoderThread != null) {
-            transcoderThread.interrupt();
+        JobStore store = getJobStore(this);
+        synchronized (drainLock) {
+            reapFinished(store);
+            for (Map.Entry<Long, JobHandle> entry : runningJobs.entrySet()) {
+                entry.getValue().cancel();
+                if (store.getState(entry.getKey()) == JobState.RUNNING) {
+                    store.setState(entry.getKey(), JobState.QUEUED);
+                }
+            }
+            runningJobs.clear();
+            draining = false;
+        }
+        if (drainer != null) {
+            drainer.interrupt();
         }
         return true;
     }
 
-    private Thread startTranscode(JobParameters parameters) {
-        String input  = parameters.getExtras().getString(ARG_INPUT);
-        String output = parameters.getExtras().getString(ARG_OUTPUT);
-        String shader = parameters.getExtras().getString(ARG_SHADER);
-        TranscoderThread thread = new TranscoderThread(input, output, shader, 720, 720,
-                                                       () -> jobFinished(parameters, false));
-        thread.start();
+    /**
+     * Hands queued jobs to the transcode scheduler until the store has no more work, all within this
+     * scheduler job.
+     */
+    private void drain(JobParameters params, JobStore store) {
+        try {
+            while (true) {
+                List<JobStore.Job> queued;
+                synchronized (drainLock) {
+                    reapFinished(store);
+                    queued = store.getQueued();
+                    if (queued.isEmpty() && runningJobs.isEmpty()) {
+                        draining = false;
+                        break;
+                    }
+                }
+                // Probing opens the inputs, kept out of the lock submitBatch and cancelJob wait on
+                TranscoderThread[] threads = new TranscoderThread[queued.size()];
+                for (int i = 0; i < threads.length; i++) {
+                    threads[i] = createThread(queued.get(i).getRequest());
+                    threads[i].getEstimatedDurationUs();
+                }
+                synchronized (drainLock) {
+                    if (!draining) {
+                        // Stopped while probing
+                        return;
+                    }
+                    for (int i = 0; i < queued.size(); i++) {
+                        // A lone job is split over all codec sessions, with a backlog every job keeps to one
+                        boolean alone = queued.size() == 1 && runningJobs.isEmpty();
+                        startJob(store, queued.get(i), threads[i], alone ? MAX_CODEC_SESSIONS : 1);
+                    }
+                    drainLock.wait(POLL_MS);
+                }
+            }
+        } catch (InterruptedException stopped) {
+            // onStopJob has put the running jobs back into the queue
+            return;
+        }
+        jobFinished(params, false);
+    }
+
+    private void startJob(JobStore store, JobStore.Job job, TranscoderThread thread, int segments) {
+        if (store.getState(job.getId()) != JobState.QUEUED) {
+            // Cancelled while probing
+            return;
+        }
+        if (!fitsSessions(job.getRequest())) {
+            // Stored by an older version which capped the sessions instead
+            Log.w(TAG, "Job " + job.getId() + " has more renditions than codec sessions");
+            store.setState(job.getId(), JobState.FAILED);
+            return;
+        }
+        TranscodeJournal journal = getJournal(job.getRequest().getOutputPath());
+        if (journal.startAttempt() > MAX_ATTEMPTS) {
+            journal.delete(job.getRequest().getOutputPath() + TranscoderThread.PART_SUFFIX);
+            store.setState(job.getId(), JobState.FAILED);
+            return;
+        }
+        store.setState(job.getId(), JobState.RUNNING);
+        runningJobs.put(job.getId(), submit(thread, job.getRequest(), journal, segments));
+    }
+
+    /**
+     * Records the outcome of jobs the scheduler is done with.
+     */
+    private void reapFinished(JobStore store) {
+        for (Iterator<Map.Entry<Long, JobHandle>> it = runningJobs.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Long, JobHandle> entry  = it.next();
+            JobHandle                  handle = entry.getValue();
+            if (!handle.isDone()) {
+                continue;
+            }
+            it.remove();
+            long id = entry.getKey();
+            if (handle.getFailure() != null) {
+                Log.w(TAG, "Job " + id + " failed", handle.getFailure());
+                store.setState(id, JobState.FAILED);
+            } else if (!handle.isCancelled()) {
+                store.setState(id, JobState.DONE);
+            }
+            // Cancelled jobs were marked by cancelJob
+            JobStore.Job job = store.get(id);
+            if (job != null) {
+                String outputPath = job.getRequest().getOutputPath();
+                getJournal(outputPath).delete(outputPath + TranscoderThread.PART_SUFFIX);
+            }
+        }
+    }
+
+    /**
+     * Creates the transcode of a request, not yet started.
+     */
+    private TranscoderThread createThread(JobRequest request) {
+        TranscoderThread thread = new TranscoderThread(request.getInputPath(), request.getOutputPath(),
+                                                       request.getFilters(), 720, 720, metrics -> {
+            Log.i(TAG, "Transcode finished: " + metrics);
+            synchronized (drainLock) {
+                drainLock.notifyAll();
+            }
+        });
+        thread.setTrim(request.getTrimStartUs(), request.getTrimEndUs());
+        thread.setSceneIndex(request.isSceneIndex());
+        thread.setFragmentedOutput(request.isFragmented());
+        thread.setAnimation(request.getAnimation());
+        thread.setOverlays(request.getOverlays());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            thread.setEngine(TranscoderThread.Engine.ASYNC);
+        }
+        thread.setContextPool(getContextPool(this));
+        thread.setEncoderConfigurator(getEncoderConfigurator(this));
+        if (request.getLadder() != null) {
+            thread.setLadder(request.getLadder());
+        }
         return thread;
     }
+
+    /**
+     * Hands the transcode to the scheduler with the duration probed beforehand.
+     */
+    private JobHandle submit(TranscoderThread thread, JobRequest request, TranscodeJournal journal,
+                             int segments) {
+        thread.setJournal(journal);
+        if (request.getLadder() != null) {
+            // One decode feeds an encoder per rendition
+            return scheduler.submit(thread, request.getLadder().size(), thread.getEstimatedDurationUs());
+        }
+        thread.setSegmentCount(segments);
+        return scheduler.submit(thread, segments, thread.getEstimatedDurationUs());
+    }
+
+    /**
+     * Returns whether the scheduler can reserve an encoder for every rendition of the request at once.
+     */
+    private static boolean fitsSessions(JobRequest request) {
+        return request.getLadder() == null || request.getLadder().size() <= MAX_CODEC_SESSIONS;
+    }
+
+    /**
+     * Returns the journal of the job writing {@code outputPath}.
+     */
+    private TranscodeJournal getJournal(String outputPath) {
+        return TranscodeJournal.forOutput(new File(getNoBackupFilesDir(), "journals"), outputPath);
+    }
+
+    /**
+     * Returns the process wide job store, kept next to the journals.
+     */
+    private static synchronized JobStore getJobStore(Context context) {
+        if (jobStore == null) {
+            jobStore = new JobStore(new File(context.getNoBackupFilesDir(), "jobs.log"));
+        }
+        return jobStore;
+    }
+
+    /**
+     * Returns the process wide GL contexts, one per codec session.  Linked shader programs are kept in the
+     * cache dir.
+     */
+    private static synchronized EglContextPool getContextPool(Context context) {
+        if (contextPool == null) {
+            ProgramBinaryStore programStore = new ProgramBinaryStore(new File(context.getCacheDir(), "programs"));
+            contextPool = new EglContextPool(MAX_CODEC_SESSIONS, programStore);
+        }
+        return contextPool;
+    }
+
+    /**
+     * Returns the process wide encoder choices.  They are stored per device build, so only the first job after
+     * install or a system update lists the codecs.
+     */
+    private static synchronized EncoderConfigurator getEncoderConfigurator(Context context) {
+        if (encoderConfigurator == null) {
+            File               file  = new File(context.getNoBackupFilesDir(), "encoder_configs.properties");
+            EncoderConfigStore store = new EncoderConfigStore(file, Build.FINGERPRINT);
+            encoderConfigurator = new EncoderConfigurator(new MediaCodecCatalog(), store);
+        }
+        return encoderConfigurator;
+    }
 }
@@ -1,51 +1,927 @@
 package co.tula.videoencoder;
 
 import android.media.*;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.support.annotation.NonNull;
 import android.util.Log;
+import co.tula.videoencoder.analysis.SceneAnalyzer;
+import co.tula.videoencoder.animation.Animation;
+import co.tula.videoencoder.buffer.ByteBufferPool;
+import co.tula.videoencoder.capability.EncoderConfig;
+import co.tula.videoencoder.capability.EncoderConfigurator;
+import co.tula.videoencoder.codec.CodecCallbackBridge;
+import co.tula.videoencoder.codec.ContainerMuxer;
+import co.tula.videoencoder.codec.ExtractorSource;
+import co.tula.videoencoder.codec.FragmentedMuxer;
+import co.tula.videoencoder.codec.InterleavedMuxer;
+import co.tula.videoencoder.codec.MediaCodecCatalog;
+import co.tula.videoencoder.codec.MediaCodecPort;
+import co.tula.videoencoder.codec.PlatformMuxer;
+import co.tula.videoencoder.encoder.AspectCorrection;
+import co.tula.videoencoder.encoder.EglContext;
+import co.tula.videoencoder.encoder.EglContextPool;
+import co.tula.videoencoder.encoder.FrameReadback;
+import co.tula.videoencoder.encoder.FramebufferPool;
+import co.tula.videoencoder.encoder.GlesPixelTransfer;
 import co.tula.videoencoder.encoder.InputSurface;
 import co.tula.videoencoder.encoder.OutputSurface;
+import co.tula.videoencoder.filter.FilterGraph;
+import co.tula.videoencoder.ladder.Ladder;
+import co.tula.videoencoder.metrics.MetricsRecorder;
+import co.tula.videoencoder.metrics.Stage;
+import co.tula.videoencoder.metrics.TranscodeListener;
+import co.tula.videoencoder.metrics.TranscodeMetrics;
+import co.tula.videoencoder.mux.FragmentedMp4Writer;
+import co.tula.videoencoder.overlay.Overlay;
+import co.tula.videoencoder.pipeline.AsyncTranscodePipeline;
+import co.tula.videoencoder.pipeline.EncodedSink;
+import co.tula.videoencoder.pipeline.EventQueue;
+import co.tula.videoencoder.pipeline.PollingTranscodeLoop;
+import co.tula.videoencoder.pipeline.SampleCopier;
+import co.tula.videoencoder.pipeline.SampleSource;
+import co.tula.videoencoder.scheduler.TranscodeScheduler;
+import co.tula.videoencoder.segment.PassthroughPolicy;
+import co.tula.videoencoder.segment.RangeEnd;
+import co.tula.videoencoder.segment.Segment;
+import co.tula.videoencoder.segment.SegmentPlanner;
+import co.tula.videoencoder.segment.SegmentSource;
+import co.tula.videoencoder.segment.SegmentStitcher;
+import co.tula.videoencoder.segment.TranscodeJournal;
+import co.tula.videoencoder.trace.TraceLog;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created by nephe on 07.10.2016.
  */
-public class TranscoderThread extends Thread {
+public class TranscoderThread implements TranscodeScheduler.Task {
 
-    private static final Object queueLock = new Object();
+    private static final int TRACE_CAPACITY     = 4096;
+    /**
+     * Assumed when the input doesn't declare its frame rate.
+     */
+    private static final int DEFAULT_FRAME_RATE = 30;
+    /**
+     * Shorter segments don't pay for the codec setup.
+     */
+    private static final long MIN_SEGMENT_US    = 2_000_000;
+    /**
+     * Length of the segments a resumable job is split into, the work lost when the job is stopped.
+     */
+    private static final long CHECKPOINT_US     = 30_000_000;
+    private static final int  MAX_CHECKPOINTS   = 64;
+    /**
+     * Frame reads in flight when frames are handed to a consumer: frame N is read while N+1 is drawn.
+     */
+    private static final int  READBACK_SLOTS    = 2;
+    /**
+     * Edge of the luma image scenes are analyzed on.
+     */
+    private static final int    LUMA_SIZE          = 64;
+    private static final String SCENE_INDEX_SUFFIX = ".scenes";
+    /**
+     * Part files of segments are named after the output with this suffix and the segment index.
+     */
+    public static final  String PART_SUFFIX        = ".part";
 
-    private String inputPath, outputPath, fragmentShader;
+    private static final ByteBufferPool lumaPixels    = new ByteBufferPool(8);
+    /**
+     * Buffers of samples copied without decoding, shared by the audio copies and segment stitching of all jobs.
+     */
+    private static final ByteBufferPool sampleBuffers = new ByteBufferPool(4);
+
+    private static EncoderConfigurator defaultConfigurator;
+
+    /**
+     * How the frame loop talks to the codecs.
+     */
+    public enum Engine {
+        /**
+         * Synchronous dequeue calls with 10 ms timeouts.
+         */
+        POLLING,
+        /**
+         * MediaCodec callbacks on a dedicated handler thread, API 23+.
+         */
+        ASYNC
+    }
+
+    private String inputPath, outputPath;
+    private FilterGraph filters;
     private int width, height;
-    private Runnable onComplete = () -> {};
+    private TranscodeListener listener = metrics -> {};
+    private long estimatedDurationUs = -1;
+    private Engine engine = Engine.POLLING;
+    private EglContextPool contextPool;
+    private EncoderConfigurator encoderConfigurator;
+    private int segmentCount = 1;
+    private int grantedSessions = 1;
+    private long editStartUs = 0;
+    private long editEndUs   = Long.MAX_VALUE;
+    private Segment trim;
+    private Segment segment;
+    private TranscodeJournal journal;
+    private FrameReadback.Consumer frameConsumer;
+    private ByteBufferPool         framePixels;
+    private FrameReadback          readback;
+    private Ladder                      ladder;
+    private Animation                   animation;
+    private List<Overlay>               overlays = Collections.emptyList();
+    private boolean                     fragmentedOutput;
+    private boolean                     analyzeScenes;
+    private SceneAnalyzer               sceneAnalyzer;
+    private FrameReadback               lumaReadback;
+    private FramebufferPool.Framebuffer lumaTarget;
+    private volatile Exception failure;
+    private volatile boolean   completed;
+    private final TraceLog        trace   = new TraceLog(TRACE_CAPACITY, TraceLog.LEVEL_DEBUG);
+    private final MetricsRecorder metrics = new MetricsRecorder();
 
     public TranscoderThread(String inputPath, String outputPath, String fragmentShader, int width, int height,
-                            Runnable onComplete) {
+                            TranscodeListener listener) {
+        this(inputPath, outputPath, FilterGraph.fromShader(fragmentShader), width, height, listener);
+    }
+
+    public TranscoderThread(String inputPath, String outputPath, FilterGraph filters, int width, int height,
+                            TranscodeListener listener) {
         this.inputPath = inputPath;
         this.outputPath = outputPath;
-        this.fragmentShader = fragmentShader;
+        this.filters = filters;
         this.width = width;
         this.height = height;
-        this.onComplete = onComplete;
+        this.listener = listener;
+    }
+
+    public TranscoderThread setEngine(Engine engine) {
+        this.engine = engine;
+        return this;
+    }
+
+    /**
+     * Sets how the encoder is chosen.  Without one, a configurator shared by all jobs of the process is used,
+     * which doesn't store its answers.
+     */
+    public TranscoderThread setEncoderConfigurator(EncoderConfigurator encoderConfigurator) {
+        this.encoderConfigurator = encoderConfigurator;
+        return this;
+    }
+
+    /**
+     * Sets the pool the GL context is leased from.  Without a pool the job sets up EGL for itself.
+     */
+    public TranscoderThread setContextPool(EglContextPool contextPool) {
+        this.contextPool = contextPool;
+        return this;
+    }
+
+    /**
+     * Hands every encoded frame to {@code consumer}, read back in {@code pixels} buffers which the consumer
+     * releases to that pool.  The read of a frame overlaps with drawing the next one.  Copied segments are
+     * not decoded, so their frames are not delivered.
+     */
+    public TranscoderThread setFrameConsumer(FrameReadback.Consumer consumer, ByteBufferPool pixels) {
+        this.frameConsumer = consumer;
+        this.framePixels = pixels;
+        return this;
+    }
+
+    /**
+     * Encodes the renditions of the ladder from one decode instead of the single output of the constructor's
+     * size.  Each goes to its own file, see {@link Ladder#getOutputPath}.  Ladders are not split into
+     * segments, and frames are neither analyzed nor handed to a frame consumer.
+     */
+    public TranscoderThread setLadder(Ladder ladder) {
+        this.ladder = ladder != null && ladder.size() > 0 ? ladder : null;
+        return this;
+    }
+
+    /**
+     * Animates the transform of the frames and filter uniforms, keyed to the presentation times of the input.
+     * Animated frames are never copied, as unchanged video would be.
+     */
+    public TranscoderThread setAnimation(Animation animation) {
+        this.animation = animation != null && !animation.isEmpty() ? animation : null;
+        return this;
+    }
+
+    /**
+     * Composites images onto every frame, drawn in one batch from a texture atlas after the filters.  Frames
+     * with overlays are never copied.
+     */
+    public TranscoderThread setOverlays(List<Overlay> overlays) {
+        this.overlays = overlays != null ? new ArrayList<>(overlays) : Collections.<Overlay>emptyList();
+        return this;
+    }
+
+    /**
+     * Writes the output as fragmented MP4, which is playable and can be uploaded while it grows instead of
+     * only once the transcode is done.  Segment parts stay plain MP4.
+     */
+    public TranscoderThread setFragmentedOutput(boolean fragmentedOutput) {
+        this.fragmentedOutput = fragmentedOutput;
+        return this;
+    }
+
+    /**
+     * Finds scene cuts and black stretches while transcoding and writes them next to the output, see
+     * {@link co.tula.videoencoder.analysis.SceneIndex}.  Only decoded frames are analyzed, copied segments
+     * show up as gaps.
+     */
+    public TranscoderThread setSceneIndex(boolean analyzeScenes) {
+        this.analyzeScenes = analyzeScenes;
+        return this;
+    }
+
+    /**
+     * Splits the video at sync frames into up to {@code count} parts which are transcoded at the same time and
+     * joined without re-encoding.  Submit the job with that many codec sessions, see
+     * {@link TranscodeScheduler#submit(TranscodeScheduler.Task, int)}.  Short videos, sparse keyframes,
+     * encoders with an instance limit and jobs granted fewer sessions encode fewer parts at once.
+     */
+    public TranscoderThread setSegmentCount(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count " + count);
+        }
+        this.segmentCount = count;
+        return this;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Applies the filters only to frames between {@code startUs} and {@code endUs}.  The GOPs outside of the
+     * range are kept as they are, and copied without re-encoding if the input's codec and size match the
+     * output.
+     */
+    public TranscoderThread setEditRange(long startUs, long endUs) {
+        if (startUs < 0 || endUs <= startUs) {
+            throw new IllegalArgumentException("edit range " + startUs + ".." + endUs);
+        }
+        this.editStartUs = startUs;
+        this.editEndUs = endUs;
+        return this;
+    }
+
+    /**
+     * Makes the job resumable: the video is transcoded in segments of about {@link #CHECKPOINT_US}, each
+     * finished one is recorded in the journal, and a restarted job only transcodes the rest.  Jobs shorter than
+     * one segment aren't split for it.
+     */
+    public TranscoderThread setJournal(TranscodeJournal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * Keeps only the frames between {@code startUs} and {@code endUs}, the output starts at zero.  Decoding
+     * starts at the sync frame before the start and stops at the sync frame after the end, the audio is cut to
+     * match.
+     */
+    public TranscoderThread setTrim(long startUs, long endUs) {
+        if (startUs < 0 || endUs <= startUs) {
+            throw new IllegalArgumentException("trim " + startUs + ".." + endUs);
+        }
+        trim = startUs == 0 && endUs == Long.MAX_VALUE ? null : new Segment(0, startUs, endUs);
+        estimatedDurationUs = -1;
+        return this;
+    }
+
+    /**
+     * Returns the part of the input this job or segment covers, or null for all of it.
+     */
+    private Segment getRange() {
+        return segment != null ? segment : trim;
+    }
+
+    private boolean hasEditRange() {
+        return editStartUs > 0 || editEndUs != Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns true if the job is long enough for a checkpoint, shorter ones take a single pass even with a
+     * journal, instead of a sync frame scan, part files and a stitch.
+     */
+    private boolean isCheckpointed() {
+        return journal != null && getEstimatedDurationUs() > CHECKPOINT_US;
+    }
+
+    /**
+     * Returns true if drawing gives the decoded frames unchanged.
+     */
+    private boolean isIdentity() {
+        return filters.isIdentity() && animation == null && overlays.isEmpty();
+    }
+
+    /**
+     * Sets the minimal level of frame loop events kept in the trace ring, see {@link TraceLog}.
+     */
+    public TranscoderThread setTraceLevel(int level) {
+        trace.setLevel(level);
+        return this;
+    }
+
+    /**
+     * Returns timings and counters of the last run, or of the running job so far.
+     */
+    public TranscodeMetrics getMetrics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * Returns the frame loop trace of the last run.
+     */
+    public TraceLog getTraceLog() {
+        return trace;
+    }
+
+    @Override
+    public long getEstimatedDurationUs() {
+        if (estimatedDurationUs < 0) {
+            estimatedDurationUs = probeDurationUs(inputPath);
+            if (trim != null && estimatedDurationUs > 0) {
+                estimatedDurationUs = Math.max(0, Math.min(estimatedDurationUs, trim.getEndUs()) - trim.getStartUs());
+            }
+        }
+        return estimatedDurationUs;
     }
 
     @Override
-    public void run() {
-        synchronized (queueLock) {
-            startEncode(inputPath, outputPath, width, height, fragmentShader);
-            onComplete.run();
+    public void run(int codecSessions) throws InterruptedException {
+        grantedSessions = codecSessions;
+        trace.clear();
+        metrics.reset();
+        sceneAnalyzer = analyzeScenes && ladder == null ? new SceneAnalyzer() : null;
+        // Segments are also how unchanged video gets copied instead of encoded
+        if (ladder != null) {
+            transcodeLadder();
+        } else if (segmentCount > 1 || isCheckpointed() || trim != null || hasEditRange() || isIdentity()) {
+            transcodeSegmented();
+        } else {
+            startEncode(inputPath, outputPath, width, height, filters);
+        }
+        metrics.finish();
+        String tag = this.getClass().getSimpleName();
+        if (Log.isLoggable(tag, Log.DEBUG)) {
+            trace.dump(line -> Log.d(tag, line));
+        }
+        if (Thread.interrupted()) {
+            // Cancelled: the job will be rescheduled, so don't report completion
+            throw new InterruptedException();
+        }
+        if (failure != null) {
+            // The scheduler hands this to the JobHandle, so the job is recorded as failed
+            throw new RuntimeException("transcode failed", failure);
+        }
+        if (sceneAnalyzer != null) {
+            writeSceneIndex();
+        }
+        listener.onTranscodeFinished(metrics.snapshot());
+    }
+
+    /**
+     * Splits the input into segments, transcodes them on threads of their own and stitches them into the
+     * output.  Passthrough segments are copied from the input if its format fits.  Segments are encoded again
+     * if copied ones don't match the codec config of encoded ones, any other error fails the job.
+     */
+    private void transcodeSegmented() {
+        File[]  parts     = new File[0];
+        boolean keepParts = false;
+        try {
+            VideoScan scan = scanVideo();
+            if (scan == null) {
+                startEncode(inputPath, outputPath, width, height, filters);
+                return;
+            }
+            boolean       copy     = canCopy(scan.format);
+            int           parallel = getParallelism(scan.format);
+            String        jobKey   = getJobKey();
+            List<Segment> segments = journal != null ? journal.getPlan(jobKey) : null;
+            if (segments != null) {
+                Log.d(this.getClass().getSimpleName(), "Resuming at " + journal.getCheckpointUs(segments) + " us");
+            } else {
+                segments = planSegments(scan, copy, parallel);
+                if (journal != null) {
+                    journal.begin(jobKey, segments);
+                }
+            }
+            if (segments.size() == 1 && !segments.get(0).isPassthrough()) {
+                startEncode(inputPath, outputPath, width, height, filters);
+                return;
+            }
+            Log.d(this.getClass().getSimpleName(), "Transcoding " + segments + (copy ? ", copying passthrough" : ""));
+            parts = new File[segments.size()];
+            if (journal != null) {
+                for (int i = 0; i < parts.length; i++) {
+                    File part = getPartFile(i);
+                    if (journal.isDone(segments.get(i), part)) {
+                        parts[i] = part;
+                    }
+                }
+            }
+            encodeSegments(segments, parts, scan, !copy, parallel);
+            if (!stitchSegments(segments, parts, scan.format)) {
+                // Copied GOPs keep the input's parameter sets, which the encoder didn't reproduce
+                Log.d(this.getClass().getSimpleName(), "Codec config differs from the input, encoding all segments");
+                encodeSegments(segments, parts, scan, true, parallel);
+                if (!stitchSegments(segments, parts, scan.format)) {
+                    throw new IllegalStateException("segments were encoded with different codec configs");
+                }
+            }
+        } catch (InterruptedException interrupted) {
+            // Finished parts are listed in the journal, the restarted job continues with them.  A job which is not
+            // restarted has them deleted along with its journal.
+            keepParts = journal != null;
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            // Encoding everything again would hide the cause and take longer than the job was expected to
+            Log.e(this.getClass().getSimpleName(), "Segmented transcode failed", ex);
+            failure = ex;
+        } finally {
+            for (int i = 0; i < parts.length && !keepParts; i++) {
+                //noinspection ResultOfMethodCallIgnored
+                getPartFile(i).delete();
+            }
+        }
+    }
+
+    private void writeSceneIndex() {
+        File file = new File(outputPath + SCENE_INDEX_SUFFIX);
+        try {
+            sceneAnalyzer.finish().writeTo(file);
+        } catch (IOException e) {
+            // The transcode itself succeeded
+            Log.w(this.getClass().getSimpleName(), "Unable to write " + file, e);
+        }
+    }
+
+    private File getPartFile(int index) {
+        return new File(outputPath + PART_SUFFIX + index);
+    }
+
+    /**
+     * Identifies the input and everything that changes the output, progress of another key is discarded.
+     */
+    private String getJobKey() {
+        File input = new File(inputPath);
+        return inputPath + '|' + input.length() + '|' + input.lastModified() + '|' + width + 'x' + height
+               + '|' + filters.encode() + '|' + trim + '|' + editStartUs + ".." + editEndUs
+               + (animation != null ? '|' + animation.encode() : "") + (overlays.isEmpty() ? "" : "|" + overlays);
+    }
+
+    /**
+     * Format, sync frames and length of the input video.
+     */
+    private static class VideoScan {
+        MediaFormat format;
+        long[]      syncTimesUs = new long[64];
+        int         syncCount;
+        long        durationUs;
+    }
+
+    /**
+     * Lists the sync frames of the video track, returns null if there is no video.
+     */
+    private VideoScan scanVideo() throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(inputPath);
+            int videoIndex = getVideoTrack(extractor);
+            if (videoIndex < 0) {
+                return null;
+            }
+            extractor.selectTrack(videoIndex);
+            VideoScan scan = new VideoScan();
+            scan.format = extractor.getTrackFormat(videoIndex);
+            do {
+                long timeUs = extractor.getSampleTime();
+                if (timeUs < 0) {
+                    break;
+                }
+                scan.durationUs = Math.max(scan.durationUs, timeUs);
+                if ((extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0) {
+                    if (scan.syncCount == scan.syncTimesUs.length) {
+                        scan.syncTimesUs = Arrays.copyOf(scan.syncTimesUs, scan.syncCount * 2);
+                    }
+                    scan.syncTimesUs[scan.syncCount++] = timeUs;
+                }
+            } while (extractor.advance());
+            return scan;
+        } finally {
+            extractor.release();
+        }
+    }
+
+    /**
+     * Returns true if the input video may go into the output as it is.
+     */
+    private boolean canCopy(MediaFormat format) {
+        int rotation = format.containsKey(MediaFormat.KEY_ROTATION) ? format.getInteger(MediaFormat.KEY_ROTATION) : 0;
+        if (rotation != 0 && !isIdentity()) {
+            // Encoded segments are drawn upright, copied ones would need the rotation hint
+            return false;
+        }
+        boolean turned       = rotation % 180 != 0;
+        int     sourceWidth  = format.getInteger(turned ? MediaFormat.KEY_HEIGHT : MediaFormat.KEY_WIDTH);
+        int     sourceHeight = format.getInteger(turned ? MediaFormat.KEY_WIDTH : MediaFormat.KEY_HEIGHT);
+        long    bitrate      = 0;
+        if (format.containsKey(MediaFormat.KEY_BIT_RATE)) {
+            bitrate = format.getInteger(MediaFormat.KEY_BIT_RATE);
+        } else if (format.containsKey(MediaFormat.KEY_DURATION) && format.getLong(MediaFormat.KEY_DURATION) > 0) {
+            // Includes the audio, so it errs on the side of re-encoding
+            bitrate = new File(inputPath).length() * 8 * 1_000_000 / format.getLong(MediaFormat.KEY_DURATION);
+        }
+        EncoderConfig config = getEncoderConfigurator().getConfig(width, height, getFrameRate(format));
+        return PassthroughPolicy.canCopy(format.getString(MediaFormat.KEY_MIME), sourceWidth, sourceHeight, bitrate,
+                                         config, width, height);
+    }
+
+    private List<Segment> planSegments(VideoScan scan, boolean copy, int parallel) {
+        long startUs = trim != null ? trim.getStartUs() : 0;
+        long endUs   = trim != null ? trim.getEndUs() : Long.MAX_VALUE;
+        if (copy && isIdentity()) {
+            return SegmentPlanner.planTrim(scan.syncTimesUs, scan.syncCount, startUs, endUs);
+        }
+        // Only sync frames inside the trim range can start a segment
+        int from = 0;
+        while (from < scan.syncCount && scan.syncTimesUs[from] < startUs) {
+            from++;
+        }
+        int to = from;
+        while (to < scan.syncCount && scan.syncTimesUs[to] < endUs) {
+            to++;
+        }
+        long[]        syncTimesUs = Arrays.copyOfRange(scan.syncTimesUs, from, Math.max(from, to));
+        int           syncCount   = to - from;
+        List<Segment> segments;
+        if (hasEditRange() && syncCount > 0) {
+            segments = SegmentPlanner.planAround(syncTimesUs, syncCount, editStartUs, editEndUs);
+        } else {
+            long durationUs = Math.min(scan.durationUs, endUs);
+            int  count      = parallel;
+            if (journal != null) {
+                count = (int) Math.max(count, Math.min(MAX_CHECKPOINTS, durationUs / CHECKPOINT_US));
+            }
+            segments = SegmentPlanner.plan(syncTimesUs, syncCount, durationUs, count, MIN_SEGMENT_US);
+        }
+        return trim != null ? SegmentPlanner.clip(segments, startUs, endUs) : segments;
+    }
+
+    /**
+     * Returns the number of segments transcoded at the same time.
+     */
+    private int getParallelism(MediaFormat format) {
+        int           parallel = Math.min(segmentCount, grantedSessions);
+        EncoderConfig config   = getEncoderConfigurator().getConfig(width, height, getFrameRate(format));
+        if (config != null) {
+            // Every segment holds an encoder instance
+            parallel = Math.min(parallel, config.getMaxInstances());
+        }
+        return Math.max(1, parallel);
+    }
+
+    /**
+     * Returns true if the segment is made of whole GOPs, so it can be copied from the input.
+     */
+    private static boolean isGopAligned(Segment segment, VideoScan scan) {
+        return Arrays.binarySearch(scan.syncTimesUs, 0, scan.syncCount, segment.getStartUs()) >= 0
+               && (segment.isLast()
+                   || Arrays.binarySearch(scan.syncTimesUs, 0, scan.syncCount, segment.getEndUs()) >= 0);
+    }
+
+    /**
+     * Transcodes the segments which have no part file yet, {@code parallel} at a time.  Passthrough segments
+     * are transcoded without filters, and only if {@code includePassthrough} is set or they don't consist of
+     * whole GOPs.  Finished parts are recorded in the journal, even if others fail.
+     */
+    private void encodeSegments(List<Segment> segments, File[] parts, VideoScan scan, boolean includePassthrough,
+                                int parallel) throws InterruptedException {
+        List<TranscoderThread> pending = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            boolean copyable = segment.isPassthrough() && isGopAligned(segment, scan);
+            if (parts[i] == null && (includePassthrough || !copyable)) {
+                parts[i] = getPartFile(i);
+                pending.add(forSegment(segment, parts[i].getPath()));
+            }
+        }
+        for (int first = 0; first < pending.size(); first += parallel) {
+            int      end     = Math.min(pending.size(), first + parallel);
+            Thread[] threads = new Thread[end - first];
+            try {
+                for (int i = first; i < end; i++) {
+                    TranscoderThread job = pending.get(i);
+                    threads[i - first] = new Thread(job::encodeSegment, "Segment-" + job.segment.getIndex());
+                    threads[i - first].start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } finally {
+                stopAll(threads);
+                for (int i = first; i < end && journal != null; i++) {
+                    TranscoderThread job = pending.get(i);
+                    if (job.completed) {
+                        journal.markDone(job.segment, new File(job.outputPath));
+                    }
+                }
+            }
+            for (int i = first; i < end; i++) {
+                TranscoderThread job = pending.get(i);
+                if (job.failure != null) {
+                    throw new RuntimeException("segment transcode failed", job.failure);
+                }
+                Log.d(this.getClass().getSimpleName(), job.segment + ": " + job.getMetrics());
+            }
+        }
+    }
+
+    private TranscoderThread forSegment(Segment segment, String partPath) {
+        FilterGraph      segmentFilters = segment.isPassthrough() ? new FilterGraph() : filters;
+        TranscoderThread job            = new TranscoderThread(inputPath, partPath, segmentFilters, width, height,
+                                                               metrics -> {});
+        job.engine = engine;
+        job.contextPool = contextPool;
+        job.encoderConfigurator = getEncoderConfigurator();
+        job.segment = segment;
+        job.animation = segment.isPassthrough() ? null : animation;
+        job.overlays = segment.isPassthrough() ? Collections.<Overlay>emptyList() : overlays;
+        job.frameConsumer = frameConsumer;
+        job.framePixels = framePixels;
+        job.sceneAnalyzer = sceneAnalyzer;
+        return job;
+    }
+
+    private void encodeSegment() {
+        metrics.reset();
+        startEncode(inputPath, outputPath, width, height, filters);
+        metrics.finish();
+        if (failure == null && Thread.currentThread().isInterrupted()) {
+            failure = new InterruptedException();
+        }
+        completed = failure == null;
+    }
+
+    private static void stopAll(Thread[] threads) {
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            if (thread == null || !thread.isAlive()) {
+                continue;
+            }
+            thread.interrupt();
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the video of the segments and the audio of the input into the output.  Segments without a part
+     * file are copied from the input.
+     *
+     * @return false if the segments have different codec configs, nothing is written then
+     */
+    private boolean stitchSegments(List<Segment> segments, File[] parts, MediaFormat inputFormat)
+            throws IOException, InterruptedException {
+        MediaExtractor[] extractors     = new MediaExtractor[parts.length];
+        SampleSource[]   sources        = new SampleSource[parts.length];
+        MediaExtractor   audioExtractor = null;
+        ContainerMuxer   muxer          = null;
+        InterleavedMuxer output         = null;
+        AudioCopy        audioCopy      = null;
+        Thread           audioThread    = null;
+        SegmentStitcher  stitcher       = null;
+        try {
+            MediaFormat videoFormat   = null;
+            boolean     copied        = false;
+            int         maxSampleSize = width * height * 3 / 2;
+            for (int i = 0; i < parts.length; i++) {
+                extractors[i] = new MediaExtractor();
+                MediaFormat format;
+                if (parts[i] != null) {
+                    extractors[i].setDataSource(parts[i].getPath());
+                    extractors[i].selectTrack(0);
+                    format = extractors[i].getTrackFormat(0);
+                    sources[i] = new ExtractorSource(extractors[i]);
+                } else {
+                    extractors[i].setDataSource(inputPath);
+                    int videoIndex = getVideoTrack(extractors[i]);
+                    extractors[i].selectTrack(videoIndex);
+                    extractors[i].seekTo(segments.get(i).getStartUs(), MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                    format = inputFormat;
+                    sources[i] = new SegmentSource(new ExtractorSource(extractors[i]), segments.get(i));
+                    copied = true;
+                }
+                if (videoFormat == null) {
+                    videoFormat = format;
+                } else if (!hasSameCodecConfig(videoFormat, format)) {
+                    // The muxer keeps one set of parameter sets per track
+                    return false;
+                }
+                if (format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+                    maxSampleSize = Math.max(maxSampleSize, format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE));
+                }
+            }
+            audioExtractor = new MediaExtractor();
+            audioExtractor.setDataSource(inputPath);
+            int audioIndex = getAudioTrack(audioExtractor);
+            muxer = createMuxer(outputPath, (copied ? inputFormat : videoFormat).getString(MediaFormat.KEY_MIME),
+                                getMime(audioExtractor, audioIndex));
+            if (copied && inputFormat.containsKey(MediaFormat.KEY_ROTATION)) {
+                muxer.setOrientationHint(inputFormat.getInteger(MediaFormat.KEY_ROTATION));
+            }
+            output = new InterleavedMuxer(muxer, audioIndex >= 0 ? 2 : 1, metrics);
+            if (trim != null) {
+                output.setTimeOffsetUs(trim.getStartUs());
+            }
+            int videoLane = output.addTrack(copied ? inputFormat : videoFormat);
+            if (audioIndex >= 0) {
+                audioExtractor.selectTrack(audioIndex);
+                MediaFormat audioFormat = audioExtractor.getTrackFormat(audioIndex);
+                int         audioLane   = output.addTrack(audioFormat);
+                audioCopy = new AudioCopy(audioExtractor, audioFormat, output, audioLane, trim, trace);
+                audioThread = new Thread(audioCopy, "AudioCopy");
+                audioThread.start();
+            }
+            InterleavedMuxer      videoOutput = output;
+            MediaCodec.BufferInfo info        = new MediaCodec.BufferInfo();
+            stitcher = new SegmentStitcher(new EncodedSink() {
+                @Override
+                public void onOutputFormatChanged() {
+                }
+
+                @Override
+                public void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags)
+                        throws InterruptedException {
+                    info.set(offset, size, presentationTimeUs, flags);
+                    videoOutput.writeSampleData(videoLane, data, info);
+                }
+
+                @Override
+                public void onEndOfStream() {
+                }
+            }, maxSampleSize, sampleBuffers);
+            for (int i = 0; i < parts.length; i++) {
+                stitcher.append(segments.get(i), sources[i]);
+            }
+            output.finishTrack(videoLane);
+            trace.log(TraceLog.LEVEL_DEBUG, TraceLog.ENCODER_EOS, stitcher.getSampleCount(), 0);
+            if (audioThread != null) {
+                audioThread.join();
+                audioThread = null;
+                if (audioCopy.failure != null) {
+                    throw new RuntimeException("audio copy failed", audioCopy.failure);
+                }
+            }
+            return true;
+        } finally {
+            if (audioThread != null) {
+                output.abort();
+                stopAll(new Thread[]{audioThread});
+            }
+            if (audioExtractor != null) {
+                audioExtractor.release();
+            }
+            for (MediaExtractor extractor : extractors) {
+                if (extractor != null) {
+                    extractor.release();
+                }
+            }
+            if (stitcher != null) {
+                stitcher.release();
+            }
+            if (muxer != null) {
+                muxer.release();
+            }
+        }
+    }
+
+    private static boolean hasSameCodecConfig(MediaFormat first, MediaFormat other) {
+        for (String key : new String[]{"csd-0", "csd-1"}) {
+            ByteBuffer expected = first.containsKey(key) ? first.getByteBuffer(key) : null;
+            ByteBuffer actual   = other.containsKey(key) ? other.getByteBuffer(key) : null;
+            if (expected == null ? actual != null : !expected.equals(actual)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long probeDurationUs(String inputPath) {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(inputPath);
+            int videoIndex = getVideoTrack(extractor);
+            if (videoIndex >= 0) {
+                MediaFormat format = extractor.getTrackFormat(videoIndex);
+                if (format.containsKey(MediaFormat.KEY_DURATION)) {
+                    return format.getLong(MediaFormat.KEY_DURATION);
+                }
+            }
+        } catch (Exception ex) {
+            Log.d(this.getClass().getSimpleName(), "Unable to probe duration: " + ex.getMessage());
+        } finally {
+            extractor.release();
         }
+        return 0;
     }
 
-    private MediaFormat makeEncoderFormat(MediaFormat inputFormat, int width, int height) {
-        MediaFormat outputFormat = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_MPEG4, width, height);
+    private MediaFormat makeEncoderFormat(EncoderConfig config, int frameRate, int width, int height) {
+        String      mime         = config != null ? config.getMime() : MediaFormat.MIMETYPE_VIDEO_MPEG4;
+        MediaFormat outputFormat = MediaFormat.createVideoFormat(mime, width, height);
         outputFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
-        outputFormat.setInteger(MediaFormat.KEY_BIT_RATE, 3_000_000);
-        outputFormat.setInteger(MediaFormat.KEY_FRAME_RATE, inputFormat.getInteger(MediaFormat.KEY_FRAME_RATE));
+        outputFormat.setInteger(MediaFormat.KEY_BIT_RATE, config != null ? config.getBitrate() : 3_000_000);
+        outputFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
         outputFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+        if (config != null && config.getBitrateMode() >= 0) {
+            outputFormat.setInteger(MediaFormat.KEY_BITRATE_MODE, config.getBitrateMode());
+        }
+        // Profiles are ignored or break configure() on older releases
+        if (config != null && config.getProfile() >= 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            outputFormat.setInteger(MediaFormat.KEY_PROFILE, config.getProfile());
+            outputFormat.setInteger(MediaFormat.KEY_LEVEL, config.getLevel());
+        }
         return outputFormat;
     }
 
+    /**
+     * Returns the frame rate of the input, or {@link #DEFAULT_FRAME_RATE} if the container doesn't say.
+     */
+    private static int getFrameRate(MediaFormat format) {
+        if (!format.containsKey(MediaFormat.KEY_FRAME_RATE)) {
+            return DEFAULT_FRAME_RATE;
+        }
+        try {
+            return format.getInteger(MediaFormat.KEY_FRAME_RATE);
+        } catch (ClassCastException e) {
+            // Some extractors store it as a float
+            return Math.round(format.getFloat(MediaFormat.KEY_FRAME_RATE));
+        }
+    }
+
+    private EncoderConfigurator getEncoderConfigurator() {
+        if (encoderConfigurator != null) {
+            return encoderConfigurator;
+        }
+        synchronized (TranscoderThread.class) {
+            if (defaultConfigurator == null) {
+                defaultConfigurator = new EncoderConfigurator(new MediaCodecCatalog(), null);
+            }
+            return defaultConfigurator;
+        }
+    }
+
+    /**
+     * Returns the muxer for an output with tracks of the given types.  Fragmented output falls back to plain
+     * MP4 for tracks the fragmented writer can't write, such as copied MPEG-4 video or Opus audio.  Parts of
+     * segments are always plain MP4 as they are read back to be stitched.  Null stands for no track.
+     */
+    private ContainerMuxer createMuxer(String path, String... mimes) throws IOException {
+        if (!fragmentedOutput || segment != null) {
+            return new PlatformMuxer(path);
+        }
+        for (String mime : mimes) {
+            if (mime != null && !FragmentedMp4Writer.isSupported(mime)) {
+                Log.w(this.getClass().getSimpleName(), "Writing plain MP4, fragments can't hold " + mime);
+                return new PlatformMuxer(path);
+            }
+        }
+        return new FragmentedMuxer(path);
+    }
+
+    private static String getMime(MediaExtractor extractor, int track) {
+        return track >= 0 ? extractor.getTrackFormat(track).getString(MediaFormat.KEY_MIME) : null;
+    }
+
+    private MediaCodec createEncoder(EncoderConfig config, MediaFormat format, int width, int height,
+                                     int frameRate) throws IOException {
+        if (config != null) {
+            try {
+                return MediaCodec.createByCodecName(config.getCodecName());
+            } catch (IOException | IllegalArgumentException e) {
+                Log.w(this.getClass().getSimpleName(), "Unable to create " + config.getCodecName(), e);
+                getEncoderConfigurator().invalidate(width, height, frameRate);
+            }
+        }
+        return MediaCodec.createEncoderByType(format.getString(MediaFormat.KEY_MIME));
+    }
+
     private int getVideoTrack(@NonNull MediaExtractor extractor) {
         for (int i = 0; i < extractor.getTrackCount(); i++) {
             if (extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME).startsWith("video/")) {
@@ -64,78 +940,462 @@ public class TranscoderThread extends Thread {
         return -1;
     }
 
-    private void startEncode(String inputPath, String outputPath, int width, int height, String fragmentShader) {
-        OutputSurface  decoderSurface = null;
-        InputSurface   encoderSurface = null;
-        MediaCodec     decoder        = null;
-        MediaCodec     encoder        = null;
-        MediaMuxer     muxer          = null;
-        MediaExtractor extractor      = null;
-        int            storedRotation = 0;
+    /**
+     * Encoder, surface and muxer of one rendition of a ladder.
+     */
+    private static final class LadderOutput {
+        final Ladder.Rendition rendition;
+        final String           outputPath;
+        MediaCodec       encoder;
+        InputSurface     surface;
+        ContainerMuxer   muxer;
+        InterleavedMuxer output;
+        MediaExtractor   audioExtractor;
+        AudioCopy        audioCopy;
+        Thread           audioThread;
+        int              videoLane = -1;
+        boolean          done;
+
+        LadderOutput(Ladder.Rendition rendition, String outputPath) {
+            this.rendition = rendition;
+            this.outputPath = outputPath;
+        }
+    }
+
+    /**
+     * Decodes the input once and draws every frame into the encoder surface of each rendition.  Renditions
+     * share the aspect ratio, so only the viewport changes between them.
+     */
+    private void transcodeLadder() {
+        List<LadderOutput> outputs        = new ArrayList<>();
+        OutputSurface      decoderSurface = null;
+        MediaCodec         decoder        = null;
+        MediaExtractor     extractor      = null;
+        EglContextPool     glPool         = contextPool != null ? contextPool : new EglContextPool(1, null);
+        EglContext         glContext      = null;
+        boolean            cancelled      = false;
+        try {
+            extractor = new MediaExtractor();
+            extractor.setDataSource(inputPath);
+            int videoIndex = getVideoTrack(extractor);
+            if (videoIndex < 0) return;
+            extractor.selectTrack(videoIndex);
+            if (trim != null) {
+                extractor.seekTo(trim.getStartUs(), MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            }
+            MediaFormat decoderFormat  = extractor.getTrackFormat(videoIndex);
+            int         storedRotation = 0;
+            if (decoderFormat.containsKey(MediaFormat.KEY_ROTATION)) {
+                storedRotation = decoderFormat.getInteger(MediaFormat.KEY_ROTATION);
+                decoderFormat.setInteger(MediaFormat.KEY_ROTATION, 0);
+            }
+            int frameRate  = getFrameRate(decoderFormat);
+            int audioIndex = getAudioTrack(extractor);
+            glContext = glPool.acquire();
+            for (Ladder.Rendition rendition : ladder.getRenditions()) {
+                LadderOutput  out    = new LadderOutput(rendition, Ladder.getOutputPath(outputPath, rendition));
+                int           w      = rendition.getWidth();
+                int           h      = rendition.getHeight();
+                EncoderConfig config = getEncoderConfigurator().getConfig(w, h, frameRate);
+                MediaFormat   format = makeEncoderFormat(config, frameRate, w, h);
+                if (rendition.getBitrate() > 0) {
+                    format.setInteger(MediaFormat.KEY_BIT_RATE, rendition.getBitrate());
+                }
+                outputs.add(out);
+                out.encoder = createEncoder(config, format, w, h, frameRate);
+                out.encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                out.surface = new InputSurface(glContext, out.encoder.createInputSurface());
+                out.encoder.start();
+                out.muxer = createMuxer(out.outputPath, format.getString(MediaFormat.KEY_MIME),
+                                        getMime(extractor, audioIndex));
+                out.output = new InterleavedMuxer(out.muxer, audioIndex >= 0 ? 2 : 1, metrics);
+                if (trim != null) {
+                    out.output.setTimeOffsetUs(trim.getStartUs());
+                }
+                if (audioIndex >= 0) {
+                    out.audioExtractor = new MediaExtractor();
+                    out.audioExtractor.setDataSource(inputPath);
+                    out.audioExtractor.selectTrack(audioIndex);
+                    MediaFormat audioFormat = out.audioExtractor.getTrackFormat(audioIndex);
+                    int         audioLane   = out.output.addTrack(audioFormat);
+                    out.audioCopy = new AudioCopy(out.audioExtractor, audioFormat, out.output, audioLane, trim,
+                                                  trace);
+                }
+            }
+            outputs.get(0).surface.makeCurrent();
+            int   decW  = decoderFormat.getInteger(MediaFormat.KEY_WIDTH);
+            int   decH  = decoderFormat.getInteger(MediaFormat.KEY_HEIGHT);
+            int   encW  = ladder.get(0).getWidth();
+            int   encH  = ladder.get(0).getHeight();
+            float corrX = AspectCorrection.scaleX(decW, decH, encW, encH);
+            float corrY = AspectCorrection.scaleY(decW, decH, encW, encH);
+            decoderSurface = new OutputSurface(glContext, filters, -storedRotation, corrX, corrY);
+            decoderSurface.setSourceSize(decW, decH);
+            decoderSurface.setAnimation(animation);
+            decoderSurface.setOverlays(overlays);
+            decoder = MediaCodec.createDecoderByType(decoderFormat.getString(MediaFormat.KEY_MIME));
+            decoder.configure(decoderFormat, decoderSurface.getSurface(), null, 0);
+            decoder.start();
+            for (LadderOutput out : outputs) {
+                if (out.audioCopy != null) {
+                    out.audioThread = new Thread(out.audioCopy, "AudioCopy");
+                    out.audioThread.start();
+                }
+            }
+            Log.d(this.getClass().getSimpleName(), "Encoding " + ladder + " from one decode");
+            runLadderDecode(extractor, decoder, decoderSurface, outputs);
+            for (LadderOutput out : outputs) {
+                if (out.audioThread != null) {
+                    out.audioThread.join();
+                    out.audioThread = null;
+                    if (out.audioCopy.failure != null) {
+                        throw new RuntimeException("audio copy failed", out.audioCopy.failure);
+                    }
+                }
+            }
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        } catch (Exception ex) {
+            failure = ex;
+            Log.w(this.getClass().getSimpleName(), "Ladder transcode failed", ex);
+        } finally {
+            if (decoderSurface != null) {
+                decoderSurface.release();
+            }
+            for (LadderOutput out : outputs) {
+                if (out.audioThread != null) {
+                    out.output.abort();
+                    out.audioThread.interrupt();
+                    try {
+                        out.audioThread.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (out.audioExtractor != null) {
+                    out.audioExtractor.release();
+                }
+                if (out.surface != null) {
+                    out.surface.release();
+                }
+                if (out.encoder != null) {
+                    out.encoder.stop();
+                    out.encoder.release();
+                }
+                if (out.muxer != null) {
+                    try {
+                        out.muxer.release();
+                    } catch (IllegalStateException e) {
+                        Log.d(this.getClass().getSimpleName(), "Muxer not stopped: " + e.getMessage());
+                    }
+                }
+                if (cancelled) {
+                    //noinspection ResultOfMethodCallIgnored
+                    new File(out.outputPath).delete();
+                }
+            }
+            if (glContext != null) {
+                glPool.release(glContext);
+            }
+            if (glPool != contextPool) {
+                glPool.shutdown();
+            }
+            if (decoder != null) {
+                decoder.stop();
+                decoder.release();
+            }
+            if (extractor != null) {
+                extractor.release();
+            }
+        }
+    }
+
+    private void runLadderDecode(MediaExtractor extractor, MediaCodec decoder, OutputSurface decoderSurface,
+                                 List<LadderOutput> outputs) throws InterruptedException {
+        MediaCodec.BufferInfo info        = new MediaCodec.BufferInfo();
+        MediaCodec.BufferInfo encodedInfo = new MediaCodec.BufferInfo();
+        boolean               inputDone   = false;
+        boolean               decoderDone = false;
+        int                   finished    = 0;
+        RangeEnd              end         = trim != null ? new RangeEnd(trim.getEndUs()) : null;
+        while (finished < outputs.size()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (!inputDone) {
+                int inputIndex = decoder.dequeueInputBuffer(10000);
+                if (inputIndex >= 0) {
+                    long    readStart = System.nanoTime();
+                    boolean rangeEnd  = end != null
+                                        && end.isReached(extractor.getSampleTime(), extractor.getSampleFlags());
+                    int     chunkSize = rangeEnd ? -1 : extractor.readSampleData(decoder.getInputBuffer(inputIndex), 0);
+                    metrics.record(Stage.EXTRACTOR_READ, readStart);
+                    if (chunkSize < 0) {
+                        decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        metrics.onDecoderInput(extractor.getSampleTime());
+                        decoder.queueInputBuffer(inputIndex, 0, chunkSize, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+            // The encoders work in parallel, take whatever each one has ready.  Once the decoder is done there is
+            // nothing else to do, so wait for them instead of spinning.
+            long drainTimeoutUs = decoderDone ? 10000 : 0;
+            for (LadderOutput out : outputs) {
+                if (!out.done && drainLadderEncoder(out, encodedInfo, drainTimeoutUs)) {
+                    finished++;
+                }
+            }
+            if (decoderDone) {
+                continue;
+            }
+            int decoderStatus = decoder.dequeueOutputBuffer(info, 10000);
+            if (decoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                metrics.onDecoderStall();
+            } else if (decoderStatus >= 0) {
+                boolean doRender = info.size != 0;
+                decoder.releaseOutputBuffer(decoderStatus, doRender);
+                if (doRender) {
+                    metrics.onDecoderOutput(info.presentationTimeUs);
+                    renderLadderFrame(decoderSurface, outputs, info.presentationTimeUs);
+                    metrics.onFrameRendered();
+                }
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    for (LadderOutput out : outputs) {
+                        out.encoder.signalEndOfInputStream();
+                    }
+                    decoderDone = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the output the encoder has ready, waiting up to {@code timeoutUs} for more.  Returns true once it
+     * reached the end of the stream.
+     */
+    private boolean drainLadderEncoder(LadderOutput out, MediaCodec.BufferInfo info, long timeoutUs)
+            throws InterruptedException {
+        while (true) {
+            int status = out.encoder.dequeueOutputBuffer(info, timeoutUs);
+            if (status == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                return false;
+            } else if (status == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                out.videoLane = out.output.addTrack(out.encoder.getOutputFormat());
+            } else if (status >= 0) {
+                long       drainStart  = System.nanoTime();
+                ByteBuffer encodedData = out.encoder.getOutputBuffer(status);
+                if (encodedData != null && info.size != 0 && out.videoLane >= 0) {
+                    encodedData.position(info.offset);
+                    encodedData.limit(info.offset + info.size);
+                    out.output.writeSampleData(out.videoLane, encodedData, info);
+                }
+                out.encoder.releaseOutputBuffer(status, false);
+                metrics.record(Stage.ENCODER_DRAIN, drainStart);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    if (out.videoLane >= 0) {
+                        out.output.finishTrack(out.videoLane);
+                    }
+                    out.done = true;
+                    return true;
+                }
+            }
+        }
+    }
+
+    private void renderLadderFrame(OutputSurface decoderSurface, List<LadderOutput> outputs,
+                                   long presentationTimeUs) throws InterruptedException {
+        long stageStart = System.nanoTime();
+        decoderSurface.awaitNewImage();
+        metrics.record(Stage.AWAIT_IMAGE, stageStart);
+        if (trim != null && !trim.contains(presentationTimeUs)) {
+            return;
+        }
+        for (LadderOutput out : outputs) {
+            out.surface.makeCurrent();
+            decoderSurface.setViewport(out.rendition.getWidth(), out.rendition.getHeight());
+            stageStart = System.nanoTime();
+            decoderSurface.drawImage();
+            metrics.record(Stage.DRAW_FRAME, stageStart);
+            out.surface.setPresentationTime(presentationTimeUs * 1000);
+            stageStart = System.nanoTime();
+            out.surface.swapBuffers();
+            metrics.record(Stage.SWAP_BUFFERS, stageStart);
+        }
+    }
+
+    private void startEncode(String inputPath, String outputPath, int width, int height, FilterGraph filters) {
+        OutputSurface    decoderSurface  = null;
+        InputSurface     encoderSurface  = null;
+        MediaCodec       decoder         = null;
+        MediaCodec       encoder         = null;
+        ContainerMuxer   muxer           = null;
+        MediaExtractor   extractor       = null;
+        MediaExtractor   audioExtractor  = null;
+        AudioCopy        audioCopy       = null;
+        Thread           audioThread     = null;
+        InterleavedMuxer output          = null;
+        HandlerThread    callbackThread  = null;
+        EventQueue       events          = null;
+        Handler          callbackHandler = null;
+        EglContextPool   glPool          = contextPool != null ? contextPool : new EglContextPool(1, null);
+        EglContext       glContext       = null;
+        int              storedRotation  = 0;
+        boolean          cancelled       = false;
         try {
             extractor = new MediaExtractor();
             extractor.setDataSource(inputPath);
             int videoIndex = getVideoTrack(extractor);
             if (videoIndex < 0) return;
             extractor.selectTrack(videoIndex);
+            Segment range = getRange();
+            if (range != null) {
+                extractor.seekTo(range.getStartUs(), MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            }
             MediaFormat decoderFormat = extractor.getTrackFormat(videoIndex);
             if (decoderFormat.containsKey(MediaFormat.KEY_ROTATION)) {
                 storedRotation = decoderFormat.getInteger(MediaFormat.KEY_ROTATION);
                 decoderFormat.setInteger(MediaFormat.KEY_ROTATION, 0);
             }
-            MediaFormat encoderFormat = makeEncoderFormat(decoderFormat, width, height);
-            encoder = MediaCodec.createEncoderByType(encoderFormat.getString(MediaFormat.KEY_MIME));
+            int           frameRate     = getFrameRate(decoderFormat);
+            EncoderConfig encoderConfig = getEncoderConfigurator().getConfig(width, height, frameRate);
+            MediaFormat   encoderFormat = makeEncoderFormat(encoderConfig, frameRate, width, height);
+            encoder = createEncoder(encoderConfig, encoderFormat, width, height, frameRate);
+            if (engine == Engine.ASYNC) {
+                // Callbacks must be set before configure()
+                events = new EventQueue();
+                callbackThread = new HandlerThread("CodecCallbacks");
+                callbackThread.start();
+                callbackHandler = new Handler(callbackThread.getLooper());
+                CodecCallbackBridge.attach(encoder, events, true, callbackHandler);
+            }
             encoder.configure(encoderFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-            encoderSurface = new InputSurface(encoder.createInputSurface());
+            glContext = glPool.acquire();
+            encoderSurface = new InputSurface(glContext, encoder.createInputSurface());
             // Make encoder surface's GL context global
             encoderSurface.makeCurrent();
             decoder = MediaCodec.createDecoderByType(decoderFormat.getString(MediaFormat.KEY_MIME));
-            int   decW          = decoderFormat.getInteger(MediaFormat.KEY_WIDTH);
-            int   decH          = decoderFormat.getInteger(MediaFormat.KEY_HEIGHT);
-            float decoderAspect = (float) decW / (float) decH;
-            float encoderAspect = (float) width / (float) height;
-            float distortion    = encoderAspect / decoderAspect;
-            float corr          = distortion < 1 ? 1f / distortion : distortion;
-            float corrX         = encoderAspect < 1 ? 1 : corr;
-            float corrY         = encoderAspect < 1 ? corr : 1;
+            int   decW  = decoderFormat.getInteger(MediaFormat.KEY_WIDTH);
+            int   decH  = decoderFormat.getInteger(MediaFormat.KEY_HEIGHT);
+            float corrX = AspectCorrection.scaleX(decW, decH, width, height);
+            float corrY = AspectCorrection.scaleY(decW, decH, width, height);
             // Init decoder surface renderer with global encoder surface
-            decoderSurface = new OutputSurface(-storedRotation, corrX, corrY);
-            decoderSurface.changeFragmentShader(fragmentShader);
+            decoderSurface = new OutputSurface(glContext, filters, -storedRotation, corrX, corrY);
+            decoderSurface.setSourceSize(decW, decH);
+            decoderSurface.setAnimation(animation);
+            decoderSurface.setOverlays(overlays);
+            if (frameConsumer != null) {
+                readback = new FrameReadback(new GlesPixelTransfer(READBACK_SLOTS), framePixels, READBACK_SLOTS,
+                                             width, height, frameConsumer);
+            }
+            if (sceneAnalyzer != null) {
+                SceneAnalyzer.Stream scenes = sceneAnalyzer.openStream();
+                lumaTarget = glContext.getFramebuffers().acquire(LUMA_SIZE, LUMA_SIZE);
+                lumaReadback = new FrameReadback(new GlesPixelTransfer(READBACK_SLOTS), lumaPixels, READBACK_SLOTS,
+                                                 LUMA_SIZE, LUMA_SIZE, (pixels, w, h, timeUs) -> {
+                    scenes.addFrame(timeUs, pixels, 4);
+                    lumaPixels.release(pixels);
+                });
+            }
+            if (events != null) {
+                CodecCallbackBridge.attach(decoder, events, false, callbackHandler);
+            }
             decoder.configure(decoderFormat, decoderSurface.getSurface(), null, 0);
             decoder.start();
             encoder.start();
-            muxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            // Segments are video only, the audio is copied when they are stitched
+            int audioIndex = segment == null ? getAudioTrack(extractor) : -1;
+            muxer = createMuxer(outputPath, encoderFormat.getString(MediaFormat.KEY_MIME),
+                                getMime(extractor, audioIndex));
             Log.d(this.getClass().getSimpleName(), "Decoder started");
-            int audioIndex = getAudioTrack(extractor);
-            int audioTrack = -1;
+            output = new InterleavedMuxer(muxer, audioIndex >= 0 ? 2 : 1, metrics);
+            if (segment == null && trim != null) {
+                output.setTimeOffsetUs(trim.getStartUs());
+            }
             if (audioIndex >= 0) {
-                audioTrack = muxer.addTrack(extractor.getTrackFormat(audioIndex));
+                // Audio is copied by its own extractor at the same time as video is transcoded
+                audioExtractor = new MediaExtractor();
+                audioExtractor.setDataSource(inputPath);
+                audioExtractor.selectTrack(audioIndex);
+                MediaFormat audioFormat = audioExtractor.getTrackFormat(audioIndex);
+                int         audioLane   = output.addTrack(audioFormat);
+                audioCopy = new AudioCopy(audioExtractor, audioFormat, output, audioLane, trim, trace);
+                audioThread = new Thread(audioCopy, "AudioCopy");
+                audioThread.start();
             }
             // video decode-modify-encode loop
-            runDecode(extractor,
-                      decoder, decoderSurface,
-                      encoder, encoderSurface,
-                      muxer);
-            // audio copy loop
-            if (audioTrack >= 0) {
-                extractor.unselectTrack(videoIndex);
-                extractor.selectTrack(audioIndex);
-                extractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
-                copyAudio(extractor, muxer, audioTrack);
+            if (events != null) {
+                runDecodeAsync(events, extractor,
+                               decoder, decoderSurface,
+                               encoder, encoderSurface,
+                               output);
+            } else {
+                runDecode(extractor,
+                          decoder, decoderSurface,
+                          encoder, encoderSurface,
+                          output);
+            }
+            if (readback != null) {
+                readback.drain();
+            }
+            if (lumaReadback != null) {
+                lumaReadback.drain();
+            }
+            if (audioThread != null) {
+                audioThread.join();
+                audioThread = null;
+                if (audioCopy.failure != null) {
+                    throw new RuntimeException("audio copy failed", audioCopy.failure);
+                }
             }
         } catch (InterruptedException interrupted) {
-            muxer.writeSampleData(0, ByteBuffer.allocate(256), new MediaCodec.BufferInfo());
-            muxer.writeSampleData(1, ByteBuffer.allocate(256), new MediaCodec.BufferInfo());
+            // Restore the flag so run() can tell a cancelled job from a finished one
+            Thread.currentThread().interrupt();
+            cancelled = true;
         } catch (Exception ex) {
+            failure = ex;
             Log.d(this.getClass().getSimpleName(), "Message: " + ex.getMessage());
             ex.printStackTrace();
         } finally {
+            if (readback != null) {
+                readback.release();
+                readback = null;
+            }
+            if (lumaReadback != null) {
+                lumaReadback.release();
+                lumaReadback = null;
+            }
+            if (lumaTarget != null) {
+                glContext.getFramebuffers().release(lumaTarget);
+                lumaTarget = null;
+            }
             if (decoderSurface != null) {
                 decoderSurface.release();
             }
             if (encoderSurface != null) {
                 encoderSurface.release();
             }
+            if (glContext != null) {
+                glPool.release(glContext);
+            }
+            if (glPool != contextPool) {
+                glPool.shutdown();
+            }
+            if (audioThread != null) {
+                output.abort();
+                audioThread.interrupt();
+                try {
+                    audioThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (audioExtractor != null) {
+                audioExtractor.release();
+            }
             if (encoder != null) {
                 encoder.stop();
                 encoder.release();
@@ -145,130 +1405,204 @@ public class TranscoderThread extends Thread {
                 decoder.release();
             }
             if (muxer != null) {
-                muxer.release();
+                try {
+                    muxer.release();
+                } catch (IllegalStateException e) {
+                    // Stopping fails when a track got no samples, as after an early cancel
+                    Log.d(this.getClass().getSimpleName(), "Muxer not stopped: " + e.getMessage());
+                }
+            }
+            if (cancelled) {
+                // A half-written file must not look like a result, the restarted job writes it again
+                //noinspection ResultOfMethodCallIgnored
+                new File(outputPath).delete();
             }
             if (extractor != null) {
                 extractor.release();
             }
+            if (callbackThread != null) {
+                callbackThread.quitSafely();
+            }
             Log.d(this.getClass().getSimpleName(), "Decoder finished");
         }
     }
 
-    private void copyAudio(MediaExtractor extractor, MediaMuxer muxer, int audioTrack) {
-        boolean               audioDone = false;
-        ByteBuffer            buffer    = ByteBuffer.allocateDirect(16000);
-        MediaCodec.BufferInfo info      = new MediaCodec.BufferInfo();
-        int                   offset    = 100;
-        while (!audioDone) {
-            int chunkSize = extractor.readSampleData(buffer, offset);
-            info.presentationTimeUs = extractor.getSampleTime();
-            //noinspection WrongConstant
-            info.flags = extractor.getSampleFlags();
-            info.size = chunkSize;
-            info.offset = offset;
-            if (chunkSize < 0) {
-                audioDone = true;
-            } else {
-                muxer.writeSampleData(audioTrack, buffer, info);
-                buffer.clear();
-                extractor.advance();
+    private static class AudioCopy implements Runnable {
+        private final MediaExtractor   extractor;
+        private final InterleavedMuxer output;
+        private final int              lane;
+        private final int              maxSampleSize;
+        private final Segment          range;
+        private final TraceLog         trace;
+        private volatile Exception failure;
+
+        AudioCopy(MediaExtractor extractor, MediaFormat format, InterleavedMuxer output, int lane, Segment range,
+                  TraceLog trace) {
+            this.extractor = extractor;
+            this.output = output;
+            this.lane = lane;
+            this.maxSampleSize = format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                                 ? format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : 0;
+            this.range = range;
+            this.trace = trace;
+        }
+
+        @Override
+        public void run() {
+            try {
+                copyAudio(extractor, output, lane, maxSampleSize, range, trace);
+            } catch (InterruptedException ignored) {
+                // Job cancelled or video failed
+            } catch (Exception ex) {
+                failure = ex;
+            }
+        }
+    }
+
+    /**
+     * Copies the samples of the selected track, only those inside {@code range} if it isn't null.
+     */
+    private static void copyAudio(MediaExtractor extractor, InterleavedMuxer output, int audioLane, int maxSampleSize,
+                                  Segment range, TraceLog trace) throws InterruptedException {
+        MediaCodec.BufferInfo info   = new MediaCodec.BufferInfo();
+        SampleCopier          copier = new SampleCopier(new ExtractorSource(extractor), new EncodedSink() {
+            @Override
+            public void onOutputFormatChanged() {
+            }
+
+            @Override
+            public void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags)
+                    throws InterruptedException {
+                info.set(offset, size, presentationTimeUs, flags);
+                output.writeSampleData(audioLane, data, info);
+            }
+
+            @Override
+            public void onEndOfStream() {
             }
-            Log.d(this.getClass().getSimpleName(), "Audio copied [" + chunkSize + "]");
+        }, maxSampleSize, sampleBuffers);
+        if (range != null) {
+            extractor.seekTo(range.getStartUs(), MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            copier.setRange(range.getStartUs(), range.getEndUs());
+        }
+        try {
+            int count;
+            while ((count = copier.copyBatch()) >= 0) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                trace.log(TraceLog.LEVEL_VERBOSE, TraceLog.AUDIO_BATCH, copier.getLastTimeUs(), count);
+            }
+        } finally {
+            copier.release();
         }
+        output.finishTrack(audioLane);
+        trace.log(TraceLog.LEVEL_DEBUG, TraceLog.AUDIO_EOS, 0, 0);
+    }
+
+    private void runDecodeAsync(EventQueue events, MediaExtractor extractor,
+                                MediaCodec decoder, OutputSurface decoderSurface,
+                                MediaCodec encoder, InputSurface encoderSurface,
+                                InterleavedMuxer muxer) throws InterruptedException {
+        AsyncTranscodePipeline pipeline = new AsyncTranscodePipeline(
+                events, createVideoSource(extractor),
+                new MediaCodecPort(decoder),
+                presentationTimeUs -> renderFrame(decoderSurface, encoderSurface, presentationTimeUs),
+                new MediaCodecPort(encoder), createVideoSink(encoder, muxer));
+        pipeline.setTraceLog(trace);
+        pipeline.setMetrics(metrics);
+        pipeline.run();
+        Log.d(this.getClass().getSimpleName(), "Async pipeline finished, " + pipeline.getFrameCount() + " frames");
     }
 
     private void runDecode(MediaExtractor extractor,
                            MediaCodec decoder, OutputSurface decoderSurface,
                            MediaCodec encoder, InputSurface encoderSurface,
-                           MediaMuxer muxer) throws InterruptedException {
-        boolean               inputDone  = false;
-        boolean               outputDone = false;
-        MediaCodec.BufferInfo info       = new MediaCodec.BufferInfo();
-        int                   frame      = 0;
-        int                   videoIndex = -1;
-        while (!outputDone) {
-            if (!inputDone) {
-                int inputIndex = decoder.dequeueInputBuffer(10000); //10ms
-                if (inputIndex >= 0) {
-                    ByteBuffer decoderInput = decoder.getInputBuffer(inputIndex);
-                    if (decoderInput != null) {
-                        int chunkSize = extractor.readSampleData(decoderInput, 0);
-                        if (chunkSize < 0) {
-                            decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                            inputDone = true;
-                        } else {
-                            long presentationTime = extractor.getSampleTime();
-                            decoder.queueInputBuffer(inputIndex, 0, chunkSize, presentationTime, 0);
-                            extractor.advance();
-                        }
-                    }
+                           InterleavedMuxer muxer) throws InterruptedException {
+        PollingTranscodeLoop loop = new PollingTranscodeLoop(
+                createVideoSource(extractor),
+                new MediaCodecPort(decoder),
+                presentationTimeUs -> renderFrame(decoderSurface, encoderSurface, presentationTimeUs),
+                new MediaCodecPort(encoder), createVideoSink(encoder, muxer));
+        loop.setTraceLog(trace);
+        loop.setMetrics(metrics);
+        loop.run();
+        Log.d(this.getClass().getSimpleName(), "Polling loop finished, " + loop.getFrameCount() + " frames");
+    }
+
+    /**
+     * Returns the video samples of the range being transcoded.
+     */
+    private SampleSource createVideoSource(MediaExtractor extractor) {
+        SampleSource source = new ExtractorSource(extractor);
+        if (getRange() != null) {
+            source = new SegmentSource(source, getRange());
+        }
+        return source;
+    }
+
+    /**
+     * Returns the sink writing the encoder output as the video track of the muxer.
+     */
+    private EncodedSink createVideoSink(MediaCodec encoder, InterleavedMuxer muxer) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        return new EncodedSink() {
+            private int videoLane = -1;
+
+            @Override
+            public void onOutputFormatChanged() {
+                MediaFormat newFormat = encoder.getOutputFormat();
+                videoLane = muxer.addTrack(newFormat);
+                Log.d(TranscoderThread.class.getSimpleName(), "encoder output format changed: " + newFormat);
+            }
+
+            @Override
+            public void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags)
+                    throws InterruptedException {
+                if (videoLane >= 0) {
+                    info.set(offset, size, presentationTimeUs, flags);
+                    muxer.writeSampleData(videoLane, data, info);
                 }
             }
 
-            // Assume output is available.  Loop until both assumptions are false.
-            boolean decoderOutputAvailable = true;
-            while (decoderOutputAvailable) {
-                // Start by draining any pending output from the encoder.  It's important to
-                // do this before we try to stuff any more data in.
-                int encoderStatus = encoder.dequeueOutputBuffer(info, 10000);
-                if (encoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                    // no output available yet
-                    Log.d(this.getClass().getSimpleName(), "no output from encoder available");
-                } else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    MediaFormat newFormat = encoder.getOutputFormat();
-                    videoIndex = muxer.addTrack(newFormat);
-                    muxer.start();
-                    Log.d(this.getClass().getSimpleName(), "encoder output format changed: " + newFormat);
-                } else if (encoderStatus < 0) {
-                    Log.d(this.getClass().getSimpleName(),
-                          "unexpected result from encoder.dequeueOutputBuffer: " + encoderStatus);
-                } else { // encoderStatus >= 0
-                    ByteBuffer encodedData = encoder.getOutputBuffer(encoderStatus);
-                    if (encodedData == null) {
-                        Log.d(this.getClass().getSimpleName(), "encoderOutputBuffer " + encoderStatus + " was null");
-                        return;
-                    }
-                    if (info.size != 0) {
-                        encodedData.position(info.offset);
-                        encodedData.limit(info.offset + info.size);
-                        if (videoIndex >= 0) {
-                            muxer.writeSampleData(videoIndex, encodedData, info);
-                        }
-                        Log.d(this.getClass().getSimpleName(), "encoder output " + info.size + " bytes");
-                    }
-                    outputDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
-                    encoder.releaseOutputBuffer(encoderStatus, false);
-                }
-                if (encoderStatus != MediaCodec.INFO_TRY_AGAIN_LATER) {
-                    // Continue attempts to drain output.
-                    continue;
-                }
-                int decoderStatus = decoder.dequeueOutputBuffer(info, 10000);
-                if (decoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                    Log.d(this.getClass().getSimpleName(), "Decoder isn't ready");
-                    decoderOutputAvailable = false;
-                } else if (decoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    MediaFormat newFormat = decoder.getOutputFormat();
-                    Log.d(this.getClass().getSimpleName(), "Decoder format changed to " + newFormat.toString());
-                } else if (decoderStatus < 0) {
-                    Log.d(this.getClass().getSimpleName(), "Decoder unexpected status " + decoderStatus);
-                } else {
-                    boolean doRender = info.size != 0;
-                    decoder.releaseOutputBuffer(decoderStatus, doRender);
-                    if (doRender) {
-                        decoderSurface.awaitNewImage();
-                        decoderSurface.drawImage();
-                        encoderSurface.setPresentationTime(info.presentationTimeUs * 1000);
-                        encoderSurface.swapBuffers();
-                        Log.d(this.getClass().getSimpleName(), "Decoded frame #" + frame);
-                        frame++;
-                    }
-                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                        encoder.signalEndOfInputStream();
-                    }
+            @Override
+            public void onEndOfStream() {
+                if (videoLane >= 0) {
+                    muxer.finishTrack(videoLane);
                 }
             }
+        };
+    }
+
+    private void renderFrame(OutputSurface decoderSurface, InputSurface encoderSurface, long presentationTimeUs)
+            throws InterruptedException {
+        long stageStart = System.nanoTime();
+        decoderSurface.awaitNewImage();
+        metrics.record(Stage.AWAIT_IMAGE, stageStart);
+        Segment range = getRange();
+        if (range != null && !range.contains(presentationTimeUs)) {
+            // Frames between the sync frame and the start, or leading pictures of an open GOP which reference
+            // the previous segment and can't be decoded here
+            return;
+        }
+        stageStart = System.nanoTime();
+        decoderSurface.drawImage();
+        metrics.record(Stage.DRAW_FRAME, stageStart);
+        if (readback != null) {
+            // Before the swap, which leaves the back buffer undefined
+            stageStart = System.nanoTime();
+            readback.onFrameDrawn(presentationTimeUs);
+            metrics.record(Stage.READBACK, stageStart);
+        }
+        if (lumaReadback != null) {
+            stageStart = System.nanoTime();
+            decoderSurface.drawLuma(lumaTarget, lumaReadback, presentationTimeUs);
+            metrics.record(Stage.READBACK, stageStart);
         }
+        encoderSurface.setPresentationTime(presentationTimeUs * 1000);
+        stageStart = System.nanoTime();
+        encoderSurface.swapBuffers();
+        metrics.record(Stage.SWAP_BUFFERS, stageStart);
     }
 
 }
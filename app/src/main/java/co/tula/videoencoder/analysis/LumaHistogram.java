@@ -0,0 +1,62 @@
+package co.tula.videoencoder.analysis;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Luma histograms of downscaled frames.
+ */
+public final class LumaHistogram {
+
+    private LumaHistogram() {
+    }
+
+    /**
+     * Adds the first byte of every pixel between position and limit of {@code pixels} to {@code bins}, which
+     * split 0..255 evenly.  The buffer is left unchanged.
+     */
+    public static void count(ByteBuffer pixels, int bytesPerPixel, int[] bins) {
+        int shift = 8 - Integer.numberOfTrailingZeros(bins.length);
+        if (Integer.bitCount(bins.length) != 1 || shift < 0) {
+            throw new IllegalArgumentException(bins.length + " bins");
+        }
+        for (int i = pixels.position(); i + bytesPerPixel <= pixels.limit(); i += bytesPerPixel) {
+            bins[(pixels.get(i) & 0xff) >> shift]++;
+        }
+    }
+
+    /**
+     * Returns the share of pixels which would have to change bins to turn one histogram into the other: 0
+     * for the same distribution, 1 for disjoint ones.
+     */
+    public static float distance(int[] a, int[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException(a.length + " and " + b.length + " bins");
+        }
+        long totalA = sum(a, a.length);
+        long totalB = sum(b, b.length);
+        if (totalA == 0 || totalB == 0) {
+            return totalA == totalB ? 0 : 1;
+        }
+        double difference = 0;
+        for (int i = 0; i < a.length; i++) {
+            difference += Math.abs((double) a[i] / totalA - (double) b[i] / totalB);
+        }
+        return (float) (difference / 2);
+    }
+
+    /**
+     * Returns the share of pixels in the lowest {@code bins} bins.
+     */
+    public static float lowShare(int[] histogram, int bins) {
+        long total = sum(histogram, histogram.length);
+        return total == 0 ? 0 : (float) sum(histogram, bins) / total;
+    }
+
+    private static long sum(int[] histogram, int bins) {
+        long sum = 0;
+        for (int i = 0; i < bins; i++) {
+            sum += histogram[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,195 @@
+package co.tula.videoencoder.analysis;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds scene cuts and black frames from luma histograms of downscaled frames.
+ * <p>
+ * Every decoder adds its frames to a {@link Stream} of its own, in presentation order, as segments are
+ * transcoded at the same time.  A stream scores each frame against the previous one as it arrives and keeps
+ * only the results, and {@link #finish()} joins the streams in time order.  A cut is a frame whose histogram
+ * differs from the previous frame's by at least the cut threshold, a frame is black when nearly all of its
+ * pixels are dark.  Frames further apart than {@link #MAX_GAP_US}, such as around copied segments which are
+ * not decoded, are not compared.
+ */
+public class SceneAnalyzer {
+
+    public static final  int   BINS            = 32;
+    /**
+     * Larger jumps in time between two frames are gaps, not cuts.
+     */
+    public static final  long  MAX_GAP_US      = 1_000_000;
+    /**
+     * Luma below this counts as dark.  Video range black is 16.
+     */
+    private static final int   DARK_LUMA       = 32;
+    private static final int   DARK_BINS       = DARK_LUMA * BINS / 256;
+    private static final float BLACK_SHARE     = 0.98f;
+    private static final float DEFAULT_CUT     = 0.45f;
+
+    private final List<Stream> streams = new ArrayList<>();
+    private volatile float cutThreshold = DEFAULT_CUT;
+
+    /**
+     * Frames of one decoder.  Must be fed from one thread at a time, frames not later than the last one are
+     * ignored.
+     */
+    public final class Stream {
+        private final List<SceneIndex.Cut>   cuts       = new ArrayList<>();
+        private final List<SceneIndex.Black> blacks     = new ArrayList<>();
+        private final int[]                  firstBins  = new int[BINS];
+        private int[] bins         = new int[BINS];
+        private int[] previousBins = new int[BINS];
+        private int     frameCount;
+        private long    firstTimeUs;
+        private long    lastTimeUs;
+        private boolean firstBlack;
+        private long    blackStart = -1;
+        private long    blackEnd   = -1;
+
+        private Stream() {
+        }
+
+        /**
+         * Adds a frame whose pixels carry luma in their first byte.  The buffer is left unchanged.
+         */
+        public synchronized void addFrame(long timeUs, ByteBuffer pixels, int bytesPerPixel) {
+            if (frameCount > 0 && timeUs <= lastTimeUs) {
+                return;
+            }
+            int[] current = previousBins;
+            previousBins = bins;
+            bins = current;
+            for (int i = 0; i < BINS; i++) {
+                bins[i] = 0;
+            }
+            LumaHistogram.count(pixels, bytesPerPixel, bins);
+            boolean black    = LumaHistogram.lowShare(bins, DARK_BINS) >= BLACK_SHARE;
+            boolean adjacent = frameCount > 0 && timeUs - lastTimeUs <= MAX_GAP_US;
+            if (adjacent) {
+                float distance = LumaHistogram.distance(previousBins, bins);
+                if (distance >= cutThreshold) {
+                    cuts.add(new SceneIndex.Cut(timeUs, distance));
+                }
+            }
+            if (blackStart >= 0 && (!black || !adjacent)) {
+                blacks.add(new SceneIndex.Black(blackStart, blackEnd));
+                blackStart = -1;
+            }
+            if (black) {
+                if (blackStart < 0) {
+                    blackStart = timeUs;
+                }
+                blackEnd = timeUs;
+            }
+            if (frameCount == 0) {
+                System.arraycopy(bins, 0, firstBins, 0, BINS);
+                firstTimeUs = timeUs;
+                firstBlack = black;
+            }
+            lastTimeUs = timeUs;
+            frameCount++;
+        }
+
+        public synchronized int getFrameCount() {
+            return frameCount;
+        }
+    }
+
+    /**
+     * Sets the histogram distance from which a frame starts a new scene, between 0 and 1.
+     */
+    public SceneAnalyzer setCutThreshold(float cutThreshold) {
+        if (cutThreshold <= 0 || cutThreshold > 1) {
+            throw new IllegalArgumentException("cut threshold " + cutThreshold);
+        }
+        this.cutThreshold = cutThreshold;
+        return this;
+    }
+
+    /**
+     * Starts a stream of frames, one per decoder.
+     */
+    public Stream openStream() {
+        Stream stream = new Stream();
+        synchronized (streams) {
+            streams.add(stream);
+        }
+        return stream;
+    }
+
+    public int getFrameCount() {
+        int count = 0;
+        synchronized (streams) {
+            for (Stream stream : streams) {
+                count += stream.getFrameCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drops all streams, as when a transcode starts over.
+     */
+    public void reset() {
+        synchronized (streams) {
+            streams.clear();
+        }
+    }
+
+    /**
+     * Joins the streams in time order and returns their cuts and black stretches.  Call once no more frames
+     * are added.  A stream overlapping an earlier one, as of a segment which was encoded again, is left out
+     * unless it has more frames.
+     */
+    public SceneIndex finish() {
+        List<Stream> ordered = new ArrayList<>();
+        synchronized (streams) {
+            for (Stream stream : streams) {
+                if (stream.getFrameCount() > 0) {
+                    ordered.add(stream);
+                }
+            }
+        }
+        Collections.sort(ordered, (a, b) -> a.firstTimeUs != b.firstTimeUs
+                                            ? Long.compare(a.firstTimeUs, b.firstTimeUs)
+                                            : Integer.compare(b.frameCount, a.frameCount));
+        List<SceneIndex.Cut>   cuts     = new ArrayList<>();
+        List<SceneIndex.Black> blacks   = new ArrayList<>();
+        int                    count    = 0;
+        Stream                 previous = null;
+        for (Stream stream : ordered) {
+            synchronized (stream) {
+                if (previous != null && stream.firstTimeUs <= previous.lastTimeUs) {
+                    continue;
+                }
+                count += stream.frameCount;
+                boolean adjacent = previous != null && stream.firstTimeUs - previous.lastTimeUs <= MAX_GAP_US;
+                if (adjacent) {
+                    // The bins of a stream hold its last frame
+                    float distance = LumaHistogram.distance(previous.bins, stream.firstBins);
+                    if (distance >= cutThreshold) {
+                        cuts.add(new SceneIndex.Cut(stream.firstTimeUs, distance));
+                    }
+                }
+                cuts.addAll(stream.cuts);
+                List<SceneIndex.Black> own = new ArrayList<>(stream.blacks);
+                if (stream.blackStart >= 0) {
+                    own.add(new SceneIndex.Black(stream.blackStart, stream.blackEnd));
+                }
+                boolean joined = adjacent && stream.firstBlack && previous.blackStart >= 0 && !own.isEmpty();
+                if (joined) {
+                    // A black stretch across the boundary of two streams
+                    SceneIndex.Black before = blacks.remove(blacks.size() - 1);
+                    own.set(0, new SceneIndex.Black(before.getStartUs(), own.get(0).getEndUs()));
+                }
+                blacks.addAll(own);
+                previous = stream;
+            }
+        }
+        return new SceneIndex(count, cuts, blacks);
+    }
+}
@@ -0,0 +1,111 @@
+package co.tula.videoencoder.analysis;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Scene cuts and black stretches of a video, as found by {@link SceneAnalyzer}.
+ * <p>
+ * Written as a tab separated text file, one event per line in time order after a header line:
+ * <pre>
+ * # scenes frames=1800
+ * cut    12012000    0.82
+ * black  30000000    31966667
+ * </pre>
+ * A black stretch runs from its first to its last black frame.
+ */
+public final class SceneIndex {
+
+    public static final class Cut {
+        private final long  timeUs;
+        private final float score;
+
+        Cut(long timeUs, float score) {
+            this.timeUs = timeUs;
+            this.score = score;
+        }
+
+        /**
+         * Returns the time of the first frame of the new scene.
+         */
+        public long getTimeUs() {
+            return timeUs;
+        }
+
+        /**
+         * Returns the histogram distance to the previous frame, between 0 and 1.
+         */
+        public float getScore() {
+            return score;
+        }
+    }
+
+    public static final class Black {
+        private final long startUs;
+        private final long endUs;
+
+        Black(long startUs, long endUs) {
+            this.startUs = startUs;
+            this.endUs = endUs;
+        }
+
+        public long getStartUs() {
+            return startUs;
+        }
+
+        public long getEndUs() {
+            return endUs;
+        }
+    }
+
+    private final int         frameCount;
+    private final List<Cut>   cuts;
+    private final List<Black> blacks;
+
+    SceneIndex(int frameCount, List<Cut> cuts, List<Black> blacks) {
+        this.frameCount = frameCount;
+        this.cuts = Collections.unmodifiableList(new ArrayList<>(cuts));
+        this.blacks = Collections.unmodifiableList(new ArrayList<>(blacks));
+    }
+
+    /**
+     * Returns the number of frames analyzed.
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public List<Cut> getCuts() {
+        return cuts;
+    }
+
+    public List<Black> getBlacks() {
+        return blacks;
+    }
+
+    public void writeTo(File file) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            out.write("# scenes frames=" + frameCount + "\n");
+            int cut   = 0;
+            int black = 0;
+            while (cut < cuts.size() || black < blacks.size()) {
+                boolean cutFirst = black == blacks.size()
+                                   || cut < cuts.size() && cuts.get(cut).timeUs <= blacks.get(black).startUs;
+                if (cutFirst) {
+                    Cut next = cuts.get(cut++);
+                    out.write(String.format(Locale.US, "cut\t%d\t%.3f\n", next.timeUs, next.score));
+                } else {
+                    Black next = blacks.get(black++);
+                    out.write("black\t" + next.startUs + "\t" + next.endUs + "\n");
+                }
+            }
+        }
+    }
+}
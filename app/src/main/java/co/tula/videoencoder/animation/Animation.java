@@ -0,0 +1,231 @@
+package co.tula.videoencoder.animation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keyframed transform of the frame and shader uniforms, evaluated at the presentation time of every frame.
+ * <p>
+ * The transform pans, zooms and rotates on top of the rotation and aspect correction of the transcode, as
+ * for a Ken Burns effect.  Uniform tracks are uploaded to every filter stage declaring a uniform of their
+ * name, generated stages declare {@link #INTENSITY} and {@link #CROP} when a pass uses them.  {@link #TIME}
+ * is always set, in seconds, and needs no track.
+ * <p>
+ * Evaluation writes into the caller's arrays, see {@link KeyframeTrack} for threading.
+ */
+public final class Animation {
+
+    public static final String TIME      = "uTime";
+    /**
+     * Float, e.g. for fading a color pass in and out.
+     */
+    public static final String INTENSITY = "uIntensity";
+    /**
+     * vec4 of left, top, right and bottom in texture coordinates.
+     */
+    public static final String CROP      = "uCrop";
+
+    /**
+     * Floats written by {@link #evaluateTransform}: translation x and y in clip space, zoom x and y, and
+     * rotation in degrees.
+     */
+    public static final int TRANSFORM_FLOATS = 5;
+
+    private static final String TRANSLATE = "translate";
+    private static final String SCALE     = "scale";
+    private static final String ROTATE    = "rotate";
+
+    private final List<String>        uniformNames  = new ArrayList<>();
+    private final List<KeyframeTrack> uniformTracks = new ArrayList<>();
+    private KeyframeTrack translation;
+    private KeyframeTrack scale;
+    private KeyframeTrack rotation;
+
+    /**
+     * @param track x and y in clip space, where the frame spans -1 to 1
+     */
+    public Animation setTranslation(KeyframeTrack track) {
+        translation = checkComponents(track, 2);
+        return this;
+    }
+
+    /**
+     * @param track zoom factors of x and y
+     */
+    public Animation setScale(KeyframeTrack track) {
+        scale = checkComponents(track, 2);
+        return this;
+    }
+
+    /**
+     * @param track counter clockwise degrees
+     */
+    public Animation setRotation(KeyframeTrack track) {
+        rotation = checkComponents(track, 1);
+        return this;
+    }
+
+    /**
+     * Animates the uniform {@code name}, a float or vec2 to vec4 by the components of the track.
+     */
+    public Animation setUniform(String name, KeyframeTrack track) {
+        if (!isIdentifier(name) || name.equals(TIME) || name.equals(TRANSLATE) || name.equals(SCALE)
+            || name.equals(ROTATE)) {
+            throw new IllegalArgumentException("bad uniform name " + name);
+        }
+        checkComponents(track, track.getComponents());
+        int index = uniformNames.indexOf(name);
+        if (index >= 0) {
+            uniformTracks.set(index, track);
+        } else {
+            uniformNames.add(name);
+            uniformTracks.add(track);
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return !hasTransform() && uniformNames.isEmpty();
+    }
+
+    public boolean hasTransform() {
+        return translation != null || scale != null || rotation != null;
+    }
+
+    public int getUniformCount() {
+        return uniformNames.size();
+    }
+
+    public String getUniformName(int index) {
+        return uniformNames.get(index);
+    }
+
+    public KeyframeTrack getUniformTrack(int index) {
+        return uniformTracks.get(index);
+    }
+
+    /**
+     * Writes {@link #TRANSFORM_FLOATS} floats from {@code offset}, properties without a track keep the frame
+     * as it is.
+     */
+    public void evaluateTransform(long timeUs, float[] out, int offset) {
+        if (translation != null) {
+            translation.evaluate(timeUs, out, offset);
+        } else {
+            out[offset] = 0f;
+            out[offset + 1] = 0f;
+        }
+        if (scale != null) {
+            scale.evaluate(timeUs, out, offset + 2);
+        } else {
+            out[offset + 2] = 1f;
+            out[offset + 3] = 1f;
+        }
+        out[offset + 4] = rotation != null ? rotation.evaluate(timeUs) : 0f;
+    }
+
+    /**
+     * Writes the value of every uniform track, {@link KeyframeTrack#MAX_COMPONENTS} floats apart, from
+     * {@code offset}.
+     */
+    public void evaluateUniforms(long timeUs, float[] out, int offset) {
+        for (int i = 0; i < uniformTracks.size(); i++) {
+            uniformTracks.get(i).evaluate(timeUs, out, offset + i * KeyframeTrack.MAX_COMPONENTS);
+        }
+    }
+
+    /**
+     * Returns the tracks as {@code <name>=<track>} separated by {@code |}, see {@link KeyframeTrack#encode}.
+     */
+    public String encode() {
+        StringBuilder encoded = new StringBuilder();
+        append(encoded, TRANSLATE, translation);
+        append(encoded, SCALE, scale);
+        append(encoded, ROTATE, rotation);
+        for (int i = 0; i < uniformNames.size(); i++) {
+            append(encoded, uniformNames.get(i), uniformTracks.get(i));
+        }
+        return encoded.toString();
+    }
+
+    public static Animation decode(String encoded) {
+        Animation animation = new Animation();
+        if (encoded.isEmpty()) {
+            return animation;
+        }
+        for (String item : encoded.split("\\|")) {
+            int equals = item.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("bad animation track " + item);
+            }
+            String        name  = item.substring(0, equals);
+            KeyframeTrack track = KeyframeTrack.decode(item.substring(equals + 1));
+            if (name.equals(TRANSLATE)) {
+                animation.setTranslation(track);
+            } else if (name.equals(SCALE)) {
+                animation.setScale(track);
+            } else if (name.equals(ROTATE)) {
+                animation.setRotation(track);
+            } else {
+                animation.setUniform(name, track);
+            }
+        }
+        return animation;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Animation)) {
+            return false;
+        }
+        Animation other = (Animation) o;
+        return same(translation, other.translation) && same(scale, other.scale) && same(rotation, other.rotation)
+               && uniformNames.equals(other.uniformNames) && uniformTracks.equals(other.uniformTracks);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = translation != null ? translation.hashCode() : 0;
+        result = 31 * result + (scale != null ? scale.hashCode() : 0);
+        result = 31 * result + (rotation != null ? rotation.hashCode() : 0);
+        result = 31 * result + uniformNames.hashCode();
+        return 31 * result + uniformTracks.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "Animation{" + encode() + "}";
+    }
+
+    private static KeyframeTrack checkComponents(KeyframeTrack track, int components) {
+        if (track.getComponents() != components || track.size() == 0) {
+            throw new IllegalArgumentException("need a track of " + components + " with keyframes, got " + track);
+        }
+        return track;
+    }
+
+    private static boolean isIdentifier(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char    c      = name.charAt(i);
+            boolean letter = c == '_' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+            if (!letter && (i == 0 || c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return !name.isEmpty();
+    }
+
+    private static void append(StringBuilder encoded, String name, KeyframeTrack track) {
+        if (track == null) {
+            return;
+        }
+        if (encoded.length() > 0) {
+            encoded.append('|');
+        }
+        encoded.append(name).append('=').append(track.encode());
+    }
+
+    private static boolean same(KeyframeTrack a, KeyframeTrack b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,256 @@
+package co.tula.videoencoder.animation;
+
+import java.util.Arrays;
+
+/**
+ * Values of one animated property, a float or a vector of up to four, over the presentation time of the input.
+ * <p>
+ * Keyframes are kept in primitive arrays.  Evaluation looks up the keyframe before the time by binary search,
+ * after trying the one found last time since frames mostly come in order, and interpolates towards the next.
+ * Before the first keyframe and after the last one the value is held.  Nothing is allocated while evaluating,
+ * and a track which is no longer changed may be evaluated on several threads: the remembered keyframe is only a
+ * hint which is checked before use.
+ */
+public final class KeyframeTrack {
+
+    public enum Interpolation {
+        /**
+         * Jumps to the value of a keyframe when it is reached.
+         */
+        STEP("step"),
+        LINEAR("linear"),
+        /**
+         * Eases in and out of every keyframe.
+         */
+        SMOOTH("smooth");
+
+        final String key;
+
+        Interpolation(String key) {
+            this.key = key;
+        }
+
+        static Interpolation of(String key) {
+            for (Interpolation interpolation : values()) {
+                if (interpolation.key.equals(key)) {
+                    return interpolation;
+                }
+            }
+            throw new IllegalArgumentException("unknown interpolation " + key);
+        }
+    }
+
+    public static final int MAX_COMPONENTS = 4;
+
+    private final int     components;
+    private Interpolation interpolation = Interpolation.LINEAR;
+    private long[]        times         = new long[4];
+    private float[]       values;
+    private int           count;
+    private int           cursor;
+
+    public KeyframeTrack(int components) {
+        if (components < 1 || components > MAX_COMPONENTS) {
+            throw new IllegalArgumentException("components " + components);
+        }
+        this.components = components;
+        values = new float[times.length * components];
+    }
+
+    public KeyframeTrack setInterpolation(Interpolation interpolation) {
+        this.interpolation = interpolation;
+        return this;
+    }
+
+    /**
+     * Appends a keyframe.  Times must increase.
+     */
+    public KeyframeTrack add(long timeUs, float... value) {
+        if (value.length != components) {
+            throw new IllegalArgumentException(value.length + " values for a track of " + components);
+        }
+        if (count > 0 && timeUs <= times[count - 1]) {
+            throw new IllegalArgumentException("keyframe at " + timeUs + " us after " + times[count - 1] + " us");
+        }
+        if (count == times.length) {
+            times = Arrays.copyOf(times, count * 2);
+            values = Arrays.copyOf(values, count * 2 * components);
+        }
+        times[count] = timeUs;
+        System.arraycopy(value, 0, values, count * components, components);
+        count++;
+        return this;
+    }
+
+    public int getComponents() {
+        return components;
+    }
+
+    public Interpolation getInterpolation() {
+        return interpolation;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getTimeUs(int keyframe) {
+        return times[keyframe];
+    }
+
+    public float getValue(int keyframe, int component) {
+        return values[keyframe * components + component];
+    }
+
+    /**
+     * Writes the value at {@code timeUs} to {@code out}, one float per component from {@code offset}.
+     */
+    public void evaluate(long timeUs, float[] out, int offset) {
+        int before = find(timeUs);
+        if (before < 0 || before == count - 1) {
+            System.arraycopy(values, Math.max(before, 0) * components, out, offset, components);
+            return;
+        }
+        float fraction = getFraction(before, timeUs);
+        int   from     = before * components;
+        for (int i = 0; i < components; i++) {
+            float start = values[from + i];
+            out[offset + i] = start + (values[from + components + i] - start) * fraction;
+        }
+    }
+
+    /**
+     * Returns the first component of the value at {@code timeUs}.
+     */
+    public float evaluate(long timeUs) {
+        int before = find(timeUs);
+        if (before < 0 || before == count - 1) {
+            return values[Math.max(before, 0) * components];
+        }
+        float start = values[before * components];
+        return start + (values[(before + 1) * components] - start) * getFraction(before, timeUs);
+    }
+
+    /**
+     * Returns the track as {@code <interpolation>:<time>@<value>,<value>;<time>@...}, e.g.
+     * {@code smooth:0@1.0,1.0;4000000@1.5,1.5}.
+     */
+    public String encode() {
+        StringBuilder encoded = new StringBuilder(interpolation.key).append(':');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                encoded.append(';');
+            }
+            encoded.append(times[i]).append('@');
+            for (int j = 0; j < components; j++) {
+                if (j > 0) {
+                    encoded.append(',');
+                }
+                encoded.append(values[i * components + j]);
+            }
+        }
+        return encoded.toString();
+    }
+
+    public static KeyframeTrack decode(String encoded) {
+        int colon = encoded.indexOf(':');
+        if (colon < 0 || colon == encoded.length() - 1) {
+            throw new IllegalArgumentException("bad track " + encoded);
+        }
+        String[]      keyframes = encoded.substring(colon + 1).split(";");
+        KeyframeTrack track     = null;
+        for (String keyframe : keyframes) {
+            int at = keyframe.indexOf('@');
+            if (at < 0) {
+                throw new IllegalArgumentException("bad keyframe " + keyframe);
+            }
+            String[] parts = keyframe.substring(at + 1).split(",");
+            float[]  value = new float[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                value[i] = Float.parseFloat(parts[i]);
+            }
+            if (track == null) {
+                track = new KeyframeTrack(value.length).setInterpolation(Interpolation.of(encoded.substring(0, colon)));
+            }
+            track.add(Long.parseLong(keyframe.substring(0, at)), value);
+        }
+        return track;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof KeyframeTrack)) {
+            return false;
+        }
+        KeyframeTrack other = (KeyframeTrack) o;
+        if (components != other.components || interpolation != other.interpolation || count != other.count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (times[i] != other.times[i]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < count * components; i++) {
+            if (Float.compare(values[i], other.values[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = components * 31 + interpolation.hashCode();
+        for (int i = 0; i < count; i++) {
+            result = 31 * result + (int) (times[i] ^ (times[i] >>> 32));
+        }
+        for (int i = 0; i < count * components; i++) {
+            result = 31 * result + Float.floatToIntBits(values[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+
+    /**
+     * Returns the index of the last keyframe at or before {@code timeUs}, -1 if it is before the first.
+     */
+    int find(long timeUs) {
+        if (count == 0) {
+            throw new IllegalStateException("track without keyframes");
+        }
+        int hint = cursor;
+        if (times[hint] <= timeUs && (hint + 1 == count || timeUs < times[hint + 1])) {
+            return hint;
+        }
+        if (hint + 2 < count && times[hint + 1] <= timeUs && timeUs < times[hint + 2]) {
+            cursor = hint + 1;
+            return hint + 1;
+        }
+        int found = Arrays.binarySearch(times, 0, count, timeUs);
+        if (found < 0) {
+            found = -found - 2;
+        }
+        cursor = Math.max(found, 0);
+        return found;
+    }
+
+    /**
+     * Returns how far {@code timeUs} is from keyframe {@code before} towards the next, eased.
+     */
+    private float getFraction(int before, long timeUs) {
+        float fraction = (float) ((double) (timeUs - times[before]) / (times[before + 1] - times[before]));
+        switch (interpolation) {
+            case STEP:
+                return 0f;
+            case SMOOTH:
+                return fraction * fraction * (3f - 2f * fraction);
+            default:
+                return fraction;
+        }
+    }
+}
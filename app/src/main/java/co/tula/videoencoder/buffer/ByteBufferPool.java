@@ -0,0 +1,78 @@
+package co.tula.videoencoder.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Direct byte buffers handed out again once released, so per-frame readback doesn't allocate.
+ * <p>
+ * A request is served by the smallest free buffer which is large enough, its limit is set to the requested
+ * size.  At most {@code maxPooled} free buffers are kept, the smallest ones are dropped first.
+ */
+public class ByteBufferPool {
+
+    private final List<ByteBuffer> free = new ArrayList<>();
+    private final int              maxPooled;
+    private int allocatedCount;
+
+    public ByteBufferPool(int maxPooled) {
+        if (maxPooled < 1) {
+            throw new IllegalArgumentException("maxPooled " + maxPooled);
+        }
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Returns a cleared buffer with {@code size} bytes between position and limit.
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        int best = -1;
+        for (int i = 0; i < free.size(); i++) {
+            int capacity = free.get(i).capacity();
+            if (capacity >= size && (best < 0 || capacity < free.get(best).capacity())) {
+                best = i;
+            }
+        }
+        ByteBuffer buffer;
+        if (best >= 0) {
+            buffer = free.remove(best);
+        } else {
+            buffer = ByteBuffer.allocateDirect(size);
+            allocatedCount++;
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns the buffer to the pool.  It must not be used afterwards.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("not a pooled buffer");
+        }
+        free.add(buffer);
+        if (free.size() > maxPooled) {
+            int smallest = 0;
+            for (int i = 1; i < free.size(); i++) {
+                if (free.get(i).capacity() < free.get(smallest).capacity()) {
+                    smallest = i;
+                }
+            }
+            free.remove(smallest);
+        }
+    }
+
+    /**
+     * Returns the number of buffers allocated since the pool was created.
+     */
+    public synchronized int getAllocatedCount() {
+        return allocatedCount;
+    }
+
+    public synchronized void clear() {
+        free.clear();
+    }
+}
@@ -0,0 +1,14 @@
+package co.tula.videoencoder.capability;
+
+import java.util.List;
+
+/**
+ * The encoders of the device.  Listing them is slow, so callers only ask when a cached answer is missing.
+ */
+public interface CodecCatalog {
+
+    /**
+     * Returns the video encoders accepting surface input.
+     */
+    List<CodecInfo> getVideoEncoders();
+}
@@ -0,0 +1,100 @@
+package co.tula.videoencoder.capability;
+
+/**
+ * What an encoder on this device can do, as far as encoder selection cares.  Constants mirror
+ * {@code MediaCodecInfo} so values can be handed to {@code MediaFormat} unchanged.
+ */
+public final class CodecInfo {
+
+    public static final String MIME_AVC  = "video/avc";
+    public static final String MIME_HEVC = "video/hevc";
+
+    public static final int BITRATE_MODE_CQ  = 0;
+    public static final int BITRATE_MODE_VBR = 1;
+    public static final int BITRATE_MODE_CBR = 2;
+
+    public static final int AVC_PROFILE_BASELINE = 0x01;
+    public static final int AVC_PROFILE_MAIN     = 0x02;
+    public static final int AVC_PROFILE_HIGH     = 0x08;
+    public static final int HEVC_PROFILE_MAIN    = 0x01;
+
+    /**
+     * Size dependent limits, answered by the platform's {@code VideoCapabilities} on the device.
+     */
+    public interface VideoLimits {
+        boolean isSizeSupported(int width, int height);
+
+        /**
+         * Returns the highest frame rate the codec claims for the size.
+         */
+        double getMaxFrameRate(int width, int height);
+
+        int getMaxBitrate();
+    }
+
+    private final String      name;
+    private final String      mime;
+    private final boolean     hardware;
+    private final int         bitrateModes;
+    private final int[]       profiles;
+    private final int[]       levels;
+    private final VideoLimits limits;
+    private final int         maxInstances;
+
+    /**
+     * @param bitrateModes bit {@code 1 << mode} is set for every supported bitrate mode
+     * @param profiles     supported profiles, the same index of {@code levels} holds the highest level
+     * @param maxInstances codecs which may be open at the same time, {@link Integer#MAX_VALUE} if unknown
+     */
+    public CodecInfo(String name, String mime, boolean hardware, int bitrateModes, int[] profiles, int[] levels,
+                     VideoLimits limits, int maxInstances) {
+        if (profiles.length != levels.length) {
+            throw new IllegalArgumentException();
+        }
+        this.name = name;
+        this.mime = mime;
+        this.hardware = hardware;
+        this.bitrateModes = bitrateModes;
+        this.profiles = profiles;
+        this.levels = levels;
+        this.limits = limits;
+        this.maxInstances = maxInstances;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getMime() {
+        return mime;
+    }
+
+    public boolean isHardware() {
+        return hardware;
+    }
+
+    public boolean isBitrateModeSupported(int mode) {
+        return (bitrateModes & (1 << mode)) != 0;
+    }
+
+    /**
+     * Returns the highest level supported with {@code profile}, or -1 if the profile isn't supported.
+     */
+    public int getMaxLevel(int profile) {
+        int level = -1;
+        for (int i = 0; i < profiles.length; i++) {
+            if (profiles[i] == profile) {
+                level = Math.max(level, levels[i]);
+            }
+        }
+        return level;
+    }
+
+    public VideoLimits getLimits() {
+        return limits;
+    }
+
+    public int getMaxInstances() {
+        return maxInstances;
+    }
+}
@@ -0,0 +1,99 @@
+package co.tula.videoencoder.capability;
+
+/**
+ * Encoder and format parameters chosen for one output size and frame rate.  Optional values are -1.
+ */
+public final class EncoderConfig {
+
+    private final String codecName;
+    private final String mime;
+    private final int    bitrate;
+    private final int    bitrateMode;
+    private final int    profile;
+    private final int    level;
+    private final int    maxInstances;
+
+    /**
+     * @param maxInstances encoders of the codec which may be open at the same time, as probed
+     */
+    public EncoderConfig(String codecName, String mime, int bitrate, int bitrateMode, int profile, int level,
+                         int maxInstances) {
+        this.codecName = codecName;
+        this.mime = mime;
+        this.bitrate = bitrate;
+        this.bitrateMode = bitrateMode;
+        this.profile = profile;
+        this.level = level;
+        this.maxInstances = maxInstances;
+    }
+
+    public String getCodecName() {
+        return codecName;
+    }
+
+    public String getMime() {
+        return mime;
+    }
+
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    public int getBitrateMode() {
+        return bitrateMode;
+    }
+
+    public int getProfile() {
+        return profile;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns how many encoders of the codec may be open at the same time, {@link Integer#MAX_VALUE} if the
+     * platform doesn't tell.
+     */
+    public int getMaxInstances() {
+        return maxInstances;
+    }
+
+    String encode() {
+        return codecName + ',' + mime + ',' + bitrate + ',' + bitrateMode + ',' + profile + ',' + level + ','
+               + maxInstances;
+    }
+
+    /**
+     * Returns null if {@code encoded} is malformed or was stored without the instance limit, the codecs are
+     * probed again then.
+     */
+    static EncoderConfig decode(String encoded) {
+        String[] fields = encoded.split(",");
+        if (fields.length != 7) {
+            return null;
+        }
+        try {
+            return new EncoderConfig(fields[0], fields[1], Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+                                     Integer.parseInt(fields[4]), Integer.parseInt(fields[5]),
+                                     Integer.parseInt(fields[6]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof EncoderConfig && encode().equals(((EncoderConfig) o).encode());
+    }
+
+    @Override
+    public int hashCode() {
+        return encode().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
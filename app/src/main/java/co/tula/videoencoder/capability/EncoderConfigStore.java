@@ -0,0 +1,76 @@
+package co.tula.videoencoder.capability;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Chosen encoder configs kept in a properties file.  The file belongs to one build of the device, after a
+ * system update the codecs may have changed, so entries are dropped when the fingerprint differs.  IO
+ * errors only cost a new probe.
+ */
+public class EncoderConfigStore {
+
+    private static final String FINGERPRINT_KEY = "fingerprint";
+
+    private final File   file;
+    private final String fingerprint;
+    private Properties entries;
+
+    public EncoderConfigStore(File file, String fingerprint) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+    }
+
+    public synchronized EncoderConfig get(String key) {
+        String encoded = load().getProperty(key);
+        return encoded != null ? EncoderConfig.decode(encoded) : null;
+    }
+
+    public synchronized void put(String key, EncoderConfig config) {
+        load().setProperty(key, config.encode());
+        save();
+    }
+
+    public synchronized void remove(String key) {
+        if (load().remove(key) != null) {
+            save();
+        }
+    }
+
+    private Properties load() {
+        if (entries != null) {
+            return entries;
+        }
+        entries = new Properties();
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                entries.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                entries.clear();
+            }
+        }
+        if (!fingerprint.equals(entries.getProperty(FINGERPRINT_KEY))) {
+            entries.clear();
+            entries.setProperty(FINGERPRINT_KEY, fingerprint);
+        }
+        return entries;
+    }
+
+    private void save() {
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            entries.store(out, null);
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+}
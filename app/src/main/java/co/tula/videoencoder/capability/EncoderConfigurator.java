@@ -0,0 +1,99 @@
+package co.tula.videoencoder.capability;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Answers which encoder config to use for an output, probing the device at most once per process and
+ * not at all when the answer is stored.  Safe to share between jobs.
+ */
+public class EncoderConfigurator {
+
+    private final CodecCatalog                   catalog;
+    private final EncoderConfigStore             store;
+    private final HashMap<String, EncoderConfig> configs = new HashMap<>();
+    private final HashSet<String>                failed  = new HashSet<>();
+    private List<CodecInfo> encoders;
+    private int             probeCount;
+
+    /**
+     * @param store may be null to keep answers in memory only
+     */
+    public EncoderConfigurator(CodecCatalog catalog, EncoderConfigStore store) {
+        this.catalog = catalog;
+        this.store = store;
+    }
+
+    /**
+     * Returns null if no AVC or HEVC encoder supports the size.
+     */
+    public synchronized EncoderConfig getConfig(int width, int height, int frameRate) {
+        String        key    = key(width, height, frameRate);
+        EncoderConfig config = configs.get(key);
+        if (config == null && store != null) {
+            config = store.get(key);
+        }
+        if (config != null && failed.contains(config.getCodecName())) {
+            // Chosen before the codec failed to start for another size
+            configs.remove(key);
+            if (store != null) {
+                store.remove(key);
+            }
+            config = null;
+        }
+        if (config == null) {
+            if (encoders == null) {
+                encoders = catalog.getVideoEncoders();
+                probeCount++;
+            }
+            config = EncoderSelector.select(usableEncoders(), width, height, frameRate);
+            if (config != null && store != null) {
+                store.put(key, config);
+            }
+        }
+        if (config != null) {
+            configs.put(key, config);
+        }
+        return config;
+    }
+
+    /**
+     * Reports that the codec of the config failed to start.  It is not selected again in this process.
+     */
+    public synchronized void invalidate(int width, int height, int frameRate) {
+        String        key    = key(width, height, frameRate);
+        EncoderConfig config = configs.remove(key);
+        if (config != null) {
+            failed.add(config.getCodecName());
+        }
+        if (store != null) {
+            store.remove(key);
+        }
+    }
+
+    /**
+     * Returns how often the codec catalog was listed.
+     */
+    public synchronized int getProbeCount() {
+        return probeCount;
+    }
+
+    private List<CodecInfo> usableEncoders() {
+        if (failed.isEmpty()) {
+            return encoders;
+        }
+        List<CodecInfo> usable = new ArrayList<>();
+        for (CodecInfo encoder : encoders) {
+            if (!failed.contains(encoder.getName())) {
+                usable.add(encoder);
+            }
+        }
+        return usable;
+    }
+
+    private static String key(int width, int height, int frameRate) {
+        return width + "x" + height + "@" + frameRate;
+    }
+}
@@ -0,0 +1,80 @@
+package co.tula.videoencoder.capability;
+
+import java.util.List;
+
+/**
+ * Picks the encoder and format parameters for an output size.
+ * <p>
+ * Only AVC and HEVC encoders which accept the size are considered.  Hardware encoders come first, then the
+ * one claiming the highest frame rate at that size, AVC wins ties as it decodes everywhere.  The bitrate
+ * follows the pixel rate, HEVC needs about a third less for the same quality.
+ */
+public final class EncoderSelector {
+
+    private static final float AVC_BITS_PER_PIXEL  = 0.1f;
+    private static final float HEVC_BITS_PER_PIXEL = 0.065f;
+    private static final int   MIN_BITRATE         = 500_000;
+
+    private EncoderSelector() {
+    }
+
+    /**
+     * Returns null if no encoder supports the size.
+     */
+    public static EncoderConfig select(List<CodecInfo> encoders, int width, int height, int frameRate) {
+        CodecInfo best          = null;
+        double    bestFrameRate = 0;
+        for (CodecInfo candidate : encoders) {
+            boolean avc = CodecInfo.MIME_AVC.equals(candidate.getMime());
+            if (!avc && !CodecInfo.MIME_HEVC.equals(candidate.getMime())
+                || !candidate.getLimits().isSizeSupported(width, height)) {
+                continue;
+            }
+            double candidateFrameRate = candidate.getLimits().getMaxFrameRate(width, height);
+            if (best == null || isBetter(candidate, candidateFrameRate, best, bestFrameRate)) {
+                best = candidate;
+                bestFrameRate = candidateFrameRate;
+            }
+        }
+        return best != null ? configure(best, width, height, frameRate) : null;
+    }
+
+    private static boolean isBetter(CodecInfo candidate, double candidateFrameRate, CodecInfo best,
+                                    double bestFrameRate) {
+        if (candidate.isHardware() != best.isHardware()) {
+            return candidate.isHardware();
+        }
+        if (candidateFrameRate != bestFrameRate) {
+            return candidateFrameRate > bestFrameRate;
+        }
+        return CodecInfo.MIME_AVC.equals(candidate.getMime()) && !CodecInfo.MIME_AVC.equals(best.getMime());
+    }
+
+    private static EncoderConfig configure(CodecInfo codec, int width, int height, int frameRate) {
+        boolean avc          = CodecInfo.MIME_AVC.equals(codec.getMime());
+        float   bitsPerPixel = avc ? AVC_BITS_PER_PIXEL : HEVC_BITS_PER_PIXEL;
+        long    bitrate      = (long) ((double) width * height * frameRate * bitsPerPixel);
+        bitrate = Math.max(MIN_BITRATE, Math.min(bitrate, codec.getLimits().getMaxBitrate()));
+        int bitrateMode = -1;
+        if (codec.isBitrateModeSupported(CodecInfo.BITRATE_MODE_VBR)) {
+            bitrateMode = CodecInfo.BITRATE_MODE_VBR;
+        } else if (codec.isBitrateModeSupported(CodecInfo.BITRATE_MODE_CBR)) {
+            bitrateMode = CodecInfo.BITRATE_MODE_CBR;
+        }
+        int[] preferred = avc
+                          ? new int[]{CodecInfo.AVC_PROFILE_HIGH, CodecInfo.AVC_PROFILE_MAIN,
+                                      CodecInfo.AVC_PROFILE_BASELINE}
+                          : new int[]{CodecInfo.HEVC_PROFILE_MAIN};
+        int profile = -1;
+        int level   = -1;
+        for (int candidate : preferred) {
+            level = codec.getMaxLevel(candidate);
+            if (level >= 0) {
+                profile = candidate;
+                break;
+            }
+        }
+        return new EncoderConfig(codec.getName(), codec.getMime(), (int) bitrate, bitrateMode, profile, level,
+                                 codec.getMaxInstances());
+    }
+}
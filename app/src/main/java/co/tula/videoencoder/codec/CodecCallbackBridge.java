@@ -0,0 +1,57 @@
+package co.tula.videoencoder.codec;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import co.tula.videoencoder.pipeline.EventQueue;
+import co.tula.videoencoder.pipeline.PipelineEvent;
+
+/**
+ * Forwards MediaCodec callbacks to the pipeline {@link EventQueue}.  Does no work on the callback thread
+ * besides copying the buffer info.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class CodecCallbackBridge extends MediaCodec.Callback {
+
+    private final EventQueue events;
+    private final boolean    encoder;
+
+    private CodecCallbackBridge(EventQueue events, boolean encoder) {
+        this.events = events;
+        this.encoder = encoder;
+    }
+
+    /**
+     * Switches the codec to asynchronous mode.  Must be called before MediaCodec.configure().
+     */
+    public static void attach(MediaCodec codec, EventQueue events, boolean encoder, Handler handler) {
+        codec.setCallback(new CodecCallbackBridge(events, encoder), handler);
+    }
+
+    @Override
+    public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+        if (!encoder) {
+            events.post(PipelineEvent.DECODER_INPUT, index, 0, 0, 0, 0);
+        }
+    }
+
+    @Override
+    public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+        events.post(encoder ? PipelineEvent.ENCODER_OUTPUT : PipelineEvent.DECODER_OUTPUT,
+                    index, info.offset, info.size, info.presentationTimeUs, info.flags);
+    }
+
+    @Override
+    public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+        events.postError(e);
+    }
+
+    @Override
+    public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+        events.post(encoder ? PipelineEvent.ENCODER_FORMAT_CHANGED : PipelineEvent.DECODER_FORMAT_CHANGED,
+                    -1, 0, 0, 0, 0);
+    }
+}
@@ -0,0 +1,30 @@
+package co.tula.videoencoder.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Output file of a transcode, the part of the MediaMuxer API the transcoder uses.
+ */
+public interface ContainerMuxer {
+
+    /**
+     * Adds a track and returns its index.
+     */
+    int addTrack(MediaFormat format);
+
+    void setOrientationHint(int degrees);
+
+    void start();
+
+    void writeSampleData(int track, ByteBuffer data, MediaCodec.BufferInfo info);
+
+    /**
+     * Completes the file if it was started and frees the resources.
+     *
+     * @throws IllegalStateException if the file could not be completed
+     */
+    void release();
+}
@@ -0,0 +1,38 @@
+package co.tula.videoencoder.codec;
+
+import android.media.MediaExtractor;
+import co.tula.videoencoder.pipeline.SampleSource;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleSource} backed by a MediaExtractor with a selected track.
+ */
+public class ExtractorSource implements SampleSource {
+
+    private final MediaExtractor extractor;
+
+    public ExtractorSource(MediaExtractor extractor) {
+        this.extractor = extractor;
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        return extractor.readSampleData(buffer, offset);
+    }
+
+    @Override
+    public long getSampleTime() {
+        return extractor.getSampleTime();
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return extractor.getSampleFlags();
+    }
+
+    @Override
+    public boolean advance() {
+        return extractor.advance();
+    }
+}
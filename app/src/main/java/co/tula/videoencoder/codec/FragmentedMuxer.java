@@ -0,0 +1,106 @@
+package co.tula.videoencoder.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import co.tula.videoencoder.mux.FragmentedMp4Writer;
+import co.tula.videoencoder.mux.TrackFormat;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ContainerMuxer} writing fragmented MP4 with a {@link FragmentedMp4Writer}.  Each group of pictures
+ * is in the file as soon as the next one starts, see {@link #getFlushedSize()}.
+ */
+public class FragmentedMuxer implements ContainerMuxer {
+
+    private final String              path;
+    private final RandomAccessFile    file;
+    private final FragmentedMp4Writer writer;
+
+    public FragmentedMuxer(String path) throws IOException {
+        this.path = path;
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        writer = new FragmentedMp4Writer(file.getChannel());
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        byte[] csd0 = getBytes(format, "csd-0");
+        byte[] csd1 = getBytes(format, "csd-1");
+        byte[][] config = csd0 == null ? new byte[0][] : csd1 == null ? new byte[][]{csd0} : new byte[][]{csd0, csd1};
+        if (mime.startsWith("video/")) {
+            return writer.addTrack(TrackFormat.video(mime, format.getInteger(MediaFormat.KEY_WIDTH),
+                                                     format.getInteger(MediaFormat.KEY_HEIGHT), config));
+        }
+        return writer.addTrack(TrackFormat.audio(mime, format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                                                 format.getInteger(MediaFormat.KEY_CHANNEL_COUNT), config));
+    }
+
+    @Override
+    public void setOrientationHint(int degrees) {
+        writer.setOrientationHint(degrees);
+    }
+
+    @Override
+    public void start() {
+        try {
+            writer.start();
+        } catch (IOException e) {
+            throw new RuntimeException("unable to write " + path, e);
+        }
+    }
+
+    @Override
+    public void writeSampleData(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            // Already in the init segment
+            return;
+        }
+        ByteBuffer sample = data.duplicate();
+        sample.limit(info.offset + info.size).position(info.offset);
+        try {
+            writer.writeSample(track, sample, info.presentationTimeUs,
+                               (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        } catch (IOException e) {
+            throw new RuntimeException("unable to write " + path, e);
+        }
+    }
+
+    /**
+     * Returns the length of the file up to the last complete fragment, which can be uploaded or played
+     * already.  May be called from any thread.
+     */
+    public long getFlushedSize() {
+        return writer.getFlushedSize();
+    }
+
+    @Override
+    public void release() {
+        try {
+            writer.finish();
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to finish " + path, e);
+        } finally {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Nothing written is lost, the channel is unbuffered
+            }
+        }
+    }
+
+    private static byte[] getBytes(MediaFormat format, String key) {
+        if (!format.containsKey(key)) {
+            return null;
+        }
+        ByteBuffer buffer = format.getByteBuffer(key).duplicate();
+        buffer.rewind();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
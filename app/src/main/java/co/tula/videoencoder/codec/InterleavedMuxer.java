@@ -0,0 +1,91 @@
+package co.tula.videoencoder.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import co.tula.videoencoder.metrics.MetricsRecorder;
+import co.tula.videoencoder.metrics.Stage;
+import co.tula.videoencoder.mux.SampleInterleaver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ContainerMuxer} front end which accepts samples of different tracks from different threads and writes them
+ * interleaved by presentation time.
+ * <p>
+ * The muxer is started automatically once all expected tracks are added.  Samples written before that
+ * are kept in the reorder buffer.
+ */
+public class InterleavedMuxer {
+
+    /**
+     * Samples each track may run ahead of the others.
+     */
+    private static final int REORDER_CAPACITY = 16;
+
+    private final ContainerMuxer        muxer;
+    private final SampleInterleaver     interleaver;
+    private final int[]                 tracks;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private final MetricsRecorder       metrics;
+    private int addedTracks;
+    private volatile long timeOffsetUs;
+
+    public InterleavedMuxer(ContainerMuxer muxer, int trackCount, MetricsRecorder metrics) {
+        this.muxer = muxer;
+        this.metrics = metrics;
+        this.tracks = new int[trackCount];
+        this.interleaver = new SampleInterleaver(this::writeToMuxer, trackCount, REORDER_CAPACITY);
+    }
+
+    /**
+     * Adds a track and returns its lane, which is used instead of the muxer track index.
+     */
+    public synchronized int addTrack(MediaFormat format) {
+        int lane = addedTracks++;
+        tracks[lane] = muxer.addTrack(format);
+        if (addedTracks == tracks.length) {
+            muxer.start();
+            interleaver.start();
+        }
+        return lane;
+    }
+
+    /**
+     * Sets the time subtracted from every sample, so trimmed output starts at zero.  Must be set before the
+     * first sample is written.
+     */
+    public void setTimeOffsetUs(long timeOffsetUs) {
+        this.timeOffsetUs = timeOffsetUs;
+    }
+
+    /**
+     * Queues the bytes between position and limit of {@code data}.
+     */
+    public void writeSampleData(int lane, ByteBuffer data, MediaCodec.BufferInfo bufferInfo)
+            throws InterruptedException {
+        interleaver.write(lane, data, bufferInfo.presentationTimeUs - timeOffsetUs, bufferInfo.flags);
+    }
+
+    public void finishTrack(int lane) {
+        interleaver.finish(lane);
+    }
+
+    /**
+     * Wakes up blocked writers and drops queued samples.
+     */
+    public void abort() {
+        interleaver.abort();
+    }
+
+    public boolean isDrained() {
+        return interleaver.isDrained();
+    }
+
+    private void writeToMuxer(int lane, ByteBuffer data, int size, long presentationTimeUs, int flags) {
+        long writeStart = System.nanoTime();
+        info.set(0, size, presentationTimeUs, flags);
+        muxer.writeSampleData(tracks[lane], data, info);
+        metrics.record(Stage.MUXER_WRITE, writeStart);
+        metrics.onBytesWritten(size);
+    }
+}
@@ -0,0 +1,116 @@
+package co.tula.videoencoder.codec;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Range;
+import co.tula.videoencoder.capability.CodecCatalog;
+import co.tula.videoencoder.capability.CodecInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@link CodecCatalog} backed by {@link MediaCodecList}.
+ */
+public class MediaCodecCatalog implements CodecCatalog {
+
+    @Override
+    public List<CodecInfo> getVideoEncoders() {
+        List<CodecInfo> encoders = new ArrayList<>();
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (!info.isEncoder()) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                if (!type.startsWith("video/")) {
+                    continue;
+                }
+                MediaCodecInfo.CodecCapabilities capabilities = info.getCapabilitiesForType(type);
+                if (capabilities.getVideoCapabilities() != null && supportsSurface(capabilities)) {
+                    encoders.add(describe(info, type, capabilities));
+                }
+            }
+        }
+        return encoders;
+    }
+
+    /**
+     * Returns how many instances of the codec may be open at the same time, or {@link Integer#MAX_VALUE} if
+     * the platform doesn't tell.
+     */
+    private static int getMaxInstances(MediaCodecInfo.CodecCapabilities capabilities) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return Integer.MAX_VALUE;
+        }
+        return getMaxSupportedInstances(capabilities);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static int getMaxSupportedInstances(MediaCodecInfo.CodecCapabilities capabilities) {
+        return capabilities.getMaxSupportedInstances();
+    }
+
+    private static CodecInfo describe(MediaCodecInfo info, String type,
+                                      MediaCodecInfo.CodecCapabilities capabilities) {
+        int bitrateModes = 0;
+        for (int mode = CodecInfo.BITRATE_MODE_CQ; mode <= CodecInfo.BITRATE_MODE_CBR; mode++) {
+            if (capabilities.getEncoderCapabilities().isBitrateModeSupported(mode)) {
+                bitrateModes |= 1 << mode;
+            }
+        }
+        MediaCodecInfo.CodecProfileLevel[] profileLevels = capabilities.profileLevels;
+        int[]                              profiles      = new int[profileLevels.length];
+        int[]                              levels        = new int[profileLevels.length];
+        for (int i = 0; i < profileLevels.length; i++) {
+            profiles[i] = profileLevels[i].profile;
+            levels[i] = profileLevels[i].level;
+        }
+        return new CodecInfo(info.getName(), type, isHardware(info), bitrateModes, profiles, levels,
+                             new Limits(capabilities.getVideoCapabilities()), getMaxInstances(capabilities));
+    }
+
+    private static boolean supportsSurface(MediaCodecInfo.CodecCapabilities capabilities) {
+        for (int format : capabilities.colorFormats) {
+            if (format == MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Guesses from the name, MediaCodecInfo only tells from API 29 on, above the SDK this app compiles against.
+     */
+    private static boolean isHardware(MediaCodecInfo info) {
+        // Software codecs of the platform, vendors mark theirs with ".sw."
+        String name = info.getName().toLowerCase(Locale.US);
+        return !name.startsWith("omx.google.") && !name.startsWith("c2.android.") && !name.contains(".sw.");
+    }
+
+    private static class Limits implements CodecInfo.VideoLimits {
+        private final MediaCodecInfo.VideoCapabilities capabilities;
+
+        Limits(MediaCodecInfo.VideoCapabilities capabilities) {
+            this.capabilities = capabilities;
+        }
+
+        @Override
+        public boolean isSizeSupported(int width, int height) {
+            return capabilities.isSizeSupported(width, height);
+        }
+
+        @Override
+        public double getMaxFrameRate(int width, int height) {
+            Range<Double> rates = capabilities.getSupportedFrameRatesFor(width, height);
+            return rates.getUpper();
+        }
+
+        @Override
+        public int getMaxBitrate() {
+            return capabilities.getBitrateRange().getUpper();
+        }
+    }
+}
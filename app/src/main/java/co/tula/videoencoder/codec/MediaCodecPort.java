@@ -0,0 +1,60 @@
+package co.tula.videoencoder.codec;
+
+import android.media.MediaCodec;
+import co.tula.videoencoder.pipeline.CodecPort;
+import co.tula.videoencoder.pipeline.PollingCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link CodecPort} backed by a MediaCodec, polled or driven by callbacks.
+ */
+public class MediaCodecPort implements PollingCodec {
+
+    private final MediaCodec            codec;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+    public MediaCodecPort(MediaCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        return codec.dequeueInputBuffer(timeoutUs);
+    }
+
+    @Override
+    public int dequeueOutputBuffer(OutputInfo info, long timeoutUs) {
+        int index = codec.dequeueOutputBuffer(bufferInfo, timeoutUs);
+        info.offset = bufferInfo.offset;
+        info.size = bufferInfo.size;
+        info.presentationTimeUs = bufferInfo.presentationTimeUs;
+        info.flags = bufferInfo.flags;
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return codec.getInputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        codec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return codec.getOutputBuffer(index);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        codec.releaseOutputBuffer(index, render);
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        codec.signalEndOfInputStream();
+    }
+}
@@ -0,0 +1,45 @@
+package co.tula.videoencoder.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ContainerMuxer} backed by a MediaMuxer writing MP4.  The file is playable only once released.
+ */
+public class PlatformMuxer implements ContainerMuxer {
+
+    private final MediaMuxer muxer;
+
+    public PlatformMuxer(String path) throws IOException {
+        muxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        return muxer.addTrack(format);
+    }
+
+    @Override
+    public void setOrientationHint(int degrees) {
+        muxer.setOrientationHint(degrees);
+    }
+
+    @Override
+    public void start() {
+        muxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+        muxer.writeSampleData(track, data, info);
+    }
+
+    @Override
+    public void release() {
+        muxer.release();
+    }
+}
@@ -0,0 +1,26 @@
+package co.tula.videoencoder.encoder;
+
+/**
+ * Scale of the full screen sprite which keeps the decoded picture undistorted in an output of another aspect
+ * ratio: the longer side of the output is stretched by the ratio of the two aspects.
+ */
+public final class AspectCorrection {
+
+    private AspectCorrection() {
+    }
+
+    public static float scaleX(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        float dstAspect = (float) dstWidth / dstHeight;
+        return dstAspect < 1 ? 1 : correction(srcWidth, srcHeight, dstAspect);
+    }
+
+    public static float scaleY(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        float dstAspect = (float) dstWidth / dstHeight;
+        return dstAspect < 1 ? correction(srcWidth, srcHeight, dstAspect) : 1;
+    }
+
+    private static float correction(int srcWidth, int srcHeight, float dstAspect) {
+        float distortion = dstAspect / ((float) srcWidth / (float) srcHeight);
+        return distortion < 1 ? 1f / distortion : distortion;
+    }
+}
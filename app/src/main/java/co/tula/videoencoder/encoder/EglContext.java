@@ -0,0 +1,148 @@
+package co.tula.videoencoder.encoder;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.util.Log;
+
+/**
+ * A long lived EGL context of an {@link EglContextPool}.  Jobs lease a context, create their surfaces on
+ * it and give it back.  A context is used by one thread at a time, the pool makes sure it is not current
+ * anywhere when it changes hands.
+ */
+public class EglContext {
+    private static final String TAG                = "EglContext";
+    private static final int    PROGRAM_CACHE_SIZE = 8;
+
+    private final EGLDisplay                display;
+    private final EGLConfig                 config;
+    private final android.opengl.EGLContext context;
+    private final int                       clientVersion;
+    private final ProgramBinaryStore        programStore;
+    private ProgramCache    programs;
+    private FramebufferPool framebuffers;
+
+    EglContext(EGLDisplay display, EGLConfig config, android.opengl.EGLContext context, int clientVersion,
+               ProgramBinaryStore programStore) {
+        this.display = display;
+        this.config = config;
+        this.context = context;
+        this.clientVersion = clientVersion;
+        this.programStore = programStore;
+    }
+
+    /**
+     * Returns 3 if the context is GLES 3.0, else 2.
+     */
+    public int getClientVersion() {
+        return clientVersion;
+    }
+
+    /**
+     * Creates a window surface for the Surface a MediaCodec encoder reads from.
+     */
+    public EGLSurface createWindowSurface(Object surface) {
+        int[] surfaceAttribs = {
+                EGL14.EGL_NONE
+        };
+        EGLSurface eglSurface = EGL14.eglCreateWindowSurface(display, config, surface, surfaceAttribs, 0);
+        checkEglError("eglCreateWindowSurface");
+        if (eglSurface == null) {
+            throw new RuntimeException("surface was null");
+        }
+        return eglSurface;
+    }
+
+    public EGLSurface createPbufferSurface(int width, int height) {
+        int[] surfaceAttribs = {
+                EGL14.EGL_WIDTH, width,
+                EGL14.EGL_HEIGHT, height,
+                EGL14.EGL_NONE
+        };
+        EGLSurface eglSurface = EGL14.eglCreatePbufferSurface(display, config, surfaceAttribs, 0);
+        checkEglError("eglCreatePbufferSurface");
+        if (eglSurface == null) {
+            throw new RuntimeException("surface was null");
+        }
+        return eglSurface;
+    }
+
+    public void destroySurface(EGLSurface surface) {
+        if (EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW).equals(surface)) {
+            makeNothingCurrent();
+        }
+        EGL14.eglDestroySurface(display, surface);
+    }
+
+    /**
+     * Makes the context current on the calling thread, drawing to and reading from {@code surface}.
+     */
+    public void makeCurrent(EGLSurface surface) {
+        if (!EGL14.eglMakeCurrent(display, surface, surface, context)) {
+            throw new RuntimeException("eglMakeCurrent failed");
+        }
+    }
+
+    /**
+     * Detaches the context from the calling thread if it is current there.
+     */
+    public void makeNothingCurrent() {
+        if (EGL14.eglGetCurrentContext().equals(context)) {
+            EGL14.eglMakeCurrent(display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+        }
+    }
+
+    public boolean swapBuffers(EGLSurface surface) {
+        return EGL14.eglSwapBuffers(display, surface);
+    }
+
+    /**
+     * Sends the presentation time stamp to EGL.  Time is expressed in nanoseconds.
+     */
+    public void setPresentationTime(EGLSurface surface, long nsecs) {
+        EGLExt.eglPresentationTimeANDROID(display, surface, nsecs);
+    }
+
+    /**
+     * Returns the shader programs of this context.  They live as long as the context, so jobs with the same
+     * filter don't compile it again.  Call with the context current.
+     */
+    public ProgramCache getPrograms() {
+        if (programs == null) {
+            programs = new ProgramCache(new GlesProgramLinker(), programStore, PROGRAM_CACHE_SIZE);
+        }
+        return programs;
+    }
+
+    /**
+     * Returns the intermediate render targets of this context.  Call with the context current.
+     */
+    public FramebufferPool getFramebuffers() {
+        if (framebuffers == null) {
+            framebuffers = new FramebufferPool();
+        }
+        return framebuffers;
+    }
+
+    void destroy() {
+        makeNothingCurrent();
+        // Programs and framebuffers go away with the context
+        programs = null;
+        framebuffers = null;
+        EGL14.eglDestroyContext(display, context);
+    }
+
+    private static void checkEglError(String msg) {
+        boolean failed = false;
+        int     error;
+        while ((error = EGL14.eglGetError()) != EGL14.EGL_SUCCESS) {
+            Log.e(TAG, msg + ": EGL error: 0x" + Integer.toHexString(error));
+            failed = true;
+        }
+        if (failed) {
+            throw new RuntimeException("EGL error encountered (see log)");
+        }
+    }
+}
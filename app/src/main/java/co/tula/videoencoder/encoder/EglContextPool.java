@@ -0,0 +1,154 @@
+package co.tula.videoencoder.encoder;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+
+/**
+ * Long lived EGL contexts shared by transcode jobs.
+ * <p>
+ * The display is initialized and the contexts are created once, on first use.  A job then only creates
+ * its window surface.  All contexts are in one share group, so textures and programs created in one are
+ * visible in the others.  GLES 3.0 contexts are preferred, GLES 2.0 is the fallback.
+ */
+public class EglContextPool {
+    private static final String TAG                    = "EglContextPool";
+    private static final int    EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private final int                    maxContexts;
+    private final ProgramBinaryStore     programStore;
+    private final ArrayDeque<EglContext> idle = new ArrayDeque<>();
+    private EGLDisplay                display;
+    private EGLConfig                 config;
+    private int                       clientVersion;
+    private android.opengl.EGLContext shareContext = EGL14.EGL_NO_CONTEXT;
+    private int                       created;
+    private boolean                   shutdown;
+
+    /**
+     * @param maxContexts  contexts leased at the same time, usually the number of codec sessions
+     * @param programStore where programs are kept between processes, may be null
+     */
+    public EglContextPool(int maxContexts, ProgramBinaryStore programStore) {
+        if (maxContexts <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxContexts = maxContexts;
+        this.programStore = programStore;
+    }
+
+    /**
+     * Leases a context, waiting for one if all are in use.  The context is not current on any thread.
+     */
+    public synchronized EglContext acquire() throws InterruptedException {
+        while (idle.isEmpty() && created == maxContexts && !shutdown) {
+            wait();
+        }
+        if (shutdown) {
+            throw new IllegalStateException("pool is shut down");
+        }
+        if (!idle.isEmpty()) {
+            return idle.pop();
+        }
+        if (display == null) {
+            eglSetup();
+        }
+        EglContext context = createContext();
+        created++;
+        return context;
+    }
+
+    /**
+     * Returns a leased context.  Must be called on the thread that used it last, after its surfaces are
+     * destroyed.
+     */
+    public void release(EglContext context) {
+        context.makeNothingCurrent();
+        synchronized (this) {
+            if (shutdown) {
+                context.destroy();
+                created--;
+                return;
+            }
+            idle.push(context);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Destroys the idle contexts now and leased ones when they are released.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        while (!idle.isEmpty()) {
+            idle.pop().destroy();
+            created--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Prepares EGL.  We want a GLES 3.0 or 2.0 config that supports recording.
+     */
+    private void eglSetup() {
+        EGLDisplay eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
+            throw new RuntimeException("unable to get EGL14 display");
+        }
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+            throw new RuntimeException("unable to initialize EGL14");
+        }
+        EGLConfig eglConfig = chooseConfig(eglDisplay, EGLExt.EGL_OPENGL_ES3_BIT_KHR);
+        int       client    = 3;
+        if (eglConfig == null) {
+            eglConfig = chooseConfig(eglDisplay, EGL14.EGL_OPENGL_ES2_BIT);
+            client = 2;
+        }
+        if (eglConfig == null) {
+            throw new RuntimeException("unable to find RGB888+recordable ES2 EGL config");
+        }
+        display = eglDisplay;
+        config = eglConfig;
+        clientVersion = client;
+        Log.d(TAG, "EGL " + version[0] + "." + version[1] + ", GLES " + clientVersion);
+    }
+
+    private static EGLConfig chooseConfig(EGLDisplay display, int renderableType) {
+        int[] attribList = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, renderableType,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT | EGL14.EGL_PBUFFER_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs    = new EGLConfig[1];
+        int[]       numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(display, attribList, 0, configs, 0, configs.length, numConfigs, 0)
+            || numConfigs[0] == 0) {
+            return null;
+        }
+        return configs[0];
+    }
+
+    private EglContext createContext() {
+        int[] attribList = {
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, clientVersion,
+                EGL14.EGL_NONE
+        };
+        android.opengl.EGLContext context = EGL14.eglCreateContext(display, config, shareContext, attribList, 0);
+        if (context == null || context == EGL14.EGL_NO_CONTEXT) {
+            throw new RuntimeException("eglCreateContext failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+        }
+        if (shareContext == EGL14.EGL_NO_CONTEXT) {
+            shareContext = context;
+        }
+        return new EglContext(display, config, context, clientVersion, programStore);
+    }
+}
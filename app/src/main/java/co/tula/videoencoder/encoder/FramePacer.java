@@ -0,0 +1,71 @@
+package co.tula.videoencoder.encoder;
+
+/**
+ * Limits the number of frames the GPU may be behind the CPU.
+ * <p>
+ * Instead of waiting for the GPU after every frame, a fence is placed after each frame and the CPU only
+ * waits when more than {@code maxFramesInFlight} frames are unfinished.  Meanwhile it can latch the next
+ * decoded frame and swap buffers.  Without fence support every frame ends with a full finish.
+ */
+public class FramePacer {
+
+    private final GpuSync sync;
+    private final long[]  fences;
+    private int head;
+    private int count;
+
+    public FramePacer(GpuSync sync, int maxFramesInFlight) {
+        if (maxFramesInFlight < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.sync = sync;
+        this.fences = new long[maxFramesInFlight + 1];
+    }
+
+    public boolean isPipelined() {
+        return sync.isFenceSupported() && fences.length > 1;
+    }
+
+    /**
+     * Call after the draw commands of a frame are issued.
+     */
+    public void onFrameSubmitted() {
+        if (!isPipelined()) {
+            sync.finish();
+            return;
+        }
+        fences[(head + count) % fences.length] = sync.createFence();
+        count++;
+        while (count == fences.length) {
+            waitOldest();
+        }
+    }
+
+    /**
+     * Waits until every submitted frame is complete.
+     */
+    public void drain() {
+        while (count > 0) {
+            waitOldest();
+        }
+    }
+
+    /**
+     * Deletes pending fences without waiting.
+     */
+    public void release() {
+        while (count > 0) {
+            sync.deleteFence(fences[head]);
+            head = (head + 1) % fences.length;
+            count--;
+        }
+    }
+
+    private void waitOldest() {
+        long fence = fences[head];
+        sync.waitFence(fence);
+        sync.deleteFence(fence);
+        head = (head + 1) % fences.length;
+        count--;
+    }
+}
@@ -0,0 +1,116 @@
+package co.tula.videoencoder.encoder;
+
+import co.tula.videoencoder.buffer.ByteBufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads rendered frames back to the CPU without stalling the GPU.
+ * <p>
+ * The read of a frame is started right after it is drawn, its pixels are taken only once the ring of
+ * {@code slots} reads is full.  Until then the GPU copies in the background while the next frames are
+ * drawn.  Without pixel pack buffers every read blocks.  Pixels are copied once, into a pooled buffer the
+ * consumer owns until it hands it back with {@link #recycle}, so it may pass it on to another thread.
+ */
+public class FrameReadback {
+
+    /**
+     * Receives frames in the order they were drawn.
+     */
+    public interface Consumer {
+        /**
+         * @param pixels RGBA, rows from bottom to top.  Hand back with {@link #recycle}.
+         */
+        void onFrame(ByteBuffer pixels, int width, int height, long presentationTimeUs);
+    }
+
+    private final PixelTransfer  transfer;
+    private final ByteBufferPool pool;
+    private final Consumer       consumer;
+    private final int            width;
+    private final int            height;
+    private final long[]         timesUs;
+    private int head;
+    private int count;
+
+    public FrameReadback(PixelTransfer transfer, ByteBufferPool pool, int slots, int width, int height,
+                         Consumer consumer) {
+        if (slots < 1 || width < 1 || height < 1) {
+            throw new IllegalArgumentException(slots + " slots of " + width + "x" + height);
+        }
+        this.transfer = transfer;
+        this.pool = pool;
+        this.consumer = consumer;
+        this.width = width;
+        this.height = height;
+        this.timesUs = new long[slots];
+    }
+
+    public boolean isPipelined() {
+        return transfer.isAsync() && timesUs.length > 1;
+    }
+
+    /**
+     * Call after the frame is drawn, with its surface current.  May deliver an earlier frame.
+     */
+    public void onFrameDrawn(long presentationTimeUs) {
+        if (!isPipelined()) {
+            ByteBuffer pixels = pool.acquire(getByteCount());
+            transfer.read(pixels, width, height);
+            consumer.onFrame(pixels, width, height, presentationTimeUs);
+            return;
+        }
+        int slot = (head + count) % timesUs.length;
+        transfer.startRead(slot, width, height);
+        timesUs[slot] = presentationTimeUs;
+        count++;
+        if (count == timesUs.length) {
+            deliverOldest();
+        }
+    }
+
+    /**
+     * Delivers every frame still being read.
+     */
+    public void drain() {
+        while (count > 0) {
+            deliverOldest();
+        }
+    }
+
+    /**
+     * Returns pixels received by the consumer to the pool.  May be called on any thread.
+     */
+    public void recycle(ByteBuffer pixels) {
+        pool.release(pixels);
+    }
+
+    /**
+     * Drops pending reads and frees the slots.  Call with the context still current.
+     */
+    public void release() {
+        head = 0;
+        count = 0;
+        transfer.release();
+    }
+
+    private int getByteCount() {
+        return width * height * 4;
+    }
+
+    private void deliverOldest() {
+        ByteBuffer pixels = pool.acquire(getByteCount());
+        ByteBuffer mapped = transfer.map(head, getByteCount());
+        try {
+            mapped.limit(mapped.position() + getByteCount());
+            pixels.put(mapped);
+            pixels.flip();
+        } finally {
+            transfer.unmap(head);
+        }
+        long timeUs = timesUs[head];
+        head = (head + 1) % timesUs.length;
+        count--;
+        consumer.onFrame(pixels, width, height, timeUs);
+    }
+}
@@ -0,0 +1,93 @@
+package co.tula.videoencoder.encoder;
+
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+
+/**
+ * Render targets for intermediate filter stages.  Framebuffers are created on first use and handed out
+ * again afterwards, so the frame loop doesn't allocate GPU memory.  Framebuffer objects aren't shared
+ * between contexts, so every {@link EglContext} has its own pool.  Call with the context current.
+ */
+public class FramebufferPool {
+
+    /**
+     * A framebuffer with an RGBA texture attached.
+     */
+    public static final class Framebuffer {
+        public final int framebuffer;
+        public final int texture;
+        public final int width;
+        public final int height;
+
+        Framebuffer(int framebuffer, int texture, int width, int height) {
+            this.framebuffer = framebuffer;
+            this.texture = texture;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final ArrayList<Framebuffer> free = new ArrayList<>();
+    private int created;
+
+    public Framebuffer acquire(int width, int height) {
+        for (int i = free.size() - 1; i >= 0; i--) {
+            Framebuffer candidate = free.get(i);
+            if (candidate.width == width && candidate.height == height) {
+                return free.remove(i);
+            }
+        }
+        return create(width, height);
+    }
+
+    public void release(Framebuffer framebuffer) {
+        free.add(framebuffer);
+    }
+
+    /**
+     * Returns the number of framebuffers created by this pool which are not deleted.
+     */
+    public int getCreatedCount() {
+        return created;
+    }
+
+    /**
+     * Deletes the free framebuffers.
+     */
+    public void trim() {
+        for (Framebuffer framebuffer : free) {
+            GLES20.glDeleteFramebuffers(1, new int[]{framebuffer.framebuffer}, 0);
+            GLES20.glDeleteTextures(1, new int[]{framebuffer.texture}, 0);
+            created--;
+        }
+        free.clear();
+    }
+
+    private Framebuffer create(int width, int height) {
+        int[] ids = new int[1];
+        GLES20.glGenTextures(1, ids, 0);
+        int texture = ids[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0, GLES20.GL_RGBA,
+                            GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glGenFramebuffers(1, ids, 0);
+        int framebuffer = ids[0];
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D,
+                                      texture, 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            GLES20.glDeleteFramebuffers(1, ids, 0);
+            GLES20.glDeleteTextures(1, new int[]{texture}, 0);
+            throw new RuntimeException("framebuffer incomplete: 0x" + Integer.toHexString(status));
+        }
+        created++;
+        return new Framebuffer(framebuffer, texture, width, height);
+    }
+}
@@ -0,0 +1,50 @@
+package co.tula.videoencoder.encoder;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * {@link GpuSync} based on GLES 3.0 fence sync objects.  Falls back to glFinish on GLES 2.0 contexts.
+ * Must be created with the GL context current.
+ */
+public class GlesGpuSync implements GpuSync {
+
+    private static final long WAIT_TIMEOUT_NS = 100_000_000;
+
+    private final boolean fenceSupported;
+
+    public GlesGpuSync() {
+        fenceSupported = GlesInfo.getMajorVersion() >= 3;
+    }
+
+    @Override
+    public boolean isFenceSupported() {
+        return fenceSupported;
+    }
+
+    @Override
+    public long createFence() {
+        return GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+
+    @Override
+    public void waitFence(long fence) {
+        int result;
+        do {
+            result = GLES30.glClientWaitSync(fence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT_NS);
+        } while (result == GLES30.GL_TIMEOUT_EXPIRED);
+        if (result == GLES30.GL_WAIT_FAILED) {
+            throw new RuntimeException("glClientWaitSync failed");
+        }
+    }
+
+    @Override
+    public void deleteFence(long fence) {
+        GLES30.glDeleteSync(fence);
+    }
+
+    @Override
+    public void finish() {
+        GLES20.glFinish();
+    }
+}
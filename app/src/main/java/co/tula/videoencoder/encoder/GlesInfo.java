@@ -0,0 +1,26 @@
+package co.tula.videoencoder.encoder;
+
+import android.opengl.GLES20;
+
+/**
+ * Queries of the current GL context.
+ */
+final class GlesInfo {
+
+    private GlesInfo() {
+    }
+
+    /**
+     * Returns the major version of the current context, 2 if it can't be parsed.
+     */
+    static int getMajorVersion() {
+        // "OpenGL ES <major>.<minor> <vendor specific>"
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        String prefix  = "OpenGL ES ";
+        if (version == null || !version.startsWith(prefix) || version.length() == prefix.length()) {
+            return 2;
+        }
+        int major = Character.digit(version.charAt(prefix.length()), 10);
+        return major > 0 ? major : 2;
+    }
+}
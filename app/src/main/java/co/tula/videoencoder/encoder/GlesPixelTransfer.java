@@ -0,0 +1,74 @@
+package co.tula.videoencoder.encoder;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link PixelTransfer} based on GLES 3.0 pixel pack buffers, one per slot.  Falls back to a blocking
+ * glReadPixels on GLES 2.0 contexts.  Must be used with the GL context current.
+ */
+public class GlesPixelTransfer implements PixelTransfer {
+
+    private final boolean async;
+    private final int[]   buffers;
+    private final int[]   sizes;
+
+    public GlesPixelTransfer(int slots) {
+        async = GlesInfo.getMajorVersion() >= 3;
+        buffers = new int[slots];
+        sizes = new int[slots];
+        if (async) {
+            GLES20.glGenBuffers(slots, buffers, 0);
+        }
+    }
+
+    @Override
+    public boolean isAsync() {
+        return async;
+    }
+
+    @Override
+    public void startRead(int slot, int width, int height) {
+        int size = width * height * 4;
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffers[slot]);
+        if (sizes[slot] != size) {
+            GLES20.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+            sizes[slot] = size;
+        }
+        // With a pack buffer bound the last argument is an offset into it, the call returns right away
+        GLES30.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+    }
+
+    @Override
+    public ByteBuffer map(int slot, int byteCount) {
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffers[slot]);
+        ByteBuffer pixels = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, byteCount,
+                                                                 GLES30.GL_MAP_READ_BIT);
+        if (pixels == null) {
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            throw new RuntimeException("glMapBufferRange failed: 0x" + Integer.toHexString(GLES20.glGetError()));
+        }
+        return pixels;
+    }
+
+    @Override
+    public void unmap(int slot) {
+        GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+    }
+
+    @Override
+    public void read(ByteBuffer pixels, int width, int height) {
+        GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+    }
+
+    @Override
+    public void release() {
+        if (async) {
+            GLES20.glDeleteBuffers(buffers.length, buffers, 0);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package co.tula.videoencoder.encoder;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ProgramCache.Linker} of the current GL context.  Program binaries are supported on GLES 3.0
+ * contexts whose driver reports at least one binary format.  Must be created with the context current.
+ */
+public class GlesProgramLinker implements ProgramCache.Linker {
+    private static final String TAG                                = "GlesProgramLinker";
+    private static final int    GL_PROGRAM_BINARY_RETRIEVABLE_HINT = 0x8257;
+
+    private final boolean binarySupported;
+
+    public GlesProgramLinker() {
+        boolean supported = false;
+        if (GlesInfo.getMajorVersion() >= 3) {
+            int[] formats = new int[1];
+            GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+            supported = formats[0] > 0;
+        }
+        binarySupported = supported;
+    }
+
+    @Override
+    public int link(String vertexSource, String fragmentSource) {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        if (vertexShader == 0) {
+            return 0;
+        }
+        int pixelShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        if (pixelShader == 0) {
+            GLES20.glDeleteShader(vertexShader);
+            return 0;
+        }
+        int program = GLES20.glCreateProgram();
+        checkGlError("glCreateProgram");
+        if (program == 0) {
+            Log.e(TAG, "Could not create program");
+            return 0;
+        }
+        GLES20.glAttachShader(program, vertexShader);
+        checkGlError("glAttachShader");
+        GLES20.glAttachShader(program, pixelShader);
+        checkGlError("glAttachShader");
+        if (binarySupported) {
+            GLES30.glProgramParameteri(program, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        }
+        GLES20.glLinkProgram(program);
+        // The program keeps the compiled code, the shaders are flagged for deletion with it
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(pixelShader);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            Log.e(TAG, "Could not link program: ");
+            Log.e(TAG, GLES20.glGetProgramInfoLog(program));
+            GLES20.glDeleteProgram(program);
+            program = 0;
+        }
+        return program;
+    }
+
+    @Override
+    public int load(ProgramCache.Binary binary) {
+        if (!binarySupported) {
+            return 0;
+        }
+        int program = GLES20.glCreateProgram();
+        if (program == 0) {
+            return 0;
+        }
+        ByteBuffer data = ByteBuffer.allocateDirect(binary.data.length);
+        data.put(binary.data).position(0);
+        GLES30.glProgramBinary(program, binary.format, data, binary.data.length);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            // Rejected binaries may also set an error, it must not reach the next checkGlError
+            GLES20.glGetError();
+            GLES20.glDeleteProgram(program);
+            return 0;
+        }
+        return program;
+    }
+
+    @Override
+    public ProgramCache.Binary save(int program) {
+        if (!binarySupported) {
+            return null;
+        }
+        int[] length = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return null;
+        }
+        ByteBuffer data   = ByteBuffer.allocateDirect(length[0]);
+        int[]      format = new int[1];
+        GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, data);
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR) {
+            return null;
+        }
+        byte[] bytes = new byte[length[0]];
+        data.position(0);
+        data.get(bytes);
+        return new ProgramCache.Binary(format[0], bytes);
+    }
+
+    @Override
+    public void delete(int program) {
+        GLES20.glDeleteProgram(program);
+    }
+
+    private static int loadShader(int shaderType, String source) {
+        int shader = GLES20.glCreateShader(shaderType);
+        checkGlError("glCreateShader type=" + shaderType);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] compiled = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        if (compiled[0] == 0) {
+            Log.e(TAG, "Could not compile shader " + shaderType + ":");
+            Log.e(TAG, " " + GLES20.glGetShaderInfoLog(shader));
+            GLES20.glDeleteShader(shader);
+            shader = 0;
+        }
+        return shader;
+    }
+
+    private static void checkGlError(String op) {
+        int error;
+        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+            Log.e(TAG, op + ": glError " + error);
+            throw new RuntimeException(op + ": glError " + error);
+        }
+    }
+}
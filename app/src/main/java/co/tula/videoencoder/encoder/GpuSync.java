@@ -0,0 +1,30 @@
+package co.tula.videoencoder.encoder;
+
+/**
+ * GPU synchronization primitives used by {@link FramePacer}.  Implemented with GL fences on the device and
+ * with fakes in tests.
+ */
+public interface GpuSync {
+
+    /**
+     * Returns false if the context has no fence objects, then only {@link #finish()} may be used.
+     */
+    boolean isFenceSupported();
+
+    /**
+     * Inserts a fence after all commands issued so far and returns its handle.
+     */
+    long createFence();
+
+    /**
+     * Blocks until the commands before the fence are complete.
+     */
+    void waitFence(long fence);
+
+    void deleteFence(long fence);
+
+    /**
+     * Blocks until all issued commands are complete.
+     */
+    void finish();
+}
@@ -1,7 +1,6 @@
 package co.tula.videoencoder.encoder;
 
 import android.opengl.*;
-import android.util.Log;
 import android.view.Surface;
 
 
@@ -9,94 +8,34 @@ import android.view.Surface;
  * Created by nephe on 05.10.2016.
  */
 public class InputSurface {
-    private static final String  TAG                    = "InputSurface";
-    private static final boolean VERBOSE                = false;
-    private static final int     EGL_RECORDABLE_ANDROID = 0x3142;
-    private static final int     EGL_OPENGL_ES2_BIT     = 4;
-    private EGLDisplay mEGLDisplay;
-    private EGLContext mEGLContext;
+    private EglContext mEglContext;
     private EGLSurface mEGLSurface;
     private Surface    mSurface;
 
     /**
-     * Creates an InputSurface from a Surface.
+     * Creates an InputSurface from a Surface, drawn to with a leased context.  Only the window
+     * surface is created here, the context is owned by its {@link EglContextPool}.
      */
-    public InputSurface(Surface surface) {
+    public InputSurface(EglContext context, Surface surface) {
         if (surface == null) {
             throw new NullPointerException();
         }
+        mEglContext = context;
         mSurface = surface;
-        eglSetup();
+        mEGLSurface = context.createWindowSurface(surface);
     }
 
     /**
-     * Prepares EGL.  We want a GLES 2.0 context and a surface that supports recording.
-     */
-    private void eglSetup() {
-        mEGLDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
-        if (mEGLDisplay == EGL14.EGL_NO_DISPLAY) {
-            throw new RuntimeException("unable to get EGL14 display");
-        }
-        int[] version = new int[2];
-        if (!EGL14.eglInitialize(mEGLDisplay, version, 0, version, 1)) {
-            mEGLDisplay = null;
-            throw new RuntimeException("unable to initialize EGL14");
-        }
-        // Configure EGL for pbuffer and OpenGL ES 2.0.  We want enough RGB bits
-        // to be able to tell if the frame is reasonable.
-        int[] attribList = {
-                EGL14.EGL_RED_SIZE, 8,
-                EGL14.EGL_GREEN_SIZE, 8,
-                EGL14.EGL_BLUE_SIZE, 8,
-                EGL14.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT,
-                EGL_RECORDABLE_ANDROID, 1,
-                EGL14.EGL_NONE
-        };
-        EGLConfig[] configs    = new EGLConfig[1];
-        int[]       numConfigs = new int[1];
-        if (!EGL14.eglChooseConfig(mEGLDisplay, attribList, 0, configs, 0, configs.length,
-                                   numConfigs, 0)) {
-            throw new RuntimeException("unable to find RGB888+recordable ES2 EGL config");
-        }
-        // Configure context for OpenGL ES 2.0.
-        int[] attrib_list = {
-                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
-                EGL14.EGL_NONE
-        };
-        mEGLContext = EGL14.eglCreateContext(mEGLDisplay, configs[0], EGL14.EGL_NO_CONTEXT,
-                                             attrib_list, 0);
-        checkEglError("eglCreateContext");
-        if (mEGLContext == null) {
-            throw new RuntimeException("null context");
-        }
-        // Create a window surface, and attach it to the Surface we received.
-        int[] surfaceAttribs = {
-                EGL14.EGL_NONE
-        };
-        mEGLSurface = EGL14.eglCreateWindowSurface(mEGLDisplay, configs[0], mSurface, surfaceAttribs, 0);
-        checkEglError("eglCreateWindowSurface");
-        if (mEGLSurface == null) {
-            throw new RuntimeException("surface was null");
-        }
-    }
-
-    /**
-     * Discard all resources held by this class, notably the EGL context.  Also releases the
-     * Surface that was passed to our constructor.
+     * Discard the window surface and release the Surface that was passed to our constructor.
+     * The context stays alive, but is no longer current.
      */
     public void release() {
-        if (EGL14.eglGetCurrentContext().equals(mEGLContext)) {
-            // Clear the current context and surface to ensure they are discarded immediately.
-            EGL14.eglMakeCurrent(mEGLDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
-                                 EGL14.EGL_NO_CONTEXT);
-        }
-        EGL14.eglDestroySurface(mEGLDisplay, mEGLSurface);
-        EGL14.eglDestroyContext(mEGLDisplay, mEGLContext);
-        //EGL14.eglTerminate(mEGLDisplay);
+        // Clear the current context and surface to ensure they are discarded immediately.
+        mEglContext.makeNothingCurrent();
+        mEglContext.destroySurface(mEGLSurface);
         mSurface.release();
         // null everything out so future attempts to use this object will cause an NPE
-        mEGLDisplay = null;
-        mEGLContext = null;
+        mEglContext = null;
         mEGLSurface = null;
         mSurface = null;
     }
@@ -105,16 +44,14 @@ public class InputSurface {
      * Makes our EGL context and surface current.
      */
     public void makeCurrent() {
-        if (!EGL14.eglMakeCurrent(mEGLDisplay, mEGLSurface, mEGLSurface, mEGLContext)) {
-            throw new RuntimeException("eglMakeCurrent failed");
-        }
+        mEglContext.makeCurrent(mEGLSurface);
     }
 
     /**
      * Calls eglSwapBuffers.  Use this to "publish" the current frame.
      */
     public boolean swapBuffers() {
-        return EGL14.eglSwapBuffers(mEGLDisplay, mEGLSurface);
+        return mEglContext.swapBuffers(mEGLSurface);
     }
 
     /**
@@ -128,21 +65,6 @@ public class InputSurface {
      * Sends the presentation time stamp to EGL.  Time is expressed in nanoseconds.
      */
     public void setPresentationTime(long nsecs) {
-        EGLExt.eglPresentationTimeANDROID(mEGLDisplay, mEGLSurface, nsecs);
-    }
-
-    /**
-     * Checks for EGL errors.
-     */
-    private void checkEglError(String msg) {
-        boolean failed = false;
-        int     error;
-        while ((error = EGL14.eglGetError()) != EGL14.EGL_SUCCESS) {
-            Log.e(TAG, msg + ": EGL error: 0x" + Integer.toHexString(error));
-            failed = true;
-        }
-        if (failed) {
-            throw new RuntimeException("EGL error encountered (see log)");
-        }
+        mEglContext.setPresentationTime(mEGLSurface, nsecs);
     }
 }
@@ -17,13 +17,16 @@ package co.tula.videoencoder.encoder;
 
 import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
-import android.opengl.EGL14;
+import android.opengl.EGLSurface;
 import android.opengl.GLES20;
 import android.util.Log;
 import android.view.Surface;
+import co.tula.videoencoder.animation.Animation;
+import co.tula.videoencoder.filter.FilterGraph;
+import co.tula.videoencoder.overlay.Overlay;
 
-import javax.microedition.khronos.egl.*;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * Holds state associated with a Surface used for MediaCodec decoder output.
@@ -42,12 +45,9 @@ import java.nio.ByteBuffer;
  */
 public class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
     private static final String  TAG                = "OutputSurface";
-    private static final boolean VERBOSE            = true;
-    private static final int     EGL_OPENGL_ES2_BIT = 4;
+    private static final boolean VERBOSE            = false;
     private final        Object  mFrameSyncObject   = new Object();     // guards mFrameAvailable
-    private EGL10          mEGL;
-    private EGLDisplay     mEGLDisplay;
-    private EGLContext     mEGLContext;
+    private EglContext     mEglContext;
     private EGLSurface     mEGLSurface;
     private SurfaceTexture mSurfaceTexture;
     private Surface        mSurface;
@@ -55,30 +55,44 @@ public class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
     private TextureRender  mTextureRender;
 
     /**
-     * Creates an OutputSurface backed by a pbuffer with the specifed dimensions.  The new
-     * EGL context and surface will be made current.  Creates a Surface that can be passed
+     * Creates an OutputSurface backed by a pbuffer with the specifed dimensions.  The leased
+     * context and the new surface will be made current.  Creates a Surface that can be passed
      * to MediaCodec.configure().
      */
-    public OutputSurface(int width, int height, float rotation) {
+    public OutputSurface(EglContext context, int width, int height, float rotation) {
+        this(context, width, height, rotation, 1, 1);
+    }
+
+    /**
+     * Creates an OutputSurface backed by a pbuffer, drawing the frame rotated and scaled.
+     */
+    public OutputSurface(EglContext context, int width, int height, float rotation, float scaleX, float scaleY) {
         if (width <= 0 || height <= 0) {
             throw new IllegalArgumentException();
         }
-        eglSetup(width, height);
+        mEglContext = context;
+        mEGLSurface = context.createPbufferSurface(width, height);
         makeCurrent();
-        setup(rotation, 1, 1);
+        // A pooled context keeps the viewport of the surface it drew to before
+        GLES20.glViewport(0, 0, width, height);
+        setup(context, new FilterGraph(), rotation, scaleX, scaleY);
     }
 
-    public OutputSurface(float rotation, float scaleX, float scaleY) {
-        setup(rotation, scaleX, scaleY);
+    /**
+     * Creates an OutputSurface rendering into {@code context}, which must be current.
+     */
+    public OutputSurface(EglContext context, FilterGraph filters, float rotation, float scaleX, float scaleY) {
+        setup(context, filters, rotation, scaleX, scaleY);
     }
 
     /**
      * Creates instances of TextureRender and SurfaceTexture, and a Surface associated
      * with the SurfaceTexture.
      */
-    private void setup(float rotation, float scaleX, float scaleY) {
-        mTextureRender = new TextureRender(rotation, scaleX, scaleY);
-        mTextureRender.surfaceCreated();
+    private void setup(EglContext context, FilterGraph filters, float rotation, float scaleX, float scaleY) {
+        mTextureRender = new TextureRender(context.getPrograms(), context.getFramebuffers(), rotation, scaleX,
+                                           scaleY);
+        mTextureRender.surfaceCreated(filters);
         // Even if we don't access the SurfaceTexture after the constructor returns, we
         // still need to keep a reference to it.  The Surface doesn't retain a reference
         // at the Java level, so if we don't either then the object can get GCed, which
@@ -101,93 +115,34 @@ public class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
     }
 
     /**
-     * Prepares EGL.  We want a GLES 2.0 context and a surface that supports pbuffer.
-     */
-    private void eglSetup(int width, int height) {
-        mEGL = (EGL10) EGLContext.getEGL();
-        mEGLDisplay = mEGL.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
-        if (!mEGL.eglInitialize(mEGLDisplay, null)) {
-            throw new RuntimeException("unable to initialize EGL10");
-        }
-        // Configure EGL for pbuffer and OpenGL ES 2.0.  We want enough RGB bits
-        // to be able to tell if the frame is reasonable.
-        int[] attribList = {
-                EGL10.EGL_RED_SIZE, 8,
-                EGL10.EGL_GREEN_SIZE, 8,
-                EGL10.EGL_BLUE_SIZE, 8,
-                EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT,
-                EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT,
-                EGL10.EGL_NONE
-        };
-        EGLConfig[] configs    = new EGLConfig[1];
-        int[]       numConfigs = new int[1];
-        if (!mEGL.eglChooseConfig(mEGLDisplay, attribList, configs, 1, numConfigs)) {
-            throw new RuntimeException("unable to find RGB888+pbuffer EGL config");
-        }
-        // Configure context for OpenGL ES 2.0.
-        int[] attrib_list = {
-                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
-                EGL10.EGL_NONE
-        };
-        mEGLContext = mEGL.eglCreateContext(mEGLDisplay, configs[0], EGL10.EGL_NO_CONTEXT,
-                                            attrib_list);
-        checkEglError("eglCreateContext");
-        if (mEGLContext == null) {
-            throw new RuntimeException("null context");
-        }
-        // Create a pbuffer surface.  By using this for output, we can use glReadPixels
-        // to test values in the output.
-        int[] surfaceAttribs = {
-                EGL10.EGL_WIDTH, width,
-                EGL10.EGL_HEIGHT, height,
-                EGL10.EGL_NONE
-        };
-        mEGLSurface = mEGL.eglCreatePbufferSurface(mEGLDisplay, configs[0], surfaceAttribs);
-        checkEglError("eglCreatePbufferSurface");
-        if (mEGLSurface == null) {
-            throw new RuntimeException("surface was null");
-        }
-    }
-
-    /**
-     * Discard all resources held by this class, notably the EGL context.
+     * Discard all resources held by this class.  The pbuffer is destroyed, the context stays
+     * with its pool.
      */
     public void release() {
-        if (mEGL != null) {
-            if (mEGL.eglGetCurrentContext().equals(mEGLContext)) {
-                // Clear the current context and surface to ensure they are discarded immediately.
-                mEGL.eglMakeCurrent(mEGLDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE,
-                                    EGL10.EGL_NO_CONTEXT);
-            }
-            mEGL.eglDestroySurface(mEGLDisplay, mEGLSurface);
-            mEGL.eglDestroyContext(mEGLDisplay, mEGLContext);
-            //mEGL.eglTerminate(mEGLDisplay);
+        mTextureRender.release();
+        if (mEglContext != null) {
+            mEglContext.destroySurface(mEGLSurface);
         }
         mSurface.release();
-        // this causes a bunch of warnings that appear harmless but might confuse someone:
-        //  W BufferQueue: [unnamed-3997-2] cancelBuffer: BufferQueue has been abandoned!
-        //mSurfaceTexture.release();
+        // The context lives on, so the SurfaceTexture must not leak with it.  Releasing it logs
+        // "BufferQueue has been abandoned" warnings once the decoder is gone, they are harmless.
+        mSurfaceTexture.release();
         // null everything out so future attempts to use this object will cause an NPE
-        mEGLDisplay = null;
-        mEGLContext = null;
+        mEglContext = null;
         mEGLSurface = null;
-        mEGL = null;
         mTextureRender = null;
         mSurface = null;
         mSurfaceTexture = null;
     }
 
     /**
-     * Makes our EGL context and surface current.
+     * Makes our EGL context and pbuffer current.
      */
     public void makeCurrent() {
-        if (mEGL == null) {
+        if (mEglContext == null) {
             throw new RuntimeException("not configured for makeCurrent");
         }
-        checkEglError("before makeCurrent");
-        if (!mEGL.eglMakeCurrent(mEGLDisplay, mEGLSurface, mEGLSurface, mEGLContext)) {
-            throw new RuntimeException("eglMakeCurrent failed");
-        }
+        mEglContext.makeCurrent(mEGLSurface);
     }
 
     /**
@@ -204,6 +159,48 @@ public class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
         mTextureRender.changeFragmentShader(fragmentShader);
     }
 
+    /**
+     * Replaces the filters.
+     */
+    public void setFilters(FilterGraph filters) {
+        mTextureRender.setFilters(filters);
+    }
+
+    /**
+     * Returns the transform of the frame, see {@link TextureRender#getSprite}.
+     */
+    public Sprite getSprite() {
+        return mTextureRender.getSprite();
+    }
+
+    /**
+     * Animates the frame and filter uniforms, see {@link TextureRender#setAnimation}.
+     */
+    public void setAnimation(Animation animation) {
+        mTextureRender.setAnimation(animation);
+    }
+
+    /**
+     * Composites overlays onto every frame, see {@link TextureRender#setOverlays}.
+     */
+    public void setOverlays(List<Overlay> overlays) {
+        mTextureRender.setOverlays(overlays);
+    }
+
+    /**
+     * Sets the size of decoded frames, see {@link TextureRender#setSourceSize}.
+     */
+    public void setSourceSize(int width, int height) {
+        mTextureRender.setSourceSize(width, height);
+    }
+
+    /**
+     * Sets the size of the surface drawn to next, see {@link TextureRender#setViewport}.
+     */
+    public void setViewport(int width, int height) {
+        mTextureRender.setViewport(width, height);
+    }
+
     /**
      * Latches the next buffer into the texture.  Must be called from the thread that created
      * the OutputSurface object, after the onFrameAvailable callback has signaled that new
@@ -235,6 +232,14 @@ public class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
         mTextureRender.drawFrame(mSurfaceTexture);
     }
 
+    /**
+     * Draws the luma of the latched frame into a small framebuffer for analysis, see
+     * {@link TextureRender#drawLuma}.
+     */
+    public void drawLuma(FramebufferPool.Framebuffer target, FrameReadback readback, long presentationTimeUs) {
+        mTextureRender.drawLuma(target, readback, presentationTimeUs);
+    }
+
     @Override
     public void onFrameAvailable(SurfaceTexture st) {
         if (VERBOSE) Log.d(TAG, "new frame available");
@@ -247,32 +252,25 @@ public class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
         }
     }
 
-    /**
-     * Checks for EGL errors.
-     */
-    private void checkEglError(String msg) {
-        boolean failed = false;
-        int     error;
-        while ((error = mEGL.eglGetError()) != EGL10.EGL_SUCCESS) {
-            Log.e(TAG, msg + ": EGL error: 0x" + Integer.toHexString(error));
-            failed = true;
-        }
-        if (failed) {
-            throw new RuntimeException("EGL error encountered (see log)");
-        }
-    }
-
     public Bitmap getFrame(int width, int height) {
         // glReadPixels gives us a ByteBuffer filled with what is essentially big-endian RGBA
         // data (i.e. a byte of red, followed by a byte of green...).  To use the Bitmap
         // constructor that takes an int[] array with pixel data, we need an int[] filled
         // with little-endian ARGB data.
         ByteBuffer pixelBuf = ByteBuffer.allocateDirect(width * height * 4);
-        GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixelBuf);
+        readPixels(pixelBuf, width, height);
         Bitmap bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        pixelBuf.rewind();
         bmp.copyPixelsFromBuffer(pixelBuf);
         return bmp;
     }
 
+    /**
+     * Reads the current surface into {@code pixels}, which must be direct and hold width * height * 4
+     * bytes from its position.  Rows go from bottom to top, the position is left unchanged.
+     */
+    public void readPixels(ByteBuffer pixels, int width, int height) {
+        GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+        mTextureRender.checkGlError("glReadPixels");
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,187 @@
+package co.tula.videoencoder.encoder;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import co.tula.videoencoder.overlay.AtlasLayout;
+import co.tula.videoencoder.overlay.AtlasPacker;
+import co.tula.videoencoder.overlay.Overlay;
+import co.tula.videoencoder.overlay.OverlayBatch;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+/**
+ * Composites overlays onto the bound surface.
+ * <p>
+ * The images are packed once into a texture atlas, so all overlays of a frame are drawn by one call with
+ * blending, whatever their number.  Vertices are rewritten every frame from the overlays, which may move in
+ * between.  Bitmaps are uploaded premultiplied, so they are blended with {@code GL_ONE}.
+ */
+public class OverlayRenderer {
+    private static final int    FLOAT_SIZE_BYTES = 4;
+    private static final int    STRIDE_BYTES     = OverlayBatch.FLOATS_PER_VERTEX * FLOAT_SIZE_BYTES;
+    private static final int    MAX_ATLAS_SIZE   = 4096;
+    private static final int    PADDING          = 1;
+    private static final String VERTEX_SHADER    =
+            "attribute vec2 aPosition;" +
+            "attribute vec2 aTexCoord;" +
+            "attribute float aAlpha;" +
+            "varying vec2 vTexCoord;" +
+            "varying float vAlpha;" +
+            "void main() {" +
+            "  gl_Position = vec4(aPosition, 0.0, 1.0);" +
+            "  vTexCoord = aTexCoord;" +
+            "  vAlpha = aAlpha;" +
+            "}";
+    private static final String FRAGMENT_SHADER  =
+            "precision mediump float;" +
+            "varying vec2 vTexCoord;" +
+            "varying float vAlpha;" +
+            "uniform sampler2D sTexture;" +
+            "void main() {" +
+            "  gl_FragColor = texture2D(sTexture, vTexCoord) * vAlpha;" +
+            "}";
+
+    private final ProgramCache programs;
+    private final OverlayBatch batch;
+    private final AtlasLayout  atlas;
+    private final FloatBuffer  vertices;
+    private final int          position;
+    private final int          textureCoordinates;
+    private final int          alpha;
+    private final int          source;
+    private int texture;
+    private int program;
+
+    /**
+     * Decodes and packs the images.  Call with the context current.
+     */
+    public OverlayRenderer(ProgramCache programs, List<Overlay> overlays) {
+        this.programs = programs;
+        batch = new OverlayBatch(overlays);
+        List<String> paths   = batch.getImagePaths();
+        Bitmap[]     bitmaps = new Bitmap[paths.size()];
+        int[]        widths  = new int[bitmaps.length];
+        int[]        heights = new int[bitmaps.length];
+        for (int i = 0; i < bitmaps.length; i++) {
+            bitmaps[i] = BitmapFactory.decodeFile(paths.get(i));
+            if (bitmaps[i] == null) {
+                recycle(bitmaps);
+                throw new RuntimeException("unable to decode overlay image " + paths.get(i));
+            }
+            widths[i] = bitmaps[i].getWidth();
+            heights[i] = bitmaps[i].getHeight();
+        }
+        int[] maxSize = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxSize, 0);
+        try {
+            atlas = new AtlasPacker(Math.min(maxSize[0], MAX_ATLAS_SIZE), PADDING).pack(widths, heights);
+        } catch (IllegalArgumentException e) {
+            recycle(bitmaps);
+            throw e;
+        }
+        texture = upload(bitmaps);
+        vertices = ByteBuffer.allocateDirect(batch.getVertexCount() * STRIDE_BYTES)
+                             .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        program = programs.obtain(VERTEX_SHADER, FRAGMENT_SHADER);
+        position = GLES20.glGetAttribLocation(program, "aPosition");
+        textureCoordinates = GLES20.glGetAttribLocation(program, "aTexCoord");
+        alpha = GLES20.glGetAttribLocation(program, "aAlpha");
+        source = GLES20.glGetUniformLocation(program, "sTexture");
+        if (position == -1 || textureCoordinates == -1 || alpha == -1) {
+            release();
+            throw new RuntimeException("Could not get attrib locations of the overlay program");
+        }
+    }
+
+    public AtlasLayout getAtlas() {
+        return atlas;
+    }
+
+    /**
+     * Blends the overlays onto the bound framebuffer, which has the given viewport.
+     */
+    public void draw(int viewportWidth, int viewportHeight) {
+        int count = batch.write(atlas, (float) viewportWidth / viewportHeight, vertices);
+        if (count == 0) {
+            return;
+        }
+        GLES20.glUseProgram(program);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glUniform1i(source, 0);
+        vertices.position(0);
+        GLES20.glVertexAttribPointer(position, 2, GLES20.GL_FLOAT, false, STRIDE_BYTES, vertices);
+        GLES20.glEnableVertexAttribArray(position);
+        vertices.position(2);
+        GLES20.glVertexAttribPointer(textureCoordinates, 2, GLES20.GL_FLOAT, false, STRIDE_BYTES, vertices);
+        GLES20.glEnableVertexAttribArray(textureCoordinates);
+        vertices.position(4);
+        GLES20.glVertexAttribPointer(alpha, 1, GLES20.GL_FLOAT, false, STRIDE_BYTES, vertices);
+        GLES20.glEnableVertexAttribArray(alpha);
+        vertices.position(0);
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);
+        GLES20.glDisable(GLES20.GL_BLEND);
+        // The filter stages use other locations, don't leave arrays enabled for them
+        GLES20.glDisableVertexAttribArray(alpha);
+        GLES20.glDisableVertexAttribArray(textureCoordinates);
+        GLES20.glDisableVertexAttribArray(position);
+        checkGlError("draw overlays");
+    }
+
+    /**
+     * Deletes the atlas and lets go of the program, which stays in the cache.
+     */
+    public void release() {
+        if (texture != 0) {
+            GLES20.glDeleteTextures(1, new int[]{texture}, 0);
+            texture = 0;
+        }
+        if (program != 0) {
+            programs.release(program);
+            program = 0;
+        }
+    }
+
+    private int upload(Bitmap[] bitmaps) {
+        Bitmap packed = Bitmap.createBitmap(atlas.getWidth(), atlas.getHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(packed);
+        for (int i = 0; i < bitmaps.length; i++) {
+            canvas.drawBitmap(bitmaps[i], atlas.getX(i), atlas.getY(i), null);
+        }
+        recycle(bitmaps);
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, packed, 0);
+        packed.recycle();
+        checkGlError("texImage2D overlay atlas");
+        return textures[0];
+    }
+
+    private static void recycle(Bitmap[] bitmaps) {
+        for (Bitmap bitmap : bitmaps) {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+        }
+    }
+
+    private static void checkGlError(String op) {
+        int error = GLES20.glGetError();
+        if (error != GLES20.GL_NO_ERROR) {
+            throw new RuntimeException(op + ": glError " + error);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package co.tula.videoencoder.encoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads of the current framebuffer used by {@link FrameReadback}.  Implemented with pixel pack buffers on the
+ * device and with fakes in tests.  Pixels are RGBA with rows from bottom to top.
+ */
+public interface PixelTransfer {
+
+    /**
+     * Returns false if reads can't be deferred, then only {@link #read} may be used.
+     */
+    boolean isAsync();
+
+    /**
+     * Starts copying the framebuffer into the slot without waiting for the GPU.
+     */
+    void startRead(int slot, int width, int height);
+
+    /**
+     * Returns the pixels of the slot, waiting for its read if needed.  Valid until {@link #unmap}.
+     */
+    ByteBuffer map(int slot, int byteCount);
+
+    void unmap(int slot);
+
+    /**
+     * Copies the framebuffer into {@code pixels}, blocking until the GPU is done.
+     */
+    void read(ByteBuffer pixels, int width, int height);
+
+    void release();
+}
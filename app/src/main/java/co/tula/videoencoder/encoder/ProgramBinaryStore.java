@@ -0,0 +1,69 @@
+package co.tula.videoencoder.encoder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps program binaries of {@link ProgramCache} on disk, one file per program.  Shared by all contexts and
+ * jobs of the process.  IO errors are treated as a missing binary, the program is compiled instead.
+ */
+public class ProgramBinaryStore {
+
+    private static final int MAGIC = 0x50524f47; // PROG
+
+    private final File directory;
+
+    public ProgramBinaryStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the stored binary or null.
+     */
+    public synchronized ProgramCache.Binary read(String key) {
+        File file = new File(directory, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int    format = in.readInt();
+            byte[] data   = new byte[in.readInt()];
+            in.readFully(data);
+            return new ProgramCache.Binary(format, data);
+        } catch (IOException | NegativeArraySizeException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    public synchronized void write(String key, ProgramCache.Binary binary) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        // Written aside and renamed so a crash never leaves a truncated binary behind
+        File temp = new File(directory, key + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+            out.writeInt(MAGIC);
+            out.writeInt(binary.format);
+            out.writeInt(binary.data.length);
+            out.write(binary.data);
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(new File(directory, key))) {
+            temp.delete();
+        }
+    }
+
+    public synchronized void remove(String key) {
+        new File(directory, key).delete();
+    }
+}
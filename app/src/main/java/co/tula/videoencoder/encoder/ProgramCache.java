@@ -0,0 +1,218 @@
+package co.tula.videoencoder.encoder;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Linked shader programs of one GL context, keyed by a hash of their sources.
+ * <p>
+ * Programs are reference counted: {@link #obtain} holds one until {@link #release}.  When the cache is full
+ * the least recently used program nobody holds is deleted, held ones are kept even above the capacity.
+ * With a {@link ProgramBinaryStore}
+ * linked programs are also saved as driver binaries, so later contexts, even in later processes, can load
+ * them instead of compiling.  Must only be used on the thread the context is current on.
+ */
+public class ProgramCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A program binary and its driver specific format.
+     */
+    public static final class Binary {
+        public final int    format;
+        public final byte[] data;
+
+        public Binary(int format, byte[] data) {
+            this.format = format;
+            this.data = data;
+        }
+    }
+
+    /**
+     * A cached program and the number of holders.
+     */
+    private static final class Entry {
+        final int program;
+        int       references;
+
+        Entry(int program) {
+            this.program = program;
+        }
+    }
+
+    /**
+     * Creates programs in the GL context.
+     */
+    public interface Linker {
+        /**
+         * Compiles and links a program, returns 0 on failure.
+         */
+        int link(String vertexSource, String fragmentSource);
+
+        /**
+         * Creates a program from a binary, returns 0 if the driver rejects it.
+         */
+        int load(Binary binary);
+
+        /**
+         * Returns the binary of a linked program, or null if binaries are not supported.
+         */
+        Binary save(int program);
+
+        void delete(int program);
+    }
+
+    private final Linker                       linker;
+    private final ProgramBinaryStore           store;
+    private final int                          capacity;
+    private final LinkedHashMap<String, Entry> programs = new LinkedHashMap<>(16, 0.75f, true);
+    private int hits;
+    private int binaryLoads;
+    private int links;
+
+    /**
+     * @param store may be null to keep programs in memory only
+     */
+    public ProgramCache(Linker linker, ProgramBinaryStore store, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.linker = linker;
+        this.store = store;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the program for the sources, linking it if necessary, and holds it until {@link #release}.  The
+     * program is owned by the cache and must not be deleted by the caller.
+     */
+    public int obtain(String vertexSource, String fragmentSource) {
+        String key   = hash(vertexSource, fragmentSource);
+        Entry  entry = programs.get(key);
+        if (entry != null) {
+            hits++;
+            entry.references++;
+            return entry.program;
+        }
+        int created = loadBinary(key);
+        if (created == 0) {
+            created = linker.link(vertexSource, fragmentSource);
+            if (created == 0) {
+                throw new RuntimeException("failed creating program");
+            }
+            links++;
+            saveBinary(key, created);
+        }
+        entry = new Entry(created);
+        entry.references = 1;
+        programs.put(key, entry);
+        trim();
+        return created;
+    }
+
+    /**
+     * Stops holding a program returned by {@link #obtain}, once nobody holds it it may be deleted.
+     */
+    public void release(int program) {
+        for (Entry entry : programs.values()) {
+            if (entry.program == program && entry.references > 0) {
+                entry.references--;
+                trim();
+                return;
+            }
+        }
+        throw new IllegalArgumentException("program " + program + " is not held");
+    }
+
+    /**
+     * Deletes all programs, held ones too.  Call before the context is destroyed.
+     */
+    public void clear() {
+        for (Entry entry : programs.values()) {
+            linker.delete(entry.program);
+        }
+        programs.clear();
+    }
+
+    public int size() {
+        return programs.size();
+    }
+
+    public int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of programs created from stored binaries.
+     */
+    public int getBinaryLoadCount() {
+        return binaryLoads;
+    }
+
+    /**
+     * Returns the number of programs compiled from source.
+     */
+    public int getLinkCount() {
+        return links;
+    }
+
+    private int loadBinary(String key) {
+        if (store == null) {
+            return 0;
+        }
+        Binary binary = store.read(key);
+        if (binary == null) {
+            return 0;
+        }
+        int program = linker.load(binary);
+        if (program == 0) {
+            // Usually a driver update, the source is compiled again and the binary replaced
+            store.remove(key);
+            return 0;
+        }
+        binaryLoads++;
+        return program;
+    }
+
+    private void saveBinary(String key, int program) {
+        if (store == null) {
+            return;
+        }
+        Binary binary = linker.save(program);
+        if (binary != null) {
+            store.write(key, binary);
+        }
+    }
+
+    private void trim() {
+        Iterator<Entry> eldest = programs.values().iterator();
+        while (programs.size() > capacity && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            if (entry.references == 0) {
+                linker.delete(entry.program);
+                eldest.remove();
+            }
+        }
+    }
+
+    static String hash(String vertexSource, String fragmentSource) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(vertexSource.getBytes(UTF_8));
+        digest.update((byte) 0);
+        digest.update(fragmentSource.getBytes(UTF_8));
+        StringBuilder key = new StringBuilder(40);
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.toString();
+    }
+}
@@ -1,73 +1,133 @@
 package co.tula.videoencoder.encoder;
 
-import android.graphics.PointF;
-import android.graphics.RectF;
+import java.nio.FloatBuffer;
 
 /**
  * Created by nephe on 04.10.2016.
+ * <p>
+ * Scaled, rotated and translated quad, in that order.  Plain floats instead of RectF and PointF, so the math
+ * runs on the JVM in benchmarks and tests.
+ * <p>
+ * Nothing is allocated per frame: vertices are written into the caller's array or buffer, and sine and cosine
+ * are only computed again when the angle changes.  For an animated pan, zoom or rotation draw the untransformed
+ * quad and pass {@link #getMatrix} as the MVP uniform, the vertex buffer then never changes.
  */
 public class Sprite {
 
-    public float scaleY = 1f;
-    public float scaleX = 1f;// + 1f / 3f;
-    public RectF  base;
-    public PointF translation;
-    private float angle = 0;
+    public static final int    VERTEX_FLOATS = 12;
+    public static final int    MATRIX_FLOATS = 16;
+    // The full screen quad in clip space
+    private static final float LEFT          = -1f;
+    private static final float TOP           = 1f;
+    private static final float RIGHT         = 1f;
+    private static final float BOTTOM        = -1f;
 
-    public Sprite() {
-        base = new RectF(-1f, 1f, 1f, -1f);
-        translation = new PointF(0f, 0f);
-        angle = 0f;
+    private float scaleX = 1f;
+    private float scaleY = 1f;
+    private float translateX;
+    private float translateY;
+    private float angleDeg;
+    private float sin = 0f;
+    private float cos = 1f;
+
+    public Sprite setScale(float scaleX, float scaleY) {
+        this.scaleX = scaleX;
+        this.scaleY = scaleY;
+        return this;
+    }
+
+    public Sprite setTranslation(float x, float y) {
+        translateX = x;
+        translateY = y;
+        return this;
     }
 
     public Sprite updateAngleDeg(float angle) {
-        this.angle = (float) ((Math.PI / 180.f) * angle);
+        if (angle != angleDeg) {
+            angleDeg = angle;
+            double radians = (Math.PI / 180.f) * angle;
+            sin = (float) Math.sin(radians);
+            cos = (float) Math.cos(radians);
+        }
         return this;
     }
 
-    public float[] getTransformedVertices() {
-        // Start with scaling
-        float x1 = base.left * scaleX;
-        float x2 = base.right * scaleX;
-        float y1 = base.bottom * scaleY;
-        float y2 = base.top * scaleY;
+    public float getScaleX() {
+        return scaleX;
+    }
 
-        // We now detach from our Rect because when rotating,
-        // we need the seperate points, so we do so in opengl order
-        PointF one   = new PointF(x1, y1);
-        PointF two   = new PointF(x1, y2);
-        PointF three = new PointF(x2, y1);
-        PointF four  = new PointF(x2, y2);
+    public float getScaleY() {
+        return scaleY;
+    }
+
+    public float getAngleDeg() {
+        return angleDeg;
+    }
 
-        // We create the sin and cos function once,
-        // so we do not have calculate them each time.
-        float s = (float) Math.sin(angle);
-        float c = (float) Math.cos(angle);
+    /**
+     * Writes the four corners as x, y, z triples in triangle strip order, starting at {@code offset}.
+     */
+    public void getTransformedVertices(float[] out, int offset) {
+        // Start with scaling
+        float x1 = LEFT * scaleX;
+        float x2 = RIGHT * scaleX;
+        float y1 = BOTTOM * scaleY;
+        float y2 = TOP * scaleY;
+        float s  = sin;
+        float c  = cos;
 
-        // Then we rotate each point
-        one.x = x1 * c - y2 * s;
-        one.y = x1 * s + y2 * c;
-        two.x = x1 * c - y1 * s;
-        two.y = x1 * s + y1 * c;
-        three.x = x2 * c - y1 * s;
-        three.y = x2 * s + y1 * c;
-        four.x = x2 * c - y2 * s;
-        four.y = x2 * s + y2 * c;
+        // Then we rotate each corner, in opengl order,
+        // and finally translate the sprite to its correct position
+        out[offset] = x1 * c - y1 * s + translateX;
+        out[offset + 1] = x1 * s + y1 * c + translateY;
+        out[offset + 2] = 0f;
+        out[offset + 3] = x2 * c - y1 * s + translateX;
+        out[offset + 4] = x2 * s + y1 * c + translateY;
+        out[offset + 5] = 0f;
+        out[offset + 6] = x1 * c - y2 * s + translateX;
+        out[offset + 7] = x1 * s + y2 * c + translateY;
+        out[offset + 8] = 0f;
+        out[offset + 9] = x2 * c - y2 * s + translateX;
+        out[offset + 10] = x2 * s + y2 * c + translateY;
+        out[offset + 11] = 0f;
+    }
 
-        // Finally we translate the sprite to its correct position.
-        one.x += translation.x;
-        one.y += translation.y;
-        two.x += translation.x;
-        two.y += translation.y;
-        three.x += translation.x;
-        three.y += translation.y;
-        four.x += translation.x;
-        four.y += translation.y;
+    /**
+     * Writes the corners from index 0 of {@code out}, its position is left unchanged.
+     */
+    public void getTransformedVertices(FloatBuffer out) {
+        float x1 = LEFT * scaleX;
+        float x2 = RIGHT * scaleX;
+        float y1 = BOTTOM * scaleY;
+        float y2 = TOP * scaleY;
+        float s  = sin;
+        float c  = cos;
+        out.put(0, x1 * c - y1 * s + translateX).put(1, x1 * s + y1 * c + translateY).put(2, 0f);
+        out.put(3, x2 * c - y1 * s + translateX).put(4, x2 * s + y1 * c + translateY).put(5, 0f);
+        out.put(6, x1 * c - y2 * s + translateX).put(7, x1 * s + y2 * c + translateY).put(8, 0f);
+        out.put(9, x2 * c - y2 * s + translateX).put(10, x2 * s + y2 * c + translateY).put(11, 0f);
+    }
 
-        // We now return our float array of vertices.
-        return new float[]{two.x, two.y, 0.0f,
-                           three.x, three.y, 0.0f,
-                           one.x, one.y, 0.0f,
-                           four.x, four.y, 0.0f,};
+    /**
+     * Writes the transform as a column-major 4x4 matrix, as glUniformMatrix4fv expects it.  Applied to the
+     * full screen quad it gives the same corners as {@link #getTransformedVertices(float[], int)}.
+     */
+    public void getMatrix(float[] out, int offset) {
+        out[offset] = scaleX * cos;
+        out[offset + 1] = scaleX * sin;
+        out[offset + 2] = 0f;
+        out[offset + 3] = 0f;
+        out[offset + 4] = -scaleY * sin;
+        out[offset + 5] = scaleY * cos;
+        out[offset + 6] = 0f;
+        out[offset + 7] = 0f;
+        out[offset + 8] = 0f;
+        out[offset + 9] = 0f;
+        out[offset + 10] = 1f;
+        out[offset + 11] = 0f;
+        out[offset + 12] = translateX;
+        out[offset + 13] = translateY;
+        out[offset + 14] = 0f;
+        out[offset + 15] = 1f;
     }
 }
@@ -15,18 +15,41 @@
  */
 package co.tula.videoencoder.encoder;
 
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.SurfaceTexture;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
+import android.opengl.GLUtils;
 import android.opengl.Matrix;
 import android.util.Log;
+import co.tula.videoencoder.animation.Animation;
+import co.tula.videoencoder.animation.KeyframeTrack;
+import co.tula.videoencoder.filter.FilterGraph;
+import co.tula.videoencoder.filter.FilterStage;
+import co.tula.videoencoder.overlay.Overlay;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Code for rendering a texture onto a surface using OpenGL ES 2.0.
+ * <p>
+ * The frame goes through the stages of a {@link FilterGraph}.  The first stage draws the rotated and
+ * scaled sprite, later stages copy the previous stage's output full screen, the last one draws to the
+ * current surface.
+ * <p>
+ * Every stage draws the same full screen quad, the sprite is applied through the MVP matrix of the first
+ * stage.  Changing the {@link #getSprite() sprite} between frames, for an animated pan, zoom or rotation,
+ * only changes that uniform.  An {@link Animation} does so from keyframes, at the timestamp of each frame.
+ * <p>
+ * {@link #setOverlays Overlays} are blended onto the output of the last stage by an {@link OverlayRenderer}, in
+ * one draw call from a texture atlas.
  */
 public class TextureRender {
     private static final String  TAG              = "TextureRender";
@@ -40,94 +63,234 @@ public class TextureRender {
             "  gl_Position = uMVPMatrix * vPosition;" +
             "  vTextureCoord = a_texCoord;" +
             "}";
-    private static final String  FRAGMENT_SHADER  =
-            "#extension GL_OES_EGL_image_external : require\n" +
-            "precision mediump float;\n" +      // highp here doesn't seem to matter
-            "varying vec2 vTextureCoord;\n" +
-            "uniform samplerExternalOES sTexture;\n" +
-            "void main() {\n" +
-            "  gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
-            "}\n";
     private static final float[] uvMapping        = {// U, V
                                                      0f, 1f,
                                                      1f, 1f,
                                                      0f, 0f,
                                                      1f, 0f};
+    private static final float[] quadVertices     = {-1f, -1f, 0f,
+                                                     1f, -1f, 0f,
+                                                     -1f, 1f, 0f,
+                                                     1f, 1f, 0f};
+    private static final float[] quadUvMapping    = {0f, 0f,
+                                                     1f, 0f,
+                                                     0f, 1f,
+                                                     1f, 1f};
+    private static final String  LUMA_SHADER      =
+            "#extension GL_OES_EGL_image_external : require\n" +
+            "precision mediump float;" +
+            "varying vec2 vTextureCoord;" +
+            "uniform samplerExternalOES sTexture;" +
+            "void main() {" +
+            "  float luma = dot(texture2D(sTexture, vTextureCoord).rgb, vec3(0.299, 0.587, 0.114));" +
+            "  gl_FragColor = vec4(luma, luma, luma, 1.0);" +
+            "}";
+    /**
+     * Frames the GPU may still be drawing while the CPU latches the next one.
+     */
+    private static final int     MAX_FRAMES_IN_FLIGHT = 1;
     private final        Sprite  sprite           = new Sprite();
-    private FloatBuffer vertexBuffer, uvBuffer;
-    private float[] mMVPMatrix = new float[16];
-    private float[] mSTMatrix  = new float[16];
-    private int mProgram;
+    private final ProgramCache         programs;
+    private final FramebufferPool      framebuffers;
+    private final Map<String, Integer> images           = new HashMap<>();
+    private final float[]              transformValues  = new float[Animation.TRANSFORM_FLOATS];
+    private final float                baseRotation, baseScaleX, baseScaleY;
+    private FramePacer framePacer;
+    private FloatBuffer uvBuffer, quadBuffer, quadUvBuffer;
+    private float[] mMVPMatrix    = new float[16];
+    private float[] mSTMatrix     = new float[16];
+    private float[] spriteMatrix  = new float[Sprite.MATRIX_FLOATS];
+    private float[] uniformValues = new float[0];
+    private Stage[] stages        = new Stage[0];
+    private Stage   lumaStage;
+    private Animation animation;
+    private OverlayRenderer overlays;
     private int mTextureID = -12345;
-    private int muMVPMatrixHandle;
-    private int maPositionHandle;
-    private int textureCoordinatesLocation;
-
-    public TextureRender(float rotation, float scaleX, float scaleY) {
-        sprite.updateAngleDeg(rotation);
-        sprite.scaleX = scaleX;
-        sprite.scaleY = scaleY;
-        float[] vertices = sprite.getTransformedVertices();
-        vertexBuffer = ByteBuffer.allocateDirect(vertices.length * FLOAT_SIZE_BYTES)
-                                 .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        vertexBuffer.put(vertices).position(0);
-        uvBuffer = ByteBuffer.allocateDirect(uvMapping.length * FLOAT_SIZE_BYTES)
-                             .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        uvBuffer.put(uvMapping).position(0);
+    private int viewportWidth, viewportHeight;
+    private int sourceWidth, sourceHeight;
+
+    /**
+     * Compiled filter stage with its uniform locations.
+     */
+    private static final class Stage {
+        int   program;
+        int   position;
+        int   textureCoordinates;
+        int   mvpMatrix;
+        int   source;
+        int   texelSize;
+        int   viewportSize;
+        int   time;
+        int[] animatedUniforms;
+        int[] imageUniforms;
+        int[] imageTextures;
+    }
+
+    public TextureRender(ProgramCache programs, FramebufferPool framebuffers, float rotation, float scaleX,
+                         float scaleY) {
+        this.programs = programs;
+        this.framebuffers = framebuffers;
+        baseRotation = rotation;
+        baseScaleX = scaleX;
+        baseScaleY = scaleY;
+        sprite.updateAngleDeg(rotation).setScale(scaleX, scaleY);
+        uvBuffer = floatBuffer(uvMapping);
+        quadBuffer = floatBuffer(quadVertices);
+        quadUvBuffer = floatBuffer(quadUvMapping);
         Matrix.setIdentityM(mSTMatrix, 0);
+        Matrix.setIdentityM(mMVPMatrix, 0);
     }
 
     public int getTextureId() {
         return mTextureID;
     }
 
+    /**
+     * Returns the transform of the frame, read on every {@link #drawFrame}.  An animation with a transform
+     * overwrites it every frame.
+     */
+    public Sprite getSprite() {
+        return sprite;
+    }
+
+    /**
+     * Animates the frame and filter uniforms, or stops animating if {@code animation} is null.  Transforms
+     * apply on top of the rotation and scale given to the constructor.  Call with the context current.
+     */
+    public void setAnimation(Animation animation) {
+        this.animation = animation != null && !animation.isEmpty() ? animation : null;
+        uniformValues = new float[this.animation != null
+                                  ? this.animation.getUniformCount() * KeyframeTrack.MAX_COMPONENTS : 0];
+        sprite.updateAngleDeg(baseRotation).setScale(baseScaleX, baseScaleY).setTranslation(0f, 0f);
+        for (Stage stage : stages) {
+            stage.animatedUniforms = getAnimatedUniforms(stage.program);
+        }
+        if (lumaStage != null) {
+            lumaStage.animatedUniforms = getAnimatedUniforms(lumaStage.program);
+        }
+    }
+
+    /**
+     * Sets the size of decoded frames, used by filters sampling neighbouring pixels.  Defaults to the
+     * viewport size.
+     */
+    public void setSourceSize(int width, int height) {
+        sourceWidth = width;
+        sourceHeight = height;
+    }
+
+    /**
+     * Changes the size drawn to, for rendering one frame into surfaces of different sizes.
+     */
+    public void setViewport(int width, int height) {
+        viewportWidth = width;
+        viewportHeight = height;
+        GLES20.glViewport(0, 0, width, height);
+    }
+
     public void drawFrame(SurfaceTexture st) {
         checkGlError("onDrawFrame start");
         st.getTransformMatrix(mSTMatrix);
-        GLES20.glClearColor(0.0f, 1.0f, 0.0f, 1.0f);
-        GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
-        GLES20.glUseProgram(mProgram);
-        checkGlError("glUseProgram");
+        long timeUs = st.getTimestamp() / 1000;
+        if (animation != null) {
+            animate(timeUs);
+        }
+        sprite.getMatrix(spriteMatrix, 0);
+        FramebufferPool.Framebuffer input = null;
+        for (int i = 0; i < stages.length; i++) {
+            Stage                       stage  = stages[i];
+            FramebufferPool.Framebuffer output = null;
+            if (i + 1 < stages.length) {
+                output = framebuffers.acquire(viewportWidth, viewportHeight);
+            }
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, output != null ? output.framebuffer : 0);
+            GLES20.glClearColor(0.0f, 1.0f, 0.0f, 1.0f);
+            GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
+            GLES20.glUseProgram(stage.program);
+            checkGlError("glUseProgram");
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            if (input == null) {
+                GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureID);
+            } else {
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, input.texture);
+            }
+            GLES20.glUniform1i(stage.source, 0);
+            for (int j = 0; j < stage.imageTextures.length; j++) {
+                GLES20.glActiveTexture(GLES20.GL_TEXTURE1 + j);
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, stage.imageTextures[j]);
+                GLES20.glUniform1i(stage.imageUniforms[j], 1 + j);
+            }
+            if (stage.texelSize != -1) {
+                int width  = input == null && sourceWidth > 0 ? sourceWidth : viewportWidth;
+                int height = input == null && sourceHeight > 0 ? sourceHeight : viewportHeight;
+                GLES20.glUniform2f(stage.texelSize, 1f / width, 1f / height);
+            }
+            if (stage.viewportSize != -1) {
+                GLES20.glUniform2f(stage.viewportSize, viewportWidth, viewportHeight);
+            }
+            if (stage.time != -1) {
+                GLES20.glUniform1f(stage.time, timeUs / 1000000f);
+            }
+            setAnimatedUniforms(stage);
+            // Only the first stage is transformed, the others copy the intermediate texture 1:1
+            FloatBuffer uv     = input == null ? uvBuffer : quadUvBuffer;
+            float[]     matrix = input == null ? spriteMatrix : mMVPMatrix;
+            GLES20.glVertexAttribPointer(stage.position, 3, GLES20.GL_FLOAT, false, 0, quadBuffer);
+            GLES20.glEnableVertexAttribArray(stage.position);
+            GLES20.glVertexAttribPointer(stage.textureCoordinates, 2, GLES20.GL_FLOAT, false, 0, uv);
+            GLES20.glEnableVertexAttribArray(stage.textureCoordinates);
+            checkGlError("glVertexAttribPointer");
+            GLES20.glUniformMatrix4fv(stage.mvpMatrix, 1, false, matrix, 0);
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+            checkGlError("glDrawArrays");
+            if (output == null && overlays != null) {
+                overlays.draw(viewportWidth, viewportHeight);
+            }
+            if (input != null) {
+                // Commands run in order, the next frame can't overwrite it before this draw read it
+                framebuffers.release(input);
+            }
+            input = output;
+        }
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        framePacer.onFrameSubmitted();
+    }
+
+    /**
+     * Draws the luma of the latched frame, before filters and transforms, into {@code target} and hands it to
+     * {@code readback}.  The screen is bound again afterwards.
+     */
+    public void drawLuma(FramebufferPool.Framebuffer target, FrameReadback readback, long presentationTimeUs) {
+        if (lumaStage == null) {
+            lumaStage = createStage(LUMA_SHADER, Collections.<String>emptyList());
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, target.framebuffer);
+        GLES20.glViewport(0, 0, target.width, target.height);
+        GLES20.glUseProgram(lumaStage.program);
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureID);
-        GLES20.glVertexAttribPointer(maPositionHandle, 3, GLES20.GL_FLOAT, false, 0, vertexBuffer);
-        checkGlError("glVertexAttribPointer maPosition");
-        GLES20.glEnableVertexAttribArray(maPositionHandle);
-        checkGlError("glEnableVertexAttribArray maPositionHandle");
-        GLES20.glVertexAttribPointer(textureCoordinatesLocation, 2, GLES20.GL_FLOAT, false, 0, uvBuffer);
-        checkGlError("glVertexAttribPointer textureCoordinatesLocation");
-        GLES20.glEnableVertexAttribArray(textureCoordinatesLocation);
-        checkGlError("glEnableVertexAttribArray textureCoordinatesLocation");
-        Matrix.setIdentityM(mMVPMatrix, 0);
-        GLES20.glUniformMatrix4fv(muMVPMatrixHandle, 1, false, mMVPMatrix, 0);
+        GLES20.glUniform1i(lumaStage.source, 0);
+        GLES20.glVertexAttribPointer(lumaStage.position, 3, GLES20.GL_FLOAT, false, 0, quadBuffer);
+        GLES20.glEnableVertexAttribArray(lumaStage.position);
+        GLES20.glVertexAttribPointer(lumaStage.textureCoordinates, 2, GLES20.GL_FLOAT, false, 0, quadUvBuffer);
+        GLES20.glEnableVertexAttribArray(lumaStage.textureCoordinates);
+        GLES20.glUniformMatrix4fv(lumaStage.mvpMatrix, 1, false, mMVPMatrix, 0);
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        checkGlError("glDrawArrays");
-        GLES20.glFinish();
+        checkGlError("drawLuma");
+        readback.onFrameDrawn(presentationTimeUs);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glViewport(0, 0, viewportWidth, viewportHeight);
     }
 
     /**
      * Initializes GL state.  Call this after the EGL surface has been created and made current.
      */
-    public void surfaceCreated() {
-        mProgram = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
-        if (mProgram == 0) {
-            throw new RuntimeException("failed creating program");
-        }
-        maPositionHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
-        checkGlError("glGetAttribLocation aPosition");
-        if (maPositionHandle == -1) {
-            throw new RuntimeException("Could not get attrib location for aPosition");
-        }
-        textureCoordinatesLocation = GLES20.glGetAttribLocation(mProgram, "a_texCoord");
-        checkGlError("glGetAttribLocation aTextureCoord");
-        if (textureCoordinatesLocation == -1) {
-            throw new RuntimeException("Could not get attrib location for aTextureCoord");
-        }
-        muMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
-        checkGlError("glGetUniformLocation uMVPMatrix");
-        if (muMVPMatrixHandle == -1) {
-            throw new RuntimeException("Could not get attrib location for uMVPMatrix");
-        }
+    public void surfaceCreated(FilterGraph filters) {
+        int[] viewport = new int[4];
+        GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, viewport, 0);
+        viewportWidth = viewport[2];
+        viewportHeight = viewport[3];
+        setFilters(filters);
         int[] textures = new int[1];
         GLES20.glGenTextures(1, textures, 0);
         mTextureID = textures[0];
@@ -142,63 +305,200 @@ public class TextureRender {
         GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T,
                                GLES20.GL_CLAMP_TO_EDGE);
         checkGlError("glTexParameter");
+        framePacer = new FramePacer(new GlesGpuSync(), MAX_FRAMES_IN_FLIGHT);
+    }
+
+    /**
+     * Deletes pending fences, the texture, filter images and the overlay atlas.  Programs are let go of but stay
+     * in the cache, framebuffers in the pool.  Call with the context still current.
+     */
+    public void release() {
+        if (framePacer != null) {
+            framePacer.release();
+            framePacer = null;
+        }
+        if (mTextureID != -12345) {
+            GLES20.glDeleteTextures(1, new int[]{mTextureID}, 0);
+            mTextureID = -12345;
+        }
+        deleteImages();
+        releaseOverlays();
+        releaseStages(stages);
+        stages = new Stage[0];
+        if (lumaStage != null) {
+            programs.release(lumaStage.program);
+            lumaStage = null;
+        }
+    }
+
+    /**
+     * Replaces the overlays composited onto every frame, none for an empty list or {@code null}.  Their
+     * images are decoded and packed here, the overlays themselves may change between frames.  Call with
+     * the context current.
+     */
+    public void setOverlays(List<Overlay> overlays) {
+        releaseOverlays();
+        if (overlays != null && !overlays.isEmpty()) {
+            this.overlays = new OverlayRenderer(programs, overlays);
+        }
     }
 
     /**
      * Replaces the fragment shader.
      */
     public void changeFragmentShader(String fragmentShader) {
-        GLES20.glDeleteProgram(mProgram);
-        mProgram = createProgram(VERTEX_SHADER, fragmentShader);
-        if (mProgram == 0) {
-            throw new RuntimeException("failed creating program");
-        }
-    }
-
-    private int loadShader(int shaderType, String source) {
-        int shader = GLES20.glCreateShader(shaderType);
-        checkGlError("glCreateShader type=" + shaderType);
-        GLES20.glShaderSource(shader, source);
-        GLES20.glCompileShader(shader);
-        int[] compiled = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
-        if (compiled[0] == 0) {
-            Log.e(TAG, "Could not compile shader " + shaderType + ":");
-            Log.e(TAG, " " + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
-            shader = 0;
-        }
-        return shader;
-    }
-
-    private int createProgram(String vertexSource, String fragmentSource) {
-        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
-        if (vertexShader == 0) {
-            return 0;
-        }
-        int pixelShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
-        if (pixelShader == 0) {
-            return 0;
-        }
-        int program = GLES20.glCreateProgram();
-        checkGlError("glCreateProgram");
-        if (program == 0) {
-            Log.e(TAG, "Could not create program");
-        }
-        GLES20.glAttachShader(program, vertexShader);
-        checkGlError("glAttachShader");
-        GLES20.glAttachShader(program, pixelShader);
-        checkGlError("glAttachShader");
-        GLES20.glLinkProgram(program);
-        int[] linkStatus = new int[1];
-        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
-        if (linkStatus[0] != GLES20.GL_TRUE) {
-            Log.e(TAG, "Could not link program: ");
-            Log.e(TAG, GLES20.glGetProgramInfoLog(program));
-            GLES20.glDeleteProgram(program);
-            program = 0;
-        }
-        return program;
+        setFilters(FilterGraph.fromShader(fragmentShader));
+    }
+
+    /**
+     * Replaces the filters.  Programs come from the cache, so switching back and forth between
+     * filters compiles each of them once.  Those of the previous filters are let go of afterwards, a program
+     * both use isn't deleted in between.
+     */
+    public void setFilters(FilterGraph filters) {
+        deleteImages();
+        List<FilterStage> compiled = filters.compile();
+        Stage[]           created  = new Stage[compiled.size()];
+        for (int i = 0; i < created.length; i++) {
+            created[i] = createStage(compiled.get(i).getFragmentShader(), compiled.get(i).getImages());
+        }
+        releaseStages(stages);
+        stages = created;
+    }
+
+    private void releaseStages(Stage[] released) {
+        for (Stage stage : released) {
+            programs.release(stage.program);
+        }
+    }
+
+    private Stage createStage(String fragmentShader, List<String> paths) {
+        Stage stage = new Stage();
+        stage.program = programs.obtain(VERTEX_SHADER, fragmentShader);
+        stage.position = GLES20.glGetAttribLocation(stage.program, "vPosition");
+        checkGlError("glGetAttribLocation aPosition");
+        if (stage.position == -1) {
+            throw new RuntimeException("Could not get attrib location for aPosition");
+        }
+        stage.textureCoordinates = GLES20.glGetAttribLocation(stage.program, "a_texCoord");
+        checkGlError("glGetAttribLocation aTextureCoord");
+        if (stage.textureCoordinates == -1) {
+            throw new RuntimeException("Could not get attrib location for aTextureCoord");
+        }
+        stage.mvpMatrix = GLES20.glGetUniformLocation(stage.program, "uMVPMatrix");
+        checkGlError("glGetUniformLocation uMVPMatrix");
+        if (stage.mvpMatrix == -1) {
+            throw new RuntimeException("Could not get attrib location for uMVPMatrix");
+        }
+        stage.source = GLES20.glGetUniformLocation(stage.program, "sTexture");
+        stage.texelSize = GLES20.glGetUniformLocation(stage.program, "uTexelSize");
+        stage.viewportSize = GLES20.glGetUniformLocation(stage.program, "uViewportSize");
+        stage.time = GLES20.glGetUniformLocation(stage.program, Animation.TIME);
+        stage.animatedUniforms = getAnimatedUniforms(stage.program);
+        stage.imageUniforms = new int[paths.size()];
+        stage.imageTextures = new int[paths.size()];
+        for (int i = 0; i < paths.size(); i++) {
+            stage.imageUniforms[i] = GLES20.glGetUniformLocation(stage.program, "uTexture" + i);
+            stage.imageTextures[i] = loadImage(paths.get(i));
+        }
+        checkGlError("glGetUniformLocation");
+        return stage;
+    }
+
+    /**
+     * Returns the locations of the animation's uniforms in {@code program}, -1 for those it doesn't declare.
+     */
+    private int[] getAnimatedUniforms(int program) {
+        int[] locations = new int[animation != null ? animation.getUniformCount() : 0];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = GLES20.glGetUniformLocation(program, animation.getUniformName(i));
+        }
+        return locations;
+    }
+
+    /**
+     * Evaluates the animation at the frame's time into the sprite and the uniform values.
+     */
+    private void animate(long timeUs) {
+        if (animation.hasTransform()) {
+            float[] values = transformValues;
+            animation.evaluateTransform(timeUs, values, 0);
+            sprite.setTranslation(values[0], values[1])
+                  .setScale(baseScaleX * values[2], baseScaleY * values[3])
+                  .updateAngleDeg(baseRotation + values[4]);
+        }
+        animation.evaluateUniforms(timeUs, uniformValues, 0);
+    }
+
+    private void setAnimatedUniforms(Stage stage) {
+        for (int i = 0; i < stage.animatedUniforms.length; i++) {
+            int location = stage.animatedUniforms[i];
+            if (location == -1) {
+                continue;
+            }
+            int offset = i * KeyframeTrack.MAX_COMPONENTS;
+            switch (animation.getUniformTrack(i).getComponents()) {
+                case 1:
+                    GLES20.glUniform1fv(location, 1, uniformValues, offset);
+                    break;
+                case 2:
+                    GLES20.glUniform2fv(location, 1, uniformValues, offset);
+                    break;
+                case 3:
+                    GLES20.glUniform3fv(location, 1, uniformValues, offset);
+                    break;
+                default:
+                    GLES20.glUniform4fv(location, 1, uniformValues, offset);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Uploads an image file to a texture, once per path.
+     */
+    private int loadImage(String path) {
+        Integer loaded = images.get(path);
+        if (loaded != null) {
+            return loaded;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(path);
+        if (bitmap == null) {
+            throw new RuntimeException("unable to decode filter image " + path);
+        }
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+        bitmap.recycle();
+        checkGlError("texImage2D " + path);
+        images.put(path, textures[0]);
+        return textures[0];
+    }
+
+    private void deleteImages() {
+        for (Integer texture : images.values()) {
+            GLES20.glDeleteTextures(1, new int[]{texture}, 0);
+        }
+        images.clear();
+    }
+
+    private void releaseOverlays() {
+        if (overlays != null) {
+            overlays.release();
+            overlays = null;
+        }
+    }
+
+    private static FloatBuffer floatBuffer(float[] values) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(values.length * FLOAT_SIZE_BYTES)
+                                       .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.put(values).position(0);
+        return buffer;
     }
 
     public void checkGlError(String op) {
@@ -208,4 +508,4 @@ public class TextureRender {
             throw new RuntimeException(op + ": glError " + error);
         }
     }
-}
\ No newline at end of file
+}
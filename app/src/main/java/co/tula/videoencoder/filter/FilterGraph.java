@@ -0,0 +1,139 @@
+package co.tula.videoencoder.filter;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered filter passes applied to every decoded frame.
+ * <p>
+ * {@link #compile()} turns the passes into the shaders that are actually drawn.  Adjacent per-pixel passes
+ * are fused into one shader, so a new render stage, and an intermediate texture, is only needed where a
+ * pass samples neighbouring pixels.  {@link #encode()} gives a single line which fits a job's extras.
+ */
+public final class FilterGraph {
+
+    private final List<FilterPass> passes = new ArrayList<>();
+
+    /**
+     * Returns a graph running the legacy single fragment shader, or copying frames as they are if it is null.
+     */
+    public static FilterGraph fromShader(String fragmentShader) {
+        FilterGraph graph = new FilterGraph();
+        if (fragmentShader != null) {
+            graph.add(FilterPass.shader(fragmentShader));
+        }
+        return graph;
+    }
+
+    public FilterGraph add(FilterPass pass) {
+        if (pass.getType() == FilterPass.Type.SHADER && !passes.isEmpty()) {
+            throw new IllegalArgumentException("a shader pass must be the first pass");
+        }
+        passes.add(pass);
+        return this;
+    }
+
+    public List<FilterPass> getPasses() {
+        return Collections.unmodifiableList(passes);
+    }
+
+    public boolean isEmpty() {
+        return passes.isEmpty();
+    }
+
+    /**
+     * Returns true if drawing the graph gives the decoded frame unchanged, so it can be skipped.
+     */
+    public boolean isIdentity() {
+        for (FilterPass pass : passes) {
+            if (!pass.isIdentity()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the render stages, at least one.  The first samples the decoder's external texture, every
+     * other one the output of its predecessor.
+     */
+    public List<FilterStage> compile() {
+        return new ShaderGenerator().generate(passes);
+    }
+
+    /**
+     * Returns the graph as a single line of the form {@code blur(4.0);lut(%2Fluts%2Fwarm.png,0.8)}.
+     */
+    public String encode() {
+        StringBuilder out = new StringBuilder();
+        for (FilterPass pass : passes) {
+            if (out.length() > 0) {
+                out.append(';');
+            }
+            out.append(pass.getType().key).append('(');
+            if (pass.getText() != null) {
+                out.append(escape(pass.getText())).append(',');
+            }
+            out.append(pass.getValue()).append(')');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Parses the output of {@link #encode()}.  Null or empty gives an empty graph.
+     */
+    public static FilterGraph decode(String encoded) {
+        FilterGraph graph = new FilterGraph();
+        if (encoded == null || encoded.isEmpty()) {
+            return graph;
+        }
+        for (String item : encoded.split(";")) {
+            int open = item.indexOf('(');
+            if (open < 0 || !item.endsWith(")")) {
+                throw new IllegalArgumentException("malformed filter " + item);
+            }
+            FilterPass.Type type  = FilterPass.Type.of(item.substring(0, open));
+            String          args  = item.substring(open + 1, item.length() - 1);
+            int             comma = args.lastIndexOf(',');
+            String          text  = comma >= 0 ? unescape(args.substring(0, comma)) : null;
+            float           value = Float.parseFloat(args.substring(comma + 1));
+            graph.add(new FilterPass(type, text, value));
+        }
+        return graph;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FilterGraph && passes.equals(((FilterGraph) o).passes);
+    }
+
+    @Override
+    public int hashCode() {
+        return passes.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+
+    private static String escape(String text) {
+        try {
+            return URLEncoder.encode(text, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String unescape(String text) {
+        try {
+            return URLDecoder.decode(text, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
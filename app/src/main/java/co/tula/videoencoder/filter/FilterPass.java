@@ -0,0 +1,144 @@
+package co.tula.videoencoder.filter;
+
+/**
+ * One step of a {@link FilterGraph}.
+ */
+public final class FilterPass {
+
+    public enum Type {
+        /**
+         * A complete fragment shader sampling {@code samplerExternalOES sTexture}, only allowed as the
+         * first pass.
+         */
+        SHADER("shader", false),
+        /**
+         * GLSL statements modifying {@code vec4 color}.
+         */
+        COLOR("color", true),
+        /**
+         * 512x512 color lookup image of 8x8 tiles, blended by intensity.
+         */
+        LUT("lut", true),
+        /**
+         * Separable gaussian blur, the value is the radius in source pixels.
+         */
+        BLUR("blur", false),
+        /**
+         * Unsharp mask, the value is the strength.
+         */
+        SHARPEN("sharpen", false),
+        /**
+         * Image stretched over the frame, blended by its alpha times the value.
+         */
+        OVERLAY("overlay", true);
+
+        final String  key;
+        final boolean perPixel;
+
+        Type(String key, boolean perPixel) {
+            this.key = key;
+            this.perPixel = perPixel;
+        }
+
+        static Type of(String key) {
+            for (Type type : values()) {
+                if (type.key.equals(key)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("unknown filter " + key);
+        }
+    }
+
+    private final Type   type;
+    private final String text;
+    private final float  value;
+
+    FilterPass(Type type, String text, float value) {
+        this.type = type;
+        this.text = text;
+        this.value = value;
+    }
+
+    public static FilterPass shader(String fragmentShader) {
+        return new FilterPass(Type.SHADER, fragmentShader, 0);
+    }
+
+    /**
+     * @param statements GLSL reading and writing {@code vec4 color}, e.g. {@code color.rgb = 1.0 - color.rgb;}
+     */
+    public static FilterPass color(String statements) {
+        return new FilterPass(Type.COLOR, statements, 0);
+    }
+
+    public static FilterPass lut(String imagePath, float intensity) {
+        return new FilterPass(Type.LUT, imagePath, clamp(intensity));
+    }
+
+    public static FilterPass blur(float radius) {
+        if (radius <= 0) {
+            throw new IllegalArgumentException("radius must be positive");
+        }
+        return new FilterPass(Type.BLUR, null, radius);
+    }
+
+    public static FilterPass sharpen(float amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("amount must be positive");
+        }
+        return new FilterPass(Type.SHARPEN, null, amount);
+    }
+
+    public static FilterPass overlay(String imagePath, float opacity) {
+        return new FilterPass(Type.OVERLAY, imagePath, clamp(opacity));
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the shader source, GLSL statements or image path, depending on the type.
+     */
+    public String getText() {
+        return text;
+    }
+
+    public float getValue() {
+        return value;
+    }
+
+    /**
+     * Returns true if the pass leaves every frame as it is, like an overlay with zero opacity.  Shaders and
+     * GLSL statements are never considered identities.
+     */
+    public boolean isIdentity() {
+        return (type == Type.LUT || type == Type.OVERLAY) && value == 0;
+    }
+
+    /**
+     * Returns true if the pass only needs the pixel it writes, so it can be fused with its neighbours.
+     */
+    public boolean isPerPixel() {
+        return type.perPixel;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FilterPass)) {
+            return false;
+        }
+        FilterPass other = (FilterPass) o;
+        return type == other.type && value == other.value
+               && (text == null ? other.text == null : text.equals(other.text));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * type.hashCode() + (text != null ? text.hashCode() : 0)) + Float.floatToIntBits(value);
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0f, Math.min(1f, value));
+    }
+}
@@ -0,0 +1,43 @@
+package co.tula.videoencoder.filter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One draw of a compiled {@link FilterGraph}.
+ * <p>
+ * The fragment shader samples {@code sTexture} on unit 0, which is the decoder's external texture for
+ * the first stage and the previous stage's output otherwise.  Images are bound to {@code uTexture0},
+ * {@code uTexture1}, ... on the following units.  {@code uTexelSize} is the size of one source pixel and
+ * {@code uViewportSize} the output size in pixels, both are only declared when used.
+ */
+public final class FilterStage {
+
+    private final String       fragmentShader;
+    private final boolean      externalSource;
+    private final List<String> images;
+
+    FilterStage(String fragmentShader, boolean externalSource, List<String> images) {
+        this.fragmentShader = fragmentShader;
+        this.externalSource = externalSource;
+        this.images = Collections.unmodifiableList(images);
+    }
+
+    public String getFragmentShader() {
+        return fragmentShader;
+    }
+
+    /**
+     * Returns true if {@code sTexture} is a {@code samplerExternalOES}.
+     */
+    public boolean hasExternalSource() {
+        return externalSource;
+    }
+
+    /**
+     * Returns paths of the images bound to {@code uTexture<i>}.
+     */
+    public List<String> getImages() {
+        return images;
+    }
+}
@@ -0,0 +1,181 @@
+package co.tula.videoencoder.filter;
+
+import co.tula.videoencoder.animation.Animation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the fragment shaders of a {@link FilterGraph}.  Every stage reads {@code vec4 color} from its
+ * source, runs the fused per-pixel passes on it and writes it out.  Passes may use the uniforms set per frame
+ * by an {@link Animation}, they are declared when a stage mentions them.
+ */
+final class ShaderGenerator {
+
+    /**
+     * Gaussian taps on each side of the center.
+     */
+    private static final int        BLUR_TAPS         = 4;
+    /**
+     * Types and names of the uniforms an animation sets every frame.
+     */
+    private static final String[][] ANIMATED_UNIFORMS = {{"float", Animation.TIME},
+                                                         {"float", Animation.INTENSITY},
+                                                         {"vec4", Animation.CROP}};
+
+    private final List<FilterStage> stages = new ArrayList<>();
+
+    private String        source;
+    private boolean       usesTexelSize;
+    private boolean       usesViewportSize;
+    private StringBuilder body;
+    private List<String>  images;
+
+    List<FilterStage> generate(List<FilterPass> passes) {
+        for (FilterPass pass : passes) {
+            switch (pass.getType()) {
+                case SHADER:
+                    // Used as it is, later passes start a new stage
+                    stages.add(new FilterStage(pass.getText(), true, new ArrayList<String>()));
+                    break;
+                case BLUR:
+                    flush();
+                    begin(blur(pass.getValue(), "1.0, 0.0"));
+                    flush();
+                    begin(blur(pass.getValue(), "0.0, 1.0"));
+                    break;
+                case SHARPEN:
+                    flush();
+                    begin(sharpen(pass.getValue()));
+                    break;
+                default:
+                    if (body == null) {
+                        begin("  vec4 color = texture2D(sTexture, vTextureCoord);\n");
+                    }
+                    appendPerPixel(pass);
+            }
+        }
+        flush();
+        if (stages.isEmpty()) {
+            begin("  vec4 color = texture2D(sTexture, vTextureCoord);\n");
+            flush();
+        }
+        return stages;
+    }
+
+    private void begin(String sourceCode) {
+        source = sourceCode;
+        usesTexelSize = sourceCode.contains("uTexelSize");
+        usesViewportSize = false;
+        body = new StringBuilder();
+        images = new ArrayList<>();
+    }
+
+    private void appendPerPixel(FilterPass pass) {
+        switch (pass.getType()) {
+            case COLOR:
+                body.append("  {\n").append(pass.getText()).append("\n  }\n");
+                break;
+            case LUT: {
+                String sampler = addImage(pass.getText());
+                body.append("  {\n")
+                    .append("    float blue = color.b * 63.0;\n")
+                    .append("    vec2 low = vec2(mod(floor(blue), 8.0), floor(floor(blue) / 8.0));\n")
+                    .append("    vec2 high = vec2(mod(ceil(blue), 8.0), floor(ceil(blue) / 8.0));\n")
+                    .append("    vec2 cell = 0.5 + clamp(color.rg, 0.0, 1.0) * 63.0;\n")
+                    .append("    vec4 graded = mix(texture2D(").append(sampler).append(", (low * 64.0 + cell) / 512.0),\n")
+                    .append("                      texture2D(").append(sampler).append(", (high * 64.0 + cell) / 512.0),\n")
+                    .append("                      fract(blue));\n")
+                    .append("    color.rgb = mix(color.rgb, graded.rgb, ").append(pass.getValue()).append(");\n")
+                    .append("  }\n");
+                break;
+            }
+            case OVERLAY: {
+                String sampler = addImage(pass.getText());
+                usesViewportSize = true;
+                // Window coordinates, so the image is upright in every stage
+                body.append("  {\n")
+                    .append("    vec2 at = gl_FragCoord.xy / uViewportSize;\n")
+                    .append("    vec4 over = texture2D(").append(sampler).append(", vec2(at.x, 1.0 - at.y));\n")
+                    .append("    color.rgb = mix(color.rgb, over.rgb, over.a * ").append(pass.getValue()).append(");\n")
+                    .append("  }\n");
+                break;
+            }
+            default:
+                throw new IllegalArgumentException(pass.getType() + " is not a per-pixel pass");
+        }
+    }
+
+    private String addImage(String path) {
+        images.add(path);
+        return "uTexture" + (images.size() - 1);
+    }
+
+    private void flush() {
+        if (body == null) {
+            return;
+        }
+        boolean       external = stages.isEmpty();
+        StringBuilder shader   = new StringBuilder();
+        if (external) {
+            shader.append("#extension GL_OES_EGL_image_external : require\n");
+        }
+        shader.append("precision mediump float;\n")
+              .append("varying vec2 vTextureCoord;\n")
+              .append("uniform ").append(external ? "samplerExternalOES" : "sampler2D").append(" sTexture;\n");
+        if (usesTexelSize) {
+            shader.append("uniform vec2 uTexelSize;\n");
+        }
+        if (usesViewportSize) {
+            shader.append("uniform vec2 uViewportSize;\n");
+        }
+        for (int i = 0; i < images.size(); i++) {
+            shader.append("uniform sampler2D uTexture").append(i).append(";\n");
+        }
+        for (String[] uniform : ANIMATED_UNIFORMS) {
+            if (source.contains(uniform[1]) || body.indexOf(uniform[1]) >= 0) {
+                shader.append("uniform ").append(uniform[0]).append(' ').append(uniform[1]).append(";\n");
+            }
+        }
+        shader.append("void main() {\n")
+              .append(source)
+              .append(body)
+              .append("  gl_FragColor = color;\n")
+              .append("}\n");
+        stages.add(new FilterStage(shader.toString(), external, images));
+        body = null;
+    }
+
+    private static String blur(float radius, String direction) {
+        // Sigma of half the taps, spread so the outermost tap lands on the radius
+        float    spacing = radius / BLUR_TAPS;
+        double[] weights = new double[BLUR_TAPS + 1];
+        double   total   = 0;
+        for (int i = 0; i <= BLUR_TAPS; i++) {
+            double x = i / (BLUR_TAPS / 2.0);
+            weights[i] = Math.exp(-0.5 * x * x);
+            total += i == 0 ? weights[i] : 2 * weights[i];
+        }
+        StringBuilder code = new StringBuilder();
+        code.append("  vec2 offset = vec2(").append(direction).append(") * uTexelSize * ").append(spacing)
+            .append(";\n")
+            .append("  vec4 color = texture2D(sTexture, vTextureCoord) * ").append((float) (weights[0] / total))
+            .append(";\n");
+        for (int i = 1; i <= BLUR_TAPS; i++) {
+            float weight = (float) (weights[i] / total);
+            code.append("  color += (texture2D(sTexture, vTextureCoord + offset * ").append((float) i)
+                .append(") + texture2D(sTexture, vTextureCoord - offset * ").append((float) i).append(")) * ")
+                .append(weight).append(";\n");
+        }
+        return code.toString();
+    }
+
+    private static String sharpen(float amount) {
+        return "  vec4 center = texture2D(sTexture, vTextureCoord);\n"
+               + "  vec4 edges = texture2D(sTexture, vTextureCoord + vec2(uTexelSize.x, 0.0))\n"
+               + "             + texture2D(sTexture, vTextureCoord - vec2(uTexelSize.x, 0.0))\n"
+               + "             + texture2D(sTexture, vTextureCoord + vec2(0.0, uTexelSize.y))\n"
+               + "             + texture2D(sTexture, vTextureCoord - vec2(0.0, uTexelSize.y));\n"
+               + "  vec4 color = clamp(center * " + (1 + 4 * amount) + " - edges * " + amount + ", 0.0, 1.0);\n";
+    }
+}
@@ -0,0 +1,161 @@
+package co.tula.videoencoder.jobs;
+
+import co.tula.videoencoder.animation.Animation;
+import co.tula.videoencoder.filter.FilterGraph;
+import co.tula.videoencoder.ladder.Ladder;
+import co.tula.videoencoder.overlay.Overlay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parameters of one transcode job.
+ */
+public final class JobRequest {
+
+    private final String      inputPath;
+    private final String      outputPath;
+    private final FilterGraph filters;
+    private long    trimStartUs = 0;
+    private long    trimEndUs   = Long.MAX_VALUE;
+    private boolean sceneIndex;
+    private boolean fragmented;
+    private Ladder    ladder;
+    private Animation animation;
+    private List<Overlay> overlays = Collections.emptyList();
+
+    public JobRequest(String inputPath, String outputPath, FilterGraph filters) {
+        if (inputPath == null || outputPath == null || filters == null) {
+            throw new IllegalArgumentException();
+        }
+        this.inputPath = inputPath;
+        this.outputPath = outputPath;
+        this.filters = filters;
+    }
+
+    /**
+     * Keeps only the part of the input between {@code startUs} and {@code endUs}.
+     */
+    public JobRequest setTrim(long startUs, long endUs) {
+        if (startUs < 0 || endUs <= startUs) {
+            throw new IllegalArgumentException("trim " + startUs + ".." + endUs);
+        }
+        this.trimStartUs = startUs;
+        this.trimEndUs = endUs;
+        return this;
+    }
+
+    /**
+     * Writes scene cuts and black stretches found while transcoding next to the output.
+     */
+    public JobRequest setSceneIndex(boolean sceneIndex) {
+        this.sceneIndex = sceneIndex;
+        return this;
+    }
+
+    /**
+     * Writes fragmented MP4, playable while the job runs.
+     */
+    public JobRequest setFragmented(boolean fragmented) {
+        this.fragmented = fragmented;
+        return this;
+    }
+
+    /**
+     * Encodes the renditions of the ladder instead of a single output, see {@link Ladder#getOutputPath}.
+     */
+    public JobRequest setLadder(Ladder ladder) {
+        this.ladder = ladder;
+        return this;
+    }
+
+    /**
+     * Animates the frames and filter uniforms, see {@link Animation}.
+     */
+    public JobRequest setAnimation(Animation animation) {
+        this.animation = animation;
+        return this;
+    }
+
+    /**
+     * Composites images onto every frame, see {@link Overlay}.
+     */
+    public JobRequest setOverlays(List<Overlay> overlays) {
+        this.overlays = overlays != null ? new ArrayList<>(overlays) : Collections.<Overlay>emptyList();
+        return this;
+    }
+
+    public String getInputPath() {
+        return inputPath;
+    }
+
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    public FilterGraph getFilters() {
+        return filters;
+    }
+
+    public long getTrimStartUs() {
+        return trimStartUs;
+    }
+
+    public long getTrimEndUs() {
+        return trimEndUs;
+    }
+
+    public boolean isSceneIndex() {
+        return sceneIndex;
+    }
+
+    public boolean isFragmented() {
+        return fragmented;
+    }
+
+    public Ladder getLadder() {
+        return ladder;
+    }
+
+    public Animation getAnimation() {
+        return animation;
+    }
+
+    public List<Overlay> getOverlays() {
+        return overlays;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof JobRequest)) {
+            return false;
+        }
+        JobRequest other = (JobRequest) o;
+        return inputPath.equals(other.inputPath) && outputPath.equals(other.outputPath)
+               && filters.equals(other.filters) && trimStartUs == other.trimStartUs && trimEndUs == other.trimEndUs
+               && sceneIndex == other.sceneIndex && fragmented == other.fragmented
+               && (ladder == null ? other.ladder == null : ladder.equals(other.ladder))
+               && (animation == null ? other.animation == null : animation.equals(other.animation))
+               && overlays.equals(other.overlays);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = inputPath.hashCode();
+        result = 31 * result + outputPath.hashCode();
+        result = 31 * result + filters.hashCode();
+        result = 31 * result + (int) (trimStartUs ^ (trimStartUs >>> 32));
+        result = 31 * result + (int) (trimEndUs ^ (trimEndUs >>> 32));
+        result = 31 * result + (sceneIndex ? 1 : 0);
+        result = 31 * result + (fragmented ? 1 : 0);
+        result = 31 * result + (ladder != null ? ladder.hashCode() : 0);
+        result = 31 * result + (animation != null ? animation.hashCode() : 0);
+        return 31 * result + overlays.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return inputPath + " -> " + outputPath + " [" + filters + "]";
+    }
+}
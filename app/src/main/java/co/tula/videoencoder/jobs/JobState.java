@@ -0,0 +1,19 @@
+package co.tula.videoencoder.jobs;
+
+/**
+ * Life cycle of a job in the {@link JobStore}.
+ */
+public enum JobState {
+    /**
+     * Waiting for the service.  Jobs interrupted by the system go back to this state.
+     */
+    QUEUED,
+    RUNNING,
+    DONE,
+    FAILED,
+    CANCELLED;
+
+    public boolean isFinal() {
+        return this == DONE || this == FAILED || this == CANCELLED;
+    }
+}
@@ -0,0 +1,399 @@
+package co.tula.videoencoder.jobs;
+
+import co.tula.videoencoder.animation.Animation;
+import co.tula.videoencoder.filter.FilterGraph;
+import co.tula.videoencoder.ladder.Ladder;
+import co.tula.videoencoder.overlay.Overlay;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transcode jobs kept in an append-only file, so queued work survives the process.
+ * <p>
+ * Every submission and state change appends one line and the file is replayed on open; a line torn by a
+ * crash is ignored.  Once most lines are outdated the file is rewritten with the current state, dropping
+ * the oldest finished jobs.  A request identical to one which hasn't finished yet isn't queued again, the
+ * caller gets the id of the existing job.
+ */
+public class JobStore {
+
+    private static final String SUBMIT            = "submit";
+    private static final String STATE             = "state";
+    /**
+     * Options follow the fixed fields of a submit line as key=value, so files of older versions still load.
+     */
+    private static final String SCENE_INDEX       = "scenes";
+    private static final String FRAGMENTED        = "fragmented";
+    private static final String LADDER            = "ladder";
+    private static final String ANIMATION         = "animation";
+    /**
+     * Repeated once per overlay, in drawing order.
+     */
+    private static final String OVERLAY           = "overlay";
+    private static final int    MIN_COMPACT_LINES = 64;
+    /**
+     * Finished jobs kept for status queries.
+     */
+    private static final int    MAX_FINISHED      = 256;
+
+    /**
+     * A submitted request and its current state.
+     */
+    public static final class Job {
+        private final long       id;
+        private final JobRequest request;
+        private JobState state = JobState.QUEUED;
+
+        Job(long id, JobRequest request) {
+            this.id = id;
+            this.request = request;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public JobRequest getRequest() {
+            return request;
+        }
+
+        public JobState getState() {
+            return state;
+        }
+
+        @Override
+        public String toString() {
+            return "Job{" + id + " " + state + ": " + request + "}";
+        }
+    }
+
+    private final File           file;
+    private final Map<Long, Job> jobs = new LinkedHashMap<>();
+    private long   nextId = 1;
+    private int    lines;
+    private Writer writer;
+
+    public JobStore(File file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Queues the request and returns its id, or the id of an identical job which hasn't finished yet.
+     */
+    public synchronized long submit(JobRequest request) {
+        return submitAll(Collections.singletonList(request))[0];
+    }
+
+    /**
+     * Queues all requests with a single write.
+     */
+    public synchronized long[] submitAll(List<JobRequest> requests) {
+        long[]        ids = new long[requests.size()];
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < ids.length; i++) {
+            JobRequest request  = requests.get(i);
+            Job        existing = findUnfinished(request);
+            if (existing != null) {
+                ids[i] = existing.id;
+                continue;
+            }
+            Job job = new Job(nextId++, request);
+            jobs.put(job.id, job);
+            ids[i] = job.id;
+            appendSubmit(out, job);
+        }
+        append(out);
+        return ids;
+    }
+
+    /**
+     * Returns the job, or null if it is unknown or was dropped long after it had finished.
+     */
+    public synchronized Job get(long id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Returns the state of the job, or null if it is unknown.
+     */
+    public synchronized JobState getState(long id) {
+        Job job = jobs.get(id);
+        return job != null ? job.state : null;
+    }
+
+    /**
+     * Returns the queued jobs in submission order.
+     */
+    public synchronized List<Job> getQueued() {
+        List<Job> queued = new ArrayList<>();
+        for (Job job : jobs.values()) {
+            if (job.state == JobState.QUEUED) {
+                queued.add(job);
+            }
+        }
+        return queued;
+    }
+
+    public synchronized void setState(long id, JobState state) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            throw new IllegalArgumentException("unknown job " + id);
+        }
+        if (job.state == state) {
+            return;
+        }
+        job.state = state;
+        StringBuilder out = new StringBuilder();
+        appendState(out, job);
+        append(out);
+    }
+
+    /**
+     * Cancels a job which hasn't finished.  Returns false if it had.
+     */
+    public synchronized boolean cancel(long id) {
+        Job job = jobs.get(id);
+        if (job == null || job.state.isFinal()) {
+            return false;
+        }
+        setState(id, JobState.CANCELLED);
+        return true;
+    }
+
+    /**
+     * Puts jobs left running by a process which died back into the queue.  Returns their number.
+     */
+    public synchronized int requeueRunning() {
+        int count = 0;
+        for (Job job : new ArrayList<>(jobs.values())) {
+            if (job.state == JobState.RUNNING) {
+                setState(job.id, JobState.QUEUED);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+                // Every line was flushed already
+            }
+            writer = null;
+        }
+    }
+
+    private Job findUnfinished(JobRequest request) {
+        for (Job job : jobs.values()) {
+            if (!job.state.isFinal() && job.request.equals(request)) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        byte[] data = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                int count = in.read(data, read, data.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("unable to read " + file, e);
+        }
+        int lineStart = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            lines++;
+            try {
+                replay(new String(data, lineStart, i - lineStart, "UTF-8").split(" ", -1));
+            } catch (IOException | RuntimeException e) {
+                // Damaged line, the rest of the file is fine
+            }
+            lineStart = i + 1;
+        }
+        if (lineStart < data.length) {
+            // Torn by a crash while appending, cut it off so the next line doesn't continue it
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.setLength(lineStart);
+            } catch (IOException e) {
+                throw new RuntimeException("unable to repair " + file, e);
+            }
+        }
+    }
+
+    private void replay(String[] fields) {
+        long id = Long.parseLong(fields[1]);
+        if (SUBMIT.equals(fields[0]) && fields.length >= 7) {
+            JobRequest request = new JobRequest(unescape(fields[2]), unescape(fields[3]),
+                                                FilterGraph.decode(unescape(fields[4])));
+            long trimStartUs = Long.parseLong(fields[5]);
+            long trimEndUs   = Long.parseLong(fields[6]);
+            if (trimStartUs != 0 || trimEndUs != Long.MAX_VALUE) {
+                request.setTrim(trimStartUs, trimEndUs);
+            }
+            List<Overlay> overlays = new ArrayList<>();
+            for (int i = 7; i < fields.length; i++) {
+                if (fields[i].equals(SCENE_INDEX + "=1")) {
+                    request.setSceneIndex(true);
+                } else if (fields[i].equals(FRAGMENTED + "=1")) {
+                    request.setFragmented(true);
+                } else if (fields[i].startsWith(LADDER + "=")) {
+                    request.setLadder(Ladder.decode(unescape(fields[i].substring(LADDER.length() + 1))));
+                } else if (fields[i].startsWith(ANIMATION + "=")) {
+                    request.setAnimation(Animation.decode(unescape(fields[i].substring(ANIMATION.length() + 1))));
+                } else if (fields[i].startsWith(OVERLAY + "=")) {
+                    overlays.add(Overlay.decode(unescape(fields[i].substring(OVERLAY.length() + 1))));
+                }
+            }
+            request.setOverlays(overlays);
+            jobs.put(id, new Job(id, request));
+            nextId = Math.max(nextId, id + 1);
+        } else if (STATE.equals(fields[0]) && fields.length == 3 && jobs.containsKey(id)) {
+            jobs.get(id).state = JobState.valueOf(fields[2]);
+        }
+    }
+
+    private void append(StringBuilder out) {
+        if (out.length() == 0) {
+            return;
+        }
+        try {
+            if (writer == null) {
+                File parent = file.getParentFile();
+                if (parent != null) {
+                    //noinspection ResultOfMethodCallIgnored
+                    parent.mkdirs();
+                }
+                writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+            }
+            writer.write(out.toString());
+            writer.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("unable to write " + file, e);
+        }
+        for (int i = 0; i < out.length(); i++) {
+            if (out.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        if (lines > MIN_COMPACT_LINES && lines > 2 * jobs.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the file with one submit line per job and a state line where needed.
+     */
+    private void compact() {
+        int finished = 0;
+        for (Job job : jobs.values()) {
+            if (job.state.isFinal()) {
+                finished++;
+            }
+        }
+        // Oldest first, so the recent finished jobs stay queryable
+        for (Iterator<Job> it = jobs.values().iterator(); it.hasNext() && finished > MAX_FINISHED; ) {
+            if (it.next().state.isFinal()) {
+                it.remove();
+                finished--;
+            }
+        }
+        StringBuilder out = new StringBuilder();
+        for (Job job : jobs.values()) {
+            appendSubmit(out, job);
+            if (job.state != JobState.QUEUED) {
+                appendState(out, job);
+            }
+        }
+        close();
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer tempWriter = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8")) {
+            tempWriter.write(out.toString());
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        if (temp.renameTo(file)) {
+            lines = 2 * jobs.size();
+        } else {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+    }
+
+    private static void appendSubmit(StringBuilder out, Job job) {
+        JobRequest request = job.request;
+        out.append(SUBMIT).append(' ').append(job.id)
+           .append(' ').append(escape(request.getInputPath()))
+           .append(' ').append(escape(request.getOutputPath()))
+           .append(' ').append(escape(request.getFilters().encode()))
+           .append(' ').append(request.getTrimStartUs())
+           .append(' ').append(request.getTrimEndUs());
+        if (request.isSceneIndex()) {
+            out.append(' ').append(SCENE_INDEX).append("=1");
+        }
+        if (request.isFragmented()) {
+            out.append(' ').append(FRAGMENTED).append("=1");
+        }
+        if (request.getLadder() != null) {
+            out.append(' ').append(LADDER).append('=').append(escape(request.getLadder().encode()));
+        }
+        if (request.getAnimation() != null) {
+            out.append(' ').append(ANIMATION).append('=').append(escape(request.getAnimation().encode()));
+        }
+        for (Overlay overlay : request.getOverlays()) {
+            out.append(' ').append(OVERLAY).append('=').append(escape(overlay.encode()));
+        }
+        out.append('\n');
+    }
+
+    private static void appendState(StringBuilder out, Job job) {
+        out.append(STATE).append(' ').append(job.id).append(' ').append(job.state.name()).append('\n');
+    }
+
+    private static String escape(String text) {
+        try {
+            return URLEncoder.encode(text, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String unescape(String text) {
+        try {
+            return URLDecoder.decode(text, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
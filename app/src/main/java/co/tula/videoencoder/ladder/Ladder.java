@@ -0,0 +1,167 @@
+package co.tula.videoencoder.ladder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Renditions of one video which are encoded from a single decode, as for adaptive bitrate streaming.
+ * <p>
+ * All renditions share the aspect ratio of the first one, so a frame is drawn the same way into each of
+ * them.  They are told apart by height, each is written to the output path with {@code _<height>p} before
+ * the extension.
+ */
+public final class Ladder {
+
+    /**
+     * Relative difference of aspect ratios still considered equal, 854x480 is close enough to 16:9.
+     */
+    private static final float ASPECT_TOLERANCE = 0.01f;
+
+    /**
+     * Size and bitrate of one output.
+     */
+    public static final class Rendition {
+        private final int width;
+        private final int height;
+        private final int bitrate;
+
+        Rendition(int width, int height, int bitrate) {
+            this.width = width;
+            this.height = height;
+            this.bitrate = bitrate;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Returns the bitrate in bits per second, 0 to leave it to the encoder configuration.
+         */
+        public int getBitrate() {
+            return bitrate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Rendition)) {
+                return false;
+            }
+            Rendition other = (Rendition) o;
+            return width == other.width && height == other.height && bitrate == other.bitrate;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + bitrate;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + ":" + bitrate;
+        }
+    }
+
+    private final List<Rendition> renditions = new ArrayList<>();
+
+    /**
+     * Adds a rendition.  Sizes must be even, as encoders want them.
+     */
+    public Ladder add(int width, int height, int bitrate) {
+        if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0 || bitrate < 0) {
+            throw new IllegalArgumentException("rendition " + width + "x" + height + " at " + bitrate);
+        }
+        for (Rendition rendition : renditions) {
+            if (rendition.height == height) {
+                throw new IllegalArgumentException("two renditions of height " + height);
+            }
+        }
+        if (!renditions.isEmpty()) {
+            Rendition first      = renditions.get(0);
+            float     aspect     = (float) first.width / first.height;
+            float     difference = Math.abs((float) width / height - aspect) / aspect;
+            if (difference > ASPECT_TOLERANCE) {
+                throw new IllegalArgumentException(width + "x" + height + " doesn't have the aspect of " + first);
+            }
+        }
+        renditions.add(new Rendition(width, height, bitrate));
+        return this;
+    }
+
+    public int size() {
+        return renditions.size();
+    }
+
+    public Rendition get(int index) {
+        return renditions.get(index);
+    }
+
+    public List<Rendition> getRenditions() {
+        return Collections.unmodifiableList(renditions);
+    }
+
+    /**
+     * Returns where the rendition of a job writing {@code outputPath} goes.
+     */
+    public static String getOutputPath(String outputPath, Rendition rendition) {
+        int    separator = Math.max(outputPath.lastIndexOf('/'), outputPath.lastIndexOf('\\'));
+        int    dot       = outputPath.lastIndexOf('.');
+        String suffix    = "_" + rendition.height + "p";
+        if (dot <= separator + 1) {
+            return outputPath + suffix;
+        }
+        return outputPath.substring(0, dot) + suffix + outputPath.substring(dot);
+    }
+
+    /**
+     * Returns the renditions as {@code <width>x<height>:<bitrate>}, separated by commas.
+     */
+    public String encode() {
+        StringBuilder encoded = new StringBuilder();
+        for (Rendition rendition : renditions) {
+            if (encoded.length() > 0) {
+                encoded.append(',');
+            }
+            encoded.append(rendition);
+        }
+        return encoded.toString();
+    }
+
+    public static Ladder decode(String encoded) {
+        Ladder ladder = new Ladder();
+        if (encoded.isEmpty()) {
+            return ladder;
+        }
+        for (String rendition : encoded.split(",")) {
+            int x     = rendition.indexOf('x');
+            int colon = rendition.indexOf(':');
+            if (x < 0 || colon < x) {
+                throw new IllegalArgumentException("bad rendition " + rendition);
+            }
+            ladder.add(Integer.parseInt(rendition.substring(0, x)),
+                       Integer.parseInt(rendition.substring(x + 1, colon)),
+                       Integer.parseInt(rendition.substring(colon + 1)));
+        }
+        return ladder;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Ladder && renditions.equals(((Ladder) o).renditions);
+    }
+
+    @Override
+    public int hashCode() {
+        return renditions.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "Ladder{" + encode() + "}";
+    }
+}
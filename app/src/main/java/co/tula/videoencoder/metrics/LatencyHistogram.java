@@ -0,0 +1,97 @@
+package co.tula.videoencoder.metrics;
+
+/**
+ * Fixed size histogram of nanosecond latencies with log-linear buckets (8 per power of two, so about 12%
+ * precision).  Recording doesn't allocate and is thread safe.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT    = SUB_BUCKETS * 2;
+    private static final int BUCKET_COUNT    = LINEAR_LIMIT + (64 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long total;
+    private long max;
+
+    public synchronized void record(long valueNs) {
+        if (valueNs < 0) {
+            valueNs = 0;
+        }
+        counts[bucketOf(valueNs)]++;
+        count++;
+        total += valueNs;
+        if (valueNs > max) {
+            max = valueNs;
+        }
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getTotalNs() {
+        return total;
+    }
+
+    public synchronized long getMaxNs() {
+        return max;
+    }
+
+    public synchronized long getMeanNs() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile, never more than the maximum.
+     *
+     * @param percentile from 0 to 100
+     */
+    public synchronized long getPercentileNs(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub      = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int sub      = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        long base    = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+        return base + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,113 @@
+package co.tula.videoencoder.metrics;
+
+/**
+ * Collects timings and counters of a running job.  Recording methods don't allocate and may be called from
+ * the video and the audio threads.
+ */
+public class MetricsRecorder {
+
+    /**
+     * Decoder inputs tracked at once for the latency measurement.  Decoders rarely hold more frames.
+     */
+    private static final int IN_FLIGHT = 32;
+
+    private final LatencyHistogram[] stages         = new LatencyHistogram[Stage.values().length];
+    private final long[]             inFlightPts    = new long[IN_FLIGHT];
+    private final long[]             inFlightTimeNs = new long[IN_FLIGHT];
+    private int  inFlightNext;
+    private long startNs;
+    private long endNs;
+    private long frames;
+    private long bytesWritten;
+    private long decoderStalls;
+    private long encoderStalls;
+
+    public MetricsRecorder() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+        reset();
+    }
+
+    public synchronized void reset() {
+        for (LatencyHistogram stage : stages) {
+            stage.reset();
+        }
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            inFlightPts[i] = Long.MIN_VALUE;
+        }
+        startNs = System.nanoTime();
+        endNs = 0;
+        frames = 0;
+        bytesWritten = 0;
+        decoderStalls = 0;
+        encoderStalls = 0;
+    }
+
+    /**
+     * Records time passed since {@code startNs}, a value of System.nanoTime().
+     */
+    public void record(Stage stage, long startNs) {
+        stages[stage.ordinal()].record(System.nanoTime() - startNs);
+    }
+
+    /**
+     * Remembers when the sample with the given timestamp entered the decoder.
+     */
+    public synchronized void onDecoderInput(long presentationTimeUs) {
+        inFlightPts[inFlightNext] = presentationTimeUs;
+        inFlightTimeNs[inFlightNext] = System.nanoTime();
+        inFlightNext = (inFlightNext + 1) % IN_FLIGHT;
+    }
+
+    /**
+     * Records the decoder latency of the frame with the given timestamp, if its input was seen.
+     */
+    public synchronized void onDecoderOutput(long presentationTimeUs) {
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            if (inFlightPts[i] == presentationTimeUs) {
+                inFlightPts[i] = Long.MIN_VALUE;
+                record(Stage.DECODER_LATENCY, inFlightTimeNs[i]);
+                return;
+            }
+        }
+    }
+
+    public synchronized void onFrameRendered() {
+        frames++;
+    }
+
+    public synchronized void onBytesWritten(int size) {
+        bytesWritten += size;
+    }
+
+    /**
+     * Counts a dequeue call of the decoder which returned without a buffer.
+     */
+    public synchronized void onDecoderStall() {
+        decoderStalls++;
+    }
+
+    /**
+     * Counts a dequeue call of the encoder which returned without a buffer.
+     */
+    public synchronized void onEncoderStall() {
+        encoderStalls++;
+    }
+
+    public synchronized void finish() {
+        endNs = System.nanoTime();
+    }
+
+    /**
+     * Takes a snapshot of the current values.
+     */
+    public synchronized TranscodeMetrics snapshot() {
+        TranscodeMetrics.StageStats[] stats = new TranscodeMetrics.StageStats[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            stats[i] = new TranscodeMetrics.StageStats(stages[i]);
+        }
+        long wallNs = (endNs != 0 ? endNs : System.nanoTime()) - startNs;
+        return new TranscodeMetrics(wallNs, frames, bytesWritten, decoderStalls, encoderStalls, stats);
+    }
+}
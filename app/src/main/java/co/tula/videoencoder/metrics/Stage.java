@@ -0,0 +1,39 @@
+package co.tula.videoencoder.metrics;
+
+/**
+ * Steps of the frame loop which are timed separately.
+ */
+public enum Stage {
+    /**
+     * MediaExtractor.readSampleData into a decoder input buffer.
+     */
+    EXTRACTOR_READ,
+    /**
+     * From queueing a sample into the decoder until the decoded frame with the same timestamp comes out.
+     */
+    DECODER_LATENCY,
+    /**
+     * Waiting for the decoded frame to arrive to the SurfaceTexture.
+     */
+    AWAIT_IMAGE,
+    /**
+     * Drawing the frame, including the GPU wait at the end of drawFrame.
+     */
+    DRAW_FRAME,
+    /**
+     * Starting the pixel read of the frame and taking the pixels of an earlier one, when frames are analyzed.
+     */
+    READBACK,
+    /**
+     * eglSwapBuffers into the encoder surface.
+     */
+    SWAP_BUFFERS,
+    /**
+     * Handling one encoder output buffer.
+     */
+    ENCODER_DRAIN,
+    /**
+     * MediaMuxer.writeSampleData.
+     */
+    MUXER_WRITE
+}
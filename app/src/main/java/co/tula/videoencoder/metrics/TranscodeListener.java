@@ -0,0 +1,12 @@
+package co.tula.videoencoder.metrics;
+
+/**
+ * Notified when a transcode job has finished.
+ */
+public interface TranscodeListener {
+
+    /**
+     * Called on the worker thread.  Not called when the job is cancelled.
+     */
+    void onTranscodeFinished(TranscodeMetrics metrics);
+}
@@ -0,0 +1,99 @@
+package co.tula.videoencoder.metrics;
+
+import java.util.Locale;
+
+/**
+ * Timings and counters of a finished transcode job.
+ */
+public final class TranscodeMetrics {
+
+    /**
+     * Latency distribution of a single {@link Stage}.
+     */
+    public static final class StageStats {
+        public final long count;
+        public final long meanNs;
+        public final long p50Ns;
+        public final long p99Ns;
+        public final long maxNs;
+        public final long totalNs;
+
+        StageStats(LatencyHistogram histogram) {
+            count = histogram.getCount();
+            meanNs = histogram.getMeanNs();
+            p50Ns = histogram.getPercentileNs(50);
+            p99Ns = histogram.getPercentileNs(99);
+            maxNs = histogram.getMaxNs();
+            totalNs = histogram.getTotalNs();
+        }
+    }
+
+    private final long         wallTimeNs;
+    private final long         frames;
+    private final long         bytesWritten;
+    private final long         decoderStalls;
+    private final long         encoderStalls;
+    private final StageStats[] stages;
+
+    TranscodeMetrics(long wallTimeNs, long frames, long bytesWritten, long decoderStalls, long encoderStalls,
+                     StageStats[] stages) {
+        this.wallTimeNs = wallTimeNs;
+        this.frames = frames;
+        this.bytesWritten = bytesWritten;
+        this.decoderStalls = decoderStalls;
+        this.encoderStalls = encoderStalls;
+        this.stages = stages;
+    }
+
+    public long getWallTimeNs() {
+        return wallTimeNs;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public double getFramesPerSecond() {
+        return wallTimeNs == 0 ? 0 : frames * 1e9 / wallTimeNs;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns how many times the decoder had no output ready when asked.
+     */
+    public long getDecoderStalls() {
+        return decoderStalls;
+    }
+
+    /**
+     * Returns how many times the encoder had no output ready when asked.
+     */
+    public long getEncoderStalls() {
+        return encoderStalls;
+    }
+
+    public StageStats getStage(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "%d frames in %.1f ms (%.1f fps), %d bytes, stalls dec %d enc %d",
+                                     frames, wallTimeNs / 1e6, getFramesPerSecond(), bytesWritten,
+                                     decoderStalls, encoderStalls));
+        for (Stage stage : Stage.values()) {
+            StageStats stats = getStage(stage);
+            if (stats.count == 0) {
+                continue;
+            }
+            builder.append(String.format(Locale.US, "\n  %-16s n=%d p50=%.2f p99=%.2f max=%.2f ms",
+                                         stage, stats.count, stats.p50Ns / 1e6, stats.p99Ns / 1e6,
+                                         stats.maxNs / 1e6));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,121 @@
+package co.tula.videoencoder.mux;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Builds ISO base media file boxes in a growable buffer.  The size of a box is filled in when it is closed.
+ */
+final class BoxWriter {
+
+    private static final int MAX_DEPTH = 16;
+
+    private final int[] open = new int[MAX_DEPTH];
+    private ByteBuffer buffer;
+    private int        depth;
+
+    BoxWriter(int capacity) {
+        buffer = ByteBuffer.allocate(capacity);
+    }
+
+    BoxWriter start(String type) {
+        ensure(8);
+        open[depth++] = buffer.position();
+        buffer.putInt(0);
+        return putType(type);
+    }
+
+    /**
+     * Starts a box with version and flags.
+     */
+    BoxWriter startFull(String type, int version, int flags) {
+        return start(type).putInt(version << 24 | flags);
+    }
+
+    BoxWriter end() {
+        int start = open[--depth];
+        buffer.putInt(start, buffer.position() - start);
+        return this;
+    }
+
+    BoxWriter putType(String type) {
+        ensure(4);
+        for (int i = 0; i < 4; i++) {
+            buffer.put((byte) type.charAt(i));
+        }
+        return this;
+    }
+
+    BoxWriter putByte(int value) {
+        ensure(1);
+        buffer.put((byte) value);
+        return this;
+    }
+
+    BoxWriter putShort(int value) {
+        ensure(2);
+        buffer.putShort((short) value);
+        return this;
+    }
+
+    BoxWriter putInt(int value) {
+        ensure(4);
+        buffer.putInt(value);
+        return this;
+    }
+
+    BoxWriter putLong(long value) {
+        ensure(8);
+        buffer.putLong(value);
+        return this;
+    }
+
+    BoxWriter put(byte[] bytes) {
+        ensure(bytes.length);
+        buffer.put(bytes);
+        return this;
+    }
+
+    BoxWriter putZeros(int count) {
+        ensure(count);
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte) 0);
+        }
+        return this;
+    }
+
+    /**
+     * Overwrites an int written before, e.g. an offset known only once later boxes are laid out.
+     */
+    void patchInt(int position, int value) {
+        buffer.putInt(position, value);
+    }
+
+    int position() {
+        return buffer.position();
+    }
+
+    /**
+     * Returns the bytes written so far, ready to be written out.  Valid until the next call.
+     */
+    ByteBuffer getBytes() {
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.flip();
+        return bytes;
+    }
+
+    void clear() {
+        if (depth != 0) {
+            throw new IllegalStateException(depth + " boxes still open");
+        }
+        buffer.clear();
+    }
+
+    private void ensure(int count) {
+        if (buffer.remaining() < count) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + count));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package co.tula.videoencoder.mux;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes fragmented MP4: an init segment of ftyp and a moov without samples, then a moof/mdat fragment per
+ * group of pictures.
+ * <p>
+ * A fragment is written once the keyframe starting the next one arrives, so the file up to
+ * {@link #getFlushedSize()} can be played or uploaded while the transcode goes on, and a transcode cut
+ * short leaves a playable file.  Video samples come in decode order, which differs from presentation order
+ * with B-frames.  MediaCodec gives no decode times, so a fragment's presentation times sorted are taken as its
+ * decode times, and samples shown later than decoded get a composition offset.  The duration of a sample is
+ * the gap to the next decode time.  H.264 and H.265 in Annex B format are converted to length prefixed NAL
+ * units.
+ * <p>
+ * Not thread safe, {@link SampleInterleaver} serializes the writes.
+ */
+public class FragmentedMp4Writer {
+
+    private static final int  MOVIE_TIMESCALE           = 1000;
+    private static final int  VIDEO_TIMESCALE           = 90000;
+    /**
+     * Length of the fragments of a file without video, audio has no keyframes worth cutting at.
+     */
+    private static final long AUDIO_FRAGMENT_US         = 1000000;
+    private static final int  TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    /**
+     * trun with data offset, and duration, size and flags of each sample.
+     */
+    private static final int  TRUN_FLAGS                = 0x000701;
+    /**
+     * Adds the composition offset of each sample, signed in a trun of version 1.
+     */
+    private static final int  TRUN_COMPOSITION_OFFSETS  = 0x000800;
+    private static final int  SYNC_SAMPLE               = 0x02000000;
+    private static final int  NON_SYNC_SAMPLE           = 0x01010000;
+    private static final int  LANGUAGE_UND              = 0x55C4;
+    private static final int  NAL_SPS                   = 7;
+    private static final int  NAL_PPS                   = 8;
+    private static final int  HEVC_NAL_VPS              = 32;
+    private static final int  HEVC_NAL_SPS              = 33;
+    private static final int  HEVC_NAL_PPS              = 34;
+    /**
+     * Bytes of an H.265 SPS up to the end of the general profile, tier and level.
+     */
+    private static final int  HEVC_SPS_PROFILE_END      = 15;
+
+    private final WritableByteChannel channel;
+    private final List<Track>         tracks = new ArrayList<>();
+    private final BoxWriter           boxes  = new BoxWriter(4096);
+    private int[]   dataOffsetFields;
+    private int     orientation;
+    private int     leadTrack = -1;
+    private int     sequence;
+    private long    written;
+    private boolean started;
+    private boolean finished;
+    private volatile long flushedSize;
+
+    public FragmentedMp4Writer(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Returns true if tracks of the type can be written.
+     */
+    public static boolean isSupported(String mime) {
+        return TrackFormat.MIME_AVC.equals(mime) || TrackFormat.MIME_HEVC.equals(mime)
+               || TrackFormat.MIME_AAC.equals(mime);
+    }
+
+    /**
+     * Adds a track and returns its index.  Only H.264, H.265 and AAC are supported.
+     */
+    public int addTrack(TrackFormat format) {
+        if (started) {
+            throw new IllegalStateException("tracks must be added before start");
+        }
+        Track track = new Track(format, tracks.size() + 1);
+        if (TrackFormat.MIME_HEVC.equals(format.getMime())) {
+            for (int i = 0; i < format.getCodecConfigCount(); i++) {
+                for (byte[] unit : NalUnits.split(format.getCodecConfig(i))) {
+                    int type = NalUnits.getHevcType(unit);
+                    if (type == HEVC_NAL_VPS) {
+                        track.vps.add(unit);
+                    } else if (type == HEVC_NAL_SPS
+                               && NalUnits.unescape(unit, HEVC_SPS_PROFILE_END).length == HEVC_SPS_PROFILE_END) {
+                        track.sps.add(unit);
+                    } else if (type == HEVC_NAL_PPS) {
+                        track.pps.add(unit);
+                    }
+                }
+            }
+            if (track.vps.isEmpty() || track.sps.isEmpty() || track.pps.isEmpty()) {
+                throw new IllegalArgumentException("no parameter sets in the codec config of " + format);
+            }
+        } else if (TrackFormat.MIME_AVC.equals(format.getMime())) {
+            for (int i = 0; i < format.getCodecConfigCount(); i++) {
+                for (byte[] unit : NalUnits.split(format.getCodecConfig(i))) {
+                    if (NalUnits.getType(unit) == NAL_SPS && unit.length >= 4) {
+                        track.sps.add(unit);
+                    } else if (NalUnits.getType(unit) == NAL_PPS) {
+                        track.pps.add(unit);
+                    }
+                }
+            }
+            if (track.sps.isEmpty() || track.pps.isEmpty()) {
+                throw new IllegalArgumentException("no parameter sets in the codec config of " + format);
+            }
+        } else if (TrackFormat.MIME_AAC.equals(format.getMime())) {
+            if (format.getCodecConfigCount() == 0) {
+                throw new IllegalArgumentException("no AudioSpecificConfig for " + format);
+            }
+        } else {
+            throw new IllegalArgumentException("unsupported track " + format);
+        }
+        tracks.add(track);
+        if (leadTrack < 0 && format.isVideo()) {
+            leadTrack = tracks.size() - 1;
+        }
+        return tracks.size() - 1;
+    }
+
+    /**
+     * Rotates the video on playback, like MediaMuxer.setOrientationHint.
+     */
+    public void setOrientationHint(int degrees) {
+        if (degrees != 0 && degrees != 90 && degrees != 180 && degrees != 270) {
+            throw new IllegalArgumentException("orientation " + degrees);
+        }
+        orientation = degrees;
+    }
+
+    /**
+     * Writes the init segment.
+     */
+    public void start() throws IOException {
+        if (started || tracks.isEmpty()) {
+            throw new IllegalStateException(started ? "already started" : "no tracks");
+        }
+        started = true;
+        if (leadTrack < 0) {
+            leadTrack = 0;
+        }
+        dataOffsetFields = new int[tracks.size()];
+        boxes.clear();
+        boxes.start("ftyp").putType("isom").putInt(0x200).putType("isom").putType("iso6").putType("mp41").end();
+        writeMovie();
+        writeFully(boxes.getBytes());
+        flushedSize = written;
+    }
+
+    /**
+     * Queues the sample between position and limit of {@code data}, the buffer is left unchanged.  A keyframe
+     * of the video first writes the fragment before it.  Video comes in decode order, audio in presentation
+     * order.
+     */
+    public void writeSample(int track, ByteBuffer data, long presentationTimeUs, boolean sync) throws IOException {
+        if (!started || finished) {
+            throw new IllegalStateException(finished ? "finished" : "not started");
+        }
+        if (presentationTimeUs < 0) {
+            throw new IllegalArgumentException("negative time " + presentationTimeUs);
+        }
+        Track target = tracks.get(track);
+        long  time   = presentationTimeUs * target.timescale / 1000000;
+        if (!target.format.isVideo() && target.count > 0 && time < target.times[target.count - 1]) {
+            throw new IllegalArgumentException("sample at " + presentationTimeUs + " us of track " + track
+                                               + " is out of order");
+        }
+        boolean keyframe = sync || !target.format.isVideo();
+        target.append(data, time, keyframe);
+        if (track == leadTrack && keyframe && target.count > 1
+            && (target.format.isVideo() || time - target.times[0] >= AUDIO_FRAGMENT_US * target.timescale / 1000000)) {
+            // Every track keeps its latest sample, its duration is not known yet
+            writeFragment(false);
+        }
+    }
+
+    /**
+     * Writes the last fragment.  The channel is left open.
+     */
+    public void finish() throws IOException {
+        if (!started || finished) {
+            return;
+        }
+        finished = true;
+        writeFragment(true);
+    }
+
+    /**
+     * Returns the length of the file up to the end of the last complete fragment.  May be called from any
+     * thread.
+     */
+    public long getFlushedSize() {
+        return flushedSize;
+    }
+
+    private void writeFragment(boolean all) throws IOException {
+        boolean empty = true;
+        for (Track track : tracks) {
+            empty &= track.pending(all) == 0;
+        }
+        if (empty) {
+            return;
+        }
+        boxes.clear();
+        boxes.start("moof");
+        boxes.startFull("mfhd", 0, 0).putInt(++sequence).end();
+        for (int i = 0; i < tracks.size(); i++) {
+            Track track = tracks.get(i);
+            int   count = track.pending(all);
+            dataOffsetFields[i] = -1;
+            if (count == 0) {
+                continue;
+            }
+            boxes.start("traf");
+            boxes.startFull("tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF).putInt(track.id).end();
+            boolean reordered = track.sortDecodeTimes(count);
+            long[]  decode    = track.decodeTimes;
+            boxes.startFull("tfdt", 1, 0).putLong(decode[0]).end();
+            boxes.startFull("trun", reordered ? 1 : 0, reordered ? TRUN_FLAGS | TRUN_COMPOSITION_OFFSETS : TRUN_FLAGS)
+                 .putInt(count);
+            dataOffsetFields[i] = boxes.position();
+            boxes.putInt(0);
+            for (int k = 0; k < count; k++) {
+                // The sample kept back starts the next fragment, it is a keyframe decoded first
+                long next = k + 1 < count ? decode[k + 1] : k + 1 < track.count ? track.times[k + 1] : -1;
+                if (next > decode[k]) {
+                    track.lastDuration = next - decode[k];
+                }
+                boxes.putInt((int) track.lastDuration)
+                     .putInt(track.sizes[k])
+                     .putInt(track.syncs[k] ? SYNC_SAMPLE : NON_SYNC_SAMPLE);
+                if (reordered) {
+                    boxes.putInt((int) (track.times[k] - decode[k]));
+                }
+            }
+            boxes.end().end();
+        }
+        boxes.end();
+        // Offsets count from the start of the moof, the samples follow the mdat header
+        int dataOffset = boxes.position() + 8;
+        for (int i = 0; i < tracks.size(); i++) {
+            if (dataOffsetFields[i] >= 0) {
+                boxes.patchInt(dataOffsetFields[i], dataOffset);
+                dataOffset += tracks.get(i).byteCount(tracks.get(i).pending(all));
+            }
+        }
+        boxes.putInt(dataOffset - boxes.position()).putType("mdat");
+        writeFully(boxes.getBytes());
+        for (Track track : tracks) {
+            int count = track.pending(all);
+            if (count > 0) {
+                ByteBuffer samples = track.data.duplicate();
+                samples.flip().limit(track.byteCount(count));
+                writeFully(samples);
+                track.drop(count);
+            }
+        }
+        flushedSize = written;
+    }
+
+    private void writeMovie() {
+        boxes.start("moov");
+        boxes.startFull("mvhd", 0, 0).putInt(0).putInt(0).putInt(MOVIE_TIMESCALE).putInt(0)
+             .putInt(0x00010000).putShort(0x0100).putZeros(10);
+        putMatrix(0);
+        boxes.putZeros(24).putInt(tracks.size() + 1).end();
+        for (Track track : tracks) {
+            writeTrack(track);
+        }
+        boxes.start("mvex");
+        for (Track track : tracks) {
+            boxes.startFull("trex", 0, 0).putInt(track.id).putInt(1).putInt(0).putInt(0).putInt(0).end();
+        }
+        boxes.end();
+        boxes.end();
+    }
+
+    private void writeTrack(Track track) {
+        TrackFormat format = track.format;
+        boolean     video  = format.isVideo();
+        boxes.start("trak");
+        boxes.startFull("tkhd", 0, 0x000003).putInt(0).putInt(0).putInt(track.id).putInt(0).putInt(0)
+             .putZeros(8).putShort(0).putShort(0).putShort(video ? 0 : 0x0100).putShort(0);
+        putMatrix(video ? orientation : 0);
+        boxes.putInt(format.getWidth() << 16).putInt(format.getHeight() << 16).end();
+        boxes.start("mdia");
+        boxes.startFull("mdhd", 0, 0).putInt(0).putInt(0).putInt(track.timescale).putInt(0)
+             .putShort(LANGUAGE_UND).putShort(0).end();
+        boxes.startFull("hdlr", 0, 0).putInt(0).putType(video ? "vide" : "soun").putZeros(12)
+             .put(video ? "VideoHandler\0".getBytes() : "SoundHandler\0".getBytes()).end();
+        boxes.start("minf");
+        if (video) {
+            boxes.startFull("vmhd", 0, 1).putZeros(8).end();
+        } else {
+            boxes.startFull("smhd", 0, 0).putZeros(4).end();
+        }
+        boxes.start("dinf").startFull("dref", 0, 0).putInt(1).startFull("url ", 0, 1).end().end().end();
+        boxes.start("stbl");
+        boxes.startFull("stsd", 0, 0).putInt(1);
+        if (TrackFormat.MIME_HEVC.equals(format.getMime())) {
+            writeHevcEntry(track);
+        } else if (video) {
+            writeAvcEntry(track);
+        } else {
+            writeAacEntry(format);
+        }
+        boxes.end();
+        // The samples are all in the fragments
+        boxes.startFull("stts", 0, 0).putInt(0).end();
+        boxes.startFull("stsc", 0, 0).putInt(0).end();
+        boxes.startFull("stsz", 0, 0).putInt(0).putInt(0).end();
+        boxes.startFull("stco", 0, 0).putInt(0).end();
+        boxes.end().end().end().end();
+    }
+
+    private void writeAvcEntry(Track track) {
+        startVisualEntry("avc1", track.format);
+        byte[] sps = track.sps.get(0);
+        boxes.start("avcC").putByte(1).putByte(sps[1]).putByte(sps[2]).putByte(sps[3])
+             .putByte(0xFF).putByte(0xE0 | track.sps.size());
+        for (byte[] unit : track.sps) {
+            boxes.putShort(unit.length).put(unit);
+        }
+        boxes.putByte(track.pps.size());
+        for (byte[] unit : track.pps) {
+            boxes.putShort(unit.length).put(unit);
+        }
+        boxes.end().end();
+    }
+
+    /**
+     * Writes hvc1, whose parameter sets are all in the hvcC.  Profile, tier, level and sub-layers come from the
+     * SPS, chroma format and bit depth are given as 4:2:0 at 8 bits, decoders read them from the SPS too.
+     */
+    private void writeHevcEntry(Track track) {
+        startVisualEntry("hvc1", track.format);
+        byte[] sps       = NalUnits.unescape(track.sps.get(0), HEVC_SPS_PROFILE_END);
+        int    subLayers = ((sps[2] >> 1) & 0x07) + 1;
+        boxes.start("hvcC").putByte(1);
+        // General profile space, tier, profile, compatibility and constraint flags and level, after the header
+        for (int i = 3; i < HEVC_SPS_PROFILE_END; i++) {
+            boxes.putByte(sps[i]);
+        }
+        boxes.putShort(0xF000).putByte(0xFC).putByte(0xFD).putByte(0xF8).putByte(0xF8).putShort(0)
+             .putByte(subLayers << 3 | (sps[2] & 0x01) << 2 | 0x03)
+             .putByte(3);
+        putNalArray(HEVC_NAL_VPS, track.vps);
+        putNalArray(HEVC_NAL_SPS, track.sps);
+        putNalArray(HEVC_NAL_PPS, track.pps);
+        boxes.end().end();
+    }
+
+    private void startVisualEntry(String type, TrackFormat format) {
+        boxes.start(type).putZeros(6).putShort(1).putZeros(16)
+             .putShort(format.getWidth()).putShort(format.getHeight())
+             .putInt(0x00480000).putInt(0x00480000).putInt(0).putShort(1).putZeros(32).putShort(0x0018).putShort(-1);
+    }
+
+    /**
+     * Writes an hvcC array of complete parameter sets of one type.
+     */
+    private void putNalArray(int type, List<byte[]> units) {
+        boxes.putByte(0x80 | type).putShort(units.size());
+        for (byte[] unit : units) {
+            boxes.putShort(unit.length).put(unit);
+        }
+    }
+
+    private void writeAacEntry(TrackFormat format) {
+        byte[] config = format.getCodecConfig(0);
+        boxes.start("mp4a").putZeros(6).putShort(1).putZeros(8)
+             .putShort(format.getChannelCount()).putShort(16).putShort(0).putShort(0)
+             .putInt(format.getSampleRate() << 16);
+        boxes.startFull("esds", 0, 0);
+        // ES descriptor holding the decoder config and the sync layer config, all lengths in one byte
+        boxes.putByte(0x03).putByte(23 + config.length).putShort(0).putByte(0);
+        boxes.putByte(0x04).putByte(15 + config.length).putByte(0x40).putByte(0x15).putZeros(3).putInt(0).putInt(0);
+        boxes.putByte(0x05).putByte(config.length).put(config);
+        boxes.putByte(0x06).putByte(1).putByte(0x02);
+        boxes.end().end();
+    }
+
+    private void putMatrix(int degrees) {
+        int cos = degrees == 0 ? 1 : degrees == 180 ? -1 : 0;
+        int sin = degrees == 90 ? 1 : degrees == 270 ? -1 : 0;
+        boxes.putInt(cos << 16).putInt(sin << 16).putInt(0)
+             .putInt(-sin << 16).putInt(cos << 16).putInt(0)
+             .putInt(0).putInt(0).putInt(0x40000000);
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            written += channel.write(bytes);
+        }
+    }
+
+    private static final class Track {
+        private static final int INITIAL_SAMPLES   = 64;
+        private static final int INITIAL_DATA_SIZE = 256 * 1024;
+
+        final TrackFormat  format;
+        final int          id;
+        final int          timescale;
+        final List<byte[]> vps = new ArrayList<>();
+        final List<byte[]> sps = new ArrayList<>();
+        final List<byte[]> pps = new ArrayList<>();
+        /**
+         * Bytes of the queued samples, in order.
+         */
+        ByteBuffer data        = ByteBuffer.allocate(INITIAL_DATA_SIZE);
+        /**
+         * Presentation times, in decode order.
+         */
+        long[]     times       = new long[INITIAL_SAMPLES];
+        long[]     decodeTimes = new long[INITIAL_SAMPLES];
+        int[]      sizes       = new int[INITIAL_SAMPLES];
+        boolean[]  syncs       = new boolean[INITIAL_SAMPLES];
+        int        count;
+        long       lastDuration;
+
+        Track(TrackFormat format, int id) {
+            this.format = format;
+            this.id = id;
+            this.timescale = format.isVideo() ? VIDEO_TIMESCALE : format.getSampleRate();
+        }
+
+        /**
+         * Returns the samples to write, the latest one waits for the next sample unless {@code all}.
+         */
+        int pending(boolean all) {
+            return all ? count : Math.max(0, count - 1);
+        }
+
+        int byteCount(int samples) {
+            int bytes = 0;
+            for (int i = 0; i < samples; i++) {
+                bytes += sizes[i];
+            }
+            return bytes;
+        }
+
+        void append(ByteBuffer sample, long time, boolean sync) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                decodeTimes = new long[count * 2];
+                sizes = Arrays.copyOf(sizes, count * 2);
+                syncs = Arrays.copyOf(syncs, count * 2);
+            }
+            // Start codes of three bytes grow by one
+            int needed = sample.remaining() + sample.remaining() / 3 + 4;
+            if (data.remaining() < needed) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(data.capacity() * 2, data.position() + needed));
+                data.flip();
+                grown.put(data);
+                data = grown;
+            }
+            if (format.isVideo()) {
+                sizes[count] = NalUnits.copyLengthPrefixed(sample, data);
+            } else {
+                sizes[count] = sample.remaining();
+                data.put(sample.duplicate());
+            }
+            times[count] = time;
+            syncs[count] = sync;
+            count++;
+        }
+
+        /**
+         * Sorts the presentation times of the first {@code samples} into {@link #decodeTimes}, returns true if
+         * they weren't in order.
+         */
+        boolean sortDecodeTimes(int samples) {
+            System.arraycopy(times, 0, decodeTimes, 0, samples);
+            Arrays.sort(decodeTimes, 0, samples);
+            for (int i = 0; i < samples; i++) {
+                if (decodeTimes[i] != times[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Drops the first samples once they are written.
+         */
+        void drop(int samples) {
+            int bytes = byteCount(samples);
+            data.flip();
+            data.position(bytes);
+            data.compact();
+            count -= samples;
+            System.arraycopy(times, samples, times, 0, count);
+            System.arraycopy(sizes, samples, sizes, 0, count);
+            System.arraycopy(syncs, samples, syncs, 0, count);
+        }
+    }
+}
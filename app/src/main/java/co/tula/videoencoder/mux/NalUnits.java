@@ -0,0 +1,145 @@
+package co.tula.videoencoder.mux;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Conversion of H.264 and H.265 data from the Annex B byte stream of MediaCodec, where NAL units follow start
+ * codes, to the length prefixed units MP4 stores.
+ */
+final class NalUnits {
+
+    private NalUnits() {
+    }
+
+    /**
+     * Returns the index of the next 00 00 01 between {@code from} and {@code limit}, or -1.
+     */
+    static int findStartCode(ByteBuffer data, int from, int limit) {
+        int i = from;
+        while (i + 2 < limit) {
+            int third = data.get(i + 2) & 0xFF;
+            if (third > 1) {
+                // No start code can end at or cover this byte
+                i += 3;
+            } else if (third == 1 && data.get(i + 1) == 0 && data.get(i) == 0) {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits a codec config buffer into NAL units without start codes.  Data without start codes is a
+     * single unit.
+     */
+    static List<byte[]> split(byte[] annexB) {
+        List<byte[]> units = new ArrayList<>();
+        ByteBuffer   data  = ByteBuffer.wrap(annexB);
+        int          start = findStartCode(data, 0, annexB.length);
+        if (start < 0) {
+            units.add(annexB.clone());
+            return units;
+        }
+        while (start >= 0) {
+            int nal  = start + 3;
+            int next = findStartCode(data, nal, annexB.length);
+            int end  = unitEnd(data, nal, next < 0 ? annexB.length : next);
+            if (end > nal) {
+                byte[] unit = new byte[end - nal];
+                System.arraycopy(annexB, nal, unit, 0, unit.length);
+                units.add(unit);
+            }
+            start = next;
+        }
+        return units;
+    }
+
+    /**
+     * Copies the sample between position and limit of {@code src} to {@code dst} with every start code
+     * replaced by the length of its unit.  {@code dst} needs room for a third more than the sample.  A sample
+     * not starting with a start code is taken as length prefixed already and copied unchanged.
+     *
+     * @return the number of bytes written
+     */
+    static int copyLengthPrefixed(ByteBuffer src, ByteBuffer dst) {
+        ByteBuffer view  = src.duplicate();
+        int        limit = src.limit();
+        int        begin = dst.position();
+        int        start = findStartCode(src, src.position(), limit);
+        if (start < 0 || !isZero(src, src.position(), start)) {
+            dst.put(view);
+            return dst.position() - begin;
+        }
+        while (start >= 0) {
+            int nal  = start + 3;
+            int next = findStartCode(src, nal, limit);
+            int end  = unitEnd(src, nal, next < 0 ? limit : next);
+            if (end > nal) {
+                view.limit(end).position(nal);
+                dst.putInt(end - nal);
+                dst.put(view);
+            }
+            start = next;
+        }
+        return dst.position() - begin;
+    }
+
+    /**
+     * Returns the type of an H.264 unit without start code.
+     */
+    static int getType(byte[] unit) {
+        return unit[0] & 0x1F;
+    }
+
+    /**
+     * Returns the type of an H.265 unit without start code, its header is two bytes.
+     */
+    static int getHevcType(byte[] unit) {
+        return (unit[0] >> 1) & 0x3F;
+    }
+
+    /**
+     * Returns the first {@code length} bytes of the unit's payload with the emulation prevention bytes, the 03
+     * of every 00 00 03, removed.  The result is shorter if the unit is.
+     */
+    static byte[] unescape(byte[] unit, int length) {
+        byte[] payload = new byte[length];
+        int    count   = 0;
+        int    zeros   = 0;
+        for (int i = 0; i < unit.length && count < length; i++) {
+            if (zeros >= 2 && unit[i] == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = unit[i] == 0 ? zeros + 1 : 0;
+            payload[count++] = unit[i];
+        }
+        return count == length ? payload : Arrays.copyOf(payload, count);
+    }
+
+    /**
+     * Returns the end of the unit starting at {@code nal} before the start code at {@code next}.  The first
+     * zero of a four byte start code and trailing zeros belong to no unit.
+     */
+    private static int unitEnd(ByteBuffer data, int nal, int next) {
+        int end = next;
+        while (end > nal && data.get(end - 1) == 0) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isZero(ByteBuffer data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,194 @@
+package co.tula.videoencoder.mux;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Muxer stage which merges samples of several tracks written from different threads into a single
+ * stream ordered by presentation time.
+ * <p>
+ * Each track ("lane") has a small reorder buffer.  A sample is passed to the {@link SampleWriter} only
+ * when every unfinished lane has something queued, so the earliest queued sample is known to be the
+ * earliest overall.  A producer whose buffer is full blocks until the other lanes catch up, which keeps
+ * the tracks within a few samples of each other in the output file.
+ * <p>
+ * Nothing is written before {@link #start()}, so producers may begin before the muxer knows all of its
+ * tracks.  Samples are copied into preallocated slots, the producer may reuse its buffer right away.
+ */
+public class SampleInterleaver {
+
+    /**
+     * Receives samples in interleaved order.  Calls are serialized.
+     */
+    public interface SampleWriter {
+        /**
+         * @param data sample bytes between position 0 and {@code size}
+         */
+        void writeSample(int lane, ByteBuffer data, int size, long presentationTimeUs, int flags);
+    }
+
+    private static final int INITIAL_SLOT_SIZE = 16 * 1024;
+
+    private final SampleWriter writer;
+    private final Lane[]       lanes;
+    private boolean started;
+    private boolean aborted;
+
+    public SampleInterleaver(SampleWriter writer, int laneCount, int capacity) {
+        if (laneCount <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.writer = writer;
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(capacity);
+        }
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Allows writing.  Everything queued so far that can be ordered is flushed.
+     */
+    public synchronized void start() {
+        started = true;
+        flush();
+        notifyAll();
+    }
+
+    /**
+     * Queues a copy of the bytes between position and limit of {@code data}.  Blocks while the lane is full.
+     *
+     * @throws InterruptedException if the thread is interrupted or the interleaver is aborted while waiting
+     */
+    public synchronized void write(int lane, ByteBuffer data, long presentationTimeUs, int flags)
+            throws InterruptedException {
+        Lane target = lanes[lane];
+        if (target.finished) {
+            throw new IllegalStateException("lane " + lane + " is finished");
+        }
+        while (target.count == target.slots.length && !aborted) {
+            wait();
+        }
+        if (aborted) {
+            throw new InterruptedException("interleaver aborted");
+        }
+        target.push(data, presentationTimeUs, flags);
+        flush();
+    }
+
+    /**
+     * Marks the end of the lane.  Once all lanes are finished everything left is written.
+     */
+    public synchronized void finish(int lane) {
+        lanes[lane].finished = true;
+        flush();
+        notifyAll();
+    }
+
+    /**
+     * Releases blocked producers and drops everything queued.
+     */
+    public synchronized void abort() {
+        aborted = true;
+        notifyAll();
+    }
+
+    /**
+     * Returns true when all lanes are finished and every sample has been written.
+     */
+    public synchronized boolean isDrained() {
+        for (Lane lane : lanes) {
+            if (!lane.finished || lane.count > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void flush() {
+        if (!started || aborted) {
+            return;
+        }
+        boolean wrote = false;
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < lanes.length; i++) {
+                Lane lane = lanes[i];
+                if (lane.count == 0) {
+                    if (!lane.finished) {
+                        // Can't tell whether this lane will produce something earlier
+                        next = -1;
+                        break;
+                    }
+                    continue;
+                }
+                if (next < 0 || lane.headTime() < lanes[next].headTime()) {
+                    next = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            Slot slot = lanes[next].peek();
+            slot.data.position(0).limit(slot.size);
+            writer.writeSample(next, slot.data, slot.size, slot.presentationTimeUs, slot.flags);
+            lanes[next].pop();
+            wrote = true;
+        }
+        if (wrote) {
+            notifyAll();
+        }
+    }
+
+    private static final class Slot {
+        ByteBuffer data = ByteBuffer.allocateDirect(INITIAL_SLOT_SIZE);
+        int  size;
+        long presentationTimeUs;
+        int  flags;
+    }
+
+    private static final class Lane {
+        final Slot[] slots;
+        int     head;
+        int     count;
+        boolean finished;
+
+        Lane(int capacity) {
+            slots = new Slot[capacity];
+            for (int i = 0; i < capacity; i++) {
+                slots[i] = new Slot();
+            }
+        }
+
+        void push(ByteBuffer data, long presentationTimeUs, int flags) {
+            Slot slot = slots[(head + count) % slots.length];
+            int  size = data.remaining();
+            if (slot.data.capacity() < size) {
+                slot.data = ByteBuffer.allocateDirect(Integer.highestOneBit(size) << 1);
+            }
+            slot.data.clear();
+            int position = data.position();
+            slot.data.put(data);
+            data.position(position);
+            slot.size = size;
+            slot.presentationTimeUs = presentationTimeUs;
+            slot.flags = flags;
+            count++;
+        }
+
+        Slot peek() {
+            return slots[head];
+        }
+
+        long headTime() {
+            return slots[head].presentationTimeUs;
+        }
+
+        void pop() {
+            head = (head + 1) % slots.length;
+            count--;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package co.tula.videoencoder.mux;
+
+/**
+ * Format of a track written by {@link FragmentedMp4Writer}: H.264 or H.265 video or AAC audio with its codec
+ * config.
+ */
+public final class TrackFormat {
+
+    public static final String MIME_AVC  = "video/avc";
+    public static final String MIME_HEVC = "video/hevc";
+    public static final String MIME_AAC  = "audio/mp4a-latm";
+
+    private final String   mime;
+    private final int      width;
+    private final int      height;
+    private final int      sampleRate;
+    private final int      channelCount;
+    private final byte[][] codecConfig;
+
+    private TrackFormat(String mime, int width, int height, int sampleRate, int channelCount, byte[][] codecConfig) {
+        if (mime == null) {
+            throw new IllegalArgumentException();
+        }
+        this.mime = mime;
+        this.width = width;
+        this.height = height;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.codecConfig = codecConfig.clone();
+    }
+
+    /**
+     * @param codecConfig the csd buffers of the format, for H.264 and H.265 the parameter sets with start codes
+     */
+    public static TrackFormat video(String mime, int width, int height, byte[]... codecConfig) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("size " + width + "x" + height);
+        }
+        return new TrackFormat(mime, width, height, 0, 0, codecConfig);
+    }
+
+    /**
+     * @param codecConfig the csd buffers of the format, for AAC the AudioSpecificConfig
+     */
+    public static TrackFormat audio(String mime, int sampleRate, int channelCount, byte[]... codecConfig) {
+        if (sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException(sampleRate + " Hz, " + channelCount + " channels");
+        }
+        return new TrackFormat(mime, 0, 0, sampleRate, channelCount, codecConfig);
+    }
+
+    public boolean isVideo() {
+        return mime.startsWith("video/");
+    }
+
+    public String getMime() {
+        return mime;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public int getCodecConfigCount() {
+        return codecConfig.length;
+    }
+
+    public byte[] getCodecConfig(int index) {
+        return codecConfig[index];
+    }
+
+    @Override
+    public String toString() {
+        return isVideo() ? mime + " " + width + "x" + height : mime + " " + sampleRate + " Hz x" + channelCount;
+    }
+}
@@ -0,0 +1,63 @@
+package co.tula.videoencoder.overlay;
+
+/**
+ * Where each image sits in a texture atlas, in pixels from the top left corner, as {@link AtlasPacker} placed
+ * them.
+ */
+public final class AtlasLayout {
+
+    private final int   width;
+    private final int   height;
+    private final int[] x;
+    private final int[] y;
+    private final int[] widths;
+    private final int[] heights;
+
+    AtlasLayout(int width, int height, int[] x, int[] y, int[] widths, int[] heights) {
+        this.width = width;
+        this.height = height;
+        this.x = x;
+        this.y = y;
+        this.widths = widths;
+        this.heights = heights;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int size() {
+        return x.length;
+    }
+
+    public int getX(int image) {
+        return x[image];
+    }
+
+    public int getY(int image) {
+        return y[image];
+    }
+
+    public int getImageWidth(int image) {
+        return widths[image];
+    }
+
+    public int getImageHeight(int image) {
+        return heights[image];
+    }
+
+    /**
+     * Writes the left, top, right and bottom texture coordinates of an image from {@code offset}.  The atlas
+     * is uploaded from a bitmap, so its first row, the top, is at t = 0.
+     */
+    public void getTextureRect(int image, float[] out, int offset) {
+        out[offset] = (float) x[image] / width;
+        out[offset + 1] = (float) y[image] / height;
+        out[offset + 2] = (float) (x[image] + widths[image]) / width;
+        out[offset + 3] = (float) (y[image] + heights[image]) / height;
+    }
+}
@@ -0,0 +1,100 @@
+package co.tula.videoencoder.overlay;
+
+import java.util.Arrays;
+
+/**
+ * Packs images into one texture so all overlays of a frame can be drawn from a single texture.
+ * <p>
+ * Images are placed on shelves, tallest first, which wastes little space for the handful of logos and captions
+ * a video has.  The atlas starts at the smallest power of two which could hold them and doubles its shorter
+ * side until they fit.  A transparent gutter around every image keeps linear filtering from bleeding between
+ * neighbours.
+ */
+public final class AtlasPacker {
+
+    private final int maxSize;
+    private final int padding;
+
+    /**
+     * @param maxSize largest width and height of the atlas, GL_MAX_TEXTURE_SIZE at most
+     * @param padding gutter in pixels on every side of an image
+     */
+    public AtlasPacker(int maxSize, int padding) {
+        if (maxSize < 1 || padding < 0) {
+            throw new IllegalArgumentException("max size " + maxSize + ", padding " + padding);
+        }
+        this.maxSize = maxSize;
+        this.padding = padding;
+    }
+
+    /**
+     * Places images of the given sizes.
+     *
+     * @throws IllegalArgumentException if they don't fit into an atlas of the maximal size
+     */
+    public AtlasLayout pack(int[] widths, int[] heights) {
+        if (widths.length != heights.length || widths.length == 0) {
+            throw new IllegalArgumentException(widths.length + " widths for " + heights.length + " heights");
+        }
+        Integer[] order   = new Integer[widths.length];
+        long      area    = 0;
+        int       widest  = 0;
+        int       tallest = 0;
+        for (int i = 0; i < widths.length; i++) {
+            if (widths[i] < 1 || heights[i] < 1) {
+                throw new IllegalArgumentException("image " + i + " is " + widths[i] + "x" + heights[i]);
+            }
+            order[i] = i;
+            area += (long) (widths[i] + 2 * padding) * (heights[i] + 2 * padding);
+            widest = Math.max(widest, widths[i] + 2 * padding);
+            tallest = Math.max(tallest, heights[i] + 2 * padding);
+        }
+        if (widest > maxSize || tallest > maxSize) {
+            throw new IllegalArgumentException("image larger than " + maxSize + "x" + maxSize);
+        }
+        Arrays.sort(order, (a, b) -> heights[a] != heights[b] ? heights[b] - heights[a] : widths[b] - widths[a]);
+        int   side   = (int) Math.min(Math.ceil(Math.sqrt(area)), maxSize);
+        int   width  = Math.min(powerOfTwo(Math.max(widest, side)), maxSize);
+        int   height = Math.min(powerOfTwo(tallest), maxSize);
+        int[] x      = new int[widths.length];
+        int[] y      = new int[widths.length];
+        while (!place(order, widths, heights, width, height, x, y)) {
+            if (width == maxSize && height == maxSize) {
+                throw new IllegalArgumentException(widths.length + " images don't fit into " + maxSize + "x" + maxSize);
+            }
+            if (height < width || width == maxSize) {
+                height = Math.min(height * 2, maxSize);
+            } else {
+                width = Math.min(width * 2, maxSize);
+            }
+        }
+        return new AtlasLayout(width, height, x, y, widths.clone(), heights.clone());
+    }
+
+    private boolean place(Integer[] order, int[] widths, int[] heights, int width, int height, int[] x, int[] y) {
+        int shelfX      = 0;
+        int shelfY      = 0;
+        int shelfHeight = 0;
+        for (int image : order) {
+            int w = widths[image] + 2 * padding;
+            int h = heights[image] + 2 * padding;
+            if (shelfX + w > width) {
+                shelfY += shelfHeight;
+                shelfX = 0;
+                shelfHeight = 0;
+            }
+            if (shelfY + h > height) {
+                return false;
+            }
+            x[image] = shelfX + padding;
+            y[image] = shelfY + padding;
+            shelfX += w;
+            shelfHeight = Math.max(shelfHeight, h);
+        }
+        return true;
+    }
+
+    private static int powerOfTwo(int size) {
+        return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+}
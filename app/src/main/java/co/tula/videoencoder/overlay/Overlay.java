@@ -0,0 +1,138 @@
+package co.tula.videoencoder.overlay;
+
+/**
+ * An image composited over the output, such as a logo, a caption or a sticker.
+ * <p>
+ * Placement is in fractions of the output, measured from its top left corner, so it holds for every output
+ * size.  The image is scaled to the size given, rotated about its center and blended by its opacity.  It may
+ * be changed between frames, the batch it is drawn by reads it every frame.
+ */
+public final class Overlay {
+
+    private final String imagePath;
+    private float centerX  = 0.5f;
+    private float centerY  = 0.5f;
+    private float width    = 0.25f;
+    private float height   = 0.25f;
+    private float rotation = 0f;
+    private float opacity  = 1f;
+
+    public Overlay(String imagePath) {
+        if (imagePath == null) {
+            throw new IllegalArgumentException("no image");
+        }
+        this.imagePath = imagePath;
+    }
+
+    /**
+     * Moves the center of the image, e.g. {@code 0.9, 0.9} for a logo in the bottom right corner.
+     */
+    public Overlay setPosition(float centerX, float centerY) {
+        this.centerX = centerX;
+        this.centerY = centerY;
+        return this;
+    }
+
+    /**
+     * Sets the size as fractions of the output's width and height.
+     */
+    public Overlay setSize(float width, float height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    /**
+     * Sets the counter clockwise rotation in degrees.
+     */
+    public Overlay setRotation(float degrees) {
+        this.rotation = degrees;
+        return this;
+    }
+
+    public Overlay setOpacity(float opacity) {
+        if (opacity < 0 || opacity > 1) {
+            throw new IllegalArgumentException("opacity " + opacity);
+        }
+        this.opacity = opacity;
+        return this;
+    }
+
+    public String getImagePath() {
+        return imagePath;
+    }
+
+    public float getCenterX() {
+        return centerX;
+    }
+
+    public float getCenterY() {
+        return centerY;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+
+    public float getRotation() {
+        return rotation;
+    }
+
+    public float getOpacity() {
+        return opacity;
+    }
+
+    /**
+     * Returns the overlay as {@code <x>,<y>,<width>,<height>,<rotation>,<opacity>,<path>}.
+     */
+    public String encode() {
+        return centerX + "," + centerY + "," + width + "," + height + "," + rotation + "," + opacity + ","
+               + imagePath;
+    }
+
+    public static Overlay decode(String encoded) {
+        String[] parts = encoded.split(",", 7);
+        if (parts.length != 7) {
+            throw new IllegalArgumentException("bad overlay " + encoded);
+        }
+        return new Overlay(parts[6]).setPosition(Float.parseFloat(parts[0]), Float.parseFloat(parts[1]))
+                                    .setSize(Float.parseFloat(parts[2]), Float.parseFloat(parts[3]))
+                                    .setRotation(Float.parseFloat(parts[4]))
+                                    .setOpacity(Float.parseFloat(parts[5]));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Overlay)) {
+            return false;
+        }
+        Overlay other = (Overlay) o;
+        return imagePath.equals(other.imagePath) && Float.compare(centerX, other.centerX) == 0
+               && Float.compare(centerY, other.centerY) == 0 && Float.compare(width, other.width) == 0
+               && Float.compare(height, other.height) == 0 && Float.compare(rotation, other.rotation) == 0
+               && Float.compare(opacity, other.opacity) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = imagePath.hashCode();
+        result = 31 * result + Float.floatToIntBits(centerX);
+        result = 31 * result + Float.floatToIntBits(centerY);
+        result = 31 * result + Float.floatToIntBits(width);
+        result = 31 * result + Float.floatToIntBits(height);
+        result = 31 * result + Float.floatToIntBits(rotation);
+        return 31 * result + Float.floatToIntBits(opacity);
+    }
+
+    @Override
+    public String toString() {
+        return "Overlay{" + encode() + "}";
+    }
+}
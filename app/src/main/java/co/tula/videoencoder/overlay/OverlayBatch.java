@@ -0,0 +1,96 @@
+package co.tula.videoencoder.overlay;
+
+import co.tula.videoencoder.encoder.Sprite;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Vertices of all overlays of a frame, for one draw call from one atlas.
+ * <p>
+ * Every overlay is two triangles of {@link #FLOATS_PER_VERTEX} floats: x and y in clip space, s and t in the
+ * atlas, and the opacity.  Placement goes through a {@link Sprite} in a space where x is scaled by the aspect of
+ * the output, so a rotated overlay keeps its proportions on a wide frame.  Overlays sharing an image share its
+ * place in the atlas.
+ */
+public final class OverlayBatch {
+
+    public static final int FLOATS_PER_VERTEX    = 5;
+    public static final int VERTICES_PER_OVERLAY = 6;
+
+    // Corners of the sprite, bottom left, bottom right, top left, top right, as two triangles
+    private static final int[] CORNERS = {0, 1, 2, 2, 1, 3};
+
+    private final List<Overlay> overlays;
+    private final List<String>  imagePaths = new ArrayList<>();
+    private final int[]         images;
+    private final Sprite        sprite     = new Sprite();
+    private final float[]       corners    = new float[Sprite.VERTEX_FLOATS];
+    private final float[]       rect       = new float[4];
+
+    public OverlayBatch(List<Overlay> overlays) {
+        this.overlays = new ArrayList<>(overlays);
+        images = new int[overlays.size()];
+        for (int i = 0; i < images.length; i++) {
+            String path  = overlays.get(i).getImagePath();
+            int    image = imagePaths.indexOf(path);
+            if (image < 0) {
+                image = imagePaths.size();
+                imagePaths.add(path);
+            }
+            images[i] = image;
+        }
+    }
+
+    /**
+     * Returns the distinct images, in the order their sizes are given to {@link AtlasPacker#pack}.
+     */
+    public List<String> getImagePaths() {
+        return imagePaths;
+    }
+
+    public int getOverlayCount() {
+        return overlays.size();
+    }
+
+    /**
+     * Returns the most vertices {@link #write} produces, to size the buffer.
+     */
+    public int getVertexCount() {
+        return overlays.size() * VERTICES_PER_OVERLAY;
+    }
+
+    /**
+     * Writes the vertices of the visible overlays from index 0 of {@code out}, its position is left unchanged.
+     *
+     * @param aspect width over height of the output
+     * @return the number of vertices written
+     */
+    public int write(AtlasLayout atlas, float aspect, FloatBuffer out) {
+        int index = 0;
+        for (int i = 0; i < images.length; i++) {
+            Overlay overlay = overlays.get(i);
+            float   opacity = overlay.getOpacity();
+            if (opacity == 0f) {
+                continue;
+            }
+            sprite.setScale(overlay.getWidth() * aspect, overlay.getHeight())
+                  .setTranslation((overlay.getCenterX() * 2f - 1f) * aspect, 1f - overlay.getCenterY() * 2f)
+                  .updateAngleDeg(overlay.getRotation())
+                  .getTransformedVertices(corners, 0);
+            atlas.getTextureRect(images[i], rect, 0);
+            for (int corner : CORNERS) {
+                boolean right = (corner & 1) != 0;
+                boolean top   = (corner & 2) != 0;
+                out.put(index, corners[corner * 3] / aspect)
+                   .put(index + 1, corners[corner * 3 + 1])
+                   .put(index + 2, right ? rect[2] : rect[0])
+                   .put(index + 3, top ? rect[1] : rect[3])
+                   .put(index + 4, opacity);
+                index += FLOATS_PER_VERTEX;
+            }
+        }
+        return index / FLOATS_PER_VERTEX;
+    }
+}
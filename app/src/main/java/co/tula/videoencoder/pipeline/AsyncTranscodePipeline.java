@@ -0,0 +1,169 @@
+package co.tula.videoencoder.pipeline;
+
+import co.tula.videoencoder.metrics.MetricsRecorder;
+import co.tula.videoencoder.metrics.Stage;
+import co.tula.videoencoder.trace.TraceLog;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Event driven decode-modify-encode loop.
+ * <p>
+ * Codecs report available buffers through callbacks which only post events to the {@link EventQueue}.
+ * The pipeline thread, which owns the GL context, reacts on each event as soon as it arrives: feeds the
+ * decoder from the source, renders decoded frames into the encoder surface and hands encoded samples to
+ * the sink.  Nothing is polled, so no stage waits for a timeout of another one.
+ */
+public class AsyncTranscodePipeline {
+
+    /**
+     * Same value as MediaCodec.BUFFER_FLAG_END_OF_STREAM.
+     */
+    public static final int FLAG_END_OF_STREAM = 4;
+
+    private final EventQueue    events;
+    private final SampleSource  source;
+    private final CodecPort     decoder;
+    private final FrameRenderer renderer;
+    private final CodecPort     encoder;
+    private final EncodedSink   sink;
+    private TraceLog        trace   = TraceLog.NONE;
+    private MetricsRecorder metrics = new MetricsRecorder();
+    private boolean         inputDone;
+    private boolean         decoderDone;
+    private boolean         outputDone;
+    private int             frameCount;
+
+    public AsyncTranscodePipeline(EventQueue events, SampleSource source,
+                                  CodecPort decoder, FrameRenderer renderer,
+                                  CodecPort encoder, EncodedSink sink) {
+        this.events = events;
+        this.source = source;
+        this.decoder = decoder;
+        this.renderer = renderer;
+        this.encoder = encoder;
+        this.sink = sink;
+    }
+
+    public void setTraceLog(TraceLog trace) {
+        this.trace = trace;
+    }
+
+    public void setMetrics(MetricsRecorder metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Processes events until the encoder emits end of stream.
+     */
+    public void run() throws InterruptedException {
+        while (!outputDone) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            PipelineEvent event = events.take();
+            try {
+                dispatch(event);
+            } finally {
+                events.recycle(event);
+            }
+        }
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public boolean isDone() {
+        return outputDone;
+    }
+
+    private void dispatch(PipelineEvent event) throws InterruptedException {
+        switch (event.type) {
+            case PipelineEvent.DECODER_INPUT:
+                feedDecoder(event.index);
+                break;
+            case PipelineEvent.DECODER_OUTPUT:
+                renderDecoded(event);
+                break;
+            case PipelineEvent.DECODER_FORMAT_CHANGED:
+                trace.log(TraceLog.LEVEL_DEBUG, TraceLog.DECODER_FORMAT_CHANGED, 0, 0);
+                break;
+            case PipelineEvent.ENCODER_FORMAT_CHANGED:
+                trace.log(TraceLog.LEVEL_DEBUG, TraceLog.ENCODER_FORMAT_CHANGED, 0, 0);
+                sink.onOutputFormatChanged();
+                break;
+            case PipelineEvent.ENCODER_OUTPUT:
+                writeEncoded(event);
+                break;
+            case PipelineEvent.ERROR:
+                throw new RuntimeException("codec error", event.error);
+            default:
+                throw new IllegalStateException("unknown event " + event.type);
+        }
+    }
+
+    private void feedDecoder(int index) {
+        if (inputDone) {
+            return;
+        }
+        ByteBuffer input = decoder.getInputBuffer(index);
+        if (input == null) {
+            return;
+        }
+        long readStart = System.nanoTime();
+        int  chunkSize = source.readSampleData(input, 0);
+        metrics.record(Stage.EXTRACTOR_READ, readStart);
+        if (chunkSize < 0) {
+            decoder.queueInputBuffer(index, 0, 0, 0, FLAG_END_OF_STREAM);
+            inputDone = true;
+            trace.log(TraceLog.LEVEL_DEBUG, TraceLog.DECODER_INPUT_EOS, 0, 0);
+        } else {
+            long presentationTime = source.getSampleTime();
+            metrics.onDecoderInput(presentationTime);
+            decoder.queueInputBuffer(index, 0, chunkSize, presentationTime, 0);
+            source.advance();
+            trace.log(TraceLog.LEVEL_VERBOSE, TraceLog.DECODER_INPUT, presentationTime, chunkSize);
+        }
+    }
+
+    private void renderDecoded(PipelineEvent event) throws InterruptedException {
+        if (decoderDone) {
+            return;
+        }
+        boolean doRender = event.size != 0;
+        decoder.releaseOutputBuffer(event.index, doRender);
+        if (doRender) {
+            metrics.onDecoderOutput(event.presentationTimeUs);
+            renderer.renderFrame(event.presentationTimeUs);
+            metrics.onFrameRendered();
+            trace.log(TraceLog.LEVEL_VERBOSE, TraceLog.FRAME_RENDERED, frameCount, event.presentationTimeUs);
+            frameCount++;
+        }
+        if ((event.flags & FLAG_END_OF_STREAM) != 0) {
+            decoderDone = true;
+            encoder.signalEndOfInputStream();
+        }
+    }
+
+    private void writeEncoded(PipelineEvent event) throws InterruptedException {
+        long drainStart = System.nanoTime();
+        if (event.size != 0) {
+            ByteBuffer encodedData = encoder.getOutputBuffer(event.index);
+            if (encodedData == null) {
+                throw new IllegalStateException("encoder output buffer " + event.index + " was null");
+            }
+            encodedData.position(event.offset);
+            encodedData.limit(event.offset + event.size);
+            sink.writeSample(encodedData, event.offset, event.size, event.presentationTimeUs, event.flags);
+            trace.log(TraceLog.LEVEL_VERBOSE, TraceLog.ENCODER_OUTPUT, event.presentationTimeUs, event.size);
+        }
+        encoder.releaseOutputBuffer(event.index, false);
+        metrics.record(Stage.ENCODER_DRAIN, drainStart);
+        if ((event.flags & FLAG_END_OF_STREAM) != 0) {
+            outputDone = true;
+            trace.log(TraceLog.LEVEL_DEBUG, TraceLog.ENCODER_EOS, frameCount, 0);
+            sink.onEndOfStream();
+        }
+    }
+}
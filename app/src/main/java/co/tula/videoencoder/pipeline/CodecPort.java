@@ -0,0 +1,22 @@
+package co.tula.videoencoder.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Subset of MediaCodec used by the pipeline.  Buffer indices come from {@link PipelineEvent}s.
+ */
+public interface CodecPort {
+
+    ByteBuffer getInputBuffer(int index);
+
+    void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags);
+
+    ByteBuffer getOutputBuffer(int index);
+
+    void releaseOutputBuffer(int index, boolean render);
+
+    /**
+     * Signals end of stream to an encoder fed from a Surface.
+     */
+    void signalEndOfInputStream();
+}
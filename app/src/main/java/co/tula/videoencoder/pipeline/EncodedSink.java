@@ -0,0 +1,25 @@
+package co.tula.videoencoder.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives encoder output.
+ */
+public interface EncodedSink {
+
+    /**
+     * Called once before the first sample, when the encoder reports its output format.
+     */
+    void onOutputFormatChanged();
+
+    /**
+     * Writes the sample.  May block if the muxer stage applies back pressure.
+     */
+    void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags)
+            throws InterruptedException;
+
+    /**
+     * Called after the encoder has emitted its last buffer.
+     */
+    void onEndOfStream();
+}
@@ -0,0 +1,107 @@
+package co.tula.videoencoder.pipeline;
+
+/**
+ * Blocking queue of codec events with a pool of reusable event objects.
+ * <p>
+ * Encoder events are delivered before decoder events.  Draining the encoder first keeps its output
+ * buffers free, so the next eglSwapBuffers into the encoder surface never blocks on us.
+ */
+public class EventQueue {
+
+    private final Object lock = new Object();
+    private PipelineEvent encoderHead, encoderTail;
+    private PipelineEvent decoderHead, decoderTail;
+    private PipelineEvent free;
+
+    /**
+     * Posts an event.  Safe to call from any thread.
+     */
+    public void post(int type, int index, int offset, int size, long presentationTimeUs, int flags) {
+        synchronized (lock) {
+            PipelineEvent event = obtain();
+            event.type = type;
+            event.index = index;
+            event.offset = offset;
+            event.size = size;
+            event.presentationTimeUs = presentationTimeUs;
+            event.flags = flags;
+            enqueue(event);
+        }
+    }
+
+    public void postError(Exception error) {
+        synchronized (lock) {
+            PipelineEvent event = obtain();
+            event.type = PipelineEvent.ERROR;
+            event.error = error;
+            enqueue(event);
+        }
+    }
+
+    /**
+     * Waits for the next event.  The caller must recycle it when done.
+     */
+    public PipelineEvent take() throws InterruptedException {
+        synchronized (lock) {
+            while (encoderHead == null && decoderHead == null) {
+                lock.wait();
+            }
+            PipelineEvent event;
+            if (encoderHead != null) {
+                event = encoderHead;
+                encoderHead = event.next;
+                if (encoderHead == null) {
+                    encoderTail = null;
+                }
+            } else {
+                event = decoderHead;
+                decoderHead = event.next;
+                if (decoderHead == null) {
+                    decoderTail = null;
+                }
+            }
+            event.next = null;
+            return event;
+        }
+    }
+
+    public void recycle(PipelineEvent event) {
+        synchronized (lock) {
+            event.clear();
+            event.next = free;
+            free = event;
+        }
+    }
+
+    private PipelineEvent obtain() {
+        PipelineEvent event = free;
+        if (event == null) {
+            return new PipelineEvent();
+        }
+        free = event.next;
+        event.next = null;
+        return event;
+    }
+
+    private void enqueue(PipelineEvent event) {
+        boolean encoder = event.type == PipelineEvent.ENCODER_OUTPUT
+                          || event.type == PipelineEvent.ENCODER_FORMAT_CHANGED
+                          || event.type == PipelineEvent.ERROR;
+        if (encoder) {
+            if (encoderTail == null) {
+                encoderHead = event;
+            } else {
+                encoderTail.next = event;
+            }
+            encoderTail = event;
+        } else {
+            if (decoderTail == null) {
+                decoderHead = event;
+            } else {
+                decoderTail.next = event;
+            }
+            decoderTail = event;
+        }
+        lock.notifyAll();
+    }
+}
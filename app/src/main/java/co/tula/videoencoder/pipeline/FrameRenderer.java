@@ -0,0 +1,10 @@
+package co.tula.videoencoder.pipeline;
+
+/**
+ * Draws the frame just released by the decoder onto the encoder input.  Called on the pipeline thread,
+ * which owns the GL context.
+ */
+public interface FrameRenderer {
+
+    void renderFrame(long presentationTimeUs) throws InterruptedException;
+}
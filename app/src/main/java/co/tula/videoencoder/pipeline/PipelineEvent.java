@@ -0,0 +1,36 @@
+package co.tula.videoencoder.pipeline;
+
+/**
+ * Codec notification passed from the callback thread to the pipeline thread.  Instances are pooled by
+ * {@link EventQueue}, so they must not be kept after {@link EventQueue#recycle(PipelineEvent)}.
+ */
+public final class PipelineEvent {
+
+    public static final int DECODER_INPUT          = 1;
+    public static final int DECODER_OUTPUT         = 2;
+    public static final int DECODER_FORMAT_CHANGED = 3;
+    public static final int ENCODER_OUTPUT         = 4;
+    public static final int ENCODER_FORMAT_CHANGED = 5;
+    public static final int ERROR                  = 6;
+
+    public int       type;
+    public int       index;
+    public int       offset;
+    public int       size;
+    public long      presentationTimeUs;
+    public int       flags;
+    public Exception error;
+
+    PipelineEvent next;
+
+    void clear() {
+        type = 0;
+        index = -1;
+        offset = 0;
+        size = 0;
+        presentationTimeUs = 0;
+        flags = 0;
+        error = null;
+        next = null;
+    }
+}
@@ -0,0 +1,37 @@
+package co.tula.videoencoder.pipeline;
+
+/**
+ * {@link CodecPort} which is asked for buffers with a timeout, for {@link PollingTranscodeLoop}.
+ */
+public interface PollingCodec extends CodecPort {
+
+    /**
+     * Same value as MediaCodec.INFO_TRY_AGAIN_LATER.
+     */
+    int INFO_TRY_AGAIN_LATER       = -1;
+    /**
+     * Same value as MediaCodec.INFO_OUTPUT_FORMAT_CHANGED.
+     */
+    int INFO_OUTPUT_FORMAT_CHANGED = -2;
+
+    /**
+     * Returns the index of a free input buffer, or {@link #INFO_TRY_AGAIN_LATER}.
+     */
+    int dequeueInputBuffer(long timeoutUs);
+
+    /**
+     * Returns the index of an output buffer described in {@code info}, or one of the {@code INFO_} values.
+     */
+    int dequeueOutputBuffer(OutputInfo info, long timeoutUs);
+
+    /**
+     * Offset, size, timestamp and flags of an output buffer, like MediaCodec.BufferInfo.  Reused for every
+     * buffer.
+     */
+    final class OutputInfo {
+        public int  offset;
+        public int  size;
+        public long presentationTimeUs;
+        public int  flags;
+    }
+}
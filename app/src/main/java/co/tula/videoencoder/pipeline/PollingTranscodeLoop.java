@@ -0,0 +1,165 @@
+package co.tula.videoencoder.pipeline;
+
+import co.tula.videoencoder.metrics.MetricsRecorder;
+import co.tula.videoencoder.metrics.Stage;
+import co.tula.videoencoder.trace.TraceLog;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decode-modify-encode loop which polls the codecs, for devices without codec callbacks.
+ * <p>
+ * Each round feeds the decoder one sample, then drains the encoder and renders decoded frames until neither
+ * has anything ready.  The encoder is drained first so it never runs out of input surface buffers.
+ */
+public class PollingTranscodeLoop {
+
+    private static final long TIMEOUT_US = 10000;
+
+    private final SampleSource            source;
+    private final PollingCodec            decoder;
+    private final FrameRenderer           renderer;
+    private final PollingCodec            encoder;
+    private final EncodedSink             sink;
+    private final PollingCodec.OutputInfo info    = new PollingCodec.OutputInfo();
+    private TraceLog        trace   = TraceLog.NONE;
+    private MetricsRecorder metrics = new MetricsRecorder();
+    private boolean         inputDone;
+    private boolean         outputDone;
+    private int             frameCount;
+
+    public PollingTranscodeLoop(SampleSource source, PollingCodec decoder, FrameRenderer renderer,
+                                PollingCodec encoder, EncodedSink sink) {
+        this.source = source;
+        this.decoder = decoder;
+        this.renderer = renderer;
+        this.encoder = encoder;
+        this.sink = sink;
+    }
+
+    public void setTraceLog(TraceLog trace) {
+        this.trace = trace;
+    }
+
+    public void setMetrics(MetricsRecorder metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Runs until the encoder emits end of stream.
+     */
+    public void run() throws InterruptedException {
+        while (!outputDone) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (!inputDone) {
+                feedDecoder();
+            }
+            boolean decoderOutputAvailable = true;
+            while (decoderOutputAvailable && !outputDone) {
+                // Drain the encoder before the decoder hands it more frames
+                if (drainEncoder() != PollingCodec.INFO_TRY_AGAIN_LATER) {
+                    continue;
+                }
+                decoderOutputAvailable = renderDecoded();
+            }
+        }
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    private void feedDecoder() {
+        int index = decoder.dequeueInputBuffer(TIMEOUT_US);
+        if (index < 0) {
+            return;
+        }
+        ByteBuffer input = decoder.getInputBuffer(index);
+        if (input == null) {
+            return;
+        }
+        long readStart = System.nanoTime();
+        int  chunkSize = source.readSampleData(input, 0);
+        metrics.record(Stage.EXTRACTOR_READ, readStart);
+        if (chunkSize < 0) {
+            decoder.queueInputBuffer(index, 0, 0, 0, AsyncTranscodePipeline.FLAG_END_OF_STREAM);
+            inputDone = true;
+            trace.log(TraceLog.LEVEL_DEBUG, TraceLog.DECODER_INPUT_EOS, 0, 0);
+        } else {
+            long presentationTime = source.getSampleTime();
+            metrics.onDecoderInput(presentationTime);
+            decoder.queueInputBuffer(index, 0, chunkSize, presentationTime, 0);
+            source.advance();
+            trace.log(TraceLog.LEVEL_VERBOSE, TraceLog.DECODER_INPUT, presentationTime, chunkSize);
+        }
+    }
+
+    /**
+     * Writes one encoded sample, returns the status of the encoder.
+     */
+    private int drainEncoder() throws InterruptedException {
+        int status = encoder.dequeueOutputBuffer(info, TIMEOUT_US);
+        if (status == PollingCodec.INFO_TRY_AGAIN_LATER) {
+            metrics.onEncoderStall();
+            trace.log(TraceLog.LEVEL_VERBOSE, TraceLog.ENCODER_TRY_AGAIN, frameCount, 0);
+        } else if (status == PollingCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            trace.log(TraceLog.LEVEL_DEBUG, TraceLog.ENCODER_FORMAT_CHANGED, 0, 0);
+            sink.onOutputFormatChanged();
+        } else if (status < 0) {
+            trace.log(TraceLog.LEVEL_WARN, TraceLog.ENCODER_UNEXPECTED, status, 0);
+        } else {
+            long drainStart = System.nanoTime();
+            if (info.size != 0) {
+                ByteBuffer encodedData = encoder.getOutputBuffer(status);
+                if (encodedData == null) {
+                    throw new IllegalStateException("encoder output buffer " + status + " was null");
+                }
+                encodedData.position(info.offset);
+                encodedData.limit(info.offset + info.size);
+                sink.writeSample(encodedData, info.offset, info.size, info.presentationTimeUs, info.flags);
+                trace.log(TraceLog.LEVEL_VERBOSE, TraceLog.ENCODER_OUTPUT, info.presentationTimeUs, info.size);
+            }
+            encoder.releaseOutputBuffer(status, false);
+            metrics.record(Stage.ENCODER_DRAIN, drainStart);
+            if ((info.flags & AsyncTranscodePipeline.FLAG_END_OF_STREAM) != 0) {
+                outputDone = true;
+                trace.log(TraceLog.LEVEL_DEBUG, TraceLog.ENCODER_EOS, frameCount, 0);
+                sink.onEndOfStream();
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Renders one decoded frame, returns false if the decoder had nothing ready.
+     */
+    private boolean renderDecoded() throws InterruptedException {
+        int status = decoder.dequeueOutputBuffer(info, TIMEOUT_US);
+        if (status == PollingCodec.INFO_TRY_AGAIN_LATER) {
+            metrics.onDecoderStall();
+            trace.log(TraceLog.LEVEL_VERBOSE, TraceLog.DECODER_TRY_AGAIN, frameCount, 0);
+            return false;
+        }
+        if (status == PollingCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            trace.log(TraceLog.LEVEL_DEBUG, TraceLog.DECODER_FORMAT_CHANGED, 0, 0);
+        } else if (status < 0) {
+            trace.log(TraceLog.LEVEL_WARN, TraceLog.DECODER_UNEXPECTED, status, 0);
+        } else {
+            boolean doRender = info.size != 0;
+            decoder.releaseOutputBuffer(status, doRender);
+            if (doRender) {
+                metrics.onDecoderOutput(info.presentationTimeUs);
+                renderer.renderFrame(info.presentationTimeUs);
+                metrics.onFrameRendered();
+                trace.log(TraceLog.LEVEL_VERBOSE, TraceLog.FRAME_RENDERED, frameCount, info.presentationTimeUs);
+                frameCount++;
+            }
+            if ((info.flags & AsyncTranscodePipeline.FLAG_END_OF_STREAM) != 0) {
+                encoder.signalEndOfInputStream();
+            }
+        }
+        return true;
+    }
+}
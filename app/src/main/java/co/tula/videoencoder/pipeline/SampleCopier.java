@@ -0,0 +1,150 @@
+package co.tula.videoencoder.pipeline;
+
+import co.tula.videoencoder.buffer.ByteBufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Copies the samples of a selected track from a {@link SampleSource} to an {@link EncodedSink} without
+ * decoding, e.g. audio into the muxer.
+ * <p>
+ * Up to {@link #BATCH_SAMPLES} samples are read back to back into one pooled direct buffer and then written,
+ * so callers check for interruption and trace once per batch instead of once per sample.  The buffer is
+ * sized for the largest sample the track announces and grows when a sample turns out larger: like
+ * MediaExtractor, a source throws IllegalArgumentException for a sample which doesn't fit.
+ */
+public class SampleCopier {
+
+    public static final int  BATCH_SAMPLES       = 16;
+    /**
+     * Largest sample expected of a track which doesn't announce its own.
+     */
+    public static final int  DEFAULT_SAMPLE_SIZE = 16 * 1024;
+    private static final int MAX_SAMPLE_SIZE     = 64 * 1024 * 1024;
+    /**
+     * Size above which a batch holds fewer samples, large video samples are copied one by one.
+     */
+    private static final int MAX_BATCH_BYTES     = 1024 * 1024;
+
+    private final SampleSource   source;
+    private final EncodedSink    sink;
+    private final ByteBufferPool pool;
+    private final int[]          offsets = new int[BATCH_SAMPLES];
+    private final int[]          sizes   = new int[BATCH_SAMPLES];
+    private final long[]         times   = new long[BATCH_SAMPLES];
+    private final int[]          flags   = new int[BATCH_SAMPLES];
+    private ByteBuffer buffer;
+    private int        maxSampleSize;
+    private long       startUs    = 0;
+    private long       endUs      = Long.MAX_VALUE;
+    private long       lastTimeUs = -1;
+    private boolean    done;
+
+    /**
+     * @param maxSampleSize largest sample the track announces, or 0 if it doesn't
+     */
+    public SampleCopier(SampleSource source, EncodedSink sink, int maxSampleSize, ByteBufferPool pool) {
+        this.source = source;
+        this.sink = sink;
+        this.pool = pool;
+        this.maxSampleSize = maxSampleSize > 0 ? Math.min(maxSampleSize, MAX_SAMPLE_SIZE) : DEFAULT_SAMPLE_SIZE;
+    }
+
+    /**
+     * Copies only the samples between {@code startUs} and {@code endUs}.  The source should be at or before
+     * the start already, samples before it are skipped.
+     */
+    public SampleCopier setRange(long startUs, long endUs) {
+        this.startUs = startUs;
+        this.endUs = endUs;
+        return this;
+    }
+
+    /**
+     * Copies the next batch of samples.
+     *
+     * @return the number of samples written, or -1 once the track or the range has ended
+     */
+    public int copyBatch() throws InterruptedException {
+        if (done) {
+            return -1;
+        }
+        if (buffer == null) {
+            buffer = pool.acquire(getBatchBytes());
+        }
+        int count = 0;
+        int used  = 0;
+        while (count < BATCH_SAMPLES && buffer.capacity() - used >= maxSampleSize) {
+            long timeUs = source.getSampleTime();
+            if (timeUs >= endUs) {
+                done = true;
+                break;
+            }
+            if (timeUs >= 0 && timeUs < startUs) {
+                source.advance();
+                continue;
+            }
+            int size;
+            try {
+                size = source.readSampleData(buffer, used);
+            } catch (IllegalArgumentException tooLarge) {
+                if (count > 0) {
+                    // Write what we have, the sample gets a buffer of its own next batch
+                    break;
+                }
+                grow();
+                continue;
+            }
+            if (size < 0) {
+                done = true;
+                break;
+            }
+            offsets[count] = used;
+            sizes[count] = size;
+            times[count] = timeUs;
+            flags[count] = source.getSampleFlags();
+            count++;
+            used += size;
+            source.advance();
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.limit(offsets[i] + sizes[i]).position(offsets[i]);
+            sink.writeSample(buffer, offsets[i], sizes[i], times[i], flags[i]);
+        }
+        buffer.clear();
+        if (count > 0) {
+            lastTimeUs = times[count - 1];
+        }
+        return count == 0 && done ? -1 : count;
+    }
+
+    /**
+     * Returns the time of the last sample written, or -1 before the first.
+     */
+    public long getLastTimeUs() {
+        return lastTimeUs;
+    }
+
+    /**
+     * Returns the buffer to the pool.
+     */
+    public void release() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    private void grow() {
+        if (maxSampleSize >= MAX_SAMPLE_SIZE) {
+            throw new IllegalStateException("sample larger than " + MAX_SAMPLE_SIZE + " bytes");
+        }
+        maxSampleSize = Math.min(Math.max(maxSampleSize, buffer.capacity()) * 2, MAX_SAMPLE_SIZE);
+        pool.release(buffer);
+        buffer = pool.acquire(getBatchBytes());
+    }
+
+    private int getBatchBytes() {
+        return Math.max(maxSampleSize, Math.min(maxSampleSize * BATCH_SAMPLES, MAX_BATCH_BYTES));
+    }
+}
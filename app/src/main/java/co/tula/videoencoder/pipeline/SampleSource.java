@@ -0,0 +1,20 @@
+package co.tula.videoencoder.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Subset of MediaExtractor used by the pipeline.  The track is expected to be selected already.
+ */
+public interface SampleSource {
+
+    /**
+     * Reads the current sample into the buffer.  Returns the sample size or -1 when no samples are left.
+     */
+    int readSampleData(ByteBuffer buffer, int offset);
+
+    long getSampleTime();
+
+    int getSampleFlags();
+
+    boolean advance();
+}
@@ -0,0 +1,130 @@
+package co.tula.videoencoder.scheduler;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle of a job submitted to {@link TranscodeScheduler}.  Allows to cancel the job and to query its timings.
+ */
+public final class JobHandle implements Comparable<JobHandle> {
+
+    final TranscodeScheduler.Task task;
+    final int                     codecSessions;
+    private final long           sequence;
+    private final long           estimatedDurationUs;
+    private final long           submittedAtNs;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile long      startedAtNs;
+    private volatile long      finishedAtNs;
+    private volatile boolean   cancelled;
+    private volatile Thread    runner;
+    private volatile Throwable failure;
+
+    JobHandle(TranscodeScheduler.Task task, long sequence, int codecSessions, long estimatedDurationUs) {
+        this.task = task;
+        this.codecSessions = codecSessions;
+        this.sequence = sequence;
+        // Jobs of unknown length go after every job we know something about
+        this.estimatedDurationUs = estimatedDurationUs > 0 ? estimatedDurationUs : Long.MAX_VALUE;
+        this.submittedAtNs = System.nanoTime();
+    }
+
+    /**
+     * Cancels the job.  A queued job will never start, a running one gets its worker thread interrupted.
+     *
+     * @return false if the job has already finished
+     */
+    public boolean cancel() {
+        synchronized (this) {
+            if (isDone()) {
+                return false;
+            }
+            cancelled = true;
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Blocks until the job is finished, failed or cancelled.
+     */
+    public void await() throws InterruptedException {
+        done.await();
+    }
+
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    /**
+     * Returns the number of codec sessions reserved for the job while it runs.
+     */
+    public int getCodecSessions() {
+        return codecSessions;
+    }
+
+    public long getEstimatedDurationUs() {
+        return estimatedDurationUs;
+    }
+
+    /**
+     * Time spent in the queue before a worker and a codec session were available.
+     */
+    public long getQueueWaitNs() {
+        long started = startedAtNs != 0 ? startedAtNs : finishedAtNs;
+        return started == 0 ? System.nanoTime() - submittedAtNs : started - submittedAtNs;
+    }
+
+    public long getRunTimeNs() {
+        if (startedAtNs == 0) {
+            return 0;
+        }
+        return (finishedAtNs != 0 ? finishedAtNs : System.nanoTime()) - startedAtNs;
+    }
+
+    /**
+     * Returns the exception thrown by the task, or null.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Binds the job to the worker thread.  Returns false if the job was cancelled while queued.
+     */
+    synchronized boolean start(Thread worker) {
+        if (cancelled) {
+            return false;
+        }
+        runner = worker;
+        startedAtNs = System.nanoTime();
+        return true;
+    }
+
+    void finish(Throwable error) {
+        synchronized (this) {
+            runner = null;
+            failure = error;
+            finishedAtNs = System.nanoTime();
+        }
+        done.countDown();
+    }
+
+    @Override
+    public int compareTo(JobHandle other) {
+        if (estimatedDurationUs != other.estimatedDurationUs) {
+            return estimatedDurationUs < other.estimatedDurationUs ? -1 : 1;
+        }
+        return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+}
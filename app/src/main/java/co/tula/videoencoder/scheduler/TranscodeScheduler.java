@@ -0,0 +1,183 @@
+package co.tula.videoencoder.scheduler;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs transcode jobs on a bounded pool of worker threads.
+ * <p>
+ * Pending jobs are kept in a priority queue ordered by estimated duration, so a short clip doesn't wait
+ * behind a long one.  Independently of the worker count the number of jobs holding codec sessions at the
+ * same time is limited by {@code maxCodecSessions}: a job is taken from the queue only when a session is
+ * free, so the priority decision is made as late as possible.  A job may ask for several sessions, the
+ * worker taking it then waits until enough running jobs have finished; idle workers line up behind it, so
+ * sessions aren't spread among waiting jobs which each need more.
+ */
+public class TranscodeScheduler {
+
+    /**
+     * How often a worker waiting for the sessions of a wide job checks whether the job was cancelled.
+     */
+    private static final long CANCEL_POLL_MS = 10;
+
+    /**
+     * Unit of work executed by the scheduler.
+     */
+    public interface Task {
+        /**
+         * Returns the expected media duration of the job in microseconds, or 0 if it is unknown.
+         * Called once on submission, on the submitting thread, unless the caller passes an estimate.
+         */
+        long getEstimatedDurationUs();
+
+        /**
+         * Performs the job on a worker thread.  Cancellation interrupts the thread.
+         *
+         * @param codecSessions sessions reserved for the job, it must not hold more codecs at a time
+         */
+        void run(int codecSessions) throws InterruptedException;
+    }
+
+    private final PriorityBlockingQueue<JobHandle> queue    = new PriorityBlockingQueue<>();
+    private final AtomicLong                       sequence = new AtomicLong();
+    private final ReentrantLock                    takeLock = new ReentrantLock();
+    private final Semaphore codecSessions;
+    private final int       maxCodecSessions;
+    private final Thread[]  workers;
+    private volatile boolean shutdown;
+
+    public TranscodeScheduler(int workerCount, int maxCodecSessions) {
+        if (workerCount <= 0 || maxCodecSessions <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxCodecSessions = maxCodecSessions;
+        codecSessions = new Semaphore(maxCodecSessions, true);
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(this::workerLoop, "Transcoder-" + i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Puts the task into the queue.
+     */
+    public JobHandle submit(Task task) {
+        return submit(task, 1);
+    }
+
+    /**
+     * Puts a task which drives several codec sessions at once into the queue.  It starts once that many
+     * sessions are free, so it must not ask for more than {@link #getMaxCodecSessions()}.
+     */
+    public JobHandle submit(Task task, int codecSessions) {
+        return submit(task, codecSessions, task.getEstimatedDurationUs());
+    }
+
+    /**
+     * Puts a task into the queue with a duration estimated beforehand, for callers which must not probe the
+     * input while submitting.
+     *
+     * @param estimatedDurationUs expected media duration, 0 if unknown
+     */
+    public JobHandle submit(Task task, int codecSessions, long estimatedDurationUs) {
+        if (shutdown) {
+            throw new IllegalStateException("scheduler is shut down");
+        }
+        if (codecSessions <= 0 || codecSessions > maxCodecSessions) {
+            throw new IllegalArgumentException("codecSessions " + codecSessions + ", at most " + maxCodecSessions);
+        }
+        JobHandle handle = new JobHandle(task, sequence.getAndIncrement(), codecSessions, estimatedDurationUs);
+        queue.add(handle);
+        return handle;
+    }
+
+    public int getMaxCodecSessions() {
+        return maxCodecSessions;
+    }
+
+    /**
+     * Returns the number of jobs waiting for a worker.
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Stops all workers.  Running jobs are interrupted, queued ones are dropped.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        JobHandle handle;
+        while ((handle = queue.poll()) != null) {
+            handle.cancel();
+            handle.finish(null);
+        }
+    }
+
+    private void workerLoop() {
+        while (!shutdown) {
+            try {
+                takeLock.lockInterruptibly();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            JobHandle handle = null;
+            int       held   = 0;
+            try {
+                codecSessions.acquire();
+                held = 1;
+                handle = queue.take();
+                // Only the lock owner waits for sessions, all others are held by running jobs and come back.
+                // A job cancelled meanwhile lets the next one through, runJob then drops it.
+                boolean acquired = false;
+                while (!acquired && !handle.isCancelled()) {
+                    acquired = codecSessions.tryAcquire(handle.codecSessions - 1, CANCEL_POLL_MS,
+                                                        TimeUnit.MILLISECONDS);
+                }
+                if (acquired) {
+                    held = handle.codecSessions;
+                }
+            } catch (InterruptedException e) {
+                // Interrupted while idle, check shutdown flag
+                if (handle != null) {
+                    handle.cancel();
+                    handle.finish(null);
+                }
+                codecSessions.release(held);
+                continue;
+            } finally {
+                takeLock.unlock();
+            }
+            try {
+                runJob(handle);
+            } finally {
+                codecSessions.release(held);
+            }
+        }
+    }
+
+    private void runJob(JobHandle handle) {
+        if (!handle.start(Thread.currentThread())) {
+            handle.finish(null);
+            return;
+        }
+        Throwable failure = null;
+        try {
+            handle.task.run(handle.codecSessions);
+        } catch (InterruptedException e) {
+            // Cancelled
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        }
+        handle.finish(failure);
+        // Clear an interrupt delivered after the task had returned, the handle can't be cancelled any more
+        Thread.interrupted();
+    }
+}
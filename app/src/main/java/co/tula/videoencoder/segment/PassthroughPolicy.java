@@ -0,0 +1,36 @@
+package co.tula.videoencoder.segment;
+
+import co.tula.videoencoder.capability.EncoderConfig;
+
+/**
+ * Decides whether the input video can be copied into the output instead of being re-encoded.
+ * <p>
+ * That is the case when the encoder would produce the same codec at the same size and the input doesn't use
+ * noticeably more bits than the encoder would.  Re-encoding such an input only costs time and quality.
+ */
+public final class PassthroughPolicy {
+
+    /**
+     * Inputs up to this much above the target bitrate are still copied.
+     */
+    private static final float BITRATE_TOLERANCE = 1.1f;
+
+    private PassthroughPolicy() {
+    }
+
+    /**
+     * @param sourceWidth   displayed width of the input, after rotation
+     * @param sourceHeight  displayed height of the input, after rotation
+     * @param sourceBitrate bitrate of the input video, 0 if unknown
+     * @param target        encoder which would be used, or null if there is none
+     */
+    public static boolean canCopy(String sourceMime, int sourceWidth, int sourceHeight, long sourceBitrate,
+                                  EncoderConfig target, int width, int height) {
+        if (target == null || sourceBitrate <= 0) {
+            return false;
+        }
+        return target.getMime().equals(sourceMime)
+               && sourceWidth == width && sourceHeight == height
+               && sourceBitrate <= target.getBitrate() * (double) BITRATE_TOLERANCE;
+    }
+}
@@ -0,0 +1,42 @@
+package co.tula.videoencoder.segment;
+
+/**
+ * Decides when to stop feeding the decoder for a range which ends at {@code endUs}.  Samples come in decode
+ * order, with B-frames a frame shown before the end can follow one shown after it.  So feeding goes on past
+ * the end up to the next sync frame, that one and the leading pictures which follow it but are shown before
+ * it included.  The first later frame stops it, at most a GOP is decoded in vain.  The frames shown after the
+ * end are dropped by presentation time.
+ */
+public final class RangeEnd {
+
+    /**
+     * Same value as MediaExtractor.SAMPLE_FLAG_SYNC.
+     */
+    public static final int SAMPLE_FLAG_SYNC = 1;
+
+    private final long endUs;
+    private long syncTimeUs = -1;
+
+    public RangeEnd(long endUs) {
+        this.endUs = endUs;
+    }
+
+    /**
+     * Returns whether the sample and everything after it can be left out.  Asking again for the same sample
+     * gives the same answer.
+     *
+     * @param sampleTimeUs presentation time of the sample, negative once no samples are left
+     */
+    public boolean isReached(long sampleTimeUs, int sampleFlags) {
+        if (sampleTimeUs < endUs) {
+            return false;
+        }
+        if (syncTimeUs >= 0) {
+            return sampleTimeUs > syncTimeUs;
+        }
+        if ((sampleFlags & SAMPLE_FLAG_SYNC) != 0) {
+            syncTimeUs = sampleTimeUs;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,58 @@
+package co.tula.videoencoder.segment;
+
+/**
+ * Part of the input timeline starting at a sync frame.  The end is exclusive, the last segment ends at
+ * {@link Long#MAX_VALUE}.  Frames of a passthrough segment are kept as they are, so it can be copied from the
+ * input if the input's format fits the output.
+ */
+public final class Segment {
+
+    private final int     index;
+    private final long    startUs;
+    private final long    endUs;
+    private final boolean passthrough;
+
+    public Segment(int index, long startUs, long endUs) {
+        this(index, startUs, endUs, false);
+    }
+
+    public Segment(int index, long startUs, long endUs, boolean passthrough) {
+        if (endUs <= startUs) {
+            throw new IllegalArgumentException("empty segment " + startUs + ".." + endUs);
+        }
+        this.index = index;
+        this.startUs = startUs;
+        this.endUs = endUs;
+        this.passthrough = passthrough;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public long getStartUs() {
+        return startUs;
+    }
+
+    public long getEndUs() {
+        return endUs;
+    }
+
+    public boolean isPassthrough() {
+        return passthrough;
+    }
+
+    public boolean isLast() {
+        return endUs == Long.MAX_VALUE;
+    }
+
+    public boolean contains(long presentationTimeUs) {
+        return presentationTimeUs >= startUs && presentationTimeUs < endUs;
+    }
+
+    @Override
+    public String toString() {
+        return "Segment{" + index + ": " + startUs + ".." + (isLast() ? "end" : String.valueOf(endUs))
+               + (passthrough ? ", passthrough}" : "}");
+    }
+}
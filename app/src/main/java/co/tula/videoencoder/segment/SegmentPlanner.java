@@ -0,0 +1,165 @@
+package co.tula.videoencoder.segment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a video timeline into parts which can be transcoded independently.
+ * <p>
+ * Every part starts at a sync frame, so its decoder doesn't need anything before it and its encoder starts
+ * with a fresh GOP.  Boundaries are the sync frames closest to an even split; a boundary leaving a part
+ * shorter than the minimal length is dropped, so sparse keyframes give fewer parts than asked for.
+ * <p>
+ * When only a range is edited, {@link #planAround} keeps the GOPs outside of it in passthrough segments,
+ * when the input is only cut, {@link #planTrim} keeps the GOPs inside of it.
+ */
+public final class SegmentPlanner {
+
+    private SegmentPlanner() {
+    }
+
+    /**
+     * Returns at least one segment.
+     *
+     * @param syncTimesUs  presentation times of the sync frames in ascending order
+     * @param syncCount    number of valid entries in {@code syncTimesUs}
+     * @param durationUs   length of the video
+     * @param maxSegments  upper bound for the number of segments
+     * @param minSegmentUs minimal length of a segment
+     */
+    public static List<Segment> plan(long[] syncTimesUs, int syncCount, long durationUs, int maxSegments,
+                                     long minSegmentUs) {
+        if (syncCount < 0 || syncCount > syncTimesUs.length || maxSegments <= 0 || minSegmentUs < 0) {
+            throw new IllegalArgumentException();
+        }
+        for (int i = 1; i < syncCount; i++) {
+            if (syncTimesUs[i] <= syncTimesUs[i - 1]) {
+                throw new IllegalArgumentException("sync times are not ascending at " + i);
+            }
+        }
+        long firstUs  = syncCount > 0 ? syncTimesUs[0] : 0;
+        long lengthUs = durationUs - firstUs;
+        int  count    = maxSegments;
+        if (minSegmentUs > 0) {
+            count = (int) Math.max(1, Math.min(maxSegments, lengthUs / minSegmentUs));
+        }
+        List<Segment> segments = new ArrayList<>(count);
+        long          startUs  = firstUs;
+        for (int i = 1; i < count && syncCount > 1; i++) {
+            long targetUs   = firstUs + lengthUs * i / count;
+            long boundaryUs = nearest(syncTimesUs, syncCount, targetUs);
+            if (boundaryUs - startUs < Math.max(1, minSegmentUs) || durationUs - boundaryUs < minSegmentUs) {
+                continue;
+            }
+            segments.add(new Segment(segments.size(), startUs, boundaryUs));
+            startUs = boundaryUs;
+        }
+        segments.add(new Segment(segments.size(), startUs, Long.MAX_VALUE));
+        return segments;
+    }
+
+    /**
+     * Returns the GOPs touching {@code [editStartUs, editEndUs)} as one segment to re-encode, and the GOPs
+     * before and after it as passthrough segments.
+     *
+     * @param syncTimesUs presentation times of the sync frames in ascending order
+     * @param syncCount   number of valid entries in {@code syncTimesUs}
+     */
+    public static List<Segment> planAround(long[] syncTimesUs, int syncCount, long editStartUs, long editEndUs) {
+        if (syncCount <= 0 || syncCount > syncTimesUs.length || editEndUs <= editStartUs) {
+            throw new IllegalArgumentException();
+        }
+        // Last sync frame at or before the start, first one at or after the end
+        int first = syncCount - 1;
+        while (first > 0 && syncTimesUs[first] > editStartUs) {
+            first--;
+        }
+        int last = first + 1;
+        while (last < syncCount && syncTimesUs[last] < editEndUs) {
+            last++;
+        }
+        List<Segment> segments = new ArrayList<>(3);
+        if (first > 0) {
+            segments.add(new Segment(0, syncTimesUs[0], syncTimesUs[first], true));
+        }
+        if (last < syncCount) {
+            segments.add(new Segment(segments.size(), syncTimesUs[first], syncTimesUs[last], false));
+            segments.add(new Segment(segments.size(), syncTimesUs[last], Long.MAX_VALUE, true));
+        } else {
+            segments.add(new Segment(segments.size(), syncTimesUs[first], Long.MAX_VALUE, false));
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the whole GOPs inside {@code [startUs, endUs)} as one passthrough segment, and the partial GOPs
+     * at both ends as segments to re-encode.  An end of {@link Long#MAX_VALUE} keeps everything up to the end
+     * of the input.
+     *
+     * @param syncTimesUs presentation times of the sync frames in ascending order
+     * @param syncCount   number of valid entries in {@code syncTimesUs}
+     */
+    public static List<Segment> planTrim(long[] syncTimesUs, int syncCount, long startUs, long endUs) {
+        if (syncCount < 0 || syncCount > syncTimesUs.length || endUs <= startUs) {
+            throw new IllegalArgumentException();
+        }
+        // First sync frame at or after the start, last one at or before the end
+        int first = 0;
+        while (first < syncCount && syncTimesUs[first] < startUs) {
+            first++;
+        }
+        int last = syncCount - 1;
+        while (last >= first && syncTimesUs[last] > endUs) {
+            last--;
+        }
+        List<Segment> segments = new ArrayList<>(3);
+        if (last < first || syncTimesUs[first] >= endUs) {
+            segments.add(new Segment(0, startUs, endUs, false));
+            return segments;
+        }
+        long copyStartUs = syncTimesUs[first];
+        long copyEndUs   = endUs == Long.MAX_VALUE ? endUs : syncTimesUs[last];
+        if (startUs < copyStartUs) {
+            segments.add(new Segment(0, startUs, copyStartUs, false));
+        }
+        if (copyStartUs < copyEndUs) {
+            segments.add(new Segment(segments.size(), copyStartUs, copyEndUs, true));
+        }
+        if (copyEndUs < endUs) {
+            segments.add(new Segment(segments.size(), copyEndUs, endUs, false));
+        }
+        return segments;
+    }
+
+    /**
+     * Moves the start of the first segment and the end of the last one to the given times.  The first
+     * segment then may not start at a sync frame any more.
+     */
+    public static List<Segment> clip(List<Segment> segments, long startUs, long endUs) {
+        List<Segment> clipped = new ArrayList<>(segments.size());
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            long    from    = i == 0 ? startUs : segment.getStartUs();
+            long    to      = i == segments.size() - 1 ? endUs : segment.getEndUs();
+            clipped.add(new Segment(i, from, to, segment.isPassthrough()));
+        }
+        return clipped;
+    }
+
+    private static long nearest(long[] syncTimesUs, int syncCount, long targetUs) {
+        int index = Arrays.binarySearch(syncTimesUs, 0, syncCount, targetUs);
+        if (index >= 0) {
+            return syncTimesUs[index];
+        }
+        int after = -index - 1;
+        if (after == 0) {
+            return syncTimesUs[0];
+        }
+        if (after == syncCount) {
+            return syncTimesUs[syncCount - 1];
+        }
+        long before = syncTimesUs[after - 1];
+        return targetUs - before <= syncTimesUs[after] - targetUs ? before : syncTimesUs[after];
+    }
+}
@@ -0,0 +1,43 @@
+package co.tula.videoencoder.segment;
+
+import co.tula.videoencoder.pipeline.SampleSource;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Limits a source positioned at the start of a segment to the samples needed for the frames before the
+ * segment end, see {@link RangeEnd}.
+ */
+public class SegmentSource implements SampleSource {
+
+    private final SampleSource source;
+    private final RangeEnd     end;
+
+    public SegmentSource(SampleSource source, Segment segment) {
+        this.source = source;
+        this.end = new RangeEnd(segment.getEndUs());
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        if (end.isReached(source.getSampleTime(), source.getSampleFlags())) {
+            return -1;
+        }
+        return source.readSampleData(buffer, offset);
+    }
+
+    @Override
+    public long getSampleTime() {
+        return source.getSampleTime();
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return source.getSampleFlags();
+    }
+
+    @Override
+    public boolean advance() {
+        return source.advance() && !end.isReached(source.getSampleTime(), source.getSampleFlags());
+    }
+}
@@ -0,0 +1,105 @@
+package co.tula.videoencoder.segment;
+
+import co.tula.videoencoder.buffer.ByteBufferPool;
+import co.tula.videoencoder.pipeline.EncodedSink;
+import co.tula.videoencoder.pipeline.SampleSource;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Concatenates separately encoded segments into one stream without re-encoding.
+ * <p>
+ * Muxers rebase the first sample of every file, so a segment read back from its own file doesn't carry the
+ * original times any more.  The stitcher moves the first sample of each segment back to the start of the
+ * segment and keeps the distances between samples.  Segments must be appended in order and each has to
+ * start with a sync frame, otherwise the result wouldn't decode.
+ */
+public class SegmentStitcher {
+
+    public static final int FLAG_SYNC         = 1;
+    public static final int FLAG_CODEC_CONFIG = 2;
+
+    private final EncodedSink    sink;
+    private final ByteBufferPool pool;
+    private ByteBuffer buffer;
+    private int        nextIndex;
+    private int        sampleCount;
+
+    /**
+     * @param maxSampleSize largest encoded sample expected in any segment
+     */
+    public SegmentStitcher(EncodedSink sink, int maxSampleSize) {
+        this(sink, maxSampleSize, new ByteBufferPool(1));
+    }
+
+    /**
+     * Reads samples into a buffer of {@code pool}, which {@link #release()} gives back.
+     */
+    public SegmentStitcher(EncodedSink sink, int maxSampleSize, ByteBufferPool pool) {
+        this.sink = sink;
+        this.pool = pool;
+        this.buffer = pool.acquire(maxSampleSize);
+    }
+
+    /**
+     * Copies all samples of {@code source} to the sink.  Codec config samples are dropped, the output format
+     * comes from the first segment.
+     *
+     * @return number of samples written
+     */
+    public int append(Segment segment, SampleSource source) throws InterruptedException {
+        if (segment.getIndex() != nextIndex) {
+            throw new IllegalStateException("expected segment " + nextIndex + ", got " + segment.getIndex());
+        }
+        boolean first    = true;
+        long    offsetUs = 0;
+        int     written  = 0;
+        while (true) {
+            buffer.clear();
+            int size = source.readSampleData(buffer, 0);
+            if (size < 0) {
+                break;
+            }
+            int flags = source.getSampleFlags();
+            if ((flags & FLAG_CODEC_CONFIG) == 0) {
+                long presentationTimeUs = source.getSampleTime();
+                if (first) {
+                    if ((flags & FLAG_SYNC) == 0) {
+                        throw new IllegalStateException(segment + " doesn't start with a sync frame");
+                    }
+                    offsetUs = segment.getStartUs() - presentationTimeUs;
+                    first = false;
+                }
+                presentationTimeUs += offsetUs;
+                // Open GOPs can leave frames of a neighbouring segment in the file, that segment writes them itself
+                if (segment.contains(presentationTimeUs)) {
+                    buffer.position(0);
+                    buffer.limit(size);
+                    sink.writeSample(buffer, 0, size, presentationTimeUs, flags);
+                    written++;
+                }
+            }
+            source.advance();
+        }
+        if (written == 0) {
+            throw new IllegalStateException(segment + " is empty");
+        }
+        nextIndex++;
+        sampleCount += written;
+        return written;
+    }
+
+    /**
+     * Returns the number of samples written for all segments so far.
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public void release() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package co.tula.videoencoder.segment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * On-disk record of a segmented transcode, so a job restarted by the system continues where it stopped.
+ * <p>
+ * The journal holds the segment plan and the length of every finished part file.  A part is only listed
+ * after its muxer was stopped, so a listed part of the same length is complete.  Progress belongs to one set
+ * of job parameters, given as a key; a plan made for another key is dropped.  The journal also counts the
+ * starts of the job, which the job's extras can't do as they are immutable.  IO errors only cost progress.
+ */
+public class TranscodeJournal {
+
+    private static final String  KEY_JOB        = "job";
+    private static final String  KEY_ATTEMPTS   = "attempts";
+    private static final String  KEY_SEGMENTS   = "segments";
+    private static final String  PREFIX_SEGMENT = "segment.";
+    private static final String  PREFIX_DONE    = "done.";
+    private static final Charset UTF_8          = Charset.forName("UTF-8");
+
+    private final File file;
+    private Properties entries;
+
+    public TranscodeJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the journal of the job writing {@code outputPath}, kept in {@code dir}.  The file is named by a
+     * SHA-1 of the path, so two outputs never share a journal.
+     */
+    public static TranscodeJournal forOutput(File dir, String outputPath) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        StringBuilder name = new StringBuilder(48);
+        for (byte b : digest.digest(outputPath.getBytes(UTF_8))) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return new TranscodeJournal(new File(dir, name.append(".journal").toString()));
+    }
+
+    /**
+     * Counts a start of the job and returns the number of starts so far, this one included.
+     */
+    public synchronized int startAttempt() {
+        int attempts = getInt(KEY_ATTEMPTS, 0) + 1;
+        load().setProperty(KEY_ATTEMPTS, String.valueOf(attempts));
+        save();
+        return attempts;
+    }
+
+    /**
+     * Returns the plan stored for {@code jobKey}, or null if there is none.
+     */
+    public synchronized List<Segment> getPlan(String jobKey) {
+        if (!jobKey.equals(load().getProperty(KEY_JOB))) {
+            return null;
+        }
+        int           count = getInt(KEY_SEGMENTS, -1);
+        List<Segment> plan  = new ArrayList<>(Math.max(0, count));
+        try {
+            for (int i = 0; i < count; i++) {
+                String[] fields = entries.getProperty(PREFIX_SEGMENT + i, "").split(",");
+                plan.add(new Segment(i, Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                                     "1".equals(fields[2])));
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+        return count > 0 ? plan : null;
+    }
+
+    /**
+     * Stores a new plan and forgets finished segments of an earlier one.  The attempts are kept.
+     */
+    public synchronized void begin(String jobKey, List<Segment> plan) {
+        String attempts = load().getProperty(KEY_ATTEMPTS);
+        entries.clear();
+        if (attempts != null) {
+            entries.setProperty(KEY_ATTEMPTS, attempts);
+        }
+        entries.setProperty(KEY_JOB, jobKey);
+        entries.setProperty(KEY_SEGMENTS, String.valueOf(plan.size()));
+        for (Segment segment : plan) {
+            String passthrough = segment.isPassthrough() ? "1" : "0";
+            entries.setProperty(PREFIX_SEGMENT + segment.getIndex(),
+                                segment.getStartUs() + "," + segment.getEndUs() + "," + passthrough);
+        }
+        save();
+    }
+
+    /**
+     * Records that the part file of the segment is complete.
+     */
+    public synchronized void markDone(Segment segment, File part) {
+        load().setProperty(PREFIX_DONE + segment.getIndex(), String.valueOf(part.length()));
+        save();
+    }
+
+    /**
+     * Returns true if the part of the segment was finished earlier and hasn't changed since.
+     */
+    public synchronized boolean isDone(Segment segment, File part) {
+        String length = load().getProperty(PREFIX_DONE + segment.getIndex());
+        return length != null && part.isFile() && length.equals(String.valueOf(part.length()));
+    }
+
+    /**
+     * Returns the time up to which all segments of the plan are finished, the start of the plan if none is.
+     */
+    public synchronized long getCheckpointUs(List<Segment> plan) {
+        long checkpointUs = plan.isEmpty() ? 0 : plan.get(0).getStartUs();
+        for (Segment segment : plan) {
+            if (load().getProperty(PREFIX_DONE + segment.getIndex()) == null) {
+                break;
+            }
+            checkpointUs = segment.getEndUs();
+        }
+        return checkpointUs;
+    }
+
+    /**
+     * Removes the journal once the job is finished or given up.
+     */
+    public synchronized void delete() {
+        delete(null);
+    }
+
+    /**
+     * Removes the journal together with the part files of its plan, named {@code partPrefix} followed by the
+     * segment index.  Parts are kept for a restart, so they would outlive a job which is not restarted.
+     */
+    public synchronized void delete(String partPrefix) {
+        int count = partPrefix != null ? getInt(KEY_SEGMENTS, 0) : 0;
+        for (int i = 0; i < count; i++) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(partPrefix + i).delete();
+        }
+        entries = new Properties();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(load().getProperty(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private Properties load() {
+        if (entries != null) {
+            return entries;
+        }
+        entries = new Properties();
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                entries.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                entries.clear();
+            }
+        }
+        return entries;
+    }
+
+    private void save() {
+        File parent = file.getParentFile();
+        if (parent != null) {
+            //noinspection ResultOfMethodCallIgnored
+            parent.mkdirs();
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            entries.store(out, null);
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+}
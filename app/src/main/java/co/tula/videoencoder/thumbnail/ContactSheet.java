@@ -0,0 +1,97 @@
+package co.tula.videoencoder.thumbnail;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of thumbnails in a grid, row by row.  A strip is a grid with a single row.
+ * <p>
+ * Frames and the sheet are RGBA, 4 bytes per pixel with rows from top to bottom unless noted.
+ */
+public final class ContactSheet {
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final int columns;
+    private final int rows;
+    private final int cellWidth;
+    private final int cellHeight;
+
+    public ContactSheet(int columns, int rows, int cellWidth, int cellHeight) {
+        if (columns < 1 || rows < 1 || cellWidth < 1 || cellHeight < 1) {
+            throw new IllegalArgumentException(columns + "x" + rows + " cells of " + cellWidth + "x" + cellHeight);
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+    }
+
+    public static ContactSheet strip(int cells, int cellWidth, int cellHeight) {
+        return new ContactSheet(cells, 1, cellWidth, cellHeight);
+    }
+
+    /**
+     * Returns a grid with {@code columns} cells per row and as many rows as {@code cells} need.
+     */
+    public static ContactSheet grid(int cells, int columns, int cellWidth, int cellHeight) {
+        return new ContactSheet(columns, (cells + columns - 1) / columns, cellWidth, cellHeight);
+    }
+
+    public int getCellCount() {
+        return columns * rows;
+    }
+
+    public int getCellWidth() {
+        return cellWidth;
+    }
+
+    public int getCellHeight() {
+        return cellHeight;
+    }
+
+    public int getWidth() {
+        return columns * cellWidth;
+    }
+
+    public int getHeight() {
+        return rows * cellHeight;
+    }
+
+    public int getFrameByteCount() {
+        return cellWidth * cellHeight * BYTES_PER_PIXEL;
+    }
+
+    public int getByteCount() {
+        return getWidth() * getHeight() * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Copies a frame of cell size into the cell.  Positions and limits of both buffers are kept.
+     *
+     * @param bottomUp true if the rows of {@code frame} go from bottom to top, as read by glReadPixels
+     */
+    public void put(int cell, ByteBuffer frame, boolean bottomUp, ByteBuffer sheet) {
+        if (cell < 0 || cell >= getCellCount()) {
+            throw new IndexOutOfBoundsException("cell " + cell);
+        }
+        int rowBytes      = cellWidth * BYTES_PER_PIXEL;
+        int sheetStride   = getWidth() * BYTES_PER_PIXEL;
+        int cellOffset    = (cell / columns) * cellHeight * sheetStride + (cell % columns) * rowBytes;
+        int framePosition = frame.position();
+        int frameLimit    = frame.limit();
+        int sheetPosition = sheet.position();
+        int sheetLimit    = sheet.limit();
+        sheet.limit(sheet.capacity());
+        for (int row = 0; row < cellHeight; row++) {
+            int source = (bottomUp ? cellHeight - 1 - row : row) * rowBytes;
+            frame.limit(source + rowBytes);
+            frame.position(source);
+            sheet.position(cellOffset + row * sheetStride);
+            sheet.put(frame);
+        }
+        frame.limit(frameLimit);
+        frame.position(framePosition);
+        sheet.limit(sheetLimit);
+        sheet.position(sheetPosition);
+    }
+}
@@ -0,0 +1,63 @@
+package co.tula.videoencoder.thumbnail;
+
+import java.util.Arrays;
+
+/**
+ * Frames to decode for a set of thumbnails, in decode order.
+ * <p>
+ * Each requested time becomes a cell of the sheet.  Cells showing the same frame share it, so the frame
+ * is decoded and read back once.  A frame either starts with a seek to a sync frame or is reached by
+ * decoding on from the previous one.
+ */
+public final class ThumbnailPlan {
+
+    /**
+     * {@link #getSeekUs} of a frame reached without seeking.
+     */
+    public static final long CONTINUE = -1;
+
+    private final long[] framesUs;
+    private final long[] seeksUs;
+    private final int[]  cellFrames;
+
+    ThumbnailPlan(long[] framesUs, long[] seeksUs, int[] cellFrames) {
+        this.framesUs = framesUs;
+        this.seeksUs = seeksUs;
+        this.cellFrames = cellFrames;
+    }
+
+    public int getFrameCount() {
+        return framesUs.length;
+    }
+
+    /**
+     * Returns the presentation time of the frame to render.
+     */
+    public long getFrameUs(int frame) {
+        return framesUs[frame];
+    }
+
+    /**
+     * Returns the sync frame to seek to before decoding the frame, or {@link #CONTINUE}.
+     */
+    public long getSeekUs(int frame) {
+        return seeksUs[frame];
+    }
+
+    public int getCellCount() {
+        return cellFrames.length;
+    }
+
+    /**
+     * Returns the frame shown by the cell.
+     */
+    public int getCellFrame(int cell) {
+        return cellFrames[cell];
+    }
+
+    @Override
+    public String toString() {
+        return "ThumbnailPlan{frames=" + Arrays.toString(framesUs) + ", seeks=" + Arrays.toString(seeksUs)
+               + ", cells=" + Arrays.toString(cellFrames) + "}";
+    }
+}
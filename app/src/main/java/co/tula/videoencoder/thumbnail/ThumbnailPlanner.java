@@ -0,0 +1,105 @@
+package co.tula.videoencoder.thumbnail;
+
+import java.util.Arrays;
+
+/**
+ * Picks the frames to decode for thumbnails at given times.
+ * <p>
+ * Sync frames decode on their own, so by default each thumbnail shows the sync frame nearest to its time
+ * and costs a seek and a single decode.  Exact thumbnails show the frame at or just after their time, they
+ * decode the whole run from the previous sync frame but keep decoding when the next one lies in the same
+ * group of pictures.
+ */
+public final class ThumbnailPlanner {
+
+    private ThumbnailPlanner() {
+    }
+
+    /**
+     * Returns {@code count} times spread evenly over the video, at the middle of equal intervals.
+     */
+    public static long[] evenlySpaced(long durationUs, int count) {
+        if (durationUs <= 0 || count < 1) {
+            throw new IllegalArgumentException("duration " + durationUs + ", count " + count);
+        }
+        long[] timesUs = new long[count];
+        for (int i = 0; i < count; i++) {
+            timesUs[i] = (2 * i + 1) * durationUs / (2L * count);
+        }
+        return timesUs;
+    }
+
+    /**
+     * Plans thumbnails showing the sync frame nearest to each of {@code timesUs}.
+     *
+     * @param syncUs    presentation times of the sync frames, ascending
+     * @param syncCount number of valid entries of {@code syncUs}
+     */
+    public static ThumbnailPlan nearestSync(long[] timesUs, long[] syncUs, int syncCount) {
+        checkSync(syncCount);
+        long[] targets = new long[timesUs.length];
+        for (int i = 0; i < timesUs.length; i++) {
+            int next = ceiling(syncUs, syncCount, timesUs[i]);
+            if (next == syncCount
+                || next > 0 && timesUs[i] - syncUs[next - 1] <= syncUs[next] - timesUs[i]) {
+                next--;
+            }
+            targets[i] = syncUs[next];
+        }
+        return build(timesUs, targets, syncUs, syncCount, false);
+    }
+
+    /**
+     * Plans thumbnails showing the frame at each of {@code timesUs}.  The decoder stops at the first frame at
+     * or after the time.
+     */
+    public static ThumbnailPlan exact(long[] timesUs, long[] syncUs, int syncCount) {
+        checkSync(syncCount);
+        return build(timesUs, timesUs.clone(), syncUs, syncCount, true);
+    }
+
+    private static ThumbnailPlan build(long[] timesUs, long[] targets, long[] syncUs, int syncCount,
+                                       boolean decodeOn) {
+        long[] framesUs = distinctSorted(targets);
+        long[] seeksUs  = new long[framesUs.length];
+        long   lastUs   = Long.MIN_VALUE;
+        for (int i = 0; i < framesUs.length; i++) {
+            int  previous = ceiling(syncUs, syncCount, framesUs[i] + 1) - 1;
+            long seekUs   = syncUs[Math.max(previous, 0)];
+            // Decoding on beats a seek while the frame shares the group of pictures of the last one
+            seeksUs[i] = decodeOn && lastUs >= seekUs ? ThumbnailPlan.CONTINUE : seekUs;
+            lastUs = framesUs[i];
+        }
+        int[] cellFrames = new int[timesUs.length];
+        for (int i = 0; i < timesUs.length; i++) {
+            cellFrames[i] = Arrays.binarySearch(framesUs, targets[i]);
+        }
+        return new ThumbnailPlan(framesUs, seeksUs, cellFrames);
+    }
+
+    private static long[] distinctSorted(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, count);
+    }
+
+    /**
+     * Returns the index of the first sync frame at or after {@code timeUs}, or {@code count}.
+     */
+    private static int ceiling(long[] syncUs, int count, long timeUs) {
+        int index = Arrays.binarySearch(syncUs, 0, count, timeUs);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static void checkSync(int syncCount) {
+        if (syncCount < 1) {
+            throw new IllegalArgumentException("no sync frames");
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package co.tula.videoencoder.trace;
+
+/**
+ * Allocation free event log for the frame loop.
+ * <p>
+ * Events are numeric codes with two numeric arguments, stored in a ring of preallocated records, so
+ * logging a frame costs a few field writes instead of a string concatenation and a logcat call.  When
+ * the ring is full the oldest records are overwritten.  The log is formatted only when {@link #dump} is
+ * called, usually once after the job.
+ * <p>
+ * {@link #COMPILED_IN} removes all tracing at compile time, the level filters events at runtime.
+ */
+public final class TraceLog {
+
+    /**
+     * Set to false to strip tracing from the build.
+     */
+    public static final boolean COMPILED_IN = true;
+
+    public static final int LEVEL_VERBOSE = 2;
+    public static final int LEVEL_DEBUG   = 3;
+    public static final int LEVEL_INFO    = 4;
+    public static final int LEVEL_WARN    = 5;
+    public static final int LEVEL_OFF     = Integer.MAX_VALUE;
+
+    public static final int DECODER_INPUT          = 0;
+    public static final int DECODER_INPUT_EOS      = 1;
+    public static final int DECODER_TRY_AGAIN      = 2;
+    public static final int DECODER_FORMAT_CHANGED = 3;
+    public static final int DECODER_UNEXPECTED     = 4;
+    public static final int FRAME_AVAILABLE        = 5;
+    public static final int FRAME_RENDERED         = 6;
+    public static final int ENCODER_TRY_AGAIN      = 7;
+    public static final int ENCODER_FORMAT_CHANGED = 8;
+    public static final int ENCODER_UNEXPECTED     = 9;
+    public static final int ENCODER_OUTPUT         = 10;
+    public static final int ENCODER_EOS            = 11;
+    public static final int AUDIO_BATCH            = 12;
+    public static final int AUDIO_EOS              = 13;
+
+    private static final String[] NAMES = {
+            "decoder input", "decoder input EOS", "decoder try again", "decoder format changed",
+            "decoder unexpected status", "frame available", "frame rendered", "encoder try again",
+            "encoder format changed", "encoder unexpected status", "encoder output", "encoder EOS",
+            "audio batch", "audio EOS"
+    };
+
+    /**
+     * Shared disabled log, used when no tracing is requested.
+     */
+    public static final TraceLog NONE = new TraceLog(1, LEVEL_OFF);
+
+    /**
+     * Receives formatted lines from {@link #dump}.
+     */
+    public interface Printer {
+        void println(String line);
+    }
+
+    private final long[] times;
+    private final int[]  events;
+    private final long[] args0;
+    private final long[] args1;
+    private volatile int level;
+    private int  next;
+    private long written;
+
+    public TraceLog(int capacity, int level) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        times = new long[capacity];
+        events = new int[capacity];
+        args0 = new long[capacity];
+        args1 = new long[capacity];
+        this.level = level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public boolean isLoggable(int level) {
+        return COMPILED_IN && level >= this.level;
+    }
+
+    public void log(int level, int event, long arg0, long arg1) {
+        if (!COMPILED_IN || level < this.level) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (this) {
+            int slot = next;
+            times[slot] = now;
+            events[slot] = event;
+            args0[slot] = arg0;
+            args1[slot] = arg1;
+            next = slot + 1 == times.length ? 0 : slot + 1;
+            written++;
+        }
+    }
+
+    /**
+     * Returns the number of records logged since creation or the last {@link #clear()}, including overwritten.
+     */
+    public synchronized long getWrittenCount() {
+        return written;
+    }
+
+    public synchronized void clear() {
+        next = 0;
+        written = 0;
+    }
+
+    /**
+     * Formats the retained records, oldest first.  Allocates, don't call from the frame loop.
+     */
+    public synchronized void dump(Printer printer) {
+        int count = (int) Math.min(written, times.length);
+        if (written > count) {
+            printer.println("... " + (written - count) + " earlier records dropped");
+        }
+        int  start = written > count ? next : 0;
+        long first = count > 0 ? times[start] : 0;
+        for (int i = 0; i < count; i++) {
+            int slot = (start + i) % times.length;
+            printer.println(String.format("%9.3f ms  %-26s %d %d", (times[slot] - first) / 1e6,
+                                          NAMES[events[slot]], args0[slot], args1[slot]));
+        }
+    }
+}
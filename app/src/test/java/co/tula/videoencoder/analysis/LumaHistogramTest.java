@@ -0,0 +1,40 @@
+package co.tula.videoencoder.analysis;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class LumaHistogramTest {
+
+    @Test
+    public void countsTheFirstByteOfEveryPixel() {
+        ByteBuffer pixels = ByteBuffer.wrap(new byte[]{0, 99, 99, 99, 7, 0, 0, 0, (byte) 255, 0, 0, 0, 8, 1, 1, 1});
+        pixels.position(0);
+        int[] bins = new int[32];
+        LumaHistogram.count(pixels, 4, bins);
+        assertEquals(2, bins[0]);
+        assertEquals(1, bins[1]);
+        assertEquals(1, bins[31]);
+        assertEquals(0, pixels.position());
+    }
+
+    @Test
+    public void distanceIsTheShareOfMovedPixels() {
+        assertEquals(0, LumaHistogram.distance(new int[]{5, 5}, new int[]{10, 10}), 1e-6);
+        assertEquals(1, LumaHistogram.distance(new int[]{5, 0}, new int[]{0, 3}), 1e-6);
+        assertEquals(0.25f, LumaHistogram.distance(new int[]{4, 4}, new int[]{6, 2}), 1e-6);
+    }
+
+    @Test
+    public void lowShareCountsTheDarkBins() {
+        assertEquals(0.75f, LumaHistogram.lowShare(new int[]{2, 1, 1, 0}, 2), 1e-6);
+        assertEquals(0, LumaHistogram.lowShare(new int[4], 2), 1e-6);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void binCountMustBeAPowerOfTwo() {
+        LumaHistogram.count(ByteBuffer.allocate(4), 4, new int[24]);
+    }
+}
@@ -0,0 +1,149 @@
+package co.tula.videoencoder.analysis;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds synthetic 16x16 luma frames: flat gray levels with some noise, as a downscaled frame would look.
+ */
+public class SceneAnalyzerTest {
+
+    private static final long FRAME_US = 33_333;
+
+    @Test
+    public void hardCutIsFoundAndSlowChangeIsNot() {
+        SceneAnalyzer        analyzer = new SceneAnalyzer();
+        SceneAnalyzer.Stream stream   = analyzer.openStream();
+        int                  frame    = 0;
+        // A slow pan in brightness, then a cut to a bright scene
+        for (int level = 60; level < 120; level += 2) {
+            stream.addFrame(frame++ * FRAME_US, frame(level, 20), 4);
+        }
+        for (int i = 0; i < 30; i++) {
+            stream.addFrame(frame++ * FRAME_US, frame(200, 20), 4);
+        }
+
+        SceneIndex index = analyzer.finish();
+        assertEquals(60, index.getFrameCount());
+        assertEquals(1, index.getCuts().size());
+        assertEquals(30 * FRAME_US, index.getCuts().get(0).getTimeUs());
+        assertTrue(index.getCuts().get(0).getScore() > 0.9f);
+        assertTrue(index.getBlacks().isEmpty());
+    }
+
+    @Test
+    public void framesFromParallelSegmentsAreOrderedAndDeduplicated() {
+        SceneAnalyzer analyzer = new SceneAnalyzer();
+        // Second segment first, as its thread finished earlier, then the first one twice
+        SceneAnalyzer.Stream second = analyzer.openStream();
+        for (int i = 10; i < 20; i++) {
+            second.addFrame(i * FRAME_US, frame(40, 10), 4);
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            SceneAnalyzer.Stream first = analyzer.openStream();
+            for (int i = 0; i < 10; i++) {
+                first.addFrame(i * FRAME_US, frame(180, 10), 4);
+            }
+        }
+
+        SceneIndex index = analyzer.finish();
+        assertEquals(20, index.getFrameCount());
+        assertEquals(1, index.getCuts().size());
+        assertEquals(10 * FRAME_US, index.getCuts().get(0).getTimeUs());
+    }
+
+    @Test
+    public void blackStretchesEndAtGaps() {
+        SceneAnalyzer        analyzer = new SceneAnalyzer();
+        SceneAnalyzer.Stream stream   = analyzer.openStream();
+        for (int i = 0; i < 10; i++) {
+            stream.addFrame(i * FRAME_US, frame(i < 5 ? 8 : 100, 6), 4);
+        }
+        // A copied segment was not analyzed
+        long resumeUs = 10 * FRAME_US + 2 * SceneAnalyzer.MAX_GAP_US;
+        for (int i = 0; i < 3; i++) {
+            stream.addFrame(resumeUs + i * FRAME_US, frame(12, 6), 4);
+        }
+
+        SceneIndex index = analyzer.finish();
+        assertEquals(2, index.getBlacks().size());
+        assertEquals(0, index.getBlacks().get(0).getStartUs());
+        assertEquals(4 * FRAME_US, index.getBlacks().get(0).getEndUs());
+        assertEquals(resumeUs, index.getBlacks().get(1).getStartUs());
+        assertEquals(resumeUs + 2 * FRAME_US, index.getBlacks().get(1).getEndUs());
+        // Black to gray is a cut, the jump over the gap is not compared
+        assertEquals(1, index.getCuts().size());
+        assertEquals(5 * FRAME_US, index.getCuts().get(0).getTimeUs());
+    }
+
+    @Test
+    public void blackStretchesJoinAcrossSegments() {
+        SceneAnalyzer        analyzer = new SceneAnalyzer();
+        SceneAnalyzer.Stream first    = analyzer.openStream();
+        SceneAnalyzer.Stream second   = analyzer.openStream();
+        for (int i = 0; i < 8; i++) {
+            // Fade to black at the end of the first segment, back in during the second
+            (i < 4 ? first : second).addFrame(i * FRAME_US, frame(i < 2 || i > 5 ? 120 : 8, 6), 4);
+        }
+
+        SceneIndex index = analyzer.finish();
+        assertEquals(8, index.getFrameCount());
+        assertEquals(1, index.getBlacks().size());
+        assertEquals(2 * FRAME_US, index.getBlacks().get(0).getStartUs());
+        assertEquals(5 * FRAME_US, index.getBlacks().get(0).getEndUs());
+        // Into and out of black, nothing at the boundary itself
+        assertEquals(2, index.getCuts().size());
+        assertEquals(2 * FRAME_US, index.getCuts().get(0).getTimeUs());
+        assertEquals(6 * FRAME_US, index.getCuts().get(1).getTimeUs());
+    }
+
+    @Test
+    public void indexFileListsEventsInTimeOrder() throws Exception {
+        SceneAnalyzer        analyzer = new SceneAnalyzer();
+        SceneAnalyzer.Stream stream   = analyzer.openStream();
+        for (int i = 0; i < 6; i++) {
+            stream.addFrame(i * FRAME_US, frame(i < 2 ? 150 : i < 4 ? 4 : 150, 4), 4);
+        }
+        File file = File.createTempFile("index", ".scenes");
+        try {
+            analyzer.finish().writeTo(file);
+            List<String> lines = new ArrayList<>();
+            try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+            assertEquals("# scenes frames=6", lines.get(0));
+            assertEquals("cut\t66666\t1.000", lines.get(1));
+            assertEquals("black\t66666\t99999", lines.get(2));
+            assertEquals("cut\t133332\t1.000", lines.get(3));
+            assertEquals(4, lines.size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Returns 16x16 RGBA pixels with luma {@code level} plus noise of up to {@code noise}.
+     */
+    private static ByteBuffer frame(int level, int noise) {
+        ByteBuffer pixels = ByteBuffer.allocateDirect(16 * 16 * 4);
+        int        seed   = level * 31 + 7;
+        for (int i = 0; i < 16 * 16; i++) {
+            seed = seed * 1103515245 + 12345;
+            int luma = Math.max(0, Math.min(255, level + ((seed >>> 16) % (noise + 1)) - noise / 2));
+            pixels.put((byte) luma).put((byte) luma).put((byte) luma).put((byte) 255);
+        }
+        pixels.flip();
+        return pixels;
+    }
+}
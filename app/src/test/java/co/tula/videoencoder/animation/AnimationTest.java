@@ -0,0 +1,68 @@
+package co.tula.videoencoder.animation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AnimationTest {
+
+    private static final float DELTA = 1e-5f;
+
+    @Test
+    public void missingTransformTracksKeepTheFrame() {
+        Animation animation = new Animation().setRotation(new KeyframeTrack(1).add(0, 0f).add(2_000_000, 90f));
+        float[]   out       = new float[Animation.TRANSFORM_FLOATS];
+        animation.evaluateTransform(1_000_000, out, 0);
+        assertArrayEquals(new float[]{0f, 0f, 1f, 1f, 45f}, out, DELTA);
+        assertTrue(animation.hasTransform());
+        assertTrue(new Animation().isEmpty());
+    }
+
+    @Test
+    public void uniformsAreWrittenFourFloatsApart() {
+        Animation animation = new Animation()
+                .setUniform(Animation.INTENSITY, new KeyframeTrack(1).add(0, 0f).add(1_000_000, 1f))
+                .setUniform(Animation.CROP, new KeyframeTrack(4).add(0, 0f, 0f, 1f, 1f));
+        assertFalse(animation.hasTransform());
+        assertEquals(2, animation.getUniformCount());
+        assertEquals(Animation.CROP, animation.getUniformName(1));
+        float[] out = new float[2 * KeyframeTrack.MAX_COMPONENTS];
+        animation.evaluateUniforms(500_000, out, 0);
+        assertArrayEquals(new float[]{0.5f, 0f, 0f, 0f, 0f, 0f, 1f, 1f}, out, DELTA);
+
+        // Setting a uniform again replaces its track
+        animation.setUniform(Animation.INTENSITY, new KeyframeTrack(1).add(0, 0.75f));
+        animation.evaluateUniforms(500_000, out, 0);
+        assertEquals(0.75f, out[0], 0f);
+        assertEquals(2, animation.getUniformCount());
+    }
+
+    @Test
+    public void encodedAnimationRoundTrips() {
+        Animation animation = new Animation()
+                .setTranslation(new KeyframeTrack(2).add(0, 0f, 0f).add(3_000_000, 0.2f, -0.1f))
+                .setScale(new KeyframeTrack(2).setInterpolation(KeyframeTrack.Interpolation.SMOOTH)
+                                              .add(0, 1f, 1f).add(3_000_000, 1.3f, 1.3f))
+                .setUniform("uVignette", new KeyframeTrack(1).setInterpolation(KeyframeTrack.Interpolation.STEP)
+                                                             .add(0, 0f).add(1_000_000, 1f));
+        Animation decoded = Animation.decode(animation.encode());
+        assertEquals(animation, decoded);
+        assertEquals(animation.hashCode(), decoded.hashCode());
+        assertEquals(new Animation(), Animation.decode(""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void timeIsNotAnimated() {
+        new Animation().setUniform(Animation.TIME, new KeyframeTrack(1).add(0, 1f));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void uniformNamesMustBeIdentifiers() {
+        new Animation().setUniform("u=1|x", new KeyframeTrack(1).add(0, 1f));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void translationNeedsTwoComponents() {
+        new Animation().setTranslation(new KeyframeTrack(1).add(0, 1f));
+    }
+}
@@ -0,0 +1,77 @@
+package co.tula.videoencoder.animation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KeyframeTrackTest {
+
+    private static final float DELTA = 1e-5f;
+
+    @Test
+    public void valuesAreInterpolatedAndHeldAtTheEnds() {
+        KeyframeTrack track = new KeyframeTrack(2).add(1_000_000, 0f, 10f).add(3_000_000, 1f, 30f);
+        float[]       out   = new float[3];
+        track.evaluate(0, out, 1);
+        assertArrayEquals(new float[]{0f, 0f, 10f}, out, DELTA);
+        track.evaluate(1_500_000, out, 1);
+        assertArrayEquals(new float[]{0f, 0.25f, 15f}, out, DELTA);
+        track.evaluate(9_000_000, out, 1);
+        assertArrayEquals(new float[]{0f, 1f, 30f}, out, DELTA);
+        assertEquals(0.25f, track.evaluate(1_500_000), DELTA);
+    }
+
+    @Test
+    public void interpolations() {
+        KeyframeTrack track = new KeyframeTrack(1).add(0, 0f).add(1_000_000, 1f);
+        assertEquals(0.25f, track.evaluate(250_000), DELTA);
+        track.setInterpolation(KeyframeTrack.Interpolation.STEP);
+        assertEquals(0f, track.evaluate(999_999), 0f);
+        assertEquals(1f, track.evaluate(1_000_000), 0f);
+        track.setInterpolation(KeyframeTrack.Interpolation.SMOOTH);
+        assertEquals(0.15625f, track.evaluate(250_000), DELTA);
+        assertEquals(0.5f, track.evaluate(500_000), DELTA);
+    }
+
+    @Test
+    public void lookupWorksInAnyOrder() {
+        KeyframeTrack track = new KeyframeTrack(1);
+        for (int i = 0; i < 100; i++) {
+            track.add(i * 1_000_000L, i);
+        }
+        // In order, as frames come, then jumping back and forth as after a seek
+        for (long timeUs = 0; timeUs <= 99_000_000L; timeUs += 33_333) {
+            assertEquals(timeUs / 1e6f, track.evaluate(timeUs), 1e-3f);
+        }
+        long[] seeks = {50_500_000, 2_000_000, 98_250_000, -5, 42_000_001, 42_000_000};
+        for (long timeUs : seeks) {
+            assertEquals(Math.max(timeUs, 0) / 1e6f, track.evaluate(timeUs), 1e-3f);
+        }
+        assertEquals(-1, track.find(-5));
+        assertEquals(99, track.find(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void encodedTrackRoundTrips() {
+        KeyframeTrack track = new KeyframeTrack(3).setInterpolation(KeyframeTrack.Interpolation.SMOOTH)
+                                                  .add(0, 1f, -0.5f, 2e-7f).add(4_000_000, 1.5f, 0f, 3f);
+        assertEquals(track, KeyframeTrack.decode(track.encode()));
+        assertEquals(track.hashCode(), KeyframeTrack.decode(track.encode()).hashCode());
+        assertEquals("linear:5@0.5", new KeyframeTrack(1).add(5, 0.5f).encode());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keyframesMustBeInOrder() {
+        new KeyframeTrack(1).add(1_000, 0f).add(1_000, 1f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void valuesMustMatchTheComponents() {
+        new KeyframeTrack(2).add(0, 1f);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void emptyTrackCannotBeEvaluated() {
+        new KeyframeTrack(1).evaluate(0);
+    }
+}
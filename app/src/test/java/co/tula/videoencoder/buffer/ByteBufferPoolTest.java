@@ -0,0 +1,61 @@
+package co.tula.videoencoder.buffer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ByteBufferPoolTest {
+
+    @Test
+    public void releasedBuffersAreReused() {
+        ByteBufferPool pool  = new ByteBufferPool(2);
+        ByteBuffer     first = pool.acquire(1000);
+        assertTrue(first.isDirect());
+        assertEquals(1000, first.remaining());
+        first.putInt(42);
+        pool.release(first);
+
+        ByteBuffer again = pool.acquire(600);
+        assertSame(first, again);
+        assertEquals(0, again.position());
+        assertEquals(600, again.limit());
+        assertEquals(1, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void smallestFittingBufferIsChosen() {
+        ByteBufferPool pool  = new ByteBufferPool(4);
+        ByteBuffer     small = pool.acquire(100);
+        ByteBuffer     large = pool.acquire(10_000);
+        pool.release(large);
+        pool.release(small);
+
+        assertSame(small, pool.acquire(80));
+        assertSame(large, pool.acquire(200));
+        ByteBuffer larger = pool.acquire(20_000);
+        assertEquals(20_000, larger.capacity());
+        assertEquals(3, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void poolKeepsTheLargestBuffers() {
+        ByteBufferPool pool = new ByteBufferPool(2);
+        ByteBuffer     a    = pool.acquire(10);
+        ByteBuffer     b    = pool.acquire(20);
+        ByteBuffer     c    = pool.acquire(30);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+
+        assertSame(b, pool.acquire(1));
+        assertSame(c, pool.acquire(1));
+        assertNotSame(a, pool.acquire(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void heapBuffersAreRejected() {
+        new ByteBufferPool(1).release(ByteBuffer.allocate(10));
+    }
+}
@@ -0,0 +1,184 @@
+package co.tula.videoencoder.capability;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EncoderConfiguratorTest {
+
+    private static final int ALL_MODES = 1 << CodecInfo.BITRATE_MODE_CQ | 1 << CodecInfo.BITRATE_MODE_VBR
+                                         | 1 << CodecInfo.BITRATE_MODE_CBR;
+    private static final int CBR_ONLY  = 1 << CodecInfo.BITRATE_MODE_CBR;
+    private static final int INSTANCES = 3;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("encoders", ".properties");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void hardwareEncoderBeatsFasterSoftware() {
+        FakeCodecList codecs = new FakeCodecList(
+                codec("OMX.google.h264.encoder", CodecInfo.MIME_AVC, false, 4096, 240, ALL_MODES),
+                codec("OMX.qcom.video.encoder.avc", CodecInfo.MIME_AVC, true, 4096, 120, CBR_ONLY));
+        EncoderConfig config = EncoderSelector.select(codecs.encoders, 1280, 720, 30);
+        assertEquals("OMX.qcom.video.encoder.avc", config.getCodecName());
+        assertEquals(CodecInfo.BITRATE_MODE_CBR, config.getBitrateMode());
+    }
+
+    @Test
+    public void fastestHardwareEncoderSupportingTheSizeWins() {
+        FakeCodecList codecs = new FakeCodecList(
+                codec("OMX.vendor.avc.small", CodecInfo.MIME_AVC, true, 1280, 480, ALL_MODES),
+                codec("OMX.vendor.hevc", CodecInfo.MIME_HEVC, true, 4096, 120, ALL_MODES),
+                codec("OMX.vendor.avc", CodecInfo.MIME_AVC, true, 4096, 60, ALL_MODES),
+                codec("OMX.vendor.vp8", "video/x-vnd.on2.vp8", true, 4096, 960, ALL_MODES));
+        EncoderConfig config = EncoderSelector.select(codecs.encoders, 1920, 1080, 30);
+        assertEquals("OMX.vendor.hevc", config.getCodecName());
+        assertEquals(CodecInfo.HEVC_PROFILE_MAIN, config.getProfile());
+        assertEquals(CodecInfo.BITRATE_MODE_VBR, config.getBitrateMode());
+        // HEVC gets less than AVC would for the same pixels
+        assertTrue(config.getBitrate() < 1920 * 1080 * 30 / 10);
+    }
+
+    @Test
+    public void avcWinsTiesAndPrefersHighProfile() {
+        FakeCodecList codecs = new FakeCodecList(
+                codec("OMX.vendor.hevc", CodecInfo.MIME_HEVC, true, 4096, 120, ALL_MODES),
+                codec("OMX.vendor.avc", CodecInfo.MIME_AVC, true, 4096, 120, ALL_MODES));
+        EncoderConfig config = EncoderSelector.select(codecs.encoders, 720, 720, 30);
+        assertEquals(CodecInfo.MIME_AVC, config.getMime());
+        assertEquals(CodecInfo.AVC_PROFILE_HIGH, config.getProfile());
+        assertEquals(0x800, config.getLevel());
+        assertEquals(720 * 720 * 30 / 10, config.getBitrate());
+    }
+
+    @Test
+    public void noSuitableEncoderGivesNull() {
+        FakeCodecList codecs = new FakeCodecList(
+                codec("OMX.vendor.avc", CodecInfo.MIME_AVC, true, 640, 120, ALL_MODES));
+        assertNull(new EncoderConfigurator(codecs, null).getConfig(1280, 720, 30));
+    }
+
+    @Test
+    public void storedConfigSkipsProbingAfterColdStart() {
+        FakeCodecList       codecs = new FakeCodecList(codec("OMX.vendor.avc", CodecInfo.MIME_AVC, true, 4096, 120,
+                                                             ALL_MODES));
+        EncoderConfigurator first  = new EncoderConfigurator(codecs, new EncoderConfigStore(file, "build-1"));
+        EncoderConfig       config = first.getConfig(1280, 720, 30);
+        first.getConfig(720, 720, 30);
+        assertEquals(1, codecs.listed);
+
+        // A new process with the same build
+        EncoderConfigurator second = new EncoderConfigurator(codecs, new EncoderConfigStore(file, "build-1"));
+        assertEquals(config, second.getConfig(1280, 720, 30));
+        assertEquals(INSTANCES, second.getConfig(1280, 720, 30).getMaxInstances());
+        assertEquals(0, second.getProbeCount());
+        assertEquals(1, codecs.listed);
+
+        // After a system update the codecs are listed again
+        EncoderConfigurator updated = new EncoderConfigurator(codecs, new EncoderConfigStore(file, "build-2"));
+        assertEquals(config, updated.getConfig(1280, 720, 30));
+        assertEquals(2, codecs.listed);
+    }
+
+    @Test
+    public void failedCodecIsNotChosenAgain() {
+        FakeCodecList codecs = new FakeCodecList(
+                codec("OMX.vendor.avc", CodecInfo.MIME_AVC, true, 4096, 120, ALL_MODES),
+                codec("OMX.google.h264.encoder", CodecInfo.MIME_AVC, false, 4096, 60, ALL_MODES));
+        EncoderConfigurator configurator = new EncoderConfigurator(codecs, new EncoderConfigStore(file, "build-1"));
+        assertEquals("OMX.vendor.avc", configurator.getConfig(1280, 720, 30).getCodecName());
+        configurator.invalidate(1280, 720, 30);
+        assertEquals("OMX.google.h264.encoder", configurator.getConfig(1280, 720, 30).getCodecName());
+        assertEquals(1, codecs.listed);
+    }
+
+    @Test
+    public void failedCodecIsDroppedForOtherSizes() {
+        FakeCodecList codecs = new FakeCodecList(
+                codec("OMX.vendor.avc", CodecInfo.MIME_AVC, true, 4096, 120, ALL_MODES),
+                codec("OMX.google.h264.encoder", CodecInfo.MIME_AVC, false, 4096, 60, ALL_MODES));
+        EncoderConfigStore  store        = new EncoderConfigStore(file, "build-1");
+        EncoderConfigurator configurator = new EncoderConfigurator(codecs, store);
+        configurator.getConfig(720, 720, 30);
+        // Stored by an earlier process, not yet asked for in this one
+        new EncoderConfigurator(codecs, store).getConfig(640, 480, 30);
+        configurator.getConfig(1280, 720, 30);
+        configurator.invalidate(1280, 720, 30);
+
+        assertEquals("OMX.google.h264.encoder", configurator.getConfig(720, 720, 30).getCodecName());
+        assertEquals("OMX.google.h264.encoder", configurator.getConfig(640, 480, 30).getCodecName());
+        assertEquals("OMX.google.h264.encoder", store.get("640x480@30").getCodecName());
+    }
+
+    private static CodecInfo codec(String name, String mime, boolean hardware, int maxSize, double maxFrameRate,
+                                   int bitrateModes) {
+        int[] profiles = CodecInfo.MIME_AVC.equals(mime)
+                         ? new int[]{CodecInfo.AVC_PROFILE_BASELINE, CodecInfo.AVC_PROFILE_MAIN,
+                                     CodecInfo.AVC_PROFILE_HIGH}
+                         : new int[]{CodecInfo.HEVC_PROFILE_MAIN};
+        int[] levels = new int[profiles.length];
+        Arrays.fill(levels, 0x800);
+        return new CodecInfo(name, mime, hardware, bitrateModes, profiles, levels,
+                             new FakeLimits(maxSize, maxFrameRate), INSTANCES);
+    }
+
+    /**
+     * Stands in for MediaCodecList and counts how often it is listed.
+     */
+    private static class FakeCodecList implements CodecCatalog {
+        final List<CodecInfo> encoders;
+        int listed;
+
+        FakeCodecList(CodecInfo... encoders) {
+            this.encoders = Arrays.asList(encoders);
+        }
+
+        @Override
+        public List<CodecInfo> getVideoEncoders() {
+            listed++;
+            return new ArrayList<>(encoders);
+        }
+    }
+
+    private static class FakeLimits implements CodecInfo.VideoLimits {
+        final int    maxSize;
+        final double maxFrameRate;
+
+        FakeLimits(int maxSize, double maxFrameRate) {
+            this.maxSize = maxSize;
+            this.maxFrameRate = maxFrameRate;
+        }
+
+        @Override
+        public boolean isSizeSupported(int width, int height) {
+            return width <= maxSize && height <= maxSize && width % 2 == 0 && height % 2 == 0;
+        }
+
+        @Override
+        public double getMaxFrameRate(int width, int height) {
+            return maxFrameRate;
+        }
+
+        @Override
+        public int getMaxBitrate() {
+            return 20_000_000;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package co.tula.videoencoder.encoder;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a frame loop against a simulated GPU which executes draws on its own thread.  The CPU side of each
+ * frame (waiting for the decoder and latching the image) takes about as long as the GPU side, so with
+ * pipelining both should overlap.
+ */
+public class FramePacerTest {
+
+    private static final int  FRAMES = 60;
+    private static final long CPU_MS = 4;
+    private static final long GPU_MS = 4;
+
+    private final FakeGpu gpu = new FakeGpu();
+
+    @After
+    public void tearDown() {
+        gpu.shutdown();
+    }
+
+    @Test
+    public void withoutFencesEveryFrameFinishes() {
+        gpu.fenceSupported = false;
+        FramePacer pacer = new FramePacer(gpu, 1);
+        assertFalse(pacer.isPipelined());
+        for (int i = 0; i < 3; i++) {
+            gpu.draw(0);
+            pacer.onFrameSubmitted();
+            assertEquals(gpu.submitted, gpu.completed);
+        }
+        assertEquals(3, gpu.finishCalls);
+        assertEquals(0, gpu.liveFences);
+    }
+
+    @Test
+    public void gpuStaysAtMostOneFrameBehind() {
+        FramePacer pacer = new FramePacer(gpu, 1);
+        assertTrue(pacer.isPipelined());
+        for (int i = 0; i < 10; i++) {
+            gpu.draw(2);
+            pacer.onFrameSubmitted();
+            assertTrue(gpu.submitted - gpu.completed <= 1);
+            assertTrue(gpu.liveFences <= 1);
+        }
+        pacer.drain();
+        assertEquals(gpu.submitted, gpu.completed);
+        assertEquals(0, gpu.liveFences);
+        assertEquals(0, gpu.finishCalls);
+    }
+
+    @Test
+    public void releaseDeletesPendingFences() {
+        FramePacer pacer = new FramePacer(gpu, 2);
+        gpu.draw(20);
+        pacer.onFrameSubmitted();
+        gpu.draw(20);
+        pacer.onFrameSubmitted();
+        pacer.release();
+        assertEquals(0, gpu.liveFences);
+    }
+
+    @Test
+    public void fencesOverlapCpuAndGpuWork() throws Exception {
+        gpu.fenceSupported = false;
+        long blocking = runFrames(new FramePacer(gpu, 1));
+        gpu.fenceSupported = true;
+        long pipelined = runFrames(new FramePacer(gpu, 1));
+        String rates = String.format("glFinish: %.1f fps, fences: %.1f fps",
+                                     FRAMES * 1e9 / blocking, FRAMES * 1e9 / pipelined);
+        // Ideal is half the time, leave room for a busy machine
+        assertTrue(rates, pipelined < blocking * 0.8);
+    }
+
+    private long runFrames(FramePacer pacer) throws InterruptedException {
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            Thread.sleep(CPU_MS);
+            gpu.draw(GPU_MS);
+            pacer.onFrameSubmitted();
+        }
+        pacer.drain();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Executes draws in submission order on a worker thread.  Fence handles are submission counts.
+     */
+    private static class FakeGpu implements GpuSync {
+        final ExecutorService worker = Executors.newSingleThreadExecutor();
+        boolean fenceSupported = true;
+        int     finishCalls;
+        int     liveFences;
+        long    submitted;
+        long    completed;
+
+        void draw(long millis) {
+            submitted++;
+            worker.execute(() -> {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException ignored) {
+                }
+                synchronized (this) {
+                    completed++;
+                    notifyAll();
+                }
+            });
+        }
+
+        void shutdown() {
+            worker.shutdownNow();
+        }
+
+        @Override
+        public boolean isFenceSupported() {
+            return fenceSupported;
+        }
+
+        @Override
+        public long createFence() {
+            liveFences++;
+            return submitted;
+        }
+
+        @Override
+        public synchronized void waitFence(long fence) {
+            while (completed < fence) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+
+        @Override
+        public void deleteFence(long fence) {
+            liveFences--;
+        }
+
+        @Override
+        public void finish() {
+            finishCalls++;
+            waitFence(submitted);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package co.tula.videoencoder.encoder;
+
+import co.tula.videoencoder.buffer.ByteBufferPool;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the readback with a fake transfer whose "framebuffer" holds the frame number in every byte.
+ */
+public class FrameReadbackTest {
+
+    private static final int WIDTH  = 4;
+    private static final int HEIGHT = 2;
+
+    private final FakeTransfer   transfer = new FakeTransfer();
+    private final ByteBufferPool pool     = new ByteBufferPool(4);
+    private final List<Long>     received = new ArrayList<>();
+
+    @Test
+    public void framesArriveOneFrameLateWithTwoSlots() {
+        FrameReadback readback = new FrameReadback(transfer, pool, 2, WIDTH, HEIGHT, this::check);
+        assertTrue(readback.isPipelined());
+        for (int frame = 1; frame <= 5; frame++) {
+            transfer.framebuffer = frame;
+            readback.onFrameDrawn(frame * 1000L);
+            assertEquals(frame - 1, received.size());
+            // Never more reads in flight than slots
+            assertTrue(transfer.pending <= 2);
+        }
+        readback.drain();
+        assertEquals(5, received.size());
+        assertEquals(5000L, (long) received.get(4));
+        assertEquals(0, transfer.pending);
+        assertEquals(0, transfer.blockingReads);
+        // Consumers recycle, so two buffers are enough for the whole run
+        assertTrue(pool.getAllocatedCount() <= 2);
+    }
+
+    @Test
+    public void withoutPackBuffersEveryReadBlocks() {
+        transfer.async = false;
+        FrameReadback readback = new FrameReadback(transfer, pool, 2, WIDTH, HEIGHT, this::check);
+        assertFalse(readback.isPipelined());
+        for (int frame = 1; frame <= 3; frame++) {
+            transfer.framebuffer = frame;
+            readback.onFrameDrawn(frame * 1000L);
+            assertEquals(frame, received.size());
+        }
+        assertEquals(3, transfer.blockingReads);
+    }
+
+    @Test
+    public void releaseDropsPendingReads() {
+        FrameReadback readback = new FrameReadback(transfer, pool, 3, WIDTH, HEIGHT, this::check);
+        transfer.framebuffer = 1;
+        readback.onFrameDrawn(1000);
+        readback.release();
+        readback.drain();
+        assertTrue(received.isEmpty());
+        assertTrue(transfer.released);
+    }
+
+    /**
+     * Consumer checking that the pixels are those of the frame with that time, then recycling them.
+     */
+    private void check(ByteBuffer pixels, int width, int height, long presentationTimeUs) {
+        assertEquals(WIDTH * HEIGHT * 4, pixels.remaining());
+        for (int i = pixels.position(); i < pixels.limit(); i++) {
+            assertEquals(presentationTimeUs / 1000, pixels.get(i));
+        }
+        received.add(presentationTimeUs);
+        pool.release(pixels);
+    }
+
+    private static class FakeTransfer implements PixelTransfer {
+        final ByteBuffer[] slots = new ByteBuffer[4];
+        boolean async = true;
+        int     framebuffer;
+        int     pending;
+        int     blockingReads;
+        boolean released;
+
+        @Override
+        public boolean isAsync() {
+            return async;
+        }
+
+        @Override
+        public void startRead(int slot, int width, int height) {
+            slots[slot] = fill(ByteBuffer.allocateDirect(width * height * 4));
+            pending++;
+        }
+
+        @Override
+        public ByteBuffer map(int slot, int byteCount) {
+            assertNotNull("slot " + slot + " was not read", slots[slot]);
+            return slots[slot];
+        }
+
+        @Override
+        public void unmap(int slot) {
+            slots[slot] = null;
+            pending--;
+        }
+
+        @Override
+        public void read(ByteBuffer pixels, int width, int height) {
+            fill(pixels.duplicate());
+            blockingReads++;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+
+        private ByteBuffer fill(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                buffer.put((byte) framebuffer);
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package co.tula.videoencoder.encoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProgramCacheTest {
+
+    private static final String VERTEX = "vertex";
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("programs", "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void sameSourcesAreLinkedOnce() {
+        FakeLinker   linker = new FakeLinker(true);
+        ProgramCache cache  = new ProgramCache(linker, null, 4);
+        int sepia = cache.obtain(VERTEX, "sepia");
+        int gray  = cache.obtain(VERTEX, "gray");
+        assertNotEquals(sepia, gray);
+        assertEquals(sepia, cache.obtain(VERTEX, "sepia"));
+        assertEquals(2, linker.linked.size());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedProgramIsDeleted() {
+        FakeLinker   linker = new FakeLinker(true);
+        ProgramCache cache  = new ProgramCache(linker, null, 2);
+        int a = cache.obtain(VERTEX, "a");
+        int b = cache.obtain(VERTEX, "b");
+        cache.release(a);
+        cache.release(b);
+        cache.release(cache.obtain(VERTEX, "a"));
+        cache.release(cache.obtain(VERTEX, "c"));
+        assertEquals(2, cache.size());
+        assertEquals(1, linker.deleted.size());
+        assertEquals(b, (int) linker.deleted.get(0));
+        assertEquals(a, cache.obtain(VERTEX, "a"));
+        cache.clear();
+        assertEquals(3, linker.deleted.size());
+    }
+
+    @Test
+    public void heldProgramsAreNotDeleted() {
+        FakeLinker   linker = new FakeLinker(true);
+        ProgramCache cache  = new ProgramCache(linker, null, 2);
+        int a = cache.obtain(VERTEX, "a");
+        int b = cache.obtain(VERTEX, "b");
+        // Two renderers hold b
+        assertEquals(b, cache.obtain(VERTEX, "b"));
+        int c = cache.obtain(VERTEX, "c");
+        assertEquals(3, cache.size());
+        assertTrue(linker.deleted.isEmpty());
+
+        cache.release(a);
+        assertEquals(a, (int) linker.deleted.get(0));
+        cache.release(b);
+        cache.release(c);
+        assertEquals(1, linker.deleted.size());
+        cache.release(b);
+        // Back within the capacity, released programs stay for the next renderer
+        assertEquals(1, linker.deleted.size());
+        assertEquals(b, cache.obtain(VERTEX, "b"));
+        assertEquals(3, linker.linked.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void releasingAProgramNotHeldThrows() {
+        ProgramCache cache   = new ProgramCache(new FakeLinker(true), null, 2);
+        int          program = cache.obtain(VERTEX, "a");
+        cache.release(program);
+        cache.release(program);
+    }
+
+    @Test
+    public void binariesAreReusedByLaterContexts() {
+        ProgramBinaryStore store = new ProgramBinaryStore(directory);
+        ProgramCache       first = new ProgramCache(new FakeLinker(true), store, 4);
+        first.obtain(VERTEX, "sepia");
+        assertEquals(1, first.getLinkCount());
+
+        FakeLinker   linker = new FakeLinker(true);
+        ProgramCache second = new ProgramCache(linker, store, 4);
+        assertNotEquals(0, second.obtain(VERTEX, "sepia"));
+        assertEquals(0, second.getLinkCount());
+        assertEquals(1, second.getBinaryLoadCount());
+        assertEquals("sepia", linker.loadedSources.get(0));
+    }
+
+    @Test
+    public void rejectedBinaryIsCompiledAgain() {
+        ProgramBinaryStore store = new ProgramBinaryStore(directory);
+        new ProgramCache(new FakeLinker(true), store, 4).obtain(VERTEX, "sepia");
+
+        FakeLinker linker = new FakeLinker(true);
+        linker.rejectBinaries = true;
+        ProgramCache cache = new ProgramCache(linker, store, 4);
+        cache.obtain(VERTEX, "sepia");
+        assertEquals(1, cache.getLinkCount());
+        assertEquals(0, cache.getBinaryLoadCount());
+        // The new binary replaced the rejected one
+        assertNotNull(store.read(ProgramCache.hash(VERTEX, "sepia")));
+    }
+
+    @Test
+    public void withoutBinarySupportNothingIsStored() {
+        ProgramBinaryStore store = new ProgramBinaryStore(directory);
+        new ProgramCache(new FakeLinker(false), store, 4).obtain(VERTEX, "sepia");
+        assertNull(store.read(ProgramCache.hash(VERTEX, "sepia")));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void linkFailureThrows() {
+        new ProgramCache(new FakeLinker(true), null, 4).obtain(VERTEX, "broken");
+    }
+
+    @Test
+    public void keyDependsOnBothSources() {
+        assertNotEquals(ProgramCache.hash("ab", "c"), ProgramCache.hash("a", "bc"));
+        assertEquals(40, ProgramCache.hash(VERTEX, "sepia").length());
+    }
+
+    /**
+     * Program ids count up, binaries carry the fragment source.
+     */
+    private static class FakeLinker implements ProgramCache.Linker {
+        final List<String>  linked        = new ArrayList<>();
+        final List<String>  loadedSources = new ArrayList<>();
+        final List<Integer> deleted       = new ArrayList<>();
+        final List<String>  programs      = new ArrayList<>();
+        final boolean       binarySupported;
+        boolean rejectBinaries;
+
+        FakeLinker(boolean binarySupported) {
+            this.binarySupported = binarySupported;
+            programs.add(null);
+        }
+
+        @Override
+        public int link(String vertexSource, String fragmentSource) {
+            if (fragmentSource.equals("broken")) {
+                return 0;
+            }
+            linked.add(fragmentSource);
+            programs.add(fragmentSource);
+            return programs.size() - 1;
+        }
+
+        @Override
+        public int load(ProgramCache.Binary binary) {
+            if (rejectBinaries) {
+                return 0;
+            }
+            String source = new String(binary.data);
+            loadedSources.add(source);
+            programs.add(source);
+            return programs.size() - 1;
+        }
+
+        @Override
+        public ProgramCache.Binary save(int program) {
+            return binarySupported ? new ProgramCache.Binary(7, programs.get(program).getBytes()) : null;
+        }
+
+        @Override
+        public void delete(int program) {
+            deleted.add(program);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package co.tula.videoencoder.encoder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class SpriteTest {
+
+    private static final float DELTA = 1e-5f;
+
+    /**
+     * The quad TextureRender draws, in the order of the sprite's corners.
+     */
+    private static final float[] QUAD = {-1f, -1f, 0f,
+                                         1f, -1f, 0f,
+                                         -1f, 1f, 0f,
+                                         1f, 1f, 0f};
+
+    @Test
+    public void untransformedSpriteIsTheFullScreenQuad() {
+        float[] vertices = new float[Sprite.VERTEX_FLOATS];
+        new Sprite().getTransformedVertices(vertices, 0);
+        assertArrayEquals(QUAD, vertices, DELTA);
+    }
+
+    @Test
+    public void rotationTurnsCounterClockwise() {
+        float[] vertices = new float[Sprite.VERTEX_FLOATS];
+        new Sprite().setScale(2f, 1f).updateAngleDeg(90).getTransformedVertices(vertices, 0);
+        // Bottom left (-2, -1) ends up at (1, -2)
+        assertEquals(1f, vertices[0], DELTA);
+        assertEquals(-2f, vertices[1], DELTA);
+    }
+
+    @Test
+    public void matrixMovesTheQuadLikeTheVertices() {
+        Sprite sprite = new Sprite().setScale(1.5f, 0.75f).setTranslation(0.25f, -0.5f).updateAngleDeg(-33);
+        float[] vertices = new float[2 + Sprite.VERTEX_FLOATS];
+        float[] matrix   = new float[Sprite.MATRIX_FLOATS];
+        sprite.getTransformedVertices(vertices, 2);
+        sprite.getMatrix(matrix, 0);
+        for (int i = 0; i < 4; i++) {
+            float x = QUAD[i * 3];
+            float y = QUAD[i * 3 + 1];
+            // Column-major, w is 1
+            assertEquals(vertices[2 + i * 3], matrix[0] * x + matrix[4] * y + matrix[12], DELTA);
+            assertEquals(vertices[2 + i * 3 + 1], matrix[1] * x + matrix[5] * y + matrix[13], DELTA);
+        }
+    }
+
+    @Test
+    public void bufferGetsTheSameVertices() {
+        Sprite sprite = new Sprite().setScale(0.5f, 2f).updateAngleDeg(45).updateAngleDeg(270);
+        float[] vertices = new float[Sprite.VERTEX_FLOATS];
+        sprite.getTransformedVertices(vertices, 0);
+        FloatBuffer buffer = ByteBuffer.allocateDirect(Sprite.VERTEX_FLOATS * 4).order(ByteOrder.nativeOrder())
+                                       .asFloatBuffer();
+        sprite.getTransformedVertices(buffer);
+        assertEquals(0, buffer.position());
+        float[] written = new float[Sprite.VERTEX_FLOATS];
+        buffer.get(written);
+        assertArrayEquals(vertices, written, 0f);
+        assertEquals(270f, sprite.getAngleDeg(), 0f);
+    }
+}
@@ -0,0 +1,119 @@
+package co.tula.videoencoder.filter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FilterGraphTest {
+
+    private static final String INVERT = "color.rgb = 1.0 - color.rgb;";
+
+    @Test
+    public void emptyGraphCopiesTheExternalTexture() {
+        List<FilterStage> stages = new FilterGraph().compile();
+        assertEquals(1, stages.size());
+        assertTrue(stages.get(0).hasExternalSource());
+        assertTrue(stages.get(0).getFragmentShader().contains("samplerExternalOES sTexture"));
+    }
+
+    @Test
+    public void perPixelPassesAreFusedIntoOneStage() {
+        FilterGraph graph = new FilterGraph().add(FilterPass.color(INVERT))
+                                             .add(FilterPass.lut("/luts/warm.png", 0.8f))
+                                             .add(FilterPass.overlay("/logo.png", 0.5f));
+        List<FilterStage> stages = graph.compile();
+        assertEquals(1, stages.size());
+        FilterStage stage = stages.get(0);
+        assertEquals(Arrays.asList("/luts/warm.png", "/logo.png"), stage.getImages());
+        String shader = stage.getFragmentShader();
+        assertTrue(shader.contains("uniform sampler2D uTexture1;"));
+        assertTrue(shader.contains("uViewportSize"));
+        assertFalse(shader.contains("uTexelSize"));
+        // Passes run in graph order
+        assertTrue(shader.indexOf(INVERT) < shader.indexOf("uTexture0,"));
+    }
+
+    @Test
+    public void neighbourhoodPassesStartNewStages() {
+        FilterGraph graph = new FilterGraph().add(FilterPass.color(INVERT))
+                                             .add(FilterPass.blur(4))
+                                             .add(FilterPass.color(INVERT))
+                                             .add(FilterPass.sharpen(0.5f));
+        List<FilterStage> stages = graph.compile();
+        // invert | blur horizontal | blur vertical + invert | sharpen
+        assertEquals(4, stages.size());
+        assertTrue(stages.get(0).hasExternalSource());
+        for (int i = 1; i < stages.size(); i++) {
+            assertFalse(stages.get(i).hasExternalSource());
+            assertTrue(stages.get(i).getFragmentShader().contains("uniform sampler2D sTexture;"));
+            assertFalse(stages.get(i).getFragmentShader().contains("GL_OES_EGL_image_external"));
+        }
+        assertTrue(stages.get(1).getFragmentShader().contains("uTexelSize"));
+        assertFalse(stages.get(1).getFragmentShader().contains(INVERT));
+        assertTrue(stages.get(2).getFragmentShader().contains(INVERT));
+    }
+
+    @Test
+    public void animatedUniformsAreDeclaredWhereUsed() {
+        FilterGraph graph = new FilterGraph().add(FilterPass.color("color.rgb *= uIntensity;"))
+                                             .add(FilterPass.blur(2))
+                                             .add(FilterPass.color("color.r = fract(uTime);"));
+        List<FilterStage> stages = graph.compile();
+        assertTrue(stages.get(0).getFragmentShader().contains("uniform float uIntensity;"));
+        assertFalse(stages.get(0).getFragmentShader().contains("uTime"));
+        assertFalse(stages.get(1).getFragmentShader().contains("uIntensity"));
+        assertTrue(stages.get(2).getFragmentShader().contains("uniform float uTime;"));
+        assertFalse(stages.get(2).getFragmentShader().contains("uCrop"));
+    }
+
+    @Test
+    public void legacyShaderIsUsedAsItIs() {
+        String      shader = "#extension GL_OES_EGL_image_external : require\nvoid main() {}\n";
+        FilterGraph graph  = FilterGraph.fromShader(shader).add(FilterPass.color(INVERT));
+        List<FilterStage> stages = graph.compile();
+        assertEquals(2, stages.size());
+        assertEquals(shader, stages.get(0).getFragmentShader());
+        assertFalse(stages.get(1).hasExternalSource());
+        assertTrue(FilterGraph.fromShader(null).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shaderPassMustComeFirst() {
+        new FilterGraph().add(FilterPass.blur(2)).add(FilterPass.shader("void main() {}"));
+    }
+
+    @Test
+    public void encodedGraphRoundTrips() {
+        FilterGraph graph = FilterGraph.fromShader("uniform float a;\nvoid main() { gl_FragColor = vec4(0.5, 1.0, a, 1.0); }")
+                                       .add(FilterPass.color(INVERT))
+                                       .add(FilterPass.lut("/luts/100% (warm);v2.png", 0.25f))
+                                       .add(FilterPass.blur(3.5f))
+                                       .add(FilterPass.sharpen(0.75f))
+                                       .add(FilterPass.overlay("/logo,final.png", 1f));
+        String encoded = graph.encode();
+        assertFalse(encoded.contains("\n"));
+        FilterGraph decoded = FilterGraph.decode(encoded);
+        assertEquals(graph, decoded);
+        assertEquals(graph.compile().get(2).getFragmentShader(), decoded.compile().get(2).getFragmentShader());
+        assertTrue(FilterGraph.decode(null).isEmpty());
+        assertTrue(FilterGraph.decode("").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownFilterIsRejected() {
+        FilterGraph.decode("vignette(0.5)");
+    }
+
+    @Test
+    public void onlyNoOpPassesAreIdentity() {
+        assertTrue(new FilterGraph().isIdentity());
+        assertTrue(new FilterGraph().add(FilterPass.overlay("/logo.png", 0)).add(FilterPass.lut("/warm.png", 0))
+                                    .isIdentity());
+        assertFalse(new FilterGraph().add(FilterPass.overlay("/logo.png", 0.1f)).isIdentity());
+        assertFalse(FilterGraph.fromShader("void main() {}").isIdentity());
+        assertFalse(new FilterGraph().add(FilterPass.blur(1)).isIdentity());
+    }
+}
@@ -0,0 +1,141 @@
+package co.tula.videoencoder.jobs;
+
+import co.tula.videoencoder.animation.Animation;
+import co.tula.videoencoder.animation.KeyframeTrack;
+import co.tula.videoencoder.filter.FilterGraph;
+import co.tula.videoencoder.filter.FilterPass;
+import co.tula.videoencoder.ladder.Ladder;
+import co.tula.videoencoder.overlay.Overlay;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JobStoreTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("jobs", ".log");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void jobsAndStatesSurviveARestart() {
+        JobStore store = new JobStore(file);
+        long[]   ids   = store.submitAll(Arrays.asList(request("a.mp4", "a out.mp4"),
+                                                       request("b.mp4", "b.mp4").setTrim(1_000, 2_000)
+                                                                                .setSceneIndex(true)));
+        store.setState(ids[0], JobState.DONE);
+        store.close();
+
+        JobStore reopened = new JobStore(file);
+        assertEquals(JobState.DONE, reopened.getState(ids[0]));
+        assertEquals(JobState.QUEUED, reopened.getState(ids[1]));
+        assertEquals(request("b.mp4", "b.mp4").setTrim(1_000, 2_000).setSceneIndex(true),
+                     reopened.get(ids[1]).getRequest());
+        assertEquals("a out.mp4", reopened.get(ids[0]).getRequest().getOutputPath());
+        Ladder    ladder    = new Ladder().add(1280, 720, 3_000_000).add(640, 360, 0);
+        Animation animation = new Animation().setScale(new KeyframeTrack(2).add(0, 1f, 1f).add(5_000_000, 1.2f, 1.2f));
+        List<Overlay> overlays = Arrays.asList(new Overlay("/sdcard/logo, small.png").setPosition(0.9f, 0.1f),
+                                               new Overlay("caption.png").setRotation(-5f).setOpacity(0.5f));
+        long      laddered  = reopened.submit(request("c.mp4", "c.mp4").setLadder(ladder).setFragmented(true)
+                                                                       .setAnimation(animation)
+                                                                       .setOverlays(overlays));
+        assertTrue(laddered > ids[1]);
+        assertNull(reopened.getState(laddered + 1));
+        reopened.close();
+
+        JobRequest restored = new JobStore(file).get(laddered).getRequest();
+        assertEquals(ladder, restored.getLadder());
+        assertEquals(animation, restored.getAnimation());
+        assertEquals(overlays, restored.getOverlays());
+        assertTrue(restored.isFragmented());
+    }
+
+    @Test
+    public void identicalUnfinishedRequestsAreQueuedOnce() {
+        JobStore store = new JobStore(file);
+        long     first = store.submit(request("a.mp4", "out.mp4"));
+        assertEquals(first, store.submit(request("a.mp4", "out.mp4")));
+        assertNotEquals(first, store.submit(request("a.mp4", "other.mp4")));
+
+        store.setState(first, JobState.RUNNING);
+        assertEquals(first, store.submit(request("a.mp4", "out.mp4")));
+        store.setState(first, JobState.DONE);
+        assertNotEquals(first, store.submit(request("a.mp4", "out.mp4")));
+    }
+
+    @Test
+    public void queuedJobsComeInSubmissionOrder() {
+        JobStore store = new JobStore(file);
+        long[]   ids   = store.submitAll(Arrays.asList(request("a", "1"), request("b", "2"), request("c", "3")));
+        store.setState(ids[0], JobState.RUNNING);
+        assertTrue(store.cancel(ids[2]));
+        assertFalse(store.cancel(ids[2]));
+
+        List<JobStore.Job> queued = store.getQueued();
+        assertEquals(1, queued.size());
+        assertEquals(ids[1], queued.get(0).getId());
+
+        assertEquals(1, store.requeueRunning());
+        queued = store.getQueued();
+        assertEquals(ids[0], queued.get(0).getId());
+        assertEquals(ids[1], queued.get(1).getId());
+    }
+
+    @Test
+    public void tornLastLineIsIgnored() throws IOException {
+        JobStore store = new JobStore(file);
+        long     id    = store.submit(request("a.mp4", "out.mp4"));
+        store.close();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(("state " + id + " DO").getBytes("UTF-8"));
+        }
+
+        JobStore reopened = new JobStore(file);
+        assertEquals(JobState.QUEUED, reopened.getState(id));
+        reopened.setState(id, JobState.DONE);
+        reopened.close();
+        assertEquals(JobState.DONE, new JobStore(file).getState(id));
+    }
+
+    @Test
+    public void compactionKeepsCurrentStates() {
+        JobStore store = new JobStore(file);
+        long     keep  = store.submit(request("keep.mp4", "keep.mp4"));
+        for (int i = 0; i < 500; i++) {
+            long id = store.submit(request(i + ".mp4", "out.mp4"));
+            store.setState(id, JobState.RUNNING);
+            store.setState(id, JobState.DONE);
+        }
+        store.close();
+        // Three lines per finished job unless compacted
+        assertTrue(file.length() < 300 * 3 * 40);
+
+        JobStore reopened = new JobStore(file);
+        assertEquals(JobState.QUEUED, reopened.getState(keep));
+        assertEquals(1, reopened.getQueued().size());
+        assertEquals(JobState.DONE, reopened.getState(keep + 500));
+        // The oldest finished jobs are dropped
+        assertNull(reopened.getState(keep + 1));
+    }
+
+    private static JobRequest request(String input, String output) {
+        FilterGraph filters = new FilterGraph().add(FilterPass.color("rgb = rgb.bgr;")).add(FilterPass.blur(2));
+        return new JobRequest(input, output, filters);
+    }
+}
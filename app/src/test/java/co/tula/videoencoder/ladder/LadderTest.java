@@ -0,0 +1,42 @@
+package co.tula.videoencoder.ladder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LadderTest {
+
+    @Test
+    public void encodedLadderDecodesToTheSameRenditions() {
+        Ladder ladder = new Ladder().add(1920, 1080, 6_000_000).add(1280, 720, 3_000_000).add(854, 480, 0);
+        assertEquals("1920x1080:6000000,1280x720:3000000,854x480:0", ladder.encode());
+        Ladder decoded = Ladder.decode(ladder.encode());
+        assertEquals(ladder, decoded);
+        assertEquals(3, decoded.size());
+        assertEquals(720, decoded.get(1).getHeight());
+        assertEquals(0, Ladder.decode("").size());
+    }
+
+    @Test
+    public void renditionsAreWrittenNextToTheOutput() {
+        Ladder.Rendition rendition = new Ladder().add(640, 360, 0).get(0);
+        assertEquals("/sdcard/out_360p.mp4", Ladder.getOutputPath("/sdcard/out.mp4", rendition));
+        assertEquals("/sdcard/v.1/out_360p", Ladder.getOutputPath("/sdcard/v.1/out", rendition));
+        assertEquals("/sdcard/.out_360p", Ladder.getOutputPath("/sdcard/.out", rendition));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void renditionsShareTheAspectRatio() {
+        new Ladder().add(1280, 720, 0).add(720, 720, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void heightsAreUnique() {
+        new Ladder().add(1280, 720, 3_000_000).add(1280, 720, 2_000_000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddSizesAreRejected() {
+        new Ladder().add(641, 360, 0);
+    }
+}
@@ -0,0 +1,51 @@
+package co.tula.videoencoder.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1..1000 us
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMaxNs());
+        assertEquals(500_500, histogram.getMeanNs());
+        assertEquals(500_000, histogram.getPercentileNs(50), 500_000 * 0.13);
+        assertEquals(990_000, histogram.getPercentileNs(99), 990_000 * 0.13);
+        assertEquals(1_000_000, histogram.getPercentileNs(100));
+    }
+
+    @Test
+    public void bucketBoundsAreConsistent() {
+        for (long value = 0; value < 1_000_000; value += 997) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(bucket));
+            if (bucket > 0) {
+                assertTrue(value > LatencyHistogram.upperBoundOf(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void decoderLatencyMatchesTimestamps() throws Exception {
+        MetricsRecorder recorder = new MetricsRecorder();
+        recorder.onDecoderInput(0);
+        recorder.onDecoderInput(33_333);
+        Thread.sleep(2);
+        recorder.onDecoderOutput(33_333);
+        recorder.onDecoderOutput(0);
+        recorder.onDecoderOutput(66_666);
+        recorder.onFrameRendered();
+        recorder.finish();
+        TranscodeMetrics metrics = recorder.snapshot();
+        assertEquals(2, metrics.getStage(Stage.DECODER_LATENCY).count);
+        assertTrue(metrics.getStage(Stage.DECODER_LATENCY).maxNs >= 2_000_000);
+        assertEquals(1, metrics.getFrames());
+    }
+}
@@ -0,0 +1,362 @@
+package co.tula.videoencoder.mux;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FragmentedMp4WriterTest {
+
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x1F, 0x11, 0x22};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final byte[] ASC = {0x12, 0x10};
+
+    private File             file;
+    private RandomAccessFile output;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("fragmented", ".mp4");
+        output = new RandomAccessFile(file, "rw");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        output.close();
+        file.delete();
+    }
+
+    @Test
+    public void initSegmentDescribesTheTracks() throws Exception {
+        FragmentedMp4Writer writer = newWriter();
+        writer.setOrientationHint(90);
+        writer.start();
+        assertEquals(file.length(), writer.getFlushedSize());
+
+        Box root = parse();
+        assertEquals("[ftyp, moov]", root.childTypes());
+        Box moov = root.child("moov");
+        assertEquals("[mvhd, trak, trak, mvex]", moov.childTypes());
+        assertEquals(2, moov.child("mvex").children("trex").size());
+
+        Box video = moov.children("trak").get(0);
+        assertEquals(1, video.child("tkhd").getInt(20));
+        // Rotated by 90 degrees: a = 0, b = 1, c = -1
+        assertEquals(0, video.child("tkhd").getInt(48));
+        assertEquals(0x10000, video.child("tkhd").getInt(52));
+        assertEquals(-0x10000, video.child("tkhd").getInt(60));
+        assertEquals(1280 << 16, video.child("tkhd").getInt(84));
+        Box avcC = video.path("mdia", "minf", "stbl", "stsd", "avc1").childAt(86);
+        assertEquals("avcC", avcC.type);
+        assertEquals(0x42, avcC.bytes[avcC.offset + 9]);
+        assertEquals(0xE1, avcC.bytes[avcC.offset + 13] & 0xFF);
+        assertEquals(SPS.length, avcC.getShort(14));
+        assertEquals(SPS[5], avcC.bytes[avcC.offset + 16 + SPS.length - 1]);
+        assertEquals(1, avcC.bytes[avcC.offset + 16 + SPS.length]);
+
+        Box audio = moov.children("trak").get(1);
+        assertEquals(44100, audio.path("mdia", "mdhd").getInt(20));
+        assertEquals("soun", audio.path("mdia", "hdlr").getType(16));
+    }
+
+    @Test
+    public void fragmentsStartAtKeyframes() throws Exception {
+        FragmentedMp4Writer writer = newWriter();
+        writer.start();
+        writer.writeSample(1, sample(0xA0), 0, true);
+        writer.writeSample(0, annexB(true, 0x10), 0, true);
+        writer.writeSample(0, annexB(false, 0x11), 33_333, false);
+        writer.writeSample(1, sample(0xA1), 23_220, true);
+        writer.writeSample(1, sample(0xA2), 46_440, true);
+        writer.writeSample(0, annexB(false, 0x12), 66_666, false);
+        writer.writeSample(1, sample(0xA3), 69_660, true);
+        assertEquals("[ftyp, moov]", parse().childTypes());
+        writer.writeSample(0, annexB(true, 0x13), 100_000, true);
+        // The first group of pictures is out as soon as the next begins
+        assertEquals(file.length(), writer.getFlushedSize());
+        assertEquals("[ftyp, moov, moof, mdat]", parse().childTypes());
+        writer.writeSample(0, annexB(false, 0x14), 133_333, false);
+        writer.finish();
+
+        Box root = parse();
+        assertEquals("[ftyp, moov, moof, mdat, moof, mdat]", root.childTypes());
+        Box first = root.children("moof").get(0);
+        assertEquals(1, first.child("mfhd").getInt(12));
+        List<Box> trafs = first.children("traf");
+        assertEquals(2, trafs.size());
+
+        Box videoRun = trafs.get(0).child("trun");
+        assertEquals(3, videoRun.getInt(12));
+        assertEquals(0L, trafs.get(0).child("tfdt").getLong(12));
+        assertEquals(2999, videoRun.getInt(20));
+        assertEquals(0x02000000, videoRun.getInt(28));
+        assertEquals(0x01010000, videoRun.getInt(40));
+        // Length prefixed NAL units where the sample had start codes
+        int videoData = first.offset + videoRun.getInt(16);
+        assertEquals(5, ByteBuffer.wrap(root.bytes, videoData, 4).getInt());
+        assertEquals(0x65, root.bytes[videoData + 4]);
+        assertEquals(0x10, root.bytes[videoData + 8]);
+        assertEquals(2, ByteBuffer.wrap(root.bytes, videoData + 9, 4).getInt());
+
+        // Audio keeps its latest sample for the next fragment
+        Box audioRun = trafs.get(1).child("trun");
+        assertEquals(3, audioRun.getInt(12));
+        assertEquals(1024, audioRun.getInt(20));
+        int audioData = first.offset + audioRun.getInt(16);
+        assertEquals(videoData + videoRun.getInt(24) + videoRun.getInt(36) + videoRun.getInt(48), audioData);
+        assertEquals((byte) 0xA0, root.bytes[audioData]);
+        Box mdat = root.children("mdat").get(0);
+        assertEquals(mdat.offset + 8, videoData);
+        assertEquals(mdat.end, audioData + 3 * 4);
+
+        Box second = root.children("moof").get(1);
+        assertEquals(2, second.child("mfhd").getInt(12));
+        assertEquals(9000L, second.children("traf").get(0).child("tfdt").getLong(12));
+        assertEquals(3072L, second.children("traf").get(1).child("tfdt").getLong(12));
+        // The last sample repeats the duration before it
+        assertEquals(2999, second.children("traf").get(0).child("trun").getInt(32));
+    }
+
+    @Test
+    public void bFramesInDecodeOrderGetCompositionOffsets() throws Exception {
+        FragmentedMp4Writer writer = newWriter();
+        writer.start();
+        // I0 P3 B1 B2 in decode order, 40 ms or 3600 ticks apart on screen
+        writer.writeSample(0, annexB(true, 0x10), 0, true);
+        writer.writeSample(0, annexB(false, 0x13), 120_000, false);
+        writer.writeSample(0, annexB(false, 0x11), 40_000, false);
+        writer.writeSample(0, annexB(false, 0x12), 80_000, false);
+        writer.writeSample(0, annexB(true, 0x14), 160_000, true);
+        writer.finish();
+
+        Box root = parse();
+        assertEquals("[ftyp, moov, moof, mdat, moof, mdat]", root.childTypes());
+        Box traf = root.children("moof").get(0).child("traf");
+        assertEquals(0L, traf.child("tfdt").getLong(12));
+        Box run = traf.child("trun");
+        assertEquals(0x01000F01, run.getInt(8));
+        assertEquals(4, run.getInt(12));
+        int[] offsets = {0, 7200, -3600, -3600};
+        for (int k = 0; k < 4; k++) {
+            assertEquals(3600, run.getInt(20 + 16 * k));
+            assertEquals(offsets[k], run.getInt(32 + 16 * k));
+        }
+        // Decode and presentation time of a keyframe are the same, no offsets needed
+        Box next = root.children("moof").get(1).child("traf");
+        assertEquals(14400L, next.child("tfdt").getLong(12));
+        assertEquals(0x000701, next.child("trun").getInt(8));
+    }
+
+    @Test
+    public void hevcTrackGetsHvcC() throws Exception {
+        byte[] vps = {0x40, 0x01, 0x0C, 0x01};
+        // 00 00 03 escapes in the profile: compatibility 60 00 00 00, constraints 90 00 00 00 00 00, level 93
+        byte[] sps = {0x42, 0x01, 0x01, 0x01, 0x60, 0, 0, 3, 0, (byte) 0x90, 0, 0, 3, 0, 0, 3, 0, 0x5D, (byte) 0xA0,
+                      0x02};
+        byte[] pps = {0x44, 0x01, (byte) 0xC1, 0x73};
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(output.getChannel());
+        writer.addTrack(TrackFormat.video(TrackFormat.MIME_HEVC, 1920, 1080, concat(withStartCode(vps),
+                                                                                 withStartCode(sps),
+                                                                                 withStartCode(pps))));
+        writer.start();
+        writer.writeSample(0, ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x26, 0x01, (byte) 0xAF}), 0, true);
+        writer.finish();
+
+        Box root  = parse();
+        Box entry = root.path("moov", "trak", "mdia", "minf", "stbl", "stsd", "hvc1");
+        Box hvcC  = entry.childAt(86);
+        assertEquals("hvcC", hvcC.type);
+        assertEquals(1, hvcC.bytes[hvcC.offset + 8]);
+        assertEquals(0x01, hvcC.bytes[hvcC.offset + 9]);
+        assertEquals(0x60000000, hvcC.getInt(10));
+        assertEquals((byte) 0x90, hvcC.bytes[hvcC.offset + 14]);
+        assertEquals(0x5D, hvcC.bytes[hvcC.offset + 20]);
+        // One temporal layer, nested, four byte lengths
+        assertEquals(0x0F, hvcC.bytes[hvcC.offset + 29]);
+        assertEquals(3, hvcC.bytes[hvcC.offset + 30]);
+        assertEquals(0xA0, hvcC.bytes[hvcC.offset + 31] & 0xFF);
+        assertEquals(1, hvcC.getShort(32));
+        assertEquals(vps.length, hvcC.getShort(34));
+        assertEquals(0xA1, hvcC.bytes[hvcC.offset + 36 + vps.length] & 0xFF);
+        assertEquals(sps.length, hvcC.getShort(39 + vps.length));
+
+        Box run  = root.child("moof").child("traf").child("trun");
+        int data = root.child("moof").offset + run.getInt(16);
+        assertEquals(3, ByteBuffer.wrap(root.bytes, data, 4).getInt());
+        assertEquals(0x26, root.bytes[data + 4]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void audioMustComeInPresentationOrder() throws Exception {
+        FragmentedMp4Writer writer = newWriter();
+        writer.start();
+        writer.writeSample(1, sample(0xA0), 40_000, true);
+        writer.writeSample(1, sample(0xA1), 20_000, true);
+    }
+
+    @Test
+    public void supportsAvcHevcAndAac() {
+        assertTrue(FragmentedMp4Writer.isSupported(TrackFormat.MIME_HEVC));
+        assertTrue(FragmentedMp4Writer.isSupported(TrackFormat.MIME_AAC));
+        assertFalse(FragmentedMp4Writer.isSupported("video/mp4v-es"));
+        assertFalse(FragmentedMp4Writer.isSupported("audio/opus"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void videoNeedsParameterSets() {
+        new FragmentedMp4Writer(output.getChannel()).addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 640, 360));
+    }
+
+    private FragmentedMp4Writer newWriter() {
+        FileChannel         channel = output.getChannel();
+        FragmentedMp4Writer writer  = new FragmentedMp4Writer(channel);
+        assertEquals(0, writer.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 1280, 720,
+                                                          withStartCode(SPS), withStartCode(PPS))));
+        assertEquals(1, writer.addTrack(TrackFormat.audio(TrackFormat.MIME_AAC, 44100, 2, ASC)));
+        return writer;
+    }
+
+    private static byte[] withStartCode(byte[] unit) {
+        byte[] bytes = new byte[unit.length + 4];
+        bytes[3] = 1;
+        System.arraycopy(unit, 0, bytes, 4, unit.length);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] bytes = new byte[length];
+        int    at    = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, bytes, at, part.length);
+            at += part.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * A slice behind a four byte start code, then a second unit behind a three byte one.
+     */
+    private static ByteBuffer annexB(boolean idr, int marker) {
+        byte[] bytes = {0, 0, 0, 1, (byte) (idr ? 0x65 : 0x41), 0, 0, 3, (byte) marker, 0, 0, 1, 0x06, 0x05};
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 3);
+        buffer.position(3);
+        buffer.put(bytes).flip().position(3);
+        return buffer;
+    }
+
+    private static ByteBuffer sample(int marker) {
+        return ByteBuffer.wrap(new byte[]{(byte) marker, 1, 2, 3});
+    }
+
+    private Box parse() throws Exception {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        return new Box(bytes, -8, bytes.length);
+    }
+
+    /**
+     * A box of the file, the root has offset -8 so its children start at 0.
+     */
+    private static final class Box {
+        final byte[] bytes;
+        final int    offset;
+        final int    end;
+        final String type;
+
+        Box(byte[] bytes, int offset, int end) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.end = end;
+            this.type = offset < 0 ? "root" : getType(4);
+        }
+
+        List<Box> children(String childType) {
+            List<Box> found = new ArrayList<>();
+            for (Box box : children()) {
+                if (box.type.equals(childType)) {
+                    found.add(box);
+                }
+            }
+            return found;
+        }
+
+        List<Box> children() {
+            List<Box> children = new ArrayList<>();
+            int       start    = offset + 8;
+            if (type.equals("stsd") || type.equals("dref")) {
+                start += 8;
+            } else if (type.equals("url ")) {
+                return children;
+            }
+            for (int at = start; at < end; ) {
+                Box child = childAtOffset(at);
+                children.add(child);
+                at = child.end;
+            }
+            return children;
+        }
+
+        Box child(String childType) {
+            List<Box> found = children(childType);
+            assertEquals(type + " has one " + childType, 1, found.size());
+            return found.get(0);
+        }
+
+        Box path(String... types) {
+            Box box = this;
+            for (String childType : types) {
+                box = box.child(childType);
+            }
+            return box;
+        }
+
+        /**
+         * Returns the box at {@code relative} bytes into this one.
+         */
+        Box childAt(int relative) {
+            return childAtOffset(offset + relative);
+        }
+
+        String childTypes() {
+            List<String> types = new ArrayList<>();
+            for (Box box : children()) {
+                types.add(box.type);
+            }
+            return types.toString();
+        }
+
+        int getInt(int relative) {
+            return ByteBuffer.wrap(bytes).getInt(offset + relative);
+        }
+
+        long getLong(int relative) {
+            return ByteBuffer.wrap(bytes).getLong(offset + relative);
+        }
+
+        int getShort(int relative) {
+            return ByteBuffer.wrap(bytes).getShort(offset + relative) & 0xFFFF;
+        }
+
+        String getType(int relative) {
+            return new String(bytes, offset + relative, 4);
+        }
+
+        private Box childAtOffset(int at) {
+            int size = ByteBuffer.wrap(bytes).getInt(at);
+            assertTrue("box at " + at + " has size " + size, size >= 8 && at + size <= end);
+            return new Box(bytes, at, at + size);
+        }
+    }
+}
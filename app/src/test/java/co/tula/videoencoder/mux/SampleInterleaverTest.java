@@ -0,0 +1,93 @@
+package co.tula.videoencoder.mux;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SampleInterleaverTest {
+
+    private final List<long[]> written = new ArrayList<>();
+
+    private final SampleInterleaver.SampleWriter recorder = (lane, data, size, presentationTimeUs, flags) -> {
+        assertEquals(size, data.remaining());
+        written.add(new long[]{lane, presentationTimeUs, data.getInt(0)});
+    };
+
+    @Test
+    public void concurrentProducersAreWrittenInTimestampOrder() throws Exception {
+        SampleInterleaver interleaver = new SampleInterleaver(recorder, 2, 4);
+        // Video at 30 fps, audio frames of 1024 samples at 44.1 kHz
+        Thread video = producer(interleaver, 0, 300, 33_333);
+        Thread audio = producer(interleaver, 1, 431, 23_219);
+        video.start();
+        audio.start();
+        Thread.sleep(10);
+        // Nothing may leave the buffer before the muxer is started
+        assertTrue(written.isEmpty());
+        interleaver.start();
+        video.join();
+        audio.join();
+
+        assertTrue(interleaver.isDrained());
+        assertEquals(300 + 431, written.size());
+        long last = -1;
+        int[] next = new int[2];
+        for (long[] sample : written) {
+            assertTrue("out of order at " + sample[1], sample[1] >= last);
+            last = sample[1];
+            int lane = (int) sample[0];
+            assertEquals(next[lane]++, sample[2]);
+        }
+    }
+
+    @Test
+    public void finishedLaneDoesNotHoldBackOthers() throws Exception {
+        SampleInterleaver interleaver = new SampleInterleaver(recorder, 2, 2);
+        interleaver.start();
+        interleaver.finish(1);
+        ByteBuffer sample = ByteBuffer.allocate(4);
+        for (int i = 0; i < 10; i++) {
+            sample.putInt(0, i);
+            interleaver.write(0, sample, i, 0);
+        }
+        assertEquals(10, written.size());
+    }
+
+    @Test(expected = InterruptedException.class)
+    public void abortReleasesBlockedProducer() throws Exception {
+        SampleInterleaver interleaver = new SampleInterleaver(recorder, 2, 1);
+        interleaver.start();
+        ByteBuffer sample = ByteBuffer.allocate(4);
+        interleaver.write(0, sample, 0, 0);
+        new Thread(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ignored) {
+            }
+            interleaver.abort();
+        }).start();
+        // Lane 1 never produces, so this blocks until abort
+        interleaver.write(0, sample, 1, 0);
+    }
+
+    private static Thread producer(SampleInterleaver interleaver, int lane, int count, long frameUs) {
+        return new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            try {
+                for (int i = 0; i < count; i++) {
+                    buffer.clear();
+                    buffer.putInt(i).putLong(i * frameUs);
+                    buffer.flip();
+                    interleaver.write(lane, buffer, i * frameUs, 0);
+                }
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            interleaver.finish(lane);
+        });
+    }
+}
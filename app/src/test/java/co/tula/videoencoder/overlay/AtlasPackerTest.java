@@ -0,0 +1,72 @@
+package co.tula.videoencoder.overlay;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AtlasPackerTest {
+
+    @Test
+    public void imagesDoNotOverlapAndStayInside() {
+        int[]       widths  = {200, 64, 64, 300, 17, 128, 90, 90};
+        int[]       heights = {50, 64, 64, 80, 33, 16, 120, 120};
+        AtlasLayout atlas   = new AtlasPacker(4096, 2).pack(widths, heights);
+        assertEquals(widths.length, atlas.size());
+        for (int i = 0; i < widths.length; i++) {
+            assertEquals(widths[i], atlas.getImageWidth(i));
+            assertEquals(heights[i], atlas.getImageHeight(i));
+            // The gutter is inside the atlas too
+            assertTrue(atlas.getX(i) >= 2 && atlas.getY(i) >= 2);
+            assertTrue(atlas.getX(i) + widths[i] + 2 <= atlas.getWidth());
+            assertTrue(atlas.getY(i) + heights[i] + 2 <= atlas.getHeight());
+            for (int j = 0; j < i; j++) {
+                boolean apart = atlas.getX(i) + widths[i] + 2 <= atlas.getX(j) - 2
+                                || atlas.getX(j) + widths[j] + 2 <= atlas.getX(i) - 2
+                                || atlas.getY(i) + heights[i] + 2 <= atlas.getY(j) - 2
+                                || atlas.getY(j) + heights[j] + 2 <= atlas.getY(i) - 2;
+                assertTrue(i + " overlaps " + j, apart);
+            }
+        }
+    }
+
+    @Test
+    public void atlasIsThePowerOfTwoThatFits() {
+        AtlasLayout single = new AtlasPacker(4096, 0).pack(new int[]{100}, new int[]{30});
+        assertEquals(128, single.getWidth());
+        assertEquals(32, single.getHeight());
+        // Four 64x64 images fill 128x128 exactly
+        AtlasLayout four = new AtlasPacker(4096, 0).pack(new int[]{64, 64, 64, 64}, new int[]{64, 64, 64, 64});
+        assertEquals(128, four.getWidth());
+        assertEquals(128, four.getHeight());
+    }
+
+    @Test
+    public void growsTallerOnceItIsAsWideAsAllowed() {
+        AtlasLayout atlas = new AtlasPacker(256, 0).pack(new int[]{256, 256}, new int[]{100, 100});
+        assertEquals(256, atlas.getWidth());
+        assertEquals(256, atlas.getHeight());
+        assertEquals(0, atlas.getY(0));
+        assertEquals(100, atlas.getY(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyImagesDoNotFit() {
+        new AtlasPacker(128, 0).pack(new int[]{100, 100}, new int[]{100, 100});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void imageLargerThanTheAtlasDoesNotFit() {
+        new AtlasPacker(1024, 1).pack(new int[]{1024}, new int[]{10});
+    }
+
+    @Test
+    public void textureRectCoversTheImage() {
+        AtlasLayout atlas = new AtlasPacker(4096, 1).pack(new int[]{30, 62}, new int[]{14, 30});
+        float[]     rect  = new float[5];
+        atlas.getTextureRect(0, rect, 1);
+        assertEquals((float) atlas.getX(0) / atlas.getWidth(), rect[1], 0f);
+        assertEquals((float) atlas.getY(0) / atlas.getHeight(), rect[2], 0f);
+        assertEquals((float) (atlas.getX(0) + 30) / atlas.getWidth(), rect[3], 0f);
+        assertEquals((float) (atlas.getY(0) + 14) / atlas.getHeight(), rect[4], 0f);
+    }
+}
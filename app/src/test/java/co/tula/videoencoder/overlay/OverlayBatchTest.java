@@ -0,0 +1,94 @@
+package co.tula.videoencoder.overlay;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OverlayBatchTest {
+
+    private static final float DELTA  = 1e-5f;
+    private static final int   STRIDE = OverlayBatch.FLOATS_PER_VERTEX;
+
+    @Test
+    public void overlaysSharingAnImageShareItsPlace() {
+        OverlayBatch batch = new OverlayBatch(Arrays.asList(new Overlay("logo.png"), new Overlay("caption.png"),
+                                                            new Overlay("logo.png")));
+        assertEquals(Arrays.asList("logo.png", "caption.png"), batch.getImagePaths());
+        assertEquals(3, batch.getOverlayCount());
+        assertEquals(18, batch.getVertexCount());
+    }
+
+    @Test
+    public void quadIsPlacedFromTheTopLeftOfTheOutput() {
+        List<Overlay> overlays = Arrays.asList(new Overlay("logo.png").setPosition(0.75f, 0.25f)
+                                                                      .setSize(0.25f, 0.5f)
+                                                                      .setOpacity(0.5f));
+        AtlasLayout   atlas    = new AtlasPacker(4096, 0).pack(new int[]{64}, new int[]{32});
+        float[]       vertices = write(overlays, atlas, 16f / 9f);
+        // Bottom left, bottom right, top left of the first triangle: right of center, upper half
+        assertVertex(vertices, 0, 0.25f, 0f, 0f, 1f);
+        assertVertex(vertices, 1, 0.75f, 0f, 1f, 1f);
+        assertVertex(vertices, 2, 0.25f, 1f, 0f, 0f);
+        // Top right closes the second triangle
+        assertVertex(vertices, 5, 0.75f, 1f, 1f, 0f);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(0.5f, vertices[i * STRIDE + 4], 0f);
+        }
+    }
+
+    @Test
+    public void rotationKeepsProportionsOnAWideOutput() {
+        float         aspect   = 2f;
+        List<Overlay> overlays = Arrays.asList(new Overlay("logo.png").setSize(0.25f, 0.5f).setRotation(90));
+        AtlasLayout   atlas    = new AtlasPacker(4096, 0).pack(new int[]{8}, new int[]{8});
+        float[]       vertices = write(overlays, atlas, aspect);
+        // A square of half the output's height turned a quarter stays that square, bottom left goes right
+        float bottomLeftX = vertices[0];
+        float bottomLeftY = vertices[1];
+        assertEquals(0.5f / aspect, bottomLeftX, DELTA);
+        assertEquals(-0.5f, bottomLeftY, DELTA);
+    }
+
+    @Test
+    public void invisibleOverlaysAreSkipped() {
+        List<Overlay> overlays = Arrays.asList(new Overlay("a.png").setOpacity(0f),
+                                               new Overlay("b.png").setPosition(0f, 1f));
+        AtlasLayout   atlas    = new AtlasPacker(4096, 1).pack(new int[]{10, 20}, new int[]{10, 20});
+        FloatBuffer   buffer   = buffer(12);
+        assertEquals(6, new OverlayBatch(overlays).write(atlas, 1f, buffer));
+        float[] rect = new float[4];
+        atlas.getTextureRect(1, rect, 0);
+        assertEquals(rect[0], buffer.get(2), 0f);
+        assertEquals(rect[3], buffer.get(3), 0f);
+        // Centered on the bottom left corner
+        assertEquals(-1.25f, buffer.get(0), DELTA);
+        assertEquals(-1.25f, buffer.get(1), DELTA);
+        assertEquals(0, buffer.position());
+    }
+
+    private static float[] write(List<Overlay> overlays, AtlasLayout atlas, float aspect) {
+        OverlayBatch batch  = new OverlayBatch(overlays);
+        FloatBuffer  buffer = buffer(batch.getVertexCount());
+        int          count  = batch.write(atlas, aspect, buffer);
+        float[]      out    = new float[count * STRIDE];
+        buffer.get(out);
+        return out;
+    }
+
+    private static FloatBuffer buffer(int vertices) {
+        return ByteBuffer.allocateDirect(vertices * STRIDE * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private static void assertVertex(float[] vertices, int vertex, float x, float y, float s, float t) {
+        assertEquals(x, vertices[vertex * STRIDE], DELTA);
+        assertEquals(y, vertices[vertex * STRIDE + 1], DELTA);
+        assertEquals(s, vertices[vertex * STRIDE + 2], DELTA);
+        assertEquals(t, vertices[vertex * STRIDE + 3], DELTA);
+    }
+}
@@ -0,0 +1,216 @@
+package co.tula.videoencoder.pipeline;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the pipeline state machine against fake codecs which answer from a separate "callback" thread.
+ */
+public class AsyncTranscodePipelineTest {
+
+    private static final int FRAMES          = 120;
+    private static final int DECODER_BUFFERS = 4;
+
+    private final ExecutorService callbackThread = Executors.newSingleThreadExecutor();
+    private final EventQueue      events         = new EventQueue();
+
+    @After
+    public void tearDown() throws Exception {
+        callbackThread.shutdownNow();
+        callbackThread.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void transcodesAllFramesInOrder() throws Exception {
+        FakeSource source = new FakeSource(FRAMES);
+        FakeEncoder encoder = new FakeEncoder();
+        FakeDecoder decoder = new FakeDecoder();
+        List<Long> rendered = new ArrayList<>();
+        FakeSink sink = new FakeSink();
+        AsyncTranscodePipeline pipeline = new AsyncTranscodePipeline(
+                events, source, decoder,
+                presentationTimeUs -> {
+                    rendered.add(presentationTimeUs);
+                    encoder.frameRendered(presentationTimeUs);
+                },
+                encoder, sink);
+        decoder.start();
+        pipeline.run();
+
+        assertTrue(pipeline.isDone());
+        assertEquals(FRAMES, pipeline.getFrameCount());
+        assertEquals(FRAMES, rendered.size());
+        assertEquals(FRAMES, sink.samples.size());
+        assertEquals(1, sink.formatChanges);
+        assertTrue(sink.ended);
+        for (int i = 0; i < FRAMES; i++) {
+            assertEquals(i * 33_333L, (long) rendered.get(i));
+            assertEquals(i * 33_333L, (long) sink.samples.get(i));
+        }
+        assertEquals(0, encoder.outstanding);
+        assertEquals(0, decoder.outstanding);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void codecErrorStopsPipeline() throws Exception {
+        events.postError(new IllegalStateException("codec died"));
+        new AsyncTranscodePipeline(events, new FakeSource(1), new FakeDecoder(), presentationTimeUs -> {},
+                                   new FakeEncoder(), new FakeSink()).run();
+    }
+
+    private static class FakeSource implements SampleSource {
+        private final int count;
+        private int position;
+
+        FakeSource(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public int readSampleData(ByteBuffer buffer, int offset) {
+            if (position >= count) {
+                return -1;
+            }
+            buffer.putInt(offset, position);
+            return 4;
+        }
+
+        @Override
+        public long getSampleTime() {
+            return position * 33_333L;
+        }
+
+        @Override
+        public int getSampleFlags() {
+            return 0;
+        }
+
+        @Override
+        public boolean advance() {
+            position++;
+            return position < count;
+        }
+    }
+
+    private class FakeDecoder implements CodecPort {
+        private final ByteBuffer[] inputs = new ByteBuffer[DECODER_BUFFERS];
+        int outstanding;
+
+        void start() {
+            for (int i = 0; i < DECODER_BUFFERS; i++) {
+                inputs[i] = ByteBuffer.allocate(16);
+                int index = i;
+                callbackThread.execute(() -> events.post(PipelineEvent.DECODER_INPUT, index, 0, 0, 0, 0));
+            }
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            return inputs[index];
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+            outstanding++;
+            // Decoded output reuses the input slot index, then the slot becomes available again
+            callbackThread.execute(() -> {
+                events.post(PipelineEvent.DECODER_OUTPUT, index, 0, size, presentationTimeUs, flags);
+                if ((flags & AsyncTranscodePipeline.FLAG_END_OF_STREAM) == 0) {
+                    events.post(PipelineEvent.DECODER_INPUT, index, 0, 0, 0, 0);
+                }
+            });
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index, boolean render) {
+            outstanding--;
+        }
+
+        @Override
+        public void signalEndOfInputStream() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private class FakeEncoder implements CodecPort {
+        private final ByteBuffer output = ByteBuffer.allocate(64);
+        private boolean formatSent;
+        int outstanding;
+
+        void frameRendered(long presentationTimeUs) {
+            boolean sendFormat = !formatSent;
+            formatSent = true;
+            outstanding++;
+            callbackThread.execute(() -> {
+                if (sendFormat) {
+                    events.post(PipelineEvent.ENCODER_FORMAT_CHANGED, -1, 0, 0, 0, 0);
+                }
+                events.post(PipelineEvent.ENCODER_OUTPUT, 0, 0, 10, presentationTimeUs, 0);
+            });
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            output.clear();
+            return output;
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index, boolean render) {
+            outstanding--;
+        }
+
+        @Override
+        public void signalEndOfInputStream() {
+            outstanding++;
+            callbackThread.execute(() -> events.post(PipelineEvent.ENCODER_OUTPUT, 1, 0, 0, 0,
+                                                     AsyncTranscodePipeline.FLAG_END_OF_STREAM));
+        }
+    }
+
+    private static class FakeSink implements EncodedSink {
+        final List<Long> samples = new ArrayList<>();
+        int     formatChanges;
+        boolean ended;
+
+        @Override
+        public void onOutputFormatChanged() {
+            formatChanges++;
+        }
+
+        @Override
+        public void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags) {
+            assertEquals(size, data.remaining());
+            samples.add(presentationTimeUs);
+        }
+
+        @Override
+        public void onEndOfStream() {
+            ended = true;
+        }
+    }
+}
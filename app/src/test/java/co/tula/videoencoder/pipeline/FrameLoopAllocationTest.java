@@ -0,0 +1,307 @@
+package co.tula.videoencoder.pipeline;
+
+import co.tula.videoencoder.metrics.MetricsRecorder;
+import co.tula.videoencoder.metrics.Stage;
+import co.tula.videoencoder.metrics.TranscodeMetrics;
+import co.tula.videoencoder.mux.SampleInterleaver;
+import co.tula.videoencoder.trace.TraceLog;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Counts bytes allocated by the pipeline thread while frames flow through the frame loops, the metrics, the
+ * trace ring and the muxer stage.  Codecs are fakes answering synchronously on the same thread.
+ */
+public class FrameLoopAllocationTest {
+
+    private static final int WARM_UP_FRAMES = 20_000;
+    private static final int FRAMES         = 50_000;
+
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threads = (com.sun.management.ThreadMXBean) bean;
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+    }
+
+    @Test
+    public void steadyStateFrameLoopDoesNotAllocate() throws Exception {
+        Assume.assumeTrue("per-thread allocation counting is unsupported", threads != null);
+        // Warm up so class loading and JIT don't count
+        new AsyncHarness(WARM_UP_FRAMES).run();
+
+        AsyncHarness harness   = new AsyncHarness(FRAMES);
+        long         allocated = measure(harness);
+
+        assertEquals(FRAMES, harness.pipeline.getFrameCount());
+        harness.assertAllFramesPassed(allocated);
+    }
+
+    @Test
+    public void pollingFrameLoopDoesNotAllocate() throws Exception {
+        Assume.assumeTrue("per-thread allocation counting is unsupported", threads != null);
+        new PollingHarness(WARM_UP_FRAMES).run();
+
+        PollingHarness harness   = new PollingHarness(FRAMES);
+        long           allocated = measure(harness);
+
+        assertEquals(FRAMES, harness.loop.getFrameCount());
+        harness.assertAllFramesPassed(allocated);
+        // Every frame left one of the codecs with nothing ready at least once
+        assertTrue(harness.metrics.snapshot().getDecoderStalls() >= FRAMES);
+    }
+
+    private long measure(Harness harness) throws InterruptedException {
+        long threadId = Thread.currentThread().getId();
+        long before   = threads.getThreadAllocatedBytes(threadId);
+        harness.run();
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    /**
+     * Source, renderer and sink of a frame loop.  Samples carry their frame number.
+     */
+    private abstract static class Harness implements SampleSource, FrameRenderer, EncodedSink {
+        final TraceLog          trace   = new TraceLog(1024, TraceLog.LEVEL_VERBOSE);
+        final MetricsRecorder   metrics = new MetricsRecorder();
+        final SampleInterleaver interleaver;
+        final int               frames;
+        int position;
+        int written;
+
+        Harness(int frames) {
+            this.frames = frames;
+            interleaver = new SampleInterleaver((lane, data, size, presentationTimeUs, flags) -> written++, 1, 4);
+            interleaver.start();
+        }
+
+        abstract void run() throws InterruptedException;
+
+        void assertAllFramesPassed(long allocated) {
+            assertEquals(FRAMES, written);
+            assertTrue(trace.getWrittenCount() >= 3L * FRAMES);
+            TranscodeMetrics snapshot = metrics.snapshot();
+            assertEquals(FRAMES, snapshot.getFrames());
+            assertEquals(FRAMES, snapshot.getStage(Stage.DECODER_LATENCY).count);
+            assertTrue(snapshot.getStage(Stage.ENCODER_DRAIN).count > FRAMES);
+            // Allow some slack for the measurement itself, far below one byte per frame
+            assertTrue("allocated " + allocated + " bytes for " + FRAMES + " frames", allocated < 4096);
+        }
+
+        // SampleSource
+
+        @Override
+        public int readSampleData(ByteBuffer buffer, int offset) {
+            if (position >= frames) {
+                return -1;
+            }
+            buffer.putInt(offset, position);
+            return 4;
+        }
+
+        @Override
+        public long getSampleTime() {
+            return position * 33_333L;
+        }
+
+        @Override
+        public int getSampleFlags() {
+            return 0;
+        }
+
+        @Override
+        public boolean advance() {
+            return ++position < frames;
+        }
+
+        // EncodedSink
+
+        @Override
+        public void onOutputFormatChanged() {
+        }
+
+        @Override
+        public void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags)
+                throws InterruptedException {
+            interleaver.write(0, data, presentationTimeUs, flags);
+        }
+
+        @Override
+        public void onEndOfStream() {
+            interleaver.finish(0);
+        }
+    }
+
+    /**
+     * Drives {@link AsyncTranscodePipeline}.  The harness plays decoder and encoder, told apart by buffer
+     * index: decoder input indices 0..3, encoder output index 100.
+     */
+    private static class AsyncHarness extends Harness implements CodecPort {
+        final EventQueue             events = new EventQueue();
+        final ByteBuffer             input  = ByteBuffer.allocateDirect(64);
+        final ByteBuffer             output = ByteBuffer.allocateDirect(64);
+        final AsyncTranscodePipeline pipeline;
+        boolean formatSent;
+
+        AsyncHarness(int frames) {
+            super(frames);
+            pipeline = new AsyncTranscodePipeline(events, this, this, this, this, this);
+            pipeline.setTraceLog(trace);
+            pipeline.setMetrics(metrics);
+            for (int i = 0; i < 4; i++) {
+                events.post(PipelineEvent.DECODER_INPUT, i, 0, 0, 0, 0);
+            }
+        }
+
+        @Override
+        void run() throws InterruptedException {
+            pipeline.run();
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            input.clear();
+            return input;
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+            events.post(PipelineEvent.DECODER_OUTPUT, index, 0, size, presentationTimeUs, flags);
+            if ((flags & AsyncTranscodePipeline.FLAG_END_OF_STREAM) == 0) {
+                events.post(PipelineEvent.DECODER_INPUT, index, 0, 0, 0, 0);
+            }
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            output.clear();
+            return output;
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index, boolean render) {
+        }
+
+        @Override
+        public void signalEndOfInputStream() {
+            events.post(PipelineEvent.ENCODER_OUTPUT, 100, 0, 0, 0, AsyncTranscodePipeline.FLAG_END_OF_STREAM);
+        }
+
+        @Override
+        public void renderFrame(long presentationTimeUs) {
+            if (!formatSent) {
+                formatSent = true;
+                events.post(PipelineEvent.ENCODER_FORMAT_CHANGED, -1, 0, 0, 0, 0);
+            }
+            events.post(PipelineEvent.ENCODER_OUTPUT, 100, 0, 16, presentationTimeUs, 0);
+        }
+    }
+
+    /**
+     * Drives {@link PollingTranscodeLoop} with codecs holding one buffer each.
+     */
+    private static class PollingHarness extends Harness {
+        final FakeCodec            decoder = new FakeCodec(false);
+        final FakeCodec            encoder = new FakeCodec(true);
+        final PollingTranscodeLoop loop;
+
+        PollingHarness(int frames) {
+            super(frames);
+            loop = new PollingTranscodeLoop(this, decoder, this, encoder, this);
+            loop.setTraceLog(trace);
+            loop.setMetrics(metrics);
+        }
+
+        @Override
+        void run() throws InterruptedException {
+            loop.run();
+        }
+
+        @Override
+        public void renderFrame(long presentationTimeUs) {
+            encoder.produce(16, presentationTimeUs, 0);
+        }
+    }
+
+    /**
+     * Codec with a single buffer: input is refused while the output of the last one is pending.
+     */
+    private static class FakeCodec implements PollingCodec {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        boolean formatPending;
+        boolean pending;
+        int     size;
+        long    presentationTimeUs;
+        int     flags;
+
+        FakeCodec(boolean reportsFormat) {
+            formatPending = reportsFormat;
+        }
+
+        void produce(int size, long presentationTimeUs, int flags) {
+            pending = true;
+            this.size = size;
+            this.presentationTimeUs = presentationTimeUs;
+            this.flags = flags;
+        }
+
+        @Override
+        public int dequeueInputBuffer(long timeoutUs) {
+            return pending ? INFO_TRY_AGAIN_LATER : 0;
+        }
+
+        @Override
+        public int dequeueOutputBuffer(OutputInfo info, long timeoutUs) {
+            if (!pending) {
+                return INFO_TRY_AGAIN_LATER;
+            }
+            if (formatPending) {
+                formatPending = false;
+                return INFO_OUTPUT_FORMAT_CHANGED;
+            }
+            info.offset = 0;
+            info.size = size;
+            info.presentationTimeUs = presentationTimeUs;
+            info.flags = flags;
+            return 0;
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            buffer.clear();
+            return buffer;
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+            produce(size, presentationTimeUs, flags);
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            buffer.clear();
+            return buffer;
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index, boolean render) {
+            pending = false;
+        }
+
+        @Override
+        public void signalEndOfInputStream() {
+            produce(0, 0, AsyncTranscodePipeline.FLAG_END_OF_STREAM);
+        }
+    }
+}
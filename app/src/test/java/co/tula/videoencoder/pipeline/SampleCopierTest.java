@@ -0,0 +1,134 @@
+package co.tula.videoencoder.pipeline;
+
+import co.tula.videoencoder.buffer.ByteBufferPool;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SampleCopierTest {
+
+    private static final long FRAME = 23_220;
+
+    private final ByteBufferPool pool = new ByteBufferPool(2);
+    private final List<String>   written = new ArrayList<>();
+
+    private final EncodedSink sink = new EncodedSink() {
+        @Override
+        public void onOutputFormatChanged() {
+        }
+
+        @Override
+        public void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags) {
+            assertEquals(offset, data.position());
+            assertEquals(size, data.remaining());
+            for (int i = 0; i < size; i++) {
+                assertEquals("byte " + i + " of sample at " + presentationTimeUs,
+                             (byte) (presentationTimeUs / FRAME), data.get(offset + i));
+            }
+            written.add(presentationTimeUs / FRAME + ":" + size);
+        }
+
+        @Override
+        public void onEndOfStream() {
+        }
+    };
+
+    @Test
+    public void samplesAreCopiedInBatches() throws Exception {
+        SampleCopier copier = new SampleCopier(new FakeTrack(40, 100), sink, 128, pool);
+        assertEquals(SampleCopier.BATCH_SAMPLES, copier.copyBatch());
+        assertEquals(SampleCopier.BATCH_SAMPLES, copier.copyBatch());
+        assertEquals(40 - 2 * SampleCopier.BATCH_SAMPLES, copier.copyBatch());
+        assertEquals(-1, copier.copyBatch());
+        assertEquals(39 * FRAME, copier.getLastTimeUs());
+        assertEquals(40, written.size());
+        assertEquals("0:100", written.get(0));
+        assertEquals("39:100", written.get(39));
+    }
+
+    @Test
+    public void onlyTheRangeIsCopied() throws Exception {
+        SampleCopier copier = new SampleCopier(new FakeTrack(40, 100), sink, 128, pool);
+        copier.setRange(5 * FRAME, 8 * FRAME);
+        assertEquals(3, copier.copyBatch());
+        assertEquals(-1, copier.copyBatch());
+        assertEquals("[5:100, 6:100, 7:100]", written.toString());
+    }
+
+    @Test
+    public void bufferGrowsForSamplesLargerThanAnnounced() throws Exception {
+        FakeTrack track = new FakeTrack(3, 100);
+        track.largeSample = 1;
+        track.largeSize = 100_000;
+        SampleCopier copier = new SampleCopier(track, sink, 128, pool);
+        // The large sample doesn't fit behind the first one, it starts the next batch
+        assertEquals(1, copier.copyBatch());
+        assertEquals(2, copier.copyBatch());
+        assertEquals(-1, copier.copyBatch());
+        assertEquals("[0:100, 1:100000, 2:100]", written.toString());
+    }
+
+    @Test
+    public void buffersAreReusedAcrossCopies() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            SampleCopier copier = new SampleCopier(new FakeTrack(20, 100), sink, 0, pool);
+            while (copier.copyBatch() >= 0) {
+                assertTrue(pool.getAllocatedCount() <= 1);
+            }
+            copier.release();
+        }
+        assertEquals(60, written.size());
+        assertEquals(1, pool.getAllocatedCount());
+    }
+
+    /**
+     * Samples filled with their index, read like MediaExtractor does.
+     */
+    private static final class FakeTrack implements SampleSource {
+        final int count;
+        final int size;
+        int largeSample = -1;
+        int largeSize;
+        int index;
+
+        FakeTrack(int count, int size) {
+            this.count = count;
+            this.size = size;
+        }
+
+        @Override
+        public int readSampleData(ByteBuffer buffer, int offset) {
+            if (index >= count) {
+                return -1;
+            }
+            int sampleSize = index == largeSample ? largeSize : size;
+            if (buffer.capacity() - offset < sampleSize) {
+                throw new IllegalArgumentException("buffer too small");
+            }
+            for (int i = 0; i < sampleSize; i++) {
+                buffer.put(offset + i, (byte) index);
+            }
+            return sampleSize;
+        }
+
+        @Override
+        public long getSampleTime() {
+            return index < count ? index * FRAME : -1;
+        }
+
+        @Override
+        public int getSampleFlags() {
+            return 1;
+        }
+
+        @Override
+        public boolean advance() {
+            index++;
+            return index < count;
+        }
+    }
+}
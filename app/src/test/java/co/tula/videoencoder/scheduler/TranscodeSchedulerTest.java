@@ -0,0 +1,300 @@
+package co.tula.videoencoder.scheduler;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the scheduler with fake codec workers which simply hold a "session" for a while.
+ */
+public class TranscodeSchedulerTest {
+
+    private TranscodeScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void shortestJobRunsFirst() throws Exception {
+        scheduler = new TranscodeScheduler(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        JobHandle blocker = scheduler.submit(new BlockingCodecJob(release));
+        // Wait until the blocker occupies the only session, then fill the queue
+        while (blocker.getRunTimeNs() == 0) {
+            Thread.sleep(1);
+        }
+        List<JobHandle> handles = new ArrayList<>();
+        handles.add(scheduler.submit(new FakeCodecJob("long", 60_000_000, 0, order, null)));
+        handles.add(scheduler.submit(new FakeCodecJob("unknown", 0, 0, order, null)));
+        handles.add(scheduler.submit(new FakeCodecJob("short", 5_000_000, 0, order, null)));
+        handles.add(scheduler.submit(new FakeCodecJob("medium", 20_000_000, 0, order, null)));
+        release.countDown();
+        for (JobHandle handle : handles) {
+            assertTrue(handle.await(5, TimeUnit.SECONDS));
+        }
+        assertEquals("[short, medium, long, unknown]", order.toString());
+    }
+
+    @Test
+    public void estimateGivenOnSubmitOrdersTheQueue() throws Exception {
+        scheduler = new TranscodeScheduler(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        JobHandle blocker = scheduler.submit(new BlockingCodecJob(release));
+        while (blocker.getRunTimeNs() == 0) {
+            Thread.sleep(1);
+        }
+        // The tasks themselves know nothing about their length
+        JobHandle longer  = scheduler.submit(new FakeCodecJob("long", 0, 0, order, null), 1, 60_000_000);
+        JobHandle shorter = scheduler.submit(new FakeCodecJob("short", 0, 0, order, null), 1, 5_000_000);
+        assertEquals(5_000_000, shorter.getEstimatedDurationUs());
+        release.countDown();
+        assertTrue(longer.await(5, TimeUnit.SECONDS));
+        assertEquals("[short, long]", order.toString());
+    }
+
+    @Test
+    public void codecSessionLimitIsRespected() throws Exception {
+        final int sessions = 3;
+        final int jobs     = 24;
+        final int jobMs    = 20;
+        scheduler = new TranscodeScheduler(5, sessions);
+        SessionCounter counter = new SessionCounter();
+        List<JobHandle> handles = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < jobs; i++) {
+            handles.add(scheduler.submit(new FakeCodecJob("job" + i, (i % 4 + 1) * 1_000_000, jobMs, null,
+                                                          counter)));
+        }
+        long totalWaitNs = 0;
+        long maxWaitNs   = 0;
+        for (JobHandle handle : handles) {
+            assertTrue(handle.await(10, TimeUnit.SECONDS));
+            assertNull(handle.getFailure());
+            totalWaitNs += handle.getQueueWaitNs();
+            maxWaitNs = Math.max(maxWaitNs, handle.getQueueWaitNs());
+        }
+        double elapsedMs = (System.nanoTime() - start) / 1e6;
+        double avgWaitMs = totalWaitNs / 1e6 / jobs;
+        String timings   = String.format("%.1f ms, avg wait %.1f ms, max wait %.1f ms",
+                                         elapsedMs, avgWaitMs, maxWaitNs / 1e6);
+        assertEquals(sessions, counter.peak.get());
+        // Sequential execution would take jobs * jobMs, with an average wait of half that
+        assertTrue(timings, elapsedMs < jobs * jobMs * 0.75);
+        assertTrue(timings, avgWaitMs < (jobs - 1) * jobMs / 2 * 0.75);
+    }
+
+    @Test
+    public void cancelQueuedAndRunningJobs() throws Exception {
+        scheduler = new TranscodeScheduler(1, 1);
+        CountDownLatch never = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        JobHandle running = scheduler.submit(new BlockingCodecJob(never));
+        JobHandle queued = scheduler.submit(new FakeCodecJob("queued", 1, 0, order, null));
+        while (running.getRunTimeNs() == 0) {
+            Thread.sleep(1);
+        }
+        assertTrue(queued.cancel());
+        assertTrue(running.cancel());
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        assertTrue(running.isCancelled());
+        assertTrue(order.isEmpty());
+        assertFalse(running.cancel());
+    }
+
+    @Test
+    public void wideJobsReserveSeveralSessions() throws Exception {
+        final int sessions = 3;
+        scheduler = new TranscodeScheduler(4, sessions);
+        SessionCounter counter = new SessionCounter();
+        List<JobHandle> handles = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            // Mix of jobs which could deadlock if a wide job held one session while waiting for the rest
+            if (i % 2 == 0) {
+                handles.add(scheduler.submit(new WideCodecJob(2, 10, counter), 2));
+            } else {
+                handles.add(scheduler.submit(new FakeCodecJob("job" + i, 1, 10, null, counter)));
+            }
+        }
+        for (JobHandle handle : handles) {
+            assertTrue(handle.await(10, TimeUnit.SECONDS));
+            assertNull(handle.getFailure());
+        }
+        assertTrue("peak " + counter.peak.get(), counter.peak.get() <= sessions);
+        assertEquals(0, counter.active.get());
+
+        JobHandle widest = scheduler.submit(new WideCodecJob(sessions, 0, counter), sessions);
+        assertEquals(sessions, widest.getCodecSessions());
+        assertTrue(widest.await(5, TimeUnit.SECONDS));
+        assertEquals(sessions, counter.peak.get());
+    }
+
+    @Test
+    public void cancelledWideJobStopsWaitingForSessions() throws Exception {
+        scheduler = new TranscodeScheduler(2, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        JobHandle blocker = scheduler.submit(new BlockingCodecJob(release));
+        while (blocker.getRunTimeNs() == 0) {
+            Thread.sleep(1);
+        }
+        JobHandle wide = scheduler.submit(new WideCodecJob(2, 0, new SessionCounter()), 2);
+        // Taken by the other worker, which holds one session and waits for the second
+        while (scheduler.getQueuedCount() > 0) {
+            Thread.sleep(1);
+        }
+        assertTrue(wide.cancel());
+        JobHandle narrow = scheduler.submit(new FakeCodecJob("narrow", 1, 0, order, null));
+        assertTrue(narrow.await(5, TimeUnit.SECONDS));
+        assertTrue(wide.await(5, TimeUnit.SECONDS));
+        assertEquals("[narrow]", order.toString());
+        assertEquals(0, wide.getRunTimeNs());
+        release.countDown();
+    }
+
+    @Test
+    public void shutdownKeepsTheCallersInterrupt() {
+        scheduler = new TranscodeScheduler(1, 1);
+        scheduler.submit(new BlockingCodecJob(new CountDownLatch(1)));
+        scheduler.submit(new FakeCodecJob("queued", 1, 0, null, null));
+        Thread.currentThread().interrupt();
+        scheduler.shutdown();
+        assertTrue(Thread.interrupted());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void jobsWiderThanTheSessionsAreRejected() {
+        scheduler = new TranscodeScheduler(2, 3);
+        scheduler.submit(new WideCodecJob(4, 0, new SessionCounter()), 4);
+    }
+
+    private static class SessionCounter {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger peak   = new AtomicInteger();
+
+        void enter() {
+            enter(1);
+        }
+
+        void enter(int sessions) {
+            int now = active.addAndGet(sessions);
+            int max;
+            while (now > (max = peak.get()) && !peak.compareAndSet(max, now)) {
+                // retry
+            }
+        }
+
+        void leave() {
+            leave(1);
+        }
+
+        void leave(int sessions) {
+            active.addAndGet(-sessions);
+        }
+    }
+
+    /**
+     * Pretends to drive several codecs at once.
+     */
+    private static class WideCodecJob implements TranscodeScheduler.Task {
+        private final int            sessions;
+        private final int            workMs;
+        private final SessionCounter counter;
+
+        WideCodecJob(int sessions, int workMs, SessionCounter counter) {
+            this.sessions = sessions;
+            this.workMs = workMs;
+            this.counter = counter;
+        }
+
+        @Override
+        public long getEstimatedDurationUs() {
+            return 1_000_000;
+        }
+
+        @Override
+        public void run(int codecSessions) throws InterruptedException {
+            // Like segmented jobs, never hold more than granted
+            int held = Math.min(sessions, codecSessions);
+            counter.enter(held);
+            try {
+                Thread.sleep(workMs);
+            } finally {
+                counter.leave(held);
+            }
+        }
+    }
+
+    /**
+     * Pretends to drive a codec for the given wall-clock time.
+     */
+    private static class FakeCodecJob implements TranscodeScheduler.Task {
+        private final String         name;
+        private final long           durationUs;
+        private final int            workMs;
+        private final List<String>   order;
+        private final SessionCounter counter;
+
+        FakeCodecJob(String name, long durationUs, int workMs, List<String> order, SessionCounter counter) {
+            this.name = name;
+            this.durationUs = durationUs;
+            this.workMs = workMs;
+            this.order = order;
+            this.counter = counter;
+        }
+
+        @Override
+        public long getEstimatedDurationUs() {
+            return durationUs;
+        }
+
+        @Override
+        public void run(int codecSessions) throws InterruptedException {
+            if (counter != null) {
+                counter.enter();
+            }
+            try {
+                if (order != null) {
+                    order.add(name);
+                }
+                Thread.sleep(workMs);
+            } finally {
+                if (counter != null) {
+                    counter.leave();
+                }
+            }
+        }
+    }
+
+    private static class BlockingCodecJob implements TranscodeScheduler.Task {
+        private final CountDownLatch release;
+
+        BlockingCodecJob(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public long getEstimatedDurationUs() {
+            return 1;
+        }
+
+        @Override
+        public void run(int codecSessions) throws InterruptedException {
+            release.await();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package co.tula.videoencoder.segment;
+
+import co.tula.videoencoder.capability.CodecInfo;
+import co.tula.videoencoder.capability.EncoderConfig;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PassthroughPolicyTest {
+
+    private static final EncoderConfig AVC_720 = new EncoderConfig("OMX.vendor.avc", CodecInfo.MIME_AVC, 2_000_000,
+                                                                   CodecInfo.BITRATE_MODE_VBR, -1, -1, 4);
+
+    @Test
+    public void matchingInputIsCopied() {
+        assertTrue(PassthroughPolicy.canCopy(CodecInfo.MIME_AVC, 720, 720, 2_100_000, AVC_720, 720, 720));
+    }
+
+    @Test
+    public void otherCodecSizeOrHigherBitrateIsEncoded() {
+        assertFalse(PassthroughPolicy.canCopy(CodecInfo.MIME_HEVC, 720, 720, 1_000_000, AVC_720, 720, 720));
+        assertFalse(PassthroughPolicy.canCopy(CodecInfo.MIME_AVC, 1280, 720, 1_000_000, AVC_720, 720, 720));
+        assertFalse(PassthroughPolicy.canCopy(CodecInfo.MIME_AVC, 720, 720, 4_000_000, AVC_720, 720, 720));
+    }
+
+    @Test
+    public void unknownBitrateOrEncoderIsEncoded() {
+        assertFalse(PassthroughPolicy.canCopy(CodecInfo.MIME_AVC, 720, 720, 0, AVC_720, 720, 720));
+        assertFalse(PassthroughPolicy.canCopy(CodecInfo.MIME_AVC, 720, 720, 1_000_000, null, 720, 720));
+    }
+}
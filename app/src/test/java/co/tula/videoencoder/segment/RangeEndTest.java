@@ -0,0 +1,51 @@
+package co.tula.videoencoder.segment;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RangeEndTest {
+
+    private static final int SYNC = RangeEnd.SAMPLE_FLAG_SYNC;
+
+    @Test
+    public void framesInPresentationOrderStopAtTheNextSyncFrame() {
+        RangeEnd end = new RangeEnd(30);
+        assertFalse(end.isReached(0, SYNC));
+        assertFalse(end.isReached(20, 0));
+        assertFalse(end.isReached(30, 0));
+        assertFalse(end.isReached(40, SYNC));
+        assertTrue(end.isReached(50, 0));
+    }
+
+    @Test
+    public void bFramesBeforeTheEndAreFedAfterLaterFrames() {
+        // Decode order of I0 P30 B10 B20 | I60 P90 B70 B80 with the end between them
+        RangeEnd end = new RangeEnd(25);
+        assertFalse(end.isReached(0, SYNC));
+        assertFalse(end.isReached(30, 0));
+        // Shown before the end although it comes after a frame past it
+        assertFalse(end.isReached(10, 0));
+        assertFalse(end.isReached(20, 0));
+        assertFalse(end.isReached(60, SYNC));
+        assertTrue(end.isReached(90, 0));
+        assertTrue(end.isReached(90, 0));
+    }
+
+    @Test
+    public void leadingPicturesOfTheNextSyncFrameAreFed() {
+        // Open GOP: B40 and B50 follow I60 in decode order but reference the frames before it
+        RangeEnd end = new RangeEnd(60);
+        assertFalse(end.isReached(30, 0));
+        assertFalse(end.isReached(60, SYNC));
+        assertFalse(end.isReached(60, SYNC));
+        assertFalse(end.isReached(40, 0));
+        assertFalse(end.isReached(50, 0));
+        assertTrue(end.isReached(90, 0));
+    }
+
+    @Test
+    public void endOfStreamIsLeftToTheSource() {
+        assertFalse(new RangeEnd(30).isReached(-1, 0));
+    }
+}
@@ -0,0 +1,164 @@
+package co.tula.videoencoder.segment;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SegmentPlannerTest {
+
+    private static final long SECOND = 1_000_000;
+
+    @Test
+    public void splitsAtSyncFramesClosestToEvenParts() {
+        // GOP of one second, 10 s video
+        long[]        sync     = syncEvery(SECOND, 10);
+        List<Segment> segments = SegmentPlanner.plan(sync, sync.length, 10 * SECOND, 4, SECOND);
+        assertEquals(4, segments.size());
+        // Targets are 2.5, 5 and 7.5 s, ties go to the earlier sync frame
+        assertSegment(segments.get(0), 0, 0, 2 * SECOND);
+        assertSegment(segments.get(1), 1, 2 * SECOND, 5 * SECOND);
+        assertSegment(segments.get(2), 2, 5 * SECOND, 7 * SECOND);
+        assertSegment(segments.get(3), 3, 7 * SECOND, Long.MAX_VALUE);
+        assertTrue(segments.get(3).isLast());
+    }
+
+    @Test
+    public void sparseKeyframesGiveFewerSegments() {
+        long[]        sync     = {0, 9 * SECOND};
+        List<Segment> segments = SegmentPlanner.plan(sync, sync.length, 10 * SECOND, 4, 2 * SECOND);
+        // The only inner boundary leaves one second at the end
+        assertEquals(1, segments.size());
+        assertSegment(segments.get(0), 0, 0, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void shortVideoIsNotSplit() {
+        long[]        sync     = syncEvery(SECOND / 2, 6);
+        List<Segment> segments = SegmentPlanner.plan(sync, sync.length, 3 * SECOND, 4, 2 * SECOND);
+        assertEquals(1, segments.size());
+    }
+
+    @Test
+    public void boundariesAreStrictlyIncreasing() {
+        // Irregular GOPs: several targets map to the same sync frame
+        long[]        sync     = {100, 200, 8 * SECOND, 8 * SECOND + 100, 9 * SECOND};
+        List<Segment> segments = SegmentPlanner.plan(sync, sync.length, 10 * SECOND, 8, 0);
+        long          previous = -1;
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            assertEquals(i, segment.getIndex());
+            assertTrue(segment.getStartUs() > previous);
+            if (i + 1 < segments.size()) {
+                assertEquals(segment.getEndUs(), segments.get(i + 1).getStartUs());
+            }
+            previous = segment.getStartUs();
+        }
+        assertEquals(100, segments.get(0).getStartUs());
+    }
+
+    @Test
+    public void onlyValidEntriesAreUsed() {
+        long[]        sync     = new long[64];
+        System.arraycopy(syncEvery(SECOND, 4), 0, sync, 0, 4);
+        List<Segment> segments = SegmentPlanner.plan(sync, 4, 4 * SECOND, 2, SECOND);
+        assertEquals(2, segments.size());
+        assertEquals(2 * SECOND, segments.get(1).getStartUs());
+    }
+
+    @Test
+    public void trimCopiesWholeGopsAndEncodesTheEdges() {
+        long[]        sync     = syncEvery(SECOND, 10);
+        List<Segment> segments = SegmentPlanner.planTrim(sync, sync.length, 2 * SECOND + 300_000, 6 * SECOND + 1);
+        assertEquals(3, segments.size());
+        assertSegment(segments.get(0), 0, 2 * SECOND + 300_000, 3 * SECOND);
+        assertSegment(segments.get(1), 1, 3 * SECOND, 6 * SECOND);
+        assertSegment(segments.get(2), 2, 6 * SECOND, 6 * SECOND + 1);
+        assertFalse(segments.get(0).isPassthrough());
+        assertTrue(segments.get(1).isPassthrough());
+        assertFalse(segments.get(2).isPassthrough());
+    }
+
+    @Test
+    public void trimAtSyncFramesIsCopiedCompletely() {
+        long[]        sync     = syncEvery(SECOND, 10);
+        List<Segment> segments = SegmentPlanner.planTrim(sync, sync.length, 4 * SECOND, 7 * SECOND);
+        assertEquals(1, segments.size());
+        assertSegment(segments.get(0), 0, 4 * SECOND, 7 * SECOND);
+        assertTrue(segments.get(0).isPassthrough());
+
+        segments = SegmentPlanner.planTrim(sync, sync.length, 4 * SECOND, Long.MAX_VALUE);
+        assertEquals(1, segments.size());
+        assertSegment(segments.get(0), 0, 4 * SECOND, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void trimInsideOneGopIsEncoded() {
+        long[]        sync     = syncEvery(SECOND, 10);
+        List<Segment> segments = SegmentPlanner.planTrim(sync, sync.length, 4 * SECOND + 100, 4 * SECOND + 900_000);
+        assertEquals(1, segments.size());
+        assertSegment(segments.get(0), 0, 4 * SECOND + 100, 4 * SECOND + 900_000);
+        assertFalse(segments.get(0).isPassthrough());
+    }
+
+    @Test
+    public void clipMovesTheOuterBounds() {
+        long[]        sync     = syncEvery(SECOND, 10);
+        List<Segment> segments = SegmentPlanner.clip(SegmentPlanner.plan(sync, sync.length, 10 * SECOND, 2, 0),
+                                                     500_000, 9 * SECOND);
+        assertSegment(segments.get(0), 0, 500_000, 5 * SECOND);
+        assertSegment(segments.get(1), 1, 5 * SECOND, 9 * SECOND);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsortedSyncTimesAreRejected() {
+        SegmentPlanner.plan(new long[]{0, 2 * SECOND, SECOND}, 3, 3 * SECOND, 2, 0);
+    }
+
+    @Test
+    public void editedRangeIsWidenedToWholeGops() {
+        long[]        sync     = syncEvery(SECOND, 10);
+        List<Segment> segments = SegmentPlanner.plan(sync, sync.length, 10 * SECOND, 1, 0);
+        assertEquals(1, segments.size());
+
+        segments = SegmentPlanner.planAround(sync, sync.length, 3 * SECOND + 500_000, 5 * SECOND + 1);
+        assertEquals(3, segments.size());
+        assertSegment(segments.get(0), 0, 0, 3 * SECOND);
+        assertSegment(segments.get(1), 1, 3 * SECOND, 6 * SECOND);
+        assertSegment(segments.get(2), 2, 6 * SECOND, Long.MAX_VALUE);
+        assertTrue(segments.get(0).isPassthrough());
+        assertFalse(segments.get(1).isPassthrough());
+        assertTrue(segments.get(2).isPassthrough());
+    }
+
+    @Test
+    public void editAtTheEdgesLeavesOnePassthroughSegment() {
+        long[]        sync = syncEvery(SECOND, 10);
+        List<Segment> head = SegmentPlanner.planAround(sync, sync.length, 0, 2 * SECOND);
+        assertEquals(2, head.size());
+        assertSegment(head.get(0), 0, 0, 2 * SECOND);
+        assertFalse(head.get(0).isPassthrough());
+        assertTrue(head.get(1).isPassthrough());
+
+        List<Segment> tail = SegmentPlanner.planAround(sync, sync.length, 9 * SECOND + 1, 20 * SECOND);
+        assertEquals(2, tail.size());
+        assertTrue(tail.get(0).isPassthrough());
+        assertSegment(tail.get(1), 1, 9 * SECOND, Long.MAX_VALUE);
+        assertFalse(tail.get(1).isPassthrough());
+    }
+
+    private static long[] syncEvery(long intervalUs, int count) {
+        long[] times = new long[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = i * intervalUs;
+        }
+        return times;
+    }
+
+    private static void assertSegment(Segment segment, int index, long startUs, long endUs) {
+        assertEquals(index, segment.getIndex());
+        assertEquals(startUs, segment.getStartUs());
+        assertEquals(endUs, segment.getEndUs());
+    }
+}
@@ -0,0 +1,129 @@
+package co.tula.videoencoder.segment;
+
+import co.tula.videoencoder.pipeline.EncodedSink;
+import co.tula.videoencoder.pipeline.SampleSource;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SegmentStitcherTest {
+
+    private static final long FRAME = 33_333;
+
+    @Test
+    public void segmentsAreMovedBackToTheirStart() throws Exception {
+        RecordingSink   sink     = new RecordingSink();
+        SegmentStitcher stitcher = new SegmentStitcher(sink, 64);
+        Segment         first    = new Segment(0, 0, 3 * FRAME);
+        Segment         second   = new Segment(1, 3 * FRAME, Long.MAX_VALUE);
+        // Both files were rebased to zero by their muxers
+        assertEquals(3, stitcher.append(first, new FakeSegmentFile(0, 3, 10)));
+        assertEquals(2, stitcher.append(second, new FakeSegmentFile(0, 2, 20)));
+        assertEquals(5, stitcher.getSampleCount());
+        assertEquals("[0:10:sync, 33333:11, 66666:12, 99999:20:sync, 133332:21]", sink.samples.toString());
+    }
+
+    @Test
+    public void samplesOutsideTheSegmentAreDropped() throws Exception {
+        RecordingSink   sink     = new RecordingSink();
+        SegmentStitcher stitcher = new SegmentStitcher(sink, 64);
+        // The file starts late and runs one frame into the next segment
+        assertEquals(2, stitcher.append(new Segment(0, 1000, 1000 + 2 * FRAME), new FakeSegmentFile(500, 3, 0)));
+        assertEquals("[1000:0:sync, 34333:1]", sink.samples.toString());
+    }
+
+    @Test
+    public void codecConfigIsSkipped() throws Exception {
+        RecordingSink   sink   = new RecordingSink();
+        FakeSegmentFile source = new FakeSegmentFile(0, 2, 0);
+        source.codecConfigFirst = true;
+        new SegmentStitcher(sink, 64).append(new Segment(0, 0, Long.MAX_VALUE), source);
+        assertEquals("[0:0:sync, 33333:1]", sink.samples.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void segmentMustStartWithSyncFrame() throws Exception {
+        FakeSegmentFile source = new FakeSegmentFile(0, 2, 0);
+        source.syncFirst = false;
+        new SegmentStitcher(new RecordingSink(), 64).append(new Segment(0, 0, Long.MAX_VALUE), source);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void segmentsMustBeInOrder() throws Exception {
+        new SegmentStitcher(new RecordingSink(), 64).append(new Segment(1, 0, Long.MAX_VALUE),
+                                                            new FakeSegmentFile(0, 2, 0));
+    }
+
+    /**
+     * Frames at a fixed rate whose payload is a single int.
+     */
+    private static class FakeSegmentFile implements SampleSource {
+        private final long firstUs;
+        private final int  count;
+        private final int  firstValue;
+        boolean syncFirst = true;
+        boolean codecConfigFirst;
+        private int position;
+
+        FakeSegmentFile(long firstUs, int count, int firstValue) {
+            this.firstUs = firstUs;
+            this.count = count;
+            this.firstValue = firstValue;
+        }
+
+        private int frame() {
+            return codecConfigFirst ? position - 1 : position;
+        }
+
+        @Override
+        public int readSampleData(ByteBuffer buffer, int offset) {
+            if (frame() >= count) {
+                return -1;
+            }
+            buffer.putInt(offset, frame() < 0 ? -1 : firstValue + frame());
+            return 4;
+        }
+
+        @Override
+        public long getSampleTime() {
+            return frame() >= count ? -1 : firstUs + Math.max(0, frame()) * FRAME;
+        }
+
+        @Override
+        public int getSampleFlags() {
+            if (frame() < 0) {
+                return SegmentStitcher.FLAG_CODEC_CONFIG;
+            }
+            return frame() == 0 && syncFirst ? SegmentStitcher.FLAG_SYNC : 0;
+        }
+
+        @Override
+        public boolean advance() {
+            position++;
+            return frame() < count;
+        }
+    }
+
+    private static class RecordingSink implements EncodedSink {
+        final List<String> samples = new ArrayList<>();
+
+        @Override
+        public void onOutputFormatChanged() {
+        }
+
+        @Override
+        public void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags) {
+            assertEquals(4, size);
+            String sample = presentationTimeUs + ":" + data.getInt(offset);
+            samples.add((flags & SegmentStitcher.FLAG_SYNC) != 0 ? sample + ":sync" : sample);
+        }
+
+        @Override
+        public void onEndOfStream() {
+        }
+    }
+}
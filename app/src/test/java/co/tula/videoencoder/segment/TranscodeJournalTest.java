@@ -0,0 +1,131 @@
+package co.tula.videoencoder.segment;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TranscodeJournalTest {
+
+    private static final List<Segment> PLAN = Arrays.asList(new Segment(0, 0, 30_000_000),
+                                                            new Segment(1, 30_000_000, 60_000_000, true),
+                                                            new Segment(2, 60_000_000, Long.MAX_VALUE));
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("journal", "");
+        dir.delete();
+        file = new File(dir, "jobs/out.journal");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = new File(dir, "jobs").listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        new File(dir, "jobs").delete();
+        dir.delete();
+    }
+
+    @Test
+    public void planAndFinishedPartsSurviveARestart() throws Exception {
+        TranscodeJournal journal = new TranscodeJournal(file);
+        assertNull(journal.getPlan("in|720x720"));
+        journal.begin("in|720x720", PLAN);
+        File part = part("out.part0", 1000);
+        journal.markDone(PLAN.get(0), part);
+
+        TranscodeJournal restarted = new TranscodeJournal(file);
+        List<Segment>    plan      = restarted.getPlan("in|720x720");
+        assertEquals(3, plan.size());
+        assertEquals(30_000_000, plan.get(1).getStartUs());
+        assertTrue(plan.get(1).isPassthrough());
+        assertTrue(plan.get(2).isLast());
+        assertTrue(restarted.isDone(plan.get(0), part));
+        assertFalse(restarted.isDone(plan.get(1), part("out.part1", 10)));
+        assertEquals(30_000_000, restarted.getCheckpointUs(plan));
+    }
+
+    @Test
+    public void changedPartIsNotDone() throws Exception {
+        TranscodeJournal journal = new TranscodeJournal(file);
+        journal.begin("key", PLAN);
+        File part = part("out.part0", 1000);
+        journal.markDone(PLAN.get(0), part);
+        // A later run was killed while rewriting the part
+        part("out.part0", 10);
+        assertFalse(new TranscodeJournal(file).isDone(PLAN.get(0), part));
+        part.delete();
+        assertFalse(new TranscodeJournal(file).isDone(PLAN.get(0), part));
+    }
+
+    @Test
+    public void otherParametersStartOver() throws Exception {
+        TranscodeJournal journal = new TranscodeJournal(file);
+        journal.begin("720x720", PLAN);
+        journal.markDone(PLAN.get(0), part("out.part0", 1000));
+        assertNull(new TranscodeJournal(file).getPlan("1280x720"));
+
+        journal.begin("1280x720", PLAN.subList(0, 1));
+        assertEquals(1, journal.getPlan("1280x720").size());
+        assertEquals(0, journal.getCheckpointUs(PLAN));
+    }
+
+    @Test
+    public void attemptsAreCountedAcrossPlans() {
+        assertEquals(1, new TranscodeJournal(file).startAttempt());
+        TranscodeJournal journal = new TranscodeJournal(file);
+        assertEquals(2, journal.startAttempt());
+        journal.begin("key", PLAN);
+        assertEquals(3, new TranscodeJournal(file).startAttempt());
+        journal.delete();
+        assertFalse(file.exists());
+        assertEquals(1, new TranscodeJournal(file).startAttempt());
+    }
+
+    @Test
+    public void deleteRemovesThePartsOfThePlan() throws Exception {
+        TranscodeJournal journal = new TranscodeJournal(file);
+        journal.begin("key", PLAN);
+        File done     = part("out.part0", 100);
+        File unlisted = part("out.part1", 10);
+        journal.markDone(PLAN.get(0), done);
+        new TranscodeJournal(file).delete(new File(file.getParentFile(), "out.part").getPath());
+        assertFalse(file.exists());
+        assertFalse(done.exists());
+        assertFalse(unlisted.exists());
+    }
+
+    @Test
+    public void outputsWithTheSameHashCodeGetTheirOwnJournal() {
+        // "Aa" and "BB" share their String hash code
+        File             jobs  = new File(dir, "jobs");
+        TranscodeJournal first = TranscodeJournal.forOutput(jobs, "/sdcard/Aa.mp4");
+        first.begin("key", PLAN);
+        assertNull(TranscodeJournal.forOutput(jobs, "/sdcard/BB.mp4").getPlan("key"));
+        assertEquals(3, TranscodeJournal.forOutput(jobs, "/sdcard/Aa.mp4").getPlan("key").size());
+        first.delete();
+    }
+
+    private File part(String name, int length) throws IOException {
+        File part = new File(file.getParentFile(), name);
+        part.getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(part)) {
+            out.write(new byte[length]);
+        }
+        return part;
+    }
+}
@@ -0,0 +1,59 @@
+package co.tula.videoencoder.thumbnail;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ContactSheetTest {
+
+    @Test
+    public void gridHasEnoughRows() {
+        ContactSheet sheet = ContactSheet.grid(7, 3, 16, 9);
+        assertEquals(9, sheet.getCellCount());
+        assertEquals(48, sheet.getWidth());
+        assertEquals(27, sheet.getHeight());
+        assertEquals(48 * 27 * 4, sheet.getByteCount());
+        assertEquals(16 * 9 * 4, sheet.getFrameByteCount());
+    }
+
+    @Test
+    public void framesLandInTheirCellUpright() {
+        ContactSheet sheet  = ContactSheet.grid(4, 2, 2, 2);
+        ByteBuffer   pixels = ByteBuffer.allocate(sheet.getByteCount());
+        // Rows bottom up: the bottom row is 1, the top row 2
+        ByteBuffer frame = frame(2, 2, 1, 2);
+        frame.position(3);
+        sheet.put(3, frame, true, pixels);
+        sheet.put(0, frame(2, 2, 5, 6), false, pixels);
+
+        assertEquals(3, frame.position());
+        assertEquals(0, pixels.position());
+        int stride = sheet.getWidth() * 4;
+        assertEquals(5, pixels.get(0));
+        assertEquals(6, pixels.get(stride));
+        assertEquals(0, pixels.get(8));
+        // Cell 3 is the second one of the second row
+        assertEquals(2, pixels.get(2 * stride + 8));
+        assertEquals(2, pixels.get(2 * stride + 15));
+        assertEquals(1, pixels.get(3 * stride + 8));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void cellsOutsideTheSheetAreRejected() {
+        ContactSheet sheet = ContactSheet.strip(2, 2, 2);
+        sheet.put(2, frame(2, 2, 1, 1), false, ByteBuffer.allocate(sheet.getByteCount()));
+    }
+
+    /**
+     * Returns a two row RGBA frame with every byte of the first row set to {@code first}.
+     */
+    private static ByteBuffer frame(int width, int height, int first, int second) {
+        ByteBuffer frame = ByteBuffer.allocate(width * height * 4);
+        for (int i = 0; i < frame.capacity(); i++) {
+            frame.put(i, (byte) (i < width * 4 ? first : second));
+        }
+        return frame;
+    }
+}
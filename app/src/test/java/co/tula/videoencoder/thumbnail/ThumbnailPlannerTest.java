@@ -0,0 +1,60 @@
+package co.tula.videoencoder.thumbnail;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailPlannerTest {
+
+    private static final long[] SYNC = {0, 2_000_000, 4_000_000, 6_000_000};
+
+    @Test
+    public void evenlySpacedTimesSitInTheMiddleOfTheirInterval() {
+        assertArrayEquals(new long[]{1_000_000, 3_000_000, 5_000_000, 7_000_000},
+                          ThumbnailPlanner.evenlySpaced(8_000_000, 4));
+    }
+
+    @Test
+    public void nearestSyncFramesAreDecodedOnce() {
+        ThumbnailPlan plan = ThumbnailPlanner.nearestSync(new long[]{5_900_000, 300_000, 2_100_000, 1_900_000},
+                                                          SYNC, SYNC.length);
+        assertEquals(3, plan.getFrameCount());
+        assertEquals(0, plan.getFrameUs(0));
+        assertEquals(2_000_000, plan.getFrameUs(1));
+        assertEquals(6_000_000, plan.getFrameUs(2));
+        for (int frame = 0; frame < plan.getFrameCount(); frame++) {
+            assertEquals(plan.getFrameUs(frame), plan.getSeekUs(frame));
+        }
+        assertEquals(2, plan.getCellFrame(0));
+        assertEquals(0, plan.getCellFrame(1));
+        assertEquals(1, plan.getCellFrame(2));
+        assertEquals(1, plan.getCellFrame(3));
+    }
+
+    @Test
+    public void timesPastTheLastSyncFrameUseIt() {
+        ThumbnailPlan plan = ThumbnailPlanner.nearestSync(new long[]{9_000_000}, SYNC, SYNC.length);
+        assertEquals(6_000_000, plan.getFrameUs(0));
+    }
+
+    @Test
+    public void exactFramesDecodeOnWithinAGroupOfPictures() {
+        ThumbnailPlan plan = ThumbnailPlanner.exact(new long[]{4_500_000, 500_000, 1_500_000, 4_200_000},
+                                                    SYNC, SYNC.length);
+        assertEquals(4, plan.getFrameCount());
+        assertEquals(500_000, plan.getFrameUs(0));
+        assertEquals(0, plan.getSeekUs(0));
+        assertEquals(ThumbnailPlan.CONTINUE, plan.getSeekUs(1));
+        assertEquals(4_200_000, plan.getFrameUs(2));
+        assertEquals(4_000_000, plan.getSeekUs(2));
+        assertEquals(ThumbnailPlan.CONTINUE, plan.getSeekUs(3));
+        assertEquals(3, plan.getCellFrame(0));
+    }
+
+    @Test
+    public void exactFrameOnASyncFrameSeeksToIt() {
+        ThumbnailPlan plan = ThumbnailPlanner.exact(new long[]{1_000_000, 2_000_000}, SYNC, SYNC.length);
+        assertEquals(0, plan.getSeekUs(0));
+        assertEquals(2_000_000, plan.getSeekUs(1));
+    }
+}
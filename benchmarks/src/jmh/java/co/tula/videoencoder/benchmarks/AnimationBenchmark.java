@@ -0,0 +1,97 @@
+package co.tula.videoencoder.benchmarks;
+
+import co.tula.videoencoder.animation.Animation;
+import co.tula.videoencoder.animation.KeyframeTrack;
+import co.tula.videoencoder.encoder.Sprite;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CPU side of an animated frame in TextureRender: evaluating a Ken Burns transform and two uniform tracks,
+ * then the sprite matrix.  {@code inOrder} steps through a ten minute video at 30 fps, {@code seeking} jumps
+ * to random times, so every lookup is a binary search.  The score is frames per microsecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnimationBenchmark {
+
+    private static final long DURATION_US = 600_000_000L;
+    private static final long FRAME_US    = 33_333;
+    private static final int  SEEKS       = 1024;
+
+    /**
+     * Keyframes per track.
+     */
+    @Param({"4", "256"})
+    public int keyframes;
+
+    private final Sprite  sprite    = new Sprite();
+    private final float[] transform = new float[Animation.TRANSFORM_FLOATS];
+    private final float[] uniforms  = new float[2 * KeyframeTrack.MAX_COMPONENTS];
+    private final float[] matrix    = new float[Sprite.MATRIX_FLOATS];
+    private final long[]  seekTimes = new long[SEEKS];
+    private Animation animation;
+    private long      timeUs;
+    private int       seek;
+
+    @Setup
+    public void setUp() {
+        KeyframeTrack translation = new KeyframeTrack(2);
+        KeyframeTrack scale       = new KeyframeTrack(2).setInterpolation(KeyframeTrack.Interpolation.SMOOTH);
+        KeyframeTrack rotation    = new KeyframeTrack(1);
+        KeyframeTrack intensity   = new KeyframeTrack(1);
+        KeyframeTrack crop        = new KeyframeTrack(4).setInterpolation(KeyframeTrack.Interpolation.STEP);
+        for (int i = 0; i < keyframes; i++) {
+            long  at   = DURATION_US / keyframes * i;
+            float even = i % 2 == 0 ? 0f : 1f;
+            translation.add(at, 0.1f * even, -0.05f * even);
+            scale.add(at, 1f + 0.2f * even, 1f + 0.2f * even);
+            rotation.add(at, 5f * even);
+            intensity.add(at, even);
+            crop.add(at, 0.1f * even, 0f, 1f, 1f - 0.1f * even);
+        }
+        animation = new Animation().setTranslation(translation).setScale(scale).setRotation(rotation)
+                                   .setUniform(Animation.INTENSITY, intensity).setUniform(Animation.CROP, crop);
+        Random random = new Random(42);
+        for (int i = 0; i < SEEKS; i++) {
+            seekTimes[i] = (long) (random.nextDouble() * DURATION_US);
+        }
+    }
+
+    @Benchmark
+    public float[] inOrder() {
+        timeUs = timeUs + FRAME_US < DURATION_US ? timeUs + FRAME_US : 0;
+        return animate(timeUs);
+    }
+
+    @Benchmark
+    public float[] seeking() {
+        seek = (seek + 1) & (SEEKS - 1);
+        return animate(seekTimes[seek]);
+    }
+
+    private float[] animate(long frameUs) {
+        animation.evaluateTransform(frameUs, transform, 0);
+        sprite.setTranslation(transform[0], transform[1]).setScale(transform[2], transform[3])
+              .updateAngleDeg(90f + transform[4]);
+        animation.evaluateUniforms(frameUs, uniforms, 0);
+        sprite.getMatrix(matrix, 0);
+        return matrix;
+    }
+}
@@ -0,0 +1,158 @@
+package co.tula.videoencoder.benchmarks;
+
+import co.tula.videoencoder.mux.SampleInterleaver;
+import co.tula.videoencoder.pipeline.AsyncTranscodePipeline;
+import co.tula.videoencoder.pipeline.CodecPort;
+import co.tula.videoencoder.pipeline.EncodedSink;
+import co.tula.videoencoder.pipeline.EventQueue;
+import co.tula.videoencoder.pipeline.FrameRenderer;
+import co.tula.videoencoder.pipeline.PipelineEvent;
+import co.tula.videoencoder.pipeline.SampleSource;
+import co.tula.videoencoder.trace.TraceLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames through the event queue, the trace ring and the muxer stage, with fake codecs answering synchronously
+ * on the pipeline thread.  The score is frames per millisecond, the gc profiler should show next to no
+ * allocation per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameLoopBenchmark {
+
+    private static final int FRAMES = 10_000;
+
+    private Harness harness;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        harness = new Harness(FRAMES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int frameLoop() throws InterruptedException {
+        harness.pipeline.run();
+        return harness.written;
+    }
+
+    private static final class Harness implements SampleSource, CodecPort, FrameRenderer, EncodedSink {
+        final EventQueue             events = new EventQueue();
+        final TraceLog               trace  = new TraceLog(1024, TraceLog.LEVEL_VERBOSE);
+        final ByteBuffer             input  = ByteBuffer.allocateDirect(64);
+        final ByteBuffer             output = ByteBuffer.allocateDirect(64);
+        final SampleInterleaver      interleaver;
+        final AsyncTranscodePipeline pipeline;
+        final int                    frames;
+        int     position;
+        int     written;
+        boolean formatSent;
+
+        Harness(int frames) {
+            this.frames = frames;
+            interleaver = new SampleInterleaver((lane, data, size, presentationTimeUs, flags) -> written++, 1, 4);
+            interleaver.start();
+            // The same object plays decoder and encoder, told apart by buffer index
+            pipeline = new AsyncTranscodePipeline(events, this, this, this, this, this);
+            pipeline.setTraceLog(trace);
+            for (int i = 0; i < 4; i++) {
+                events.post(PipelineEvent.DECODER_INPUT, i, 0, 0, 0, 0);
+            }
+        }
+
+        @Override
+        public int readSampleData(ByteBuffer buffer, int offset) {
+            if (position >= frames) {
+                return -1;
+            }
+            buffer.putInt(offset, position);
+            return 4;
+        }
+
+        @Override
+        public long getSampleTime() {
+            return position * 33_333L;
+        }
+
+        @Override
+        public int getSampleFlags() {
+            return 0;
+        }
+
+        @Override
+        public boolean advance() {
+            return ++position < frames;
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            input.clear();
+            return input;
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+            events.post(PipelineEvent.DECODER_OUTPUT, index, 0, size, presentationTimeUs, flags);
+            if ((flags & AsyncTranscodePipeline.FLAG_END_OF_STREAM) == 0) {
+                events.post(PipelineEvent.DECODER_INPUT, index, 0, 0, 0, 0);
+            }
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            output.clear();
+            return output;
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index, boolean render) {
+        }
+
+        @Override
+        public void signalEndOfInputStream() {
+            events.post(PipelineEvent.ENCODER_OUTPUT, 100, 0, 0, 0, AsyncTranscodePipeline.FLAG_END_OF_STREAM);
+        }
+
+        @Override
+        public void renderFrame(long presentationTimeUs) {
+            if (!formatSent) {
+                formatSent = true;
+                events.post(PipelineEvent.ENCODER_FORMAT_CHANGED, -1, 0, 0, 0, 0);
+            }
+            events.post(PipelineEvent.ENCODER_OUTPUT, 100, 0, 16, presentationTimeUs, 0);
+        }
+
+        @Override
+        public void onOutputFormatChanged() {
+        }
+
+        @Override
+        public void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags)
+                throws InterruptedException {
+            interleaver.write(0, data, presentationTimeUs, flags);
+        }
+
+        @Override
+        public void onEndOfStream() {
+            interleaver.finish(0);
+        }
+    }
+}
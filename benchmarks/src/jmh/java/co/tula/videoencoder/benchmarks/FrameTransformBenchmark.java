@@ -0,0 +1,61 @@
+package co.tula.videoencoder.benchmarks;
+
+import co.tula.videoencoder.encoder.AspectCorrection;
+import co.tula.videoencoder.encoder.Sprite;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU side of placing a decoded frame: aspect correction for the output size and the rotated, scaled quad
+ * of the sprite.  The angle changes every call, as it would for an animated transform.  {@code spriteMatrix}
+ * is what the renderer computes per frame, the vertex buffer itself stays the same.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameTransformBenchmark {
+
+    private final Sprite  sprite   = new Sprite();
+    private final float[] vertices = new float[Sprite.VERTEX_FLOATS];
+    private final float[] matrix   = new float[Sprite.MATRIX_FLOATS];
+    private int frame;
+
+    @Benchmark
+    public float[] spriteVertices() {
+        sprite.updateAngleDeg(frame++ % 360);
+        sprite.getTransformedVertices(vertices, 0);
+        return vertices;
+    }
+
+    @Benchmark
+    public float[] spriteMatrix() {
+        sprite.updateAngleDeg(frame++ % 360);
+        sprite.getMatrix(matrix, 0);
+        return matrix;
+    }
+
+    @Benchmark
+    public float[] correctedVertices() {
+        int size = frame++ & 1;
+        // A portrait phone recording into landscape 720p and into a square cell
+        int width  = size == 0 ? 1280 : 320;
+        int height = size == 0 ? 720 : 320;
+        sprite.setScale(AspectCorrection.scaleX(1080, 1920, width, height),
+                        AspectCorrection.scaleY(1080, 1920, width, height));
+        sprite.updateAngleDeg(90);
+        sprite.getTransformedVertices(vertices, 0);
+        return vertices;
+    }
+}
@@ -0,0 +1,126 @@
+package co.tula.videoencoder.benchmarks;
+
+import co.tula.videoencoder.mux.FragmentedMp4Writer;
+import co.tula.videoencoder.mux.SampleInterleaver;
+import co.tula.videoencoder.mux.TrackFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bookkeeping of the muxer stage for ten seconds of 30 fps video with AAC audio: interleaving both tracks and
+ * writing fragments into a channel which only counts bytes.  The score is samples per millisecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MuxerBenchmark {
+
+    private static final int    VIDEO_FRAMES  = 300;
+    private static final int    AUDIO_FRAMES  = 431;
+    private static final int    GOP           = 30;
+    private static final long   VIDEO_FRAME   = 33_333;
+    private static final long   AUDIO_FRAME   = 23_220;
+    private static final byte[] SPS           = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1F};
+    private static final byte[] PPS           = {0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final byte[] ASC           = {0x12, 0x10};
+    private static final int    FLAG_KEYFRAME = 1;
+
+    private final ByteBuffer keyframe = annexB(0x65, 12_000);
+    private final ByteBuffer frame    = annexB(0x41, 3_000);
+    private final ByteBuffer audio    = ByteBuffer.allocateDirect(400);
+    private final NullChannel channel = new NullChannel();
+
+    @Setup
+    public void setUp() {
+        audio.put(new byte[audio.capacity()]).flip();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VIDEO_FRAMES + AUDIO_FRAMES)
+    public long interleaveAndWrite() throws Exception {
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(channel);
+        writer.addTrack(TrackFormat.video(TrackFormat.MIME_AVC, 1280, 720, SPS, PPS));
+        writer.addTrack(TrackFormat.audio(TrackFormat.MIME_AAC, 44100, 2, ASC));
+        writer.start();
+        SampleInterleaver interleaver = new SampleInterleaver((lane, data, size, presentationTimeUs, flags) -> {
+            data.limit(size).position(0);
+            try {
+                writer.writeSample(lane, data, presentationTimeUs, (flags & FLAG_KEYFRAME) != 0);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, 2, 4);
+        interleaver.start();
+        int video = 0;
+        int sound = 0;
+        while (video < VIDEO_FRAMES || sound < AUDIO_FRAMES) {
+            // Feed the lane which is behind, as the encoder threads would
+            if (sound >= AUDIO_FRAMES || video < VIDEO_FRAMES && video * VIDEO_FRAME <= sound * AUDIO_FRAME) {
+                boolean sync = video % GOP == 0;
+                interleaver.write(0, (sync ? keyframe : frame).duplicate(), video * VIDEO_FRAME,
+                                  sync ? FLAG_KEYFRAME : 0);
+                if (++video == VIDEO_FRAMES) {
+                    interleaver.finish(0);
+                }
+            } else {
+                interleaver.write(1, audio.duplicate(), sound * AUDIO_FRAME, FLAG_KEYFRAME);
+                if (++sound == AUDIO_FRAMES) {
+                    interleaver.finish(1);
+                }
+            }
+        }
+        writer.finish();
+        return writer.getFlushedSize();
+    }
+
+    /**
+     * A slice behind a start code, like encoder output.
+     */
+    private static ByteBuffer annexB(int nalHeader, int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(new byte[]{0, 0, 0, 1, (byte) nalHeader});
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0x5A);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static final class NullChannel implements WritableByteChannel {
+        long bytes;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int size = src.remaining();
+            src.position(src.limit());
+            bytes += size;
+            return size;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
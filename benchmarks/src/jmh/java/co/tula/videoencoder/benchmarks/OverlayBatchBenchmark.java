@@ -0,0 +1,77 @@
+package co.tula.videoencoder.benchmarks;
+
+import co.tula.videoencoder.overlay.AtlasLayout;
+import co.tula.videoencoder.overlay.AtlasPacker;
+import co.tula.videoencoder.overlay.Overlay;
+import co.tula.videoencoder.overlay.OverlayBatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CPU side of compositing overlays in TextureRender: moving every overlay and writing the vertices of the
+ * batch, which is then drawn by one call.  The score is nanoseconds per frame, it should grow with the overlay
+ * count only by the few floats written for each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OverlayBatchBenchmark {
+
+    private static final int IMAGES = 8;
+
+    @Param({"1", "16", "64"})
+    public int overlayCount;
+
+    private final List<Overlay> overlays = new ArrayList<>();
+    private OverlayBatch batch;
+    private AtlasLayout  atlas;
+    private FloatBuffer  vertices;
+    private float        angle;
+
+    @Setup
+    public void setUp() {
+        int[] widths  = new int[IMAGES];
+        int[] heights = new int[IMAGES];
+        for (int i = 0; i < IMAGES; i++) {
+            widths[i] = 64 + 32 * i;
+            heights[i] = 256 - 16 * i;
+        }
+        for (int i = 0; i < overlayCount; i++) {
+            overlays.add(new Overlay("sticker" + i % IMAGES + ".png").setPosition((i % 8) / 8f, (i / 8) / 8f)
+                                                                     .setSize(0.1f, 0.1f)
+                                                                     .setOpacity(0.8f));
+        }
+        batch = new OverlayBatch(overlays);
+        atlas = new AtlasPacker(4096, 1).pack(widths, heights);
+        vertices = ByteBuffer.allocateDirect(batch.getVertexCount() * OverlayBatch.FLOATS_PER_VERTEX * 4)
+                             .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    @Benchmark
+    public int frame() {
+        angle = angle < 360f ? angle + 1f : 0f;
+        for (int i = 0; i < overlays.size(); i++) {
+            overlays.get(i).setRotation(angle + i);
+        }
+        return batch.write(atlas, 16f / 9f, vertices);
+    }
+}
@@ -0,0 +1,165 @@
+package co.tula.videoencoder.benchmarks;
+
+import co.tula.videoencoder.buffer.ByteBufferPool;
+import co.tula.videoencoder.pipeline.EncodedSink;
+import co.tula.videoencoder.pipeline.SampleCopier;
+import co.tula.videoencoder.pipeline.SampleSource;
+import co.tula.videoencoder.trace.TraceLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remux of a long audio track: the copy loop of one job against an in-memory extractor.  {@code perSample}
+ * is the loop before pooling, a fresh buffer per job and one read, write and trace call per sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleCopyBenchmark {
+
+    /**
+     * Ten minutes of AAC frames of 1024 samples at 44.1 kHz.
+     */
+    private static final int  SAMPLES = 25840;
+    private static final long FRAME   = 23_220;
+
+    @Param({"400", "1500"})
+    public int sampleSize;
+
+    private final ByteBufferPool pool  = new ByteBufferPool(4);
+    private final TraceLog       trace = new TraceLog(256, TraceLog.LEVEL_DEBUG);
+    private FakeTrack track;
+
+    @Setup
+    public void setUp() {
+        track = new FakeTrack(sampleSize);
+    }
+
+    @Benchmark
+    public long perSample(Blackhole hole) throws InterruptedException {
+        track.rewind();
+        EncodedSink sink   = new ConsumingSink(hole);
+        ByteBuffer  buffer = ByteBuffer.allocateDirect(16000);
+        int         offset = 100;
+        long        bytes  = 0;
+        while (true) {
+            int size = track.readSampleData(buffer, offset);
+            if (size < 0) {
+                break;
+            }
+            long timeUs = track.getSampleTime();
+            buffer.position(offset);
+            buffer.limit(offset + size);
+            sink.writeSample(buffer, offset, size, timeUs, track.getSampleFlags());
+            buffer.clear();
+            track.advance();
+            trace.log(TraceLog.LEVEL_VERBOSE, TraceLog.AUDIO_BATCH, timeUs, size);
+            bytes += size;
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public long batched(Blackhole hole) throws InterruptedException {
+        track.rewind();
+        SampleCopier copier = new SampleCopier(track, new ConsumingSink(hole), 2 * sampleSize, pool);
+        long         copied = 0;
+        int          count;
+        while ((count = copier.copyBatch()) >= 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            trace.log(TraceLog.LEVEL_VERBOSE, TraceLog.AUDIO_BATCH, copier.getLastTimeUs(), count);
+            copied += count;
+        }
+        copier.release();
+        return copied;
+    }
+
+    private static final class ConsumingSink implements EncodedSink {
+        private final Blackhole hole;
+
+        ConsumingSink(Blackhole hole) {
+            this.hole = hole;
+        }
+
+        @Override
+        public void onOutputFormatChanged() {
+        }
+
+        @Override
+        public void writeSample(ByteBuffer data, int offset, int size, long presentationTimeUs, int flags) {
+            hole.consume(data.get(offset + size - 1));
+            hole.consume(presentationTimeUs);
+        }
+
+        @Override
+        public void onEndOfStream() {
+        }
+    }
+
+    /**
+     * Reads like MediaExtractor: copies into the buffer at the offset and fails if the sample doesn't fit.
+     */
+    private static final class FakeTrack implements SampleSource {
+        private final byte[] payload;
+        private int index;
+
+        FakeTrack(int sampleSize) {
+            payload = new byte[sampleSize];
+            for (int i = 0; i < sampleSize; i++) {
+                payload[i] = (byte) i;
+            }
+        }
+
+        void rewind() {
+            index = 0;
+        }
+
+        @Override
+        public int readSampleData(ByteBuffer buffer, int offset) {
+            if (index >= SAMPLES) {
+                return -1;
+            }
+            if (buffer.capacity() - offset < payload.length) {
+                throw new IllegalArgumentException("buffer too small");
+            }
+            buffer.limit(buffer.capacity());
+            buffer.position(offset);
+            buffer.put(payload);
+            return payload.length;
+        }
+
+        @Override
+        public long getSampleTime() {
+            return index < SAMPLES ? index * FRAME : -1;
+        }
+
+        @Override
+        public int getSampleFlags() {
+            return 1;
+        }
+
+        @Override
+        public boolean advance() {
+            index++;
+            return index < SAMPLES;
+        }
+    }
+}